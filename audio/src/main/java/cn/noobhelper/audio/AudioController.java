@@ -15,6 +15,11 @@
  */
 package cn.noobhelper.audio;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -27,9 +32,13 @@ public class AudioController implements CommonHandlerListener, IAudio {
 
     private static final String AUDIO_THREAD_NAME = "AudioHandlerThread";
 
-    private AudioEngine mAudioEngine;
-    private HandlerThread mAudioThread;
-    private Handler mAudioHandler;
+    private volatile AudioEngine mAudioEngine;
+    private volatile HandlerThread mAudioThread;
+    private volatile Handler mAudioHandler;
+    private final FrameFanOut mFrameFanOut = new FrameFanOut();
+    private ScheduledExecutorService mStatsExecutor;
+    // >0 keeps the thread and AudioRecord alive after stopAudio for this long
+    private volatile long mWarmIdleTimeoutMs = 0;
 
     private static volatile AudioController sInstance;
 
@@ -52,32 +61,183 @@ public class AudioController implements CommonHandlerListener, IAudio {
     }
 
     public boolean isRunning() {
-        return mAudioThread != null && mAudioThread.isAlive();
+        HandlerThread audioThread = mAudioThread;
+        return audioThread != null && audioThread.isAlive();
+    }
+
+    /**
+     * Enables warm mode for push-to-talk style use. stopAudio then only
+     * pauses capture: the audio thread, the AudioRecord and the frame pools
+     * stay alive, startAudio resumes without setting anything up, and
+     * setupAudio reuses them while the settings are unchanged. Once capture
+     * has been stopped for {@code idleTimeoutMs} the AudioRecord and the frame
+     * pools are released; the thread, the callback and the subscribers stay,
+     * and the next setupAudio or startAudio opens a new AudioRecord.
+     * Compare {@link AudioStats#getColdStartTime()} and
+     * {@link AudioStats#getWarmStartTime()} to see the difference.
+     *
+     * @param idleTimeoutMs 0 turns warm mode off
+     */
+    public void setWarmStart(long idleTimeoutMs) {
+        mWarmIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Returns the frame pool of the current session, or null before the first
+     * start. Its counters report drops and the lease high-water mark.
+     */
+    public FramePool getFramePool() {
+        AudioEngine audioEngine = mAudioEngine;
+        return audioEngine != null ? audioEngine.getFramePool() : null;
+    }
+
+    /**
+     * Returns the dispatcher of the current session when it runs with
+     * {@link AudioParams#DISPATCH_MODE_ASYNC}, otherwise null.
+     */
+    public FrameDispatcher getFrameDispatcher() {
+        AudioEngine audioEngine = mAudioEngine;
+        return audioEngine != null ? audioEngine.getFrameDispatcher() : null;
+    }
+
+    /**
+     * Adds a subscriber that receives every captured frame next to the
+     * {@link AudioCallback} given to setupAudio. Subscribers can be added and
+     * removed at any time, including while capturing. Frames are shared with
+     * the other consumers, not copied, and must not be modified.
+     *
+     * @param executor      runs the callback; null delivers inline on the capture
+     *                      (or dispatch) thread without queueing
+     * @param deliveryPolicy {@link FrameSubscription#DELIVERY_LOSSY} or
+     *                      {@link FrameSubscription#DELIVERY_LOSSLESS}
+     * @param queueCapacity frames a lossy subscriber may fall behind before its
+     *                      oldest queued frame is dropped
+     */
+    public FrameSubscription addSubscriber(AudioFrameCallback callback, Executor executor, int deliveryPolicy,
+                                           int queueCapacity) {
+        return mFrameFanOut.add(callback, executor, deliveryPolicy, queueCapacity);
+    }
+
+    public boolean removeSubscriber(FrameSubscription subscription) {
+        return mFrameFanOut.remove(subscription);
+    }
+
+    /**
+     * Returns the captured stream as a {@link FrameFlow.Publisher}: each
+     * subscriber requests frames as it is ready for them, owns and releases
+     * every frame it is given, and is completed by releaseAudio. The same
+     * publisher serves every session of this controller.
+     */
+    public FramePublisher getFramePublisher() {
+        return mFrameFanOut.getPublisher();
+    }
+
+    /**
+     * Copies out up to the last {@code durationMs} of audio without pausing
+     * capture, or returns null when {@link AudioParams#setHistoryDurationMs(int)}
+     * was not set or nothing has been captured yet.
+     */
+    public AudioSnapshot snapshot(long durationMs) {
+        AudioEngine audioEngine = mAudioEngine;
+        return audioEngine != null ? audioEngine.snapshot(durationMs) : null;
+    }
+
+    /**
+     * Returns a snapshot of the capture metrics, or null when no session has
+     * been set up.
+     */
+    public AudioStats getStats() {
+        AudioEngine audioEngine = mAudioEngine;
+        return audioEngine != null ? audioEngine.getStats() : null;
+    }
+
+    /**
+     * Reports {@link #getStats()} to {@code listener} every {@code intervalMs}
+     * on a background thread. A null listener stops the reports.
+     */
+    public synchronized void setStatsListener(final AudioStatsListener listener, long intervalMs) {
+        if (mStatsExecutor != null) {
+            mStatsExecutor.shutdownNow();
+            mStatsExecutor = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        mStatsExecutor = Executors.newSingleThreadScheduledExecutor();
+        mStatsExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                AudioStats stats = getStats();
+                if (stats != null) {
+                    listener.onAudioStats(stats);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
     }
 
-    private void startAudioThread() {
-        mAudioThread = new HandlerThread(AUDIO_THREAD_NAME);
-        mAudioThread.start();
-        mAudioHandler = new AudioHandler(mAudioThread.getLooper(), this);
+    private Handler startAudioThread() {
+        HandlerThread audioThread = new HandlerThread(AUDIO_THREAD_NAME);
+        audioThread.start();
+        Handler audioHandler = new AudioHandler(audioThread.getLooper(), this);
+        mAudioThread = audioThread;
+        mAudioHandler = audioHandler;
+        return audioHandler;
     }
 
     public boolean setupAudio(AudioParams audioParams, AudioCallback audioCallback) {
-        if (isRunning()) {
+        return setupAudio(audioParams, null, audioCallback);
+    }
+
+    /**
+     * Like {@link #setupAudio(AudioParams, AudioCallback)}, but reads from
+     * {@code captureSource} instead of the microphone, e.g. a
+     * {@link FileCaptureSource} to push a recording through the same pipeline.
+     * The engine stops by itself at the end of the stream.
+     */
+    public boolean setupAudio(AudioParams audioParams, CaptureSource captureSource, AudioCallback audioCallback) {
+        // read once, a releaseAudio on the audio thread may clear them meanwhile
+        AudioEngine audioEngine = mAudioEngine;
+        Handler audioHandler = mAudioHandler;
+        boolean warm = mWarmIdleTimeoutMs > 0 && audioEngine != null && audioHandler != null;
+        if (isRunning() && !warm) {
             Log.e(TAG, "setupAudio error! As last audio thread is alive!");
             return false;
         }
-        if (mAudioEngine == null) {
-            mAudioEngine = new AudioEngine();
+        if (warm && audioEngine.isRecording()) {
+            Log.e(TAG, "setupAudio error! Capture is still running, stopAudio first!");
+            return false;
+        }
+        if (audioEngine == null) {
+            audioEngine = new AudioEngine(mFrameFanOut);
+            mAudioEngine = audioEngine;
+        }
+        audioEngine.markStartRequested(System.nanoTime());
+        if (warm) {
+            audioHandler.removeMessages(AudioHandler.MSG_IDLE_TIMEOUT);
+        } else {
+            audioHandler = startAudioThread();
+        }
+        // Source and callback are swapped on the audio thread, after a capture
+        // loop that is still winding down has let go of the old source.
+        if (!audioHandler.sendMessage(audioHandler.obtainMessage(AudioHandler.MSG_SETUP_AUDIO_ENGINE,
+                new SetupRequest(audioParams, captureSource, audioCallback)))) {
+            Log.e(TAG, "setupAudio error! The audio thread has quit!");
+            return false;
         }
-        mAudioEngine.setAudioCallback(audioCallback);
-        startAudioThread();
-        mAudioHandler.sendMessage(mAudioHandler.obtainMessage(AudioHandler.MSG_SETUP_AUDIO_ENGINE, audioParams));
         return true;
     }
 
     public void startAudio() {
-        if (mAudioHandler != null) {
-            mAudioHandler.sendMessage(mAudioHandler.obtainMessage(AudioHandler.MSG_START_AUDIO_ENGINE));
+        AudioEngine audioEngine = mAudioEngine;
+        if (audioEngine != null) {
+            audioEngine.markStartRequested(System.nanoTime());
+        }
+        Handler audioHandler = mAudioHandler;
+        if (audioHandler != null && audioEngine != null) {
+            audioHandler.removeMessages(AudioHandler.MSG_IDLE_TIMEOUT);
+            // a stopAudio before the message is handled cancels this start
+            audioHandler.sendMessage(audioHandler.obtainMessage(AudioHandler.MSG_START_AUDIO_ENGINE,
+                    audioEngine.getStopCount(), 0));
         }
     }
 
@@ -86,13 +246,46 @@ public class AudioController implements CommonHandlerListener, IAudio {
         // so we must change the state in another thread.
         // mAudioHandler.sendMessage(mAudioHandler.obtainMessage(AudioHandler.MSG_STOP_AUDIO_ENGINE));
         handleStopAudioEngine();
+        long idleTimeoutMs = mWarmIdleTimeoutMs;
+        Handler audioHandler = mAudioHandler;
+        if (idleTimeoutMs > 0 && audioHandler != null) {
+            audioHandler.removeMessages(AudioHandler.MSG_IDLE_TIMEOUT);
+            audioHandler.sendEmptyMessageDelayed(AudioHandler.MSG_IDLE_TIMEOUT, idleTimeoutMs);
+        }
+    }
+
+    /**
+     * Applies new settings without a stop/setup/start round trip, see
+     * {@link AudioEngine#reconfigureAudioEngine(AudioParams)}.
+     */
+    public void reconfigureAudio(AudioParams audioParams) {
+        AudioEngine audioEngine = mAudioEngine;
+        if (audioEngine != null) {
+            audioEngine.reconfigureAudioEngine(audioParams);
+        }
+    }
+
+    /**
+     * Replaces the stages applied to every frame before delivery, the same
+     * as reconfiguring with {@link AudioParams#setProcessorChain(ProcessorChain)};
+     * null removes them.
+     */
+    public void setProcessorChain(ProcessorChain processorChain) {
+        AudioEngine audioEngine = mAudioEngine;
+        if (audioEngine != null) {
+            audioEngine.setProcessorChain(processorChain);
+        }
     }
 
     @Override
     public void releaseAudio() {
-        if (mAudioHandler != null) {
-            mAudioHandler.sendMessage(mAudioHandler.obtainMessage(AudioHandler.MSG_RELEASE_AUDIO_ENGINE));
-            mAudioHandler.sendMessage(mAudioHandler.obtainMessage(AudioHandler.MSG_QUIT));
+        Handler audioHandler = mAudioHandler;
+        if (audioHandler != null) {
+            // the release message queues behind a running capture loop
+            handleStopAudioEngine();
+            audioHandler.removeMessages(AudioHandler.MSG_IDLE_TIMEOUT);
+            audioHandler.sendMessage(audioHandler.obtainMessage(AudioHandler.MSG_RELEASE_AUDIO_ENGINE));
+            audioHandler.sendMessage(audioHandler.obtainMessage(AudioHandler.MSG_QUIT));
         }
     }
 
@@ -100,10 +293,10 @@ public class AudioController implements CommonHandlerListener, IAudio {
     public void handleMessage(Message msg) {
         switch (msg.what) {
             case AudioHandler.MSG_SETUP_AUDIO_ENGINE:
-                handleSetupAudioEngine((AudioParams) msg.obj);
+                handleSetupAudioEngine((SetupRequest) msg.obj);
                 break;
             case AudioHandler.MSG_START_AUDIO_ENGINE:
-                handleStartAudioEngine();
+                handleStartAudioEngine(msg.arg1);
                 break;
             case AudioHandler.MSG_STOP_AUDIO_ENGINE:
                 handleStopAudioEngine();
@@ -114,20 +307,25 @@ public class AudioController implements CommonHandlerListener, IAudio {
             case AudioHandler.MSG_QUIT:
                 handleQuit();
                 break;
+            case AudioHandler.MSG_IDLE_TIMEOUT:
+                handleIdleTimeout();
+                break;
             default:
                 break;
         }
     }
 
-    private void handleSetupAudioEngine(AudioParams audioParams) {
+    private void handleSetupAudioEngine(SetupRequest request) {
         if (mAudioEngine != null) {
-            mAudioEngine.setupAudioEngine(audioParams);
+            mAudioEngine.setCaptureSource(request.mCaptureSource);
+            mAudioEngine.setAudioCallback(request.mAudioCallback);
+            mAudioEngine.setupAudioEngine(request.mAudioParams);
         }
     }
 
-    private void handleStartAudioEngine() {
+    private void handleStartAudioEngine(int stopCount) {
         if (mAudioEngine != null) {
-            mAudioEngine.startAudioEngine();
+            mAudioEngine.startAudioEngine(stopCount);
         }
     }
 
@@ -144,19 +342,41 @@ public class AudioController implements CommonHandlerListener, IAudio {
         mAudioEngine = null;
     }
 
+    private void handleIdleTimeout() {
+        // keeps the thread, the engine and this instance for the next setupAudio
+        AudioEngine audioEngine = mAudioEngine;
+        if (audioEngine != null) {
+            audioEngine.releaseIdleCaptureSource();
+        }
+    }
+
     private void handleQuit() {
+        setStatsListener(null, 0);
         mAudioThread.getLooper().quit();
         mAudioThread = null;
         mAudioHandler = null;
         sInstance = null;
     }
 
+    private static final class SetupRequest {
+        final AudioParams mAudioParams;
+        final CaptureSource mCaptureSource;
+        final AudioCallback mAudioCallback;
+
+        SetupRequest(AudioParams audioParams, CaptureSource captureSource, AudioCallback audioCallback) {
+            mAudioParams = audioParams;
+            mCaptureSource = captureSource;
+            mAudioCallback = audioCallback;
+        }
+    }
+
     private static class AudioHandler extends Handler {
         public static final int MSG_SETUP_AUDIO_ENGINE = 1001;
         public static final int MSG_START_AUDIO_ENGINE = 1002;
         public static final int MSG_STOP_AUDIO_ENGINE = 1003;
         public static final int MSG_RELEASE_AUDIO_ENGINE = 1004;
         public static final int MSG_QUIT = 1005;
+        public static final int MSG_IDLE_TIMEOUT = 1006;
 
         private CommonHandlerListener listener;
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental encoder for interleaved 16-bit PCM. Every call turns one frame
+ * into one self-contained packet, so a decoder can start at any packet.
+ * Implementations keep all working state preallocated and never allocate in
+ * {@link #encode}.
+ */
+public interface AudioEncoder {
+    /**
+     * Encodes {@code sampleCount} interleaved samples (a multiple of the
+     * channel count) into {@code packet} at its position.
+     *
+     * @return number of bytes written
+     */
+    int encode(short[] samples, int offset, int sampleCount, ByteBuffer packet);
+
+    /**
+     * Upper bound of the packet size for {@code sampleCount} samples.
+     */
+    int getMaxPacketSize(int sampleCount);
+
+    int getChannelCount();
+
+    void reset();
+}
@@ -16,44 +16,173 @@
 package cn.noobhelper.audio;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.util.Log;
 
 class AudioEngine {
     private static final String TAG = AudioEngine.class.getSimpleName();
+    // shortest park between non-blocking reads that found too little data
+    private static final long MIN_READ_WAIT_NANOS = 500000L;
 
-    private AudioRecord mAudioRecord;
+    private CaptureSource mCaptureSource;
+    // the source is an AudioRecord created here and may be kept warm
+    private boolean mOwnsCaptureSource = false;
+    // the next start runs on a freshly created source
+    private boolean mColdStart = true;
+    // System.nanoTime() of the pending start request, 0 when none
+    private final AtomicLong mStartRequestNanos = new AtomicLong();
     private AudioParams mAudioParams;
     private byte[] mInputBuffer = null;
-    private ArrayList<ByteBuffer> mByteBufferList = null;
-    private int mCurrentFrameNum = 0;
+    // direct mode reads dropped frames here to keep draining the source
+    private ByteBuffer mDiscardBuffer = null;
+    // typed modes read here when a frame is dropped or needs a format conversion
+    private short[] mShortBuffer = null;
+    private float[] mFloatBuffer = null;
+    private boolean mFloatSource = false;
+    private ChannelMixer mChannelMixer = null;
+    private PolyphaseResampler mResampler = null;
+    private FrameProcessor mFrameProcessor = null;
+    // only used by the thread that delivers frames
+    private volatile FeatureExtractor mFeatureExtractor = null;
+    private FeatureCallback mFeatureCallback = null;
+    private volatile ChannelSplitter mChannelSplitter = null;
+    private volatile FramePool mFramePool = null;
+    private volatile FrameDispatcher mFrameDispatcher = null;
+    private volatile VoiceActivityGate mVoiceActivityGate = null;
+    private volatile FrameBatcher mFrameBatcher = null;
+    private BufferTuner mBufferTuner = null;
+    private volatile AudioHistory mAudioHistory = null;
+    private long mFrameSequence = 0;
     private AudioCallback mAudioCallback;
-    private static volatile boolean mRecording = false;
+    private final FrameFanOut mFrameFanOut;
+    private final AudioMetrics mMetrics = new AudioMetrics();
+    private final AudioFrameCallback mDeliveryCallback = new AudioFrameCallback() {
+        @Override
+        public void onAudioFrameAvailable(AudioFrame frame) {
+            deliverFrame(frame);
+        }
+    };
+    private final AudioFrameCallback mBatchCallback = new AudioFrameCallback() {
+        @Override
+        public void onAudioFrameAvailable(AudioFrame frame) {
+            batchFrame(frame);
+        }
+    };
+    private final AudioFrameCallback mDispatchCallback = new AudioFrameCallback() {
+        @Override
+        public void onAudioFrameAvailable(AudioFrame frame) {
+            dispatchFrame(frame);
+        }
+    };
+    // frames still queued for delivery, taken back under POOL_POLICY_DROP_OLDEST
+    private final FramePool.Reclaimer mFrameReclaimer = new FramePool.Reclaimer() {
+        @Override
+        public boolean reclaim(AudioFrame frame) {
+            // a frame waiting in the dispatch ring has not reached any subscriber yet
+            FrameDispatcher frameDispatcher = mFrameDispatcher;
+            if (frameDispatcher != null && frameDispatcher.reclaim(frame)) {
+                return true;
+            }
+            return mFrameFanOut.reclaim(frame);
+        }
+    };
+    // batches are leased on the delivering thread and never enter the dispatch ring
+    private final FramePool.Reclaimer mBatchReclaimer = new FramePool.Reclaimer() {
+        @Override
+        public boolean reclaim(AudioFrame frame) {
+            return mFrameFanOut.reclaim(frame);
+        }
+    };
+    private volatile boolean mRecording = false;
+    // commands picked up by the capture loop between reads
+    private final AtomicReference<AudioParams> mPendingAudioParams = new AtomicReference<>();
+    private volatile boolean mReleaseRequested = false;
+    private final AtomicLong mStopRequestNanos = new AtomicLong();
+    // bumped by every stop request, so that a start queued before it can tell
+    private final AtomicInteger mStopCount = new AtomicInteger();
+    private volatile Thread mCaptureThread;
+    // sample frames read since the source started, kept across reconfigures
+    private long mSamplesRead;
 
     public AudioEngine() {
+        this(new FrameFanOut());
+    }
+
+    AudioEngine(FrameFanOut frameFanOut) {
+        mFrameFanOut = frameFanOut;
     }
 
     public void setAudioCallback(AudioCallback audioCallback) {
         this.mAudioCallback = audioCallback;
     }
 
-    public void setupAudioEngine(AudioParams audioParams) {
-        int minBufferSize = AudioRecord.getMinBufferSize(audioParams.getSampleRate(), audioParams.getChannelConfig(),
-                audioParams.getAudioFormat());
-        if (audioParams.getFrameSize() < minBufferSize) {
-            int optimalFrameSize =
-                    ((minBufferSize / AudioParams.SAMPLES_PER_FRAME) + 1) * AudioParams.SAMPLES_PER_FRAME * 2;
-            audioParams.setFrameSize(optimalFrameSize);
+    /**
+     * Replaces the AudioRecord that {@link #setupAudioEngine(AudioParams)} would
+     * otherwise create, e.g. with a file replay or a synthetic source.
+     */
+    void setCaptureSource(CaptureSource captureSource) {
+        if (captureSource == null && mOwnsCaptureSource) {
+            // keep the warm AudioRecord; setupAudioEngine checks it still fits
+            return;
         }
+        if (mOwnsCaptureSource) {
+            mCaptureSource.release();
+            mOwnsCaptureSource = false;
+        }
+        if (captureSource != mCaptureSource) {
+            mColdStart = true;
+        }
+        this.mCaptureSource = captureSource;
+    }
 
-        mAudioRecord = new AudioRecord(
-                audioParams.getAudioSource(),       // source
-                audioParams.getSampleRate(),        // sample rate, hz
-                audioParams.getChannelConfig(),     // channel config
-                audioParams.getAudioFormat(),       // audio format
-                audioParams.getAudioBufferSize());  // buffer size (bytes)
+    /**
+     * Marks the moment a start was asked for, unless one is already pending,
+     * so that the first frame of the session can report its start-up time.
+     */
+    void markStartRequested(long nanos) {
+        mStartRequestNanos.compareAndSet(0, nanos);
+    }
+
+    /**
+     * Resolves the frame size in bytes into {@code audioParams}, see
+     * {@link AudioParams#computeFrameSize()}, and prepares the capture
+     * source for it.
+     */
+    public void setupAudioEngine(AudioParams audioParams) {
+        audioParams.setFrameSize(audioParams.computeFrameSize());
+        if (mCaptureSource == null || mOwnsCaptureSource) {
+            int minBufferSize = AudioRecord.getMinBufferSize(audioParams.getSampleRate(),
+                    audioParams.getChannelConfig(), audioParams.getAudioFormat());
+            boolean timedFrames = audioParams.getFrameSampleCount() > 0 || audioParams.getFrameDurationMs() > 0;
+            if (timedFrames) {
+                // keep the frame length asked for, only the record buffer has to be big enough
+                if (audioParams.getAudioBufferSize() < minBufferSize) {
+                    audioParams.setAudioBufferSize(minBufferSize);
+                }
+            } else if (audioParams.getFrameSize() < minBufferSize) {
+                int bytesPerSampleFrame = audioParams.getBytesPerSampleFrame();
+                int minSampleFrames = (minBufferSize + bytesPerSampleFrame - 1) / bytesPerSampleFrame;
+                int optimalFrameSize = ((minSampleFrames / AudioParams.SAMPLES_PER_FRAME) + 1)
+                        * AudioParams.SAMPLES_PER_FRAME * bytesPerSampleFrame;
+                audioParams.setFrameSize(optimalFrameSize);
+            }
+            if (mCaptureSource != null && !((AudioRecordSource) mCaptureSource).matches(audioParams)) {
+                mCaptureSource.release();
+                mCaptureSource = null;
+            }
+            if (mCaptureSource == null) {
+                mCaptureSource = new AudioRecordSource(audioParams);
+                mOwnsCaptureSource = true;
+                mColdStart = true;
+            }
+        }
 
         mAudioParams = audioParams;
 
@@ -62,89 +191,903 @@ class AudioEngine {
         }
     }
 
+    /**
+     * Read when a start is requested on another thread and passed to
+     * {@link #startAudioEngine(int)} once that thread gets to it.
+     */
+    int getStopCount() {
+        return mStopCount.get();
+    }
+
     public void startAudioEngine() {
+        startAudioEngine(mStopCount.get());
+    }
+
+    /**
+     * Runs the capture loop unless {@link #stopAudioEngine()} has been called
+     * since {@code stopCount} was read with {@link #getStopCount()}. A stop
+     * that comes in while the source is being opened ends the loop as well.
+     */
+    void startAudioEngine(int stopCount) {
+        if (mStopCount.get() != stopCount) {
+            mStartRequestNanos.set(0);
+            return;
+        }
+        markStartRequested(System.nanoTime());
+        mStopRequestNanos.set(0);
+        mCaptureThread = Thread.currentThread();
+        AudioParams pendingAudioParams = mPendingAudioParams.getAndSet(null);
+        if (pendingAudioParams != null) {
+            setupAudioEngine(pendingAudioParams);
+        } else if (mCaptureSource == null && mAudioParams != null) {
+            // released by releaseIdleCaptureSource(), open it again
+            setupAudioEngine(mAudioParams);
+        }
         startAudioRecord();
-        readBackAudioFrame();
+        if (mStopCount.get() != stopCount) {
+            // stopAudioEngine() bumps the count before it clears mRecording
+            mRecording = false;
+        }
+        while (readBackAudioFrame()) {
+            applyPendingAudioParams();
+        }
+        mCaptureThread = null;
+        if (mReleaseRequested) {
+            mReleaseRequested = false;
+            releaseAudioEngine();
+        }
     }
 
     public void stopAudioEngine() {
+        mStopRequestNanos.compareAndSet(0, System.nanoTime());
+        mStopCount.incrementAndGet();
         mRecording = false;
+        mFrameFanOut.setCapturing(false);
+        FramePool framePool = mFramePool;
+        if (framePool != null) {
+            framePool.close();
+        }
+        FrameBatcher frameBatcher = mFrameBatcher;
+        if (frameBatcher != null) {
+            frameBatcher.getFramePool().close();
+        }
+        wakeCaptureThread();
+    }
+
+    /**
+     * Changes the settings of a running session. The capture loop finishes
+     * the current frame, rebuilds pools and stages for the new settings and
+     * carries on; the AudioRecord is only rebuilt when the source, rate,
+     * channels, format or buffer size change. When not capturing, the
+     * settings are used by the next start. With
+     * {@link AudioParams#READ_MODE_NON_BLOCKING} this takes at most about
+     * one frame period, otherwise up to one blocking read.
+     */
+    public void reconfigureAudioEngine(AudioParams audioParams) {
+        mPendingAudioParams.set(audioParams);
+        wakeCaptureThread();
+    }
+
+    /**
+     * Replaces the processor chain, see {@link #reconfigureAudioEngine(AudioParams)}.
+     * Does nothing before the engine has been set up.
+     */
+    public void setProcessorChain(ProcessorChain processorChain) {
+        AudioParams current = mPendingAudioParams.get();
+        if (current == null) {
+            current = mAudioParams;
+        }
+        if (current == null) {
+            return;
+        }
+        AudioParams audioParams = new AudioParams(current);
+        audioParams.setProcessorChain(processorChain);
+        reconfigureAudioEngine(audioParams);
+    }
+
+    private void wakeCaptureThread() {
+        Thread captureThread = mCaptureThread;
+        if (captureThread != null) {
+            LockSupport.unpark(captureThread);
+        }
+    }
+
+    private boolean hasPendingCommand() {
+        return !mRecording || mPendingAudioParams.get() != null;
+    }
+
+    /**
+     * Applies settings picked up between reads; the capture source is still
+     * running.
+     */
+    private void applyPendingAudioParams() {
+        AudioParams audioParams = mPendingAudioParams.getAndSet(null);
+        if (audioParams == null) {
+            return;
+        }
+        CaptureSource captureSource = mCaptureSource;
+        setupAudioEngine(audioParams);
+        if (mCaptureSource != captureSource) {
+            // the old record was released by setup; start the new one
+            startAudioRecord();
+        }
     }
 
+    /**
+     * True from start until a stop is requested.
+     */
+    boolean isRecording() {
+        return mRecording;
+    }
+
+    FrameFanOut getFrameFanOut() {
+        return mFrameFanOut;
+    }
+
+    public FramePool getFramePool() {
+        return mFramePool;
+    }
+
+    public FrameDispatcher getFrameDispatcher() {
+        return mFrameDispatcher;
+    }
+
+    /**
+     * Copies out up to the last {@code durationMs} of delivered audio, or
+     * returns null when {@link AudioParams#getHistoryDurationMs()} is 0 or
+     * nothing has been captured yet. Keeps working after capture stops.
+     */
+    public AudioSnapshot snapshot(long durationMs) {
+        AudioHistory audioHistory = mAudioHistory;
+        return audioHistory != null ? audioHistory.snapshot(durationMs) : null;
+    }
+
+    public AudioStats getStats() {
+        return new AudioStats(mMetrics, mFramePool, mFrameDispatcher);
+    }
+
+    /**
+     * Releases the capture source. While capturing, capture is stopped and
+     * the release happens on the capture thread once the loop has ended.
+     */
     public void releaseAudioEngine() {
-        if (!mRecording) {
-            mAudioRecord.release();
-            mAudioRecord = null;
+        if (mRecording || mCaptureThread != null) {
+            mReleaseRequested = true;
+            stopAudioEngine();
+            return;
+        }
+        if (mCaptureSource != null || mAudioParams != null) {
+            if (mCaptureSource != null) {
+                mCaptureSource.release();
+                mCaptureSource = null;
+            }
+            mOwnsCaptureSource = false;
+            mColdStart = true;
+            mFramePool = null;
+            mAudioHistory = null;
+            mAudioParams = null;
             if (mAudioCallback != null) {
                 mAudioCallback.onAudioRelease();
             }
             mAudioCallback = null;
+            mFrameFanOut.complete();
         }
     }
 
-    private void startAudioRecord() {
-        boolean result = false;
-        if (mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-            try {
-                mAudioRecord.startRecording();
-                if (mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                    result = true;
-                }
-            } catch (IllegalStateException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Frees the AudioRecord kept warm between sessions and the frame pool,
+     * but keeps the settings, the callback and the subscribers. The next
+     * setup or start opens a new AudioRecord. Does nothing while capturing
+     * or when the source was handed in with {@link #setCaptureSource}.
+     */
+    void releaseIdleCaptureSource() {
+        if (mRecording || mCaptureThread != null || !mOwnsCaptureSource) {
+            return;
         }
+        mCaptureSource.release();
+        mCaptureSource = null;
+        mOwnsCaptureSource = false;
+        mColdStart = true;
+        mFramePool = null;
+    }
+
+    private void startAudioRecord() {
+        boolean result = mCaptureSource.start();
         mRecording = result;
+        mFrameFanOut.setCapturing(result);
+        mSamplesRead = 0;
+        if (!result) {
+            mStartRequestNanos.set(0);
+        }
 
         if (mAudioCallback != null) {
             mAudioCallback.onAudioStart(result);
         }
     }
 
-    private void readBackAudioFrame() {
+    /**
+     * Runs the capture loop until capture stops or new settings are pending.
+     *
+     * @return true when the loop ended for new settings and the capture
+     * source is still running
+     */
+    private boolean readBackAudioFrame() {
         if (mAudioParams.getFrameSize() <= 0) {
-            return;
+            return false;
         }
 
-        if (mByteBufferList == null) {
-            mByteBufferList = new ArrayList<>();
-            for (int i = 0; i < mAudioParams.getFrameBufferCount(); i++) {
-                mByteBufferList.add(ByteBuffer.allocate(mAudioParams.getFrameSize()));
+        int bytesPerSample = mAudioParams.getBytesPerSample();
+        int samplesPerFrame = mAudioParams.getFrameSize() / bytesPerSample;
+        int bufferType = getBufferType(mAudioParams);
+        int sampleRate = mCaptureSource.getSampleRate();
+        int channelCount = mAudioParams.getChannelCount();
+        ChannelMixer channelMixer = setupChannelMixer();
+        // what is left of a frame once the mixer dropped the other channels
+        int mixedSamplesPerFrame = channelMixer != null ? samplesPerFrame / channelCount : samplesPerFrame;
+        PolyphaseResampler resampler = setupResampler(sampleRate, mixedSamplesPerFrame);
+        FrameProcessor frameProcessor = setupFrameProcessor();
+        setupFeatureExtractor();
+        // resampling happens in place, so frames must also hold the output
+        int frameSamples = resampler != null
+                ? Math.max(samplesPerFrame, resampler.getMaxOutputSamples(mixedSamplesPerFrame)) : samplesPerFrame;
+        int frameBytes = Math.max(mAudioParams.getFrameSize(), frameSamples * bytesPerSample);
+        setupChannelSplitter(bufferType, bytesPerSample, frameSamples);
+        // frames held back as VAD pre-roll come on top of the configured count
+        int holdFrameCount = VoiceActivityGate.getHoldFrameCount(mAudioParams, sampleRate, samplesPerFrame);
+        BufferTuner bufferTuner = setupBufferTuner();
+        int baseFrameCount = bufferTuner != null
+                ? bufferTuner.getFrameCount(samplesPerFrame / channelCount * 1000000000L / sampleRate)
+                : mAudioParams.getFrameBufferCount();
+        int maxFrameCount = bufferTuner != null
+                ? bufferTuner.getMaxFrameCount() : mAudioParams.getMaxFrameBufferCount();
+        int frameCount = baseFrameCount + holdFrameCount;
+        if (mFramePool == null || !mFramePool.matches(frameBytes, frameSamples, bufferType)
+                || bufferTuner == null && mFramePool.getFrameCount() < frameCount) {
+            mFramePool = new FramePool(frameBytes, frameSamples, bufferType, frameCount,
+                    maxFrameCount + holdFrameCount, mAudioParams.getFramePoolPolicy());
+            mFramePool.setReclaimer(mFrameReclaimer);
+        } else if (bufferTuner != null) {
+            // what the tuner learned last session, either way
+            mFramePool.setFrameCount(frameCount);
+        }
+        FramePool framePool = mFramePool;
+        framePool.open();
+
+        boolean nonBlocking = false;
+        if (mAudioParams.getReadMode() == AudioParams.READ_MODE_NON_BLOCKING) {
+            nonBlocking = mCaptureSource.setNonBlocking(true);
+            if (!nonBlocking) {
+                Log.w(TAG, "Non-blocking read not supported, falling back to blocking read");
             }
+        } else {
+            mCaptureSource.setNonBlocking(false);
+        }
+
+        mFloatSource = mAudioParams.getAudioFormat() == AudioFormat.ENCODING_PCM_FLOAT;
+        switch (bufferType) {
+            case FramePool.BUFFER_DIRECT:
+                if (nonBlocking && mInputBuffer == null) {
+                    // partial reads cannot land at an offset in a direct buffer
+                    mInputBuffer = new byte[mAudioParams.getFrameSize()];
+                }
+                if (mDiscardBuffer == null) {
+                    mDiscardBuffer =
+                            ByteBuffer.allocateDirect(mAudioParams.getFrameSize()).order(ByteOrder.nativeOrder());
+                }
+                break;
+            case FramePool.BUFFER_SHORT:
+            case FramePool.BUFFER_FLOAT:
+                if (mFloatSource && mFloatBuffer == null) {
+                    mFloatBuffer = new float[samplesPerFrame];
+                } else if (!mFloatSource && mShortBuffer == null) {
+                    mShortBuffer = new short[samplesPerFrame];
+                }
+                break;
+            case FramePool.BUFFER_HEAP:
+            default:
+                if (mInputBuffer == null) {
+                    mInputBuffer = new byte[mAudioParams.getFrameSize()];
+                }
+                break;
+        }
+
+        AudioHistory audioHistory = setupHistory(bufferType, bytesPerSample, frameSamples);
+
+        VoiceActivityGate voiceActivityGate = null;
+        if (mAudioParams.getVadMode() != AudioParams.VAD_MODE_OFF) {
+            AudioCallback audioCallback = mAudioCallback;
+            voiceActivityGate = new VoiceActivityGate(
+                    new VoiceActivityDetector(mAudioParams.getOutputSampleRate(), mAudioParams.getOutputChannelCount(),
+                            mAudioParams.getVadHangoverMs()),
+                    mAudioParams.getVadMode(), holdFrameCount, bytesPerSample, mBatchCallback,
+                    audioCallback instanceof VoiceActivityCallback ? (VoiceActivityCallback) audioCallback : null,
+                    mMetrics.mFramesSuppressed);
+        }
+        mVoiceActivityGate = voiceActivityGate;
+
+        FrameBatcher frameBatcher = setupBatcher(frameBytes, frameSamples, bufferType);
+        mMetrics.mFrameSize = mAudioParams.getFrameSize();
+        mMetrics.mFrameSampleCount = samplesPerFrame / mAudioParams.getChannelCount();
+        mMetrics.mBatchFrameCount = frameBatcher != null ? frameBatcher.getBatchFrameCount() : 1;
+
+        FrameDispatcher frameDispatcher = null;
+        if (mAudioParams.getDispatchMode() == AudioParams.DISPATCH_MODE_ASYNC) {
+            // Keep a couple of frames out of the ring so that a full ring, not
+            // an exhausted pool, is what a slow consumer runs into first.
+            frameDispatcher = new FrameDispatcher(baseFrameCount - 2,
+                    (bufferTuner != null ? maxFrameCount : baseFrameCount) - 2, mDeliveryCallback);
+            frameDispatcher.start();
         }
+        mFrameDispatcher = frameDispatcher;
 
-        mCurrentFrameNum = 0;
-        if (mInputBuffer == null) {
-            mInputBuffer = new byte[mAudioParams.getFrameSize()];
+        if (bufferTuner != null) {
+            // only a record the engine built itself can be rebuilt with another buffer size
+            int recordBufferSize = mOwnsCaptureSource ? mAudioParams.getAudioBufferSize() : 0;
+            int minRecordBufferSize = mOwnsCaptureSource ? AudioRecord.getMinBufferSize(mAudioParams.getSampleRate(),
+                    mAudioParams.getChannelConfig(), mAudioParams.getAudioFormat()) : 0;
+            AudioCallback audioCallback = mAudioCallback;
+            bufferTuner.begin(framePool, frameDispatcher, holdFrameCount, recordBufferSize, minRecordBufferSize,
+                    sampleRate, mAudioParams.getBytesPerSampleFrame(),
+                    audioCallback instanceof BufferTuneCallback ? (BufferTuneCallback) audioCallback : null);
         }
 
-        long presentationTimeNs = System.nanoTime();
-        while (mRecording) {
-            int inputLength = mAudioRecord.read(mInputBuffer, 0, mInputBuffer.length);
-            ByteBuffer outputBuffer = mByteBufferList.get(mCurrentFrameNum);
-            if (inputLength == AudioRecord.ERROR_INVALID_OPERATION) {
+        long timestampBaseNs = mCaptureSource.getTimestampBaseNanos();
+        if (resampler != null) {
+            // the filter output lags its input by the group delay
+            timestampBaseNs -= resampler.getDelayNanos();
+        }
+        long samplesRead = mSamplesRead;
+        while (mRecording && mPendingAudioParams.get() == null) {
+            AudioFrame frame = framePool.lease();
+            long readStartNs = System.nanoTime();
+            int sampleCount;
+            if (nonBlocking) {
+                sampleCount = readNonBlocking(frame, bufferType, samplesPerFrame, bytesPerSample, sampleRate);
+            } else {
+                sampleCount = readBlocking(frame, bufferType, samplesPerFrame, bytesPerSample);
+            }
+            long readEndNs = System.nanoTime();
+            mMetrics.mReadTime.record(readEndNs - readStartNs);
+            if (sampleCount == CaptureSource.END_OF_STREAM) {
+                mRecording = false;
+            } else if (sampleCount == CaptureSource.ERROR_INVALID_OPERATION) {
+                mMetrics.mInvalidOperationCount.incrementAndGet();
                 Log.e(TAG, "Audio read error");
-            } else if (mAudioCallback != null && outputBuffer != null && outputBuffer.capacity() >= inputLength) {
-                presentationTimeNs += (inputLength / 2 * 1000000000L / mAudioRecord.getSampleRate());
-                outputBuffer.clear();
-                outputBuffer.position(0);
-                outputBuffer.put(mInputBuffer, 0, inputLength);
-                outputBuffer.flip();
-                mAudioCallback.onAudioFrameAvailable(outputBuffer, inputLength, presentationTimeNs);
+            } else if (sampleCount < 0) {
+                mMetrics.mReadErrorCount.incrementAndGet();
+            } else if (sampleCount > 0) {
+                mMetrics.mFramesCaptured.incrementAndGet();
+                if (mStartRequestNanos.get() != 0) {
+                    recordStartTime(readEndNs);
+                }
+                mMetrics.mSamplesCaptured.addAndGet(sampleCount);
+                if (sampleCount < samplesPerFrame) {
+                    mMetrics.mShortReadCount.incrementAndGet();
+                }
+                if (bufferTuner != null) {
+                    int recordBufferSize = bufferTuner.onRead(readEndNs,
+                            sampleCount / channelCount * 1000000000L / sampleRate, sampleCount < samplesPerFrame);
+                    if (recordBufferSize > 0) {
+                        AudioParams tunedAudioParams = new AudioParams(mAudioParams);
+                        tunedAudioParams.setAudioBufferSize(recordBufferSize);
+                        // a reconfigure asked for by the app wins
+                        mPendingAudioParams.compareAndSet(null, tunedAudioParams);
+                    }
+                }
+                long frameDurationNs = sampleCount / channelCount * 1000000000L / sampleRate;
+                // derived from the sample position so rounding never accumulates
+                samplesRead += sampleCount / channelCount;
+                // split so that samplesRead * 10^9 cannot overflow on long sessions
+                long presentationTimeNs = timestampBaseNs + samplesRead / sampleRate * 1000000000L
+                        + samplesRead % sampleRate * 1000000000L / sampleRate;
+                if (frame == null) {
+                    mMetrics.mFramesDropped.incrementAndGet();
+                } else {
+                    int frameSampleCount = sampleCount;
+                    if (channelMixer != null) {
+                        frameSampleCount = mix(channelMixer, frame, frameSampleCount, bytesPerSample);
+                    }
+                    if (resampler != null) {
+                        frameSampleCount = resample(resampler, frame, frameSampleCount, bytesPerSample);
+                    }
+                    if (frameProcessor != null) {
+                        long processStartNs = System.nanoTime();
+                        process(frameProcessor, frame, frameSampleCount, bytesPerSample);
+                        mMetrics.mProcessTime.record(System.nanoTime() - processStartNs);
+                    }
+                    frame.set(frameSampleCount * bytesPerSample, frameSampleCount, presentationTimeNs,
+                            mFrameSequence, readEndNs - frameDurationNs);
+                    if (audioHistory != null) {
+                        audioHistory.write(frame);
+                    }
+                    if (frameDispatcher != null) {
+                        frameDispatcher.publish(frame);
+                        frame = null;
+                    } else {
+                        deliverFrame(frame);
+                    }
+                }
+                mFrameSequence++;
+            }
+            if (frame != null) {
+                frame.release();
             }
-            mCurrentFrameNum++;
-            mCurrentFrameNum %= mAudioParams.getFrameBufferCount();
         }
 
-        mByteBufferList = null;
+        if (frameDispatcher != null) {
+            frameDispatcher.stop();
+        }
+        if (voiceActivityGate != null) {
+            voiceActivityGate.close();
+            mVoiceActivityGate = null;
+        }
+        if (frameBatcher != null) {
+            frameBatcher.flush();
+        }
         mInputBuffer = null;
-        try {
-            mAudioRecord.stop();
-        } catch (Exception e) {
-            e.printStackTrace();
+        mDiscardBuffer = null;
+        mShortBuffer = null;
+        mFloatBuffer = null;
+        mSamplesRead = samplesRead;
+        if (mRecording) {
+            // new settings are pending, the source keeps running
+            return true;
+        }
+        mCaptureSource.stop();
+        long stopRequestNanos = mStopRequestNanos.getAndSet(0);
+        if (stopRequestNanos != 0) {
+            mMetrics.mStopTime.record(System.nanoTime() - stopRequestNanos);
         }
         if (mAudioCallback != null) {
             mAudioCallback.onAudioStop(true);
         }
+        return false;
+    }
+
+    /**
+     * Returns the mixer for this session, or null when all captured
+     * channels are delivered.
+     */
+    private ChannelMixer setupChannelMixer() {
+        int channelMix = mAudioParams.getChannelMix();
+        int channelCount = mAudioParams.getChannelCount();
+        if (channelMix == AudioParams.CHANNEL_MIX_NONE || channelCount == 1) {
+            mChannelMixer = null;
+            return null;
+        }
+        int selectedChannel = mAudioParams.getSelectedChannel();
+        if (mChannelMixer == null || !mChannelMixer.matches(channelMix, channelCount, selectedChannel)) {
+            mChannelMixer = new ChannelMixer(channelMix, channelCount, selectedChannel);
+        }
+        return mChannelMixer;
+    }
+
+    /**
+     * Sets up deinterleaving when the callback takes {@link PlanarFrame}s.
+     * The pool is kept while the layout stays the same.
+     */
+    private void setupChannelSplitter(int bufferType, int bytesPerSample, int frameSamples) {
+        if (!(mAudioCallback instanceof PlanarFrameCallback)) {
+            mChannelSplitter = null;
+            return;
+        }
+        int channelCount = mAudioParams.getOutputChannelCount();
+        int planarType = bufferType == FramePool.BUFFER_DIRECT ? FramePool.BUFFER_HEAP : bufferType;
+        ChannelSplitter channelSplitter = mChannelSplitter;
+        if (channelSplitter == null || !channelSplitter.matches(channelCount, planarType, bytesPerSample)) {
+            mChannelSplitter = new ChannelSplitter(channelCount, planarType, bytesPerSample,
+                    frameSamples / channelCount);
+        }
+    }
+
+    /**
+     * Returns the resampler for this session, or null when frames are
+     * delivered at the capture rate. Reused across sessions with the same
+     * configuration.
+     */
+    private PolyphaseResampler setupResampler(int sampleRate, int samplesPerFrame) {
+        int targetRate = mAudioParams.getTargetSampleRate();
+        if (targetRate <= 0 || targetRate == sampleRate) {
+            mResampler = null;
+            return null;
+        }
+        int channelCount = mAudioParams.getOutputChannelCount();
+        if (mResampler != null && mResampler.matches(sampleRate, targetRate, channelCount, samplesPerFrame)) {
+            mResampler.reset();
+        } else {
+            mResampler = new PolyphaseResampler(sampleRate, targetRate, channelCount, samplesPerFrame);
+        }
+        return mResampler;
+    }
+
+    /**
+     * Returns the processor for this session, or null without a
+     * {@link ProcessorChain}. Reused while the chain and format stay the
+     * same; filter, AGC and gate state start over with each start but carry
+     * on across a reconfigure of a running session.
+     */
+    private FrameProcessor setupFrameProcessor() {
+        ProcessorChain processorChain = mAudioParams.getProcessorChain();
+        if (processorChain == null || processorChain.getStageCount() == 0) {
+            mFrameProcessor = null;
+            return null;
+        }
+        int sampleRate = mAudioParams.getOutputSampleRate();
+        int channelCount = mAudioParams.getOutputChannelCount();
+        if (mFrameProcessor != null && mFrameProcessor.matches(processorChain, sampleRate, channelCount)) {
+            if (mSamplesRead == 0) {
+                mFrameProcessor.reset();
+            }
+        } else {
+            mFrameProcessor = new FrameProcessor(processorChain, sampleRate, channelCount);
+        }
+        return mFrameProcessor;
+    }
+
+    /**
+     * Sets up the feature stage when a feature type is configured and the
+     * callback can take the result. Kept like the processor: the window
+     * starts empty with each start but slides on across a reconfigure.
+     */
+    private void setupFeatureExtractor() {
+        AudioCallback audioCallback = mAudioCallback;
+        int featureType = mAudioParams.getFeatureType();
+        if (featureType == AudioParams.FEATURE_NONE || !(audioCallback instanceof FeatureCallback)) {
+            mFeatureExtractor = null;
+            return;
+        }
+        int sampleRate = mAudioParams.getOutputSampleRate();
+        int channelCount = mAudioParams.getOutputChannelCount();
+        FeatureExtractor featureExtractor = mFeatureExtractor;
+        if (featureExtractor != null && featureExtractor.matches(featureType, sampleRate, channelCount,
+                mAudioParams.getFeatureFftSize(), mAudioParams.getFeatureHopSize(), mAudioParams.getMelBandCount(),
+                mAudioParams.getMfccCount())) {
+            if (mSamplesRead == 0) {
+                featureExtractor.reset();
+            }
+        } else {
+            featureExtractor = new FeatureExtractor(featureType, sampleRate, channelCount,
+                    mAudioParams.getFeatureFftSize(), mAudioParams.getFeatureHopSize(), mAudioParams.getMelBandCount(),
+                    mAudioParams.getMfccCount());
+        }
+        mFeatureCallback = (FeatureCallback) audioCallback;
+        mFeatureExtractor = featureExtractor;
+    }
+
+    /**
+     * Returns the tuner for this session, or null without
+     * {@link AudioParams#AUTO_TUNE_ON}. Kept while the tuning bounds stay
+     * the same, so pool and record sizes learned earlier carry over.
+     */
+    private BufferTuner setupBufferTuner() {
+        if (mAudioParams.getAutoTuneMode() != AudioParams.AUTO_TUNE_ON) {
+            mBufferTuner = null;
+            return null;
+        }
+        if (mBufferTuner == null || !mBufferTuner.matches(mAudioParams)) {
+            mBufferTuner = new BufferTuner(mAudioParams);
+        }
+        return mBufferTuner;
+    }
+
+    /**
+     * Returns the batcher for this session, or null when every frame is
+     * delivered on its own. Reused across sessions with the same layout.
+     */
+    private FrameBatcher setupBatcher(int frameBytes, int frameSamples, int bufferType) {
+        int batchFrameCount = mAudioParams.computeBatchFrameCount();
+        if (batchFrameCount <= 1) {
+            mFrameBatcher = null;
+            return null;
+        }
+        FrameBatcher frameBatcher = mFrameBatcher;
+        if (frameBatcher == null || !frameBatcher.matches(batchFrameCount, frameBytes, frameSamples, bufferType)) {
+            // batches are copies, so only what consumers hold on to needs a batch
+            int batchCount = Math.max(2, mAudioParams.getFrameBufferCount() / batchFrameCount);
+            int maxBatchCount = Math.max(batchCount, mAudioParams.getMaxFrameBufferCount() / batchFrameCount);
+            frameBatcher = new FrameBatcher(batchFrameCount, frameBytes, frameSamples, bufferType, batchCount,
+                    maxBatchCount, mAudioParams.getFramePoolPolicy(), mDispatchCallback, mMetrics.mFramesDropped);
+            frameBatcher.getFramePool().setReclaimer(mBatchReclaimer);
+            mFrameBatcher = frameBatcher;
+        }
+        frameBatcher.getFramePool().open();
+        return frameBatcher;
+    }
+
+    private void recordStartTime(long firstFrameNanos) {
+        long requestNanos = mStartRequestNanos.getAndSet(0);
+        if (requestNanos == 0) {
+            return;
+        }
+        Histogram histogram = mColdStart ? mMetrics.mColdStartTime : mMetrics.mWarmStartTime;
+        histogram.record(firstFrameNanos - requestNanos);
+        mColdStart = false;
+    }
+
+    /**
+     * Returns the history buffer for this session, or null when none is
+     * configured. A history with the same layout survives a restart, so a
+     * snapshot can reach back into the previous session.
+     */
+    private AudioHistory setupHistory(int bufferType, int bytesPerSample, int frameSamples) {
+        int durationMs = mAudioParams.getHistoryDurationMs();
+        if (durationMs <= 0) {
+            mAudioHistory = null;
+            return null;
+        }
+        int historyBytesPerSample = bufferType == FramePool.BUFFER_SHORT ? 2
+                : bufferType == FramePool.BUFFER_FLOAT ? 4 : bytesPerSample;
+        int sampleRate = mAudioParams.getOutputSampleRate();
+        int channelCount = mAudioParams.getOutputChannelCount();
+        AudioHistory audioHistory = mAudioHistory;
+        if (audioHistory == null || !audioHistory.matches(sampleRate, channelCount, historyBytesPerSample,
+                durationMs, frameSamples)) {
+            audioHistory = new AudioHistory(sampleRate, channelCount, historyBytesPerSample, durationMs,
+                    frameSamples);
+            mAudioHistory = audioHistory;
+        }
+        return audioHistory;
+    }
+
+    /**
+     * Resamples the frame contents in place and returns the new sample count.
+     */
+    private static int resample(PolyphaseResampler resampler, AudioFrame frame, int sampleCount,
+                                int bytesPerSample) {
+        if (frame.getShortSamples() != null) {
+            short[] samples = frame.getShortSamples();
+            return resampler.process(samples, 0, sampleCount, samples, 0);
+        }
+        if (frame.getFloatSamples() != null) {
+            float[] samples = frame.getFloatSamples();
+            return resampler.process(samples, 0, sampleCount, samples, 0);
+        }
+        ByteBuffer buffer = frame.getBuffer();
+        // upsampled output runs past the limit the read left
+        buffer.clear();
+        int outputCount = resampler.process(buffer, sampleCount, bytesPerSample);
+        buffer.limit(outputCount * bytesPerSample);
+        return outputCount;
+    }
+
+    /**
+     * Mixes the frame contents down in place and returns the new sample
+     * count.
+     */
+    private static int mix(ChannelMixer channelMixer, AudioFrame frame, int sampleCount, int bytesPerSample) {
+        if (frame.getShortSamples() != null) {
+            return channelMixer.process(frame.getShortSamples(), 0, sampleCount);
+        }
+        if (frame.getFloatSamples() != null) {
+            return channelMixer.process(frame.getFloatSamples(), 0, sampleCount);
+        }
+        return channelMixer.process(frame.getBuffer(), sampleCount, bytesPerSample);
+    }
+
+    private static void process(FrameProcessor frameProcessor, AudioFrame frame, int sampleCount,
+                                int bytesPerSample) {
+        if (frame.getShortSamples() != null) {
+            frameProcessor.process(frame.getShortSamples(), 0, sampleCount);
+        } else if (frame.getFloatSamples() != null) {
+            frameProcessor.process(frame.getFloatSamples(), 0, sampleCount);
+        } else {
+            frameProcessor.process(frame.getBuffer(), sampleCount, bytesPerSample);
+        }
+    }
+
+    private static int getBufferType(AudioParams audioParams) {
+        switch (audioParams.getSampleType()) {
+            case AudioParams.SAMPLE_TYPE_SHORT:
+                return FramePool.BUFFER_SHORT;
+            case AudioParams.SAMPLE_TYPE_FLOAT:
+                return FramePool.BUFFER_FLOAT;
+            case AudioParams.SAMPLE_TYPE_BYTE:
+            default:
+                return audioParams.getCaptureMode() == AudioParams.CAPTURE_MODE_DIRECT
+                        ? FramePool.BUFFER_DIRECT : FramePool.BUFFER_HEAP;
+        }
+    }
+
+    private static int toSamples(int bytesOrError, int bytesPerSample) {
+        return bytesOrError > 0 ? bytesOrError / bytesPerSample : bytesOrError;
+    }
+
+    private void deliverFrame(AudioFrame frame) {
+        FeatureExtractor featureExtractor = mFeatureExtractor;
+        if (featureExtractor != null) {
+            long featureStartNs = System.nanoTime();
+            featureExtractor.process(frame, mAudioParams.getBytesPerSample(), mFeatureCallback);
+            mMetrics.mFeatureTime.record(System.nanoTime() - featureStartNs);
+        }
+        VoiceActivityGate voiceActivityGate = mVoiceActivityGate;
+        if (voiceActivityGate != null) {
+            voiceActivityGate.onAudioFrameAvailable(frame);
+        } else {
+            batchFrame(frame);
+        }
+    }
+
+    private void batchFrame(AudioFrame frame) {
+        FrameBatcher frameBatcher = mFrameBatcher;
+        if (frameBatcher != null) {
+            frameBatcher.onAudioFrameAvailable(frame);
+        } else {
+            dispatchFrame(frame);
+        }
+    }
+
+    private void dispatchFrame(AudioFrame frame) {
+        long deliverStartNs = System.nanoTime();
+        mMetrics.mLatency.record(deliverStartNs - frame.getCaptureNanos());
+        AudioCallback audioCallback = mAudioCallback;
+        ChannelSplitter channelSplitter = mChannelSplitter;
+        if (channelSplitter != null && audioCallback instanceof PlanarFrameCallback) {
+            PlanarFrame planarFrame = channelSplitter.split(frame);
+            ((PlanarFrameCallback) audioCallback).onPlanarFrameAvailable(planarFrame);
+            planarFrame.release();
+        } else if (audioCallback instanceof AudioFrameCallback) {
+            ((AudioFrameCallback) audioCallback).onAudioFrameAvailable(frame);
+        } else if (frame.getShortSamples() != null) {
+            if (audioCallback instanceof ShortFrameCallback) {
+                ((ShortFrameCallback) audioCallback).onShortFrameAvailable(frame.getShortSamples(),
+                        frame.getSampleCount(), frame.getTimestampNanos());
+            }
+        } else if (frame.getFloatSamples() != null) {
+            if (audioCallback instanceof FloatFrameCallback) {
+                ((FloatFrameCallback) audioCallback).onFloatFrameAvailable(frame.getFloatSamples(),
+                        frame.getSampleCount(), frame.getTimestampNanos());
+            }
+        } else if (audioCallback != null) {
+            audioCallback.onAudioFrameAvailable(frame.getBuffer(), frame.getLength(), frame.getTimestampNanos());
+        }
+        mFrameFanOut.publish(frame);
+        mMetrics.mCallbackTime.record(System.nanoTime() - deliverStartNs);
+        mMetrics.mFramesDelivered.incrementAndGet();
+    }
+
+    /**
+     * A null {@code outputBuffer} means the frame is dropped: the source is
+     * still drained, but nothing is copied.
+     */
+    private int readHeap(ByteBuffer outputBuffer) {
+        int inputLength = mCaptureSource.read(mInputBuffer, 0, mInputBuffer.length);
+        if (outputBuffer != null && inputLength > 0 && outputBuffer.capacity() >= inputLength) {
+            outputBuffer.clear();
+            outputBuffer.put(mInputBuffer, 0, inputLength);
+            outputBuffer.flip();
+        }
+        return inputLength;
+    }
+
+    /**
+     * AudioRecord fills a direct buffer in place, so the frame handed to the
+     * callback is the very memory the hardware data landed in.
+     */
+    private int readDirect(ByteBuffer outputBuffer, int size) {
+        outputBuffer.clear();
+        int inputLength = mCaptureSource.read(outputBuffer, size);
+        if (inputLength > 0) {
+            outputBuffer.limit(inputLength);
+        }
+        return inputLength;
+    }
+
+    private int readBlocking(AudioFrame frame, int bufferType, int samplesPerFrame, int bytesPerSample) {
+        switch (bufferType) {
+            case FramePool.BUFFER_DIRECT:
+                return toSamples(readDirect(frame != null ? frame.getBuffer() : mDiscardBuffer,
+                        samplesPerFrame * bytesPerSample), bytesPerSample);
+            case FramePool.BUFFER_SHORT:
+                return readShorts(frame, samplesPerFrame);
+            case FramePool.BUFFER_FLOAT:
+                return readFloats(frame, samplesPerFrame);
+            case FramePool.BUFFER_HEAP:
+            default:
+                return toSamples(readHeap(frame != null ? frame.getBuffer() : null), bytesPerSample);
+        }
+    }
+
+    /**
+     * Fills one frame from a non-blocking source, parking between partial
+     * reads for about as long as the missing samples take to arrive. Gives
+     * up early with whatever it has, possibly nothing, once a stop or new
+     * settings are pending, so a command waits at most half a frame period.
+     */
+    private int readNonBlocking(AudioFrame frame, int bufferType, int samplesPerFrame, int bytesPerSample,
+                                int sampleRate) {
+        long samplesPerSecond = (long) sampleRate * mAudioParams.getChannelCount();
+        long maxWaitNs = Math.max(MIN_READ_WAIT_NANOS, samplesPerFrame * 1000000000L / samplesPerSecond / 2);
+        int sampleCount = 0;
+        while (sampleCount < samplesPerFrame) {
+            int result = readPartial(frame, bufferType, sampleCount, samplesPerFrame - sampleCount,
+                    bytesPerSample);
+            if (result < 0) {
+                if (sampleCount == 0) {
+                    return result;
+                }
+                // hand over what was read, the error comes back on the next read
+                break;
+            }
+            sampleCount += result;
+            if (sampleCount >= samplesPerFrame || hasPendingCommand()) {
+                break;
+            }
+            long waitNs = (samplesPerFrame - sampleCount) * 1000000000L / samplesPerSecond;
+            LockSupport.parkNanos(this, Math.min(Math.max(waitNs, MIN_READ_WAIT_NANOS), maxWaitNs));
+            if (hasPendingCommand()) {
+                break;
+            }
+        }
+        if (frame != null && sampleCount > 0) {
+            switch (bufferType) {
+                case FramePool.BUFFER_SHORT:
+                    if (mFloatSource) {
+                        SampleConverter.floatToShort(mFloatBuffer, 0, frame.getShortSamples(), 0, sampleCount);
+                    }
+                    break;
+                case FramePool.BUFFER_FLOAT:
+                    if (!mFloatSource) {
+                        SampleConverter.shortToFloat(mShortBuffer, 0, frame.getFloatSamples(), 0, sampleCount);
+                    }
+                    break;
+                case FramePool.BUFFER_DIRECT:
+                case FramePool.BUFFER_HEAP:
+                default:
+                    ByteBuffer outputBuffer = frame.getBuffer();
+                    outputBuffer.clear();
+                    outputBuffer.put(mInputBuffer, 0, sampleCount * bytesPerSample);
+                    outputBuffer.flip();
+                    break;
+            }
+        }
+        return sampleCount;
+    }
+
+    /**
+     * Reads whatever is available into the frame, or the scratch buffer it
+     * is converted or copied from, starting at {@code offset} samples.
+     */
+    private int readPartial(AudioFrame frame, int bufferType, int offset, int size, int bytesPerSample) {
+        switch (bufferType) {
+            case FramePool.BUFFER_SHORT:
+                if (mFloatSource) {
+                    return mCaptureSource.read(mFloatBuffer, offset, size);
+                }
+                return mCaptureSource.read(frame != null ? frame.getShortSamples() : mShortBuffer, offset, size);
+            case FramePool.BUFFER_FLOAT:
+                if (!mFloatSource) {
+                    return mCaptureSource.read(mShortBuffer, offset, size);
+                }
+                return mCaptureSource.read(frame != null ? frame.getFloatSamples() : mFloatBuffer, offset, size);
+            case FramePool.BUFFER_DIRECT:
+            case FramePool.BUFFER_HEAP:
+            default:
+                return toSamples(mCaptureSource.read(mInputBuffer, offset * bytesPerSample, size * bytesPerSample),
+                        bytesPerSample);
+        }
+    }
+
+    private int readShorts(AudioFrame frame, int samplesPerFrame) {
+        if (mFloatSource) {
+            int sampleCount = mCaptureSource.read(mFloatBuffer, 0, samplesPerFrame);
+            if (frame != null && sampleCount > 0) {
+                SampleConverter.floatToShort(mFloatBuffer, 0, frame.getShortSamples(), 0, sampleCount);
+            }
+            return sampleCount;
+        }
+        short[] target = frame != null ? frame.getShortSamples() : mShortBuffer;
+        return mCaptureSource.read(target, 0, samplesPerFrame);
+    }
+
+    private int readFloats(AudioFrame frame, int samplesPerFrame) {
+        if (!mFloatSource) {
+            int sampleCount = mCaptureSource.read(mShortBuffer, 0, samplesPerFrame);
+            if (frame != null && sampleCount > 0) {
+                SampleConverter.shortToFloat(mShortBuffer, 0, frame.getFloatSamples(), 0, sampleCount);
+            }
+            return sampleCount;
+        }
+        float[] target = frame != null ? frame.getFloatSamples() : mFloatBuffer;
+        return mCaptureSource.read(target, 0, samplesPerFrame);
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pooled audio frame. A frame handed to {@link AudioFrameCallback} is only
+ * valid until the callback returns; call {@link #retain()} to keep it longer
+ * and {@link #release()} once done so it can go back to the pool.
+ *
+ * <p>The same frame is handed to the {@link AudioCallback} and to every
+ * subscriber, possibly on several threads at once, so consumers must treat
+ * it as read-only: do not write to the sample arrays or the buffer and do
+ * not move the buffer's position or limit. Read the buffer with absolute
+ * gets or through {@link #asReadOnlyBuffer()}, and copy what needs changing.
+ */
+public final class AudioFrame {
+    private final FramePool mPool;
+    private final ByteBuffer mBuffer;
+    private final short[] mShortSamples;
+    private final float[] mFloatSamples;
+    private int mLength;
+    private int mSampleCount;
+    private long mTimestampNanos;
+    private long mSequence;
+    // estimated System.nanoTime() at which the first sample was captured
+    private long mCaptureNanos;
+    private boolean mVoiceActive;
+    // guarded by mPool
+    int mRefCount;
+
+    AudioFrame(FramePool pool, ByteBuffer buffer, short[] shortSamples, float[] floatSamples) {
+        mPool = pool;
+        mBuffer = buffer;
+        mShortSamples = shortSamples;
+        mFloatSamples = floatSamples;
+    }
+
+    void set(int length, int sampleCount, long timestampNanos, long sequence, long captureNanos) {
+        mLength = length;
+        mSampleCount = sampleCount;
+        mTimestampNanos = timestampNanos;
+        mSequence = sequence;
+        mCaptureNanos = captureNanos;
+        mVoiceActive = true;
+    }
+
+    void setVoiceActive(boolean voiceActive) {
+        mVoiceActive = voiceActive;
+    }
+
+    long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    /**
+     * The PCM bytes of this frame, or null when {@link AudioParams#getSampleType()}
+     * asks for short or float samples. Shared with the other consumers; use
+     * {@link #asReadOnlyBuffer()} for relative reads.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Non-null when the engine delivers {@link AudioParams#SAMPLE_TYPE_SHORT}.
+     * Shared with the other consumers, do not modify.
+     */
+    public short[] getShortSamples() {
+        return mShortSamples;
+    }
+
+    /**
+     * Non-null when the engine delivers {@link AudioParams#SAMPLE_TYPE_FLOAT}.
+     * Shared with the other consumers, do not modify.
+     */
+    public float[] getFloatSamples() {
+        return mFloatSamples;
+    }
+
+    /**
+     * Returns a read-only view of the frame data. The view shares memory with
+     * {@link #getBuffer()}, so frames can be handed to several consumers
+     * without copying and without them disturbing each other's position.
+     * Null for short and float frames.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        if (mBuffer == null) {
+            return null;
+        }
+        ByteBuffer view = mBuffer.asReadOnlyBuffer().order(mBuffer.order());
+        view.clear();
+        view.limit(mLength);
+        return view;
+    }
+
+    /**
+     * Size of the captured data in bytes of the capture format.
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Timestamp of the end of the last sample, derived from the number of
+     * sample frames read. Subtract the frame duration for the start.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * False when voice activity detection classified the frame as silence,
+     * e.g. pre-roll frames under {@link AudioParams#VAD_MODE_GATE}. Always
+     * true with {@link AudioParams#VAD_MODE_OFF}.
+     */
+    public boolean isVoiceActive() {
+        return mVoiceActive;
+    }
+
+    /**
+     * Monotonic frame number assigned at capture time.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public void retain() {
+        mPool.retain(this);
+    }
+
+    public void release() {
+        mPool.release(this);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Optional companion to {@link AudioCallback}. When the callback passed to
+ * {@link AudioController#setupAudio(AudioParams, AudioCallback)} also
+ * implements this interface, frames are delivered as {@link AudioFrame}s
+ * instead of through {@link AudioCallback#onAudioFrameAvailable}.
+ */
+public interface AudioFrameCallback {
+    void onAudioFrameAvailable(AudioFrame frame);
+}
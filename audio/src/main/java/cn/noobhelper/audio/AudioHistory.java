@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-size circular history of the delivered audio, kept in one direct
+ * buffer. The capture thread appends every frame without locking or
+ * allocating; {@link #snapshot(long)} copies out the most recent audio from
+ * any thread while capture goes on.
+ *
+ * <p>Readers never block the writer. The writer announces the region it is
+ * about to overwrite before copying, and a reader retries when that region
+ * reached what it copied. The ring is a quarter second larger than the
+ * configured history so a snapshot of the full history rarely races with
+ * the writer at all. Frame end positions and timestamps are kept next to
+ * the samples, so the snapshot start time stays right across dropped frames.
+ */
+final class AudioHistory {
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 4;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBytesPerSample;
+    private final int mBytesPerSampleFrame;
+    private final int mHistoryBytes;
+    private final int mCapacity;
+    private final ByteBuffer mRing;
+    private final int mRecordCapacity;
+    private final long[] mRecordEnd;
+    private final long[] mRecordTimestamp;
+
+    // written by the capture thread only
+    private long mWritePosition;
+    // end of the region the writer may be overwriting
+    private volatile long mWriteLimit;
+    private volatile long mFrameCount;
+
+    AudioHistory(int sampleRate, int channelCount, int bytesPerSample, long durationMs, int samplesPerFrame) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBytesPerSample = bytesPerSample;
+        mBytesPerSampleFrame = channelCount * bytesPerSample;
+        long bytesPerSecond = (long) sampleRate * mBytesPerSampleFrame;
+        long historyBytes = durationMs * bytesPerSecond / 1000;
+        mHistoryBytes = (int) (historyBytes - historyBytes % mBytesPerSampleFrame);
+        long margin = bytesPerSecond / 4;
+        mCapacity = (int) (mHistoryBytes + margin - margin % mBytesPerSampleFrame);
+        mRing = ByteBuffer.allocateDirect(mCapacity).order(ByteOrder.LITTLE_ENDIAN);
+        // short reads make frames smaller than configured; leave room for that
+        int frameBytes = Math.max(mBytesPerSampleFrame, samplesPerFrame * bytesPerSample);
+        mRecordCapacity = 2 * (mCapacity / frameBytes) + 4;
+        mRecordEnd = new long[mRecordCapacity];
+        mRecordTimestamp = new long[mRecordCapacity];
+    }
+
+    boolean matches(int sampleRate, int channelCount, int bytesPerSample, long durationMs, int samplesPerFrame) {
+        long historyBytes = durationMs * sampleRate * channelCount * bytesPerSample / 1000;
+        int frameBytes = Math.max(channelCount * bytesPerSample, samplesPerFrame * bytesPerSample);
+        return mSampleRate == sampleRate && mChannelCount == channelCount && mBytesPerSample == bytesPerSample
+                && mHistoryBytes == historyBytes - historyBytes % mBytesPerSampleFrame
+                && mRecordCapacity == 2 * (mCapacity / frameBytes) + 4;
+    }
+
+    /**
+     * Appends a frame; capture thread only.
+     */
+    void write(AudioFrame frame) {
+        int length = frame.getSampleCount() * mBytesPerSample;
+        if (length <= 0) {
+            return;
+        }
+        long end = mWritePosition + length;
+        mWriteLimit = end;
+        int p = (int) (mWritePosition % mCapacity);
+        if (frame.getShortSamples() != null) {
+            short[] samples = frame.getShortSamples();
+            for (int i = 0; i < frame.getSampleCount(); i++) {
+                mRing.putShort(p, samples[i]);
+                p += 2;
+                if (p == mCapacity) {
+                    p = 0;
+                }
+            }
+        } else if (frame.getFloatSamples() != null) {
+            float[] samples = frame.getFloatSamples();
+            for (int i = 0; i < frame.getSampleCount(); i++) {
+                mRing.putFloat(p, samples[i]);
+                p += 4;
+                if (p == mCapacity) {
+                    p = 0;
+                }
+            }
+        } else {
+            // the frame is not published yet, so borrowing its position is safe
+            ByteBuffer buffer = frame.getBuffer();
+            int first = Math.min(length, mCapacity - p);
+            buffer.position(0).limit(first);
+            mRing.position(p);
+            mRing.put(buffer);
+            if (first < length) {
+                buffer.limit(length);
+                mRing.position(0);
+                mRing.put(buffer);
+            }
+            buffer.position(0).limit(length);
+        }
+        long frameCount = mFrameCount;
+        int slot = (int) (frameCount % mRecordCapacity);
+        mRecordEnd[slot] = end;
+        mRecordTimestamp[slot] = frame.getTimestampNanos();
+        mWritePosition = end;
+        mFrameCount = frameCount + 1;
+    }
+
+    /**
+     * Copies out up to the last {@code durationMs} of audio, or returns null
+     * when nothing has been captured yet.
+     */
+    AudioSnapshot snapshot(long durationMs) {
+        long wanted = Math.min(mHistoryBytes, durationMs * mSampleRate / 1000 * mBytesPerSampleFrame);
+        for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++) {
+            long frameCount = mFrameCount;
+            if (frameCount == 0) {
+                return null;
+            }
+            long last = frameCount - 1;
+            int lastSlot = (int) (last % mRecordCapacity);
+            long end = mRecordEnd[lastSlot];
+            long endTimestampNanos = mRecordTimestamp[lastSlot];
+            long start = Math.max(0, end - wanted);
+
+            // the frame holding start is the oldest one that ends after it
+            long index = last;
+            long oldest = Math.max(0, frameCount - mRecordCapacity + 1);
+            while (index > oldest && mRecordEnd[(int) ((index - 1) % mRecordCapacity)] > start) {
+                index--;
+            }
+            int slot = (int) (index % mRecordCapacity);
+            long startTimestampNanos = mRecordTimestamp[slot] - toNanos(mRecordEnd[slot] - start);
+
+            byte[] data = new byte[(int) (end - start)];
+            ByteBuffer ring = mRing.duplicate();
+            int p = (int) (start % mCapacity);
+            int first = Math.min(data.length, mCapacity - p);
+            ring.limit(p + first).position(p);
+            ring.get(data, 0, first);
+            if (first < data.length) {
+                ring.limit(data.length - first).position(0);
+                ring.get(data, first, data.length - first);
+            }
+
+            if (mWriteLimit - mCapacity <= start && mFrameCount - index < mRecordCapacity) {
+                return new AudioSnapshot(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN), mSampleRate,
+                        mChannelCount, mBytesPerSample, startTimestampNanos, endTimestampNanos);
+            }
+        }
+        return null;
+    }
+
+    private long toNanos(long bytes) {
+        return bytes / mBytesPerSampleFrame * 1000000000L / mSampleRate;
+    }
+}
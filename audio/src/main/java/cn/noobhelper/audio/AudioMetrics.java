@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters written by the capture and dispatch threads. Everything is
+ * an atomic counter or a {@link Histogram}, so recording never locks or
+ * allocates; {@link AudioStats} is the read side. The framing fields are
+ * written once per session by the capture thread.
+ */
+final class AudioMetrics {
+    final AtomicLong mFramesCaptured = new AtomicLong();
+    final AtomicLong mSamplesCaptured = new AtomicLong();
+    final AtomicLong mFramesDelivered = new AtomicLong();
+    final AtomicLong mFramesDropped = new AtomicLong();
+    final AtomicLong mFramesSuppressed = new AtomicLong();
+    final AtomicLong mInvalidOperationCount = new AtomicLong();
+    final AtomicLong mReadErrorCount = new AtomicLong();
+    final AtomicLong mShortReadCount = new AtomicLong();
+    volatile int mFrameSize;
+    volatile int mFrameSampleCount;
+    volatile int mBatchFrameCount = 1;
+    final Histogram mReadTime = new Histogram();
+    final Histogram mCallbackTime = new Histogram();
+    final Histogram mProcessTime = new Histogram();
+    final Histogram mFeatureTime = new Histogram();
+    final Histogram mLatency = new Histogram();
+    final Histogram mColdStartTime = new Histogram();
+    final Histogram mWarmStartTime = new Histogram();
+    final Histogram mStopTime = new Histogram();
+}
@@ -31,6 +31,97 @@ public class AudioParams implements Parcelable {
     public static final int DEFAULT_BUFFER_FRAME_COUNT = 16;
     public static final int DEFAULT_AUDIO_BUFFER_SIZE = DEFAULT_FRAME_SIZE * DEFAULT_BUFFER_FRAME_COUNT;
 
+    // AudioRecord读入byte[]后再拷贝到heap ByteBuffer
+    public static final int CAPTURE_MODE_HEAP = 0;
+    // AudioRecord直接读入direct ByteBuffer，不经过中间数组
+    public static final int CAPTURE_MODE_DIRECT = 1;
+    public static final int DEFAULT_CAPTURE_MODE = CAPTURE_MODE_HEAP;
+
+    // 帧缓存耗尽时丢弃最新采集的一帧
+    public static final int POOL_POLICY_DROP_NEWEST = 0;
+    // 帧缓存耗尽时丢弃排队最久、还没投递出去的帧，腾出无人持有的帧缓存再采集
+    public static final int POOL_POLICY_DROP_OLDEST = 1;
+    // 帧缓存耗尽时扩容，直到mMaxFrameBufferCount
+    public static final int POOL_POLICY_GROW = 2;
+    // 帧缓存耗尽时阻塞采集线程，直到有帧被释放
+    public static final int POOL_POLICY_BLOCK = 3;
+    public static final int DEFAULT_POOL_POLICY = POOL_POLICY_DROP_NEWEST;
+
+    // 在采集线程上直接回调onAudioFrameAvailable
+    public static final int DISPATCH_MODE_INLINE = 0;
+    // 采集线程只负责读取和发布，由独立的分发线程回调
+    public static final int DISPATCH_MODE_ASYNC = 1;
+    public static final int DEFAULT_DISPATCH_MODE = DISPATCH_MODE_INLINE;
+
+    // 以ByteBuffer回调PCM数据
+    public static final int SAMPLE_TYPE_BYTE = 0;
+    // 以short[]回调，通过ShortFrameCallback
+    public static final int SAMPLE_TYPE_SHORT = 1;
+    // 以[-1, 1]的float[]回调，通过FloatFrameCallback
+    public static final int SAMPLE_TYPE_FLOAT = 2;
+    public static final int DEFAULT_SAMPLE_TYPE = SAMPLE_TYPE_BYTE;
+
+    // 不重采样，按mSampleRate回调
+    public static final int TARGET_SAMPLE_RATE_NONE = 0;
+
+    // 不做语音活动检测
+    public static final int VAD_MODE_OFF = 0;
+    // 所有帧照常回调，通过AudioFrame.isVoiceActive()标记是否为语音
+    public static final int VAD_MODE_MARK = 1;
+    // 只回调语音帧及其前mVadPreRollMs的静音帧
+    public static final int VAD_MODE_GATE = 2;
+    public static final int DEFAULT_VAD_MODE = VAD_MODE_OFF;
+    public static final int DEFAULT_VAD_HANGOVER_MS = 300;
+    public static final int DEFAULT_VAD_PRE_ROLL_MS = 200;
+
+    // 不保留历史音频
+    public static final int HISTORY_DURATION_NONE = 0;
+
+    // 阻塞读取，stop/重配置需等当前read返回
+    public static final int READ_MODE_BLOCKING = 0;
+    // 非阻塞读取，分段凑满一帧，stop/重配置在约一帧时长内生效(API 23+，否则退回阻塞)
+    public static final int READ_MODE_NON_BLOCKING = 1;
+    public static final int DEFAULT_READ_MODE = READ_MODE_BLOCKING;
+
+    // 帧长按mFrameSize字节计算
+    public static final int FRAME_DURATION_NONE = 0;
+    public static final int FRAME_SAMPLE_COUNT_NONE = 0;
+    // 每帧单独回调，不合并
+    public static final int DEFAULT_BATCH_FRAME_COUNT = 1;
+    public static final int BATCH_DURATION_NONE = 0;
+
+    // 按mFrameBufferCount和mAudioBufferSize固定分配
+    public static final int AUTO_TUNE_OFF = 0;
+    // 根据读取抖动、短读和消费滞后自动调整framebuffer个数和AudioRecord缓存大小
+    public static final int AUTO_TUNE_ON = 1;
+    public static final int DEFAULT_AUTO_TUNE_MODE = AUTO_TUNE_OFF;
+    public static final int DEFAULT_TARGET_LATENCY_MS = 200;
+    public static final int DEFAULT_MIN_FRAME_BUFFER_COUNT = 4;
+    public static final int DEFAULT_MAX_AUDIO_BUFFER_SIZE = DEFAULT_AUDIO_BUFFER_SIZE * 4;
+
+    // 不计算频谱特征
+    public static final int FEATURE_NONE = 0;
+    // 加窗后的功率谱，mFeatureFftSize / 2 + 1个频点
+    public static final int FEATURE_SPECTRUM = 1;
+    // 对数mel能量，mMelBandCount个
+    public static final int FEATURE_LOG_MEL = 2;
+    // mel倒谱系数，mMfccCount个
+    public static final int FEATURE_MFCC = 3;
+    public static final int DEFAULT_FEATURE_TYPE = FEATURE_NONE;
+    // 16kHz下32ms的窗和10ms的帧移
+    public static final int DEFAULT_FEATURE_FFT_SIZE = 512;
+    public static final int DEFAULT_FEATURE_HOP_SIZE = 160;
+    public static final int DEFAULT_MEL_BAND_COUNT = 40;
+    public static final int DEFAULT_MFCC_COUNT = 13;
+
+    // 按mChannelConfig的全部通道交错回调
+    public static final int CHANNEL_MIX_NONE = 0;
+    // 读取后立即把各通道取平均，之后的处理和回调都是单声道
+    public static final int CHANNEL_MIX_DOWNMIX = 1;
+    // 读取后只保留mSelectedChannel一个通道，之后的处理和回调都是单声道
+    public static final int CHANNEL_MIX_SELECT = 2;
+    public static final int DEFAULT_CHANNEL_MIX = CHANNEL_MIX_NONE;
+
     // 音频源ID
     private int mAudioSource;
     // 音频的采样率(Hz)
@@ -45,6 +136,60 @@ public class AudioParams implements Parcelable {
     private int mFrameBufferCount;
     // 给AudioRecorder分配的缓存大小
     private int mAudioBufferSize;
+    // 音频帧的采集模式
+    private int mCaptureMode;
+    // framebuffer全部被占用时的处理策略
+    private int mFramePoolPolicy;
+    // POOL_POLICY_GROW策略下framebuffer个数的上限
+    private int mMaxFrameBufferCount;
+    // 音频帧的回调分发模式
+    private int mDispatchMode;
+    // 回调给外部的采样数据类型，与mAudioFormat不一致时在引擎内转换一次
+    private int mSampleType;
+    // 回调给外部的采样率(Hz)，与mSampleRate不一致时在引擎内重采样
+    private int mTargetSampleRate;
+    // 语音活动检测模式
+    private int mVadMode;
+    // 最后一帧语音之后仍视为语音的时长(ms)，避免句中停顿被切断
+    private int mVadHangoverMs;
+    // VAD_MODE_GATE下在语音开始前补发的静音时长(ms)，避免句首被截掉
+    private int mVadPreRollMs;
+    // 循环保留最近多长时间(ms)的音频，用于AudioController.snapshot()
+    private int mHistoryDurationMs;
+    // 采集线程读取音频源的方式
+    private int mReadMode;
+    // 每帧时长(ms)，大于0时代替mFrameSize，按采样率、通道数和采样格式换算字节数
+    private int mFrameDurationMs;
+    // 每帧每个通道的采样数，大于0时优先于mFrameDurationMs和mFrameSize
+    private int mFrameSampleCount;
+    // 每次回调合并的连续帧数，合并后放在一块连续buffer里，用延迟换取更少的回调次数
+    private int mBatchFrameCount;
+    // 每次回调合并的时长(ms)，大于0时代替mBatchFrameCount，按帧长向上取整
+    private int mBatchDurationMs;
+    // 缓存自动调整模式
+    private int mAutoTuneMode;
+    // 自动调整的目标延迟(ms)，framebuffer可排队的音频时长不超过它
+    private int mTargetLatencyMs;
+    // 自动调整时framebuffer个数的下限，上限为mMaxFrameBufferCount
+    private int mMinFrameBufferCount;
+    // 自动调整时AudioRecord缓存大小的上限，下限为AudioRecord.getMinBufferSize()
+    private int mMaxAudioBufferSize;
+    // 回调前在采集线程上原地处理每帧的处理链，为null时不处理
+    private ProcessorChain mProcessorChain;
+    // 在分发线程上计算的频谱特征类型，通过FeatureCallback回调
+    private int mFeatureType;
+    // 分析窗长，即FFT点数，必须是2的幂
+    private int mFeatureFftSize;
+    // 相邻两个分析窗的间隔(采样数)，小于窗长时窗口重叠
+    private int mFeatureHopSize;
+    // mel滤波器组的频带数
+    private int mMelBandCount;
+    // 保留的mel倒谱系数个数，不超过mMelBandCount
+    private int mMfccCount;
+    // 多通道采集时的混音方式
+    private int mChannelMix;
+    // CHANNEL_MIX_SELECT下保留的通道序号，从0开始
+    private int mSelectedChannel;
 
     public AudioParams() {
         mAudioSource = DEFAULT_AUDIO_SOURCE;
@@ -54,6 +199,69 @@ public class AudioParams implements Parcelable {
         mFrameSize = DEFAULT_FRAME_SIZE;
         mFrameBufferCount = DEFAULT_BUFFER_FRAME_COUNT;
         mAudioBufferSize = DEFAULT_AUDIO_BUFFER_SIZE;
+        mCaptureMode = DEFAULT_CAPTURE_MODE;
+        mFramePoolPolicy = DEFAULT_POOL_POLICY;
+        mMaxFrameBufferCount = DEFAULT_BUFFER_FRAME_COUNT;
+        mDispatchMode = DEFAULT_DISPATCH_MODE;
+        mSampleType = DEFAULT_SAMPLE_TYPE;
+        mTargetSampleRate = TARGET_SAMPLE_RATE_NONE;
+        mVadMode = DEFAULT_VAD_MODE;
+        mVadHangoverMs = DEFAULT_VAD_HANGOVER_MS;
+        mVadPreRollMs = DEFAULT_VAD_PRE_ROLL_MS;
+        mHistoryDurationMs = HISTORY_DURATION_NONE;
+        mReadMode = DEFAULT_READ_MODE;
+        mFrameDurationMs = FRAME_DURATION_NONE;
+        mFrameSampleCount = FRAME_SAMPLE_COUNT_NONE;
+        mBatchFrameCount = DEFAULT_BATCH_FRAME_COUNT;
+        mBatchDurationMs = BATCH_DURATION_NONE;
+        mAutoTuneMode = DEFAULT_AUTO_TUNE_MODE;
+        mTargetLatencyMs = DEFAULT_TARGET_LATENCY_MS;
+        mMinFrameBufferCount = DEFAULT_MIN_FRAME_BUFFER_COUNT;
+        mMaxAudioBufferSize = DEFAULT_MAX_AUDIO_BUFFER_SIZE;
+        mFeatureType = DEFAULT_FEATURE_TYPE;
+        mFeatureFftSize = DEFAULT_FEATURE_FFT_SIZE;
+        mFeatureHopSize = DEFAULT_FEATURE_HOP_SIZE;
+        mMelBandCount = DEFAULT_MEL_BAND_COUNT;
+        mMfccCount = DEFAULT_MFCC_COUNT;
+        mChannelMix = DEFAULT_CHANNEL_MIX;
+        mSelectedChannel = 0;
+    }
+
+    public AudioParams(AudioParams other) {
+        this.mAudioSource = other.mAudioSource;
+        this.mSampleRate = other.mSampleRate;
+        this.mChannelConfig = other.mChannelConfig;
+        this.mAudioFormat = other.mAudioFormat;
+        this.mFrameSize = other.mFrameSize;
+        this.mFrameBufferCount = other.mFrameBufferCount;
+        this.mAudioBufferSize = other.mAudioBufferSize;
+        this.mCaptureMode = other.mCaptureMode;
+        this.mFramePoolPolicy = other.mFramePoolPolicy;
+        this.mMaxFrameBufferCount = other.mMaxFrameBufferCount;
+        this.mDispatchMode = other.mDispatchMode;
+        this.mSampleType = other.mSampleType;
+        this.mTargetSampleRate = other.mTargetSampleRate;
+        this.mVadMode = other.mVadMode;
+        this.mVadHangoverMs = other.mVadHangoverMs;
+        this.mVadPreRollMs = other.mVadPreRollMs;
+        this.mHistoryDurationMs = other.mHistoryDurationMs;
+        this.mReadMode = other.mReadMode;
+        this.mFrameDurationMs = other.mFrameDurationMs;
+        this.mFrameSampleCount = other.mFrameSampleCount;
+        this.mBatchFrameCount = other.mBatchFrameCount;
+        this.mBatchDurationMs = other.mBatchDurationMs;
+        this.mAutoTuneMode = other.mAutoTuneMode;
+        this.mTargetLatencyMs = other.mTargetLatencyMs;
+        this.mMinFrameBufferCount = other.mMinFrameBufferCount;
+        this.mMaxAudioBufferSize = other.mMaxAudioBufferSize;
+        this.mProcessorChain = other.mProcessorChain != null ? new ProcessorChain(other.mProcessorChain) : null;
+        this.mFeatureType = other.mFeatureType;
+        this.mFeatureFftSize = other.mFeatureFftSize;
+        this.mFeatureHopSize = other.mFeatureHopSize;
+        this.mMelBandCount = other.mMelBandCount;
+        this.mMfccCount = other.mMfccCount;
+        this.mChannelMix = other.mChannelMix;
+        this.mSelectedChannel = other.mSelectedChannel;
     }
 
     protected AudioParams(Parcel in) {
@@ -64,6 +272,33 @@ public class AudioParams implements Parcelable {
         this.mFrameSize = in.readInt();
         this.mFrameBufferCount = in.readInt();
         this.mAudioBufferSize = in.readInt();
+        this.mCaptureMode = in.readInt();
+        this.mFramePoolPolicy = in.readInt();
+        this.mMaxFrameBufferCount = in.readInt();
+        this.mDispatchMode = in.readInt();
+        this.mSampleType = in.readInt();
+        this.mTargetSampleRate = in.readInt();
+        this.mVadMode = in.readInt();
+        this.mVadHangoverMs = in.readInt();
+        this.mVadPreRollMs = in.readInt();
+        this.mHistoryDurationMs = in.readInt();
+        this.mReadMode = in.readInt();
+        this.mFrameDurationMs = in.readInt();
+        this.mFrameSampleCount = in.readInt();
+        this.mBatchFrameCount = in.readInt();
+        this.mBatchDurationMs = in.readInt();
+        this.mAutoTuneMode = in.readInt();
+        this.mTargetLatencyMs = in.readInt();
+        this.mMinFrameBufferCount = in.readInt();
+        this.mMaxAudioBufferSize = in.readInt();
+        this.mProcessorChain = in.readParcelable(ProcessorChain.class.getClassLoader());
+        this.mFeatureType = in.readInt();
+        this.mFeatureFftSize = in.readInt();
+        this.mFeatureHopSize = in.readInt();
+        this.mMelBandCount = in.readInt();
+        this.mMfccCount = in.readInt();
+        this.mChannelMix = in.readInt();
+        this.mSelectedChannel = in.readInt();
     }
 
     @Override
@@ -80,6 +315,33 @@ public class AudioParams implements Parcelable {
         dest.writeInt(this.mFrameSize);
         dest.writeInt(this.mFrameBufferCount);
         dest.writeInt(this.mAudioBufferSize);
+        dest.writeInt(this.mCaptureMode);
+        dest.writeInt(this.mFramePoolPolicy);
+        dest.writeInt(this.mMaxFrameBufferCount);
+        dest.writeInt(this.mDispatchMode);
+        dest.writeInt(this.mSampleType);
+        dest.writeInt(this.mTargetSampleRate);
+        dest.writeInt(this.mVadMode);
+        dest.writeInt(this.mVadHangoverMs);
+        dest.writeInt(this.mVadPreRollMs);
+        dest.writeInt(this.mHistoryDurationMs);
+        dest.writeInt(this.mReadMode);
+        dest.writeInt(this.mFrameDurationMs);
+        dest.writeInt(this.mFrameSampleCount);
+        dest.writeInt(this.mBatchFrameCount);
+        dest.writeInt(this.mBatchDurationMs);
+        dest.writeInt(this.mAutoTuneMode);
+        dest.writeInt(this.mTargetLatencyMs);
+        dest.writeInt(this.mMinFrameBufferCount);
+        dest.writeInt(this.mMaxAudioBufferSize);
+        dest.writeParcelable(this.mProcessorChain, flags);
+        dest.writeInt(this.mFeatureType);
+        dest.writeInt(this.mFeatureFftSize);
+        dest.writeInt(this.mFeatureHopSize);
+        dest.writeInt(this.mMelBandCount);
+        dest.writeInt(this.mMfccCount);
+        dest.writeInt(this.mChannelMix);
+        dest.writeInt(this.mSelectedChannel);
     }
 
     public static final Parcelable.Creator<AudioParams> CREATOR = new Parcelable.Creator<AudioParams>() {
@@ -126,10 +388,76 @@ public class AudioParams implements Parcelable {
         this.mAudioFormat = audioFormat;
     }
 
+    /**
+     * Number of channels in {@link #getChannelConfig()}; each
+     * {@code CHANNEL_IN_*} position is one bit of the mask.
+     */
+    public int getChannelCount() {
+        return Math.max(1, Integer.bitCount(mChannelConfig));
+    }
+
+    /**
+     * Channels in delivered frames: one when {@link #getChannelMix()} mixes a
+     * multi-channel capture down, else {@link #getChannelCount()}.
+     */
+    public int getOutputChannelCount() {
+        return mChannelMix != CHANNEL_MIX_NONE ? 1 : getChannelCount();
+    }
+
+    public int getBytesPerSample() {
+        switch (mAudioFormat) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                return 1;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return 4;
+            case AudioFormat.ENCODING_PCM_16BIT:
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Bytes of one sample of every channel.
+     */
+    public int getBytesPerSampleFrame() {
+        return getChannelCount() * getBytesPerSample();
+    }
+
     public int getFrameSize() {
         return mFrameSize;
     }
 
+    /**
+     * Frame size in bytes from {@link #getFrameSampleCount()}, else
+     * {@link #getFrameDurationMs()}, else {@link #getFrameSize()}, rounded
+     * down to whole samples of all channels.
+     */
+    public int computeFrameSize() {
+        int bytesPerSampleFrame = getBytesPerSampleFrame();
+        if (mFrameSampleCount > 0) {
+            return mFrameSampleCount * bytesPerSampleFrame;
+        }
+        if (mFrameDurationMs > 0) {
+            long sampleFrames = Math.max(1, (long) mSampleRate * mFrameDurationMs / 1000);
+            return (int) (sampleFrames * bytesPerSampleFrame);
+        }
+        return mFrameSize - mFrameSize % bytesPerSampleFrame;
+    }
+
+    /**
+     * Frames per callback from {@link #getBatchDurationMs()}, rounded up to
+     * whole frames of {@link #computeFrameSize()}, else
+     * {@link #getBatchFrameCount()}; at least 1.
+     */
+    public int computeBatchFrameCount() {
+        if (mBatchDurationMs > 0) {
+            long frameSampleFrames = Math.max(1, computeFrameSize() / getBytesPerSampleFrame());
+            long batchSampleFrames = (long) mSampleRate * mBatchDurationMs / 1000;
+            return (int) Math.max(1, (batchSampleFrames + frameSampleFrames - 1) / frameSampleFrames);
+        }
+        return Math.max(1, mBatchFrameCount);
+    }
+
     public void setFrameSize(int frameSize) {
         this.mFrameSize = frameSize;
     }
@@ -149,4 +477,243 @@ public class AudioParams implements Parcelable {
     public void setAudioBufferSize(int audioBufferSize) {
         this.mAudioBufferSize = audioBufferSize;
     }
+
+    public int getCaptureMode() {
+        return mCaptureMode;
+    }
+
+    public void setCaptureMode(int captureMode) {
+        this.mCaptureMode = captureMode;
+    }
+
+    public int getFramePoolPolicy() {
+        return mFramePoolPolicy;
+    }
+
+    public void setFramePoolPolicy(int framePoolPolicy) {
+        this.mFramePoolPolicy = framePoolPolicy;
+    }
+
+    public int getMaxFrameBufferCount() {
+        return mMaxFrameBufferCount;
+    }
+
+    public void setMaxFrameBufferCount(int maxFrameBufferCount) {
+        this.mMaxFrameBufferCount = maxFrameBufferCount;
+    }
+
+    public int getDispatchMode() {
+        return mDispatchMode;
+    }
+
+    public void setDispatchMode(int dispatchMode) {
+        this.mDispatchMode = dispatchMode;
+    }
+
+    public int getSampleType() {
+        return mSampleType;
+    }
+
+    public void setSampleType(int sampleType) {
+        this.mSampleType = sampleType;
+    }
+
+    public int getTargetSampleRate() {
+        return mTargetSampleRate;
+    }
+
+    public void setTargetSampleRate(int targetSampleRate) {
+        this.mTargetSampleRate = targetSampleRate;
+    }
+
+    /**
+     * Rate of the delivered frames: the target rate when one is set,
+     * otherwise the capture rate.
+     */
+    public int getOutputSampleRate() {
+        return mTargetSampleRate > 0 ? mTargetSampleRate : mSampleRate;
+    }
+
+    public int getVadMode() {
+        return mVadMode;
+    }
+
+    public void setVadMode(int vadMode) {
+        this.mVadMode = vadMode;
+    }
+
+    public int getVadHangoverMs() {
+        return mVadHangoverMs;
+    }
+
+    public void setVadHangoverMs(int vadHangoverMs) {
+        this.mVadHangoverMs = vadHangoverMs;
+    }
+
+    public int getVadPreRollMs() {
+        return mVadPreRollMs;
+    }
+
+    public void setVadPreRollMs(int vadPreRollMs) {
+        this.mVadPreRollMs = vadPreRollMs;
+    }
+
+    public int getHistoryDurationMs() {
+        return mHistoryDurationMs;
+    }
+
+    public void setHistoryDurationMs(int historyDurationMs) {
+        this.mHistoryDurationMs = historyDurationMs;
+    }
+
+    public int getReadMode() {
+        return mReadMode;
+    }
+
+    public void setReadMode(int readMode) {
+        this.mReadMode = readMode;
+    }
+
+    public int getFrameDurationMs() {
+        return mFrameDurationMs;
+    }
+
+    public void setFrameDurationMs(int frameDurationMs) {
+        this.mFrameDurationMs = frameDurationMs;
+    }
+
+    public int getFrameSampleCount() {
+        return mFrameSampleCount;
+    }
+
+    public void setFrameSampleCount(int frameSampleCount) {
+        this.mFrameSampleCount = frameSampleCount;
+    }
+
+    public int getBatchFrameCount() {
+        return mBatchFrameCount;
+    }
+
+    public void setBatchFrameCount(int batchFrameCount) {
+        this.mBatchFrameCount = batchFrameCount;
+    }
+
+    public int getBatchDurationMs() {
+        return mBatchDurationMs;
+    }
+
+    public void setBatchDurationMs(int batchDurationMs) {
+        this.mBatchDurationMs = batchDurationMs;
+    }
+
+    public int getAutoTuneMode() {
+        return mAutoTuneMode;
+    }
+
+    public void setAutoTuneMode(int autoTuneMode) {
+        this.mAutoTuneMode = autoTuneMode;
+    }
+
+    public int getTargetLatencyMs() {
+        return mTargetLatencyMs;
+    }
+
+    public void setTargetLatencyMs(int targetLatencyMs) {
+        this.mTargetLatencyMs = targetLatencyMs;
+    }
+
+    public int getMinFrameBufferCount() {
+        return mMinFrameBufferCount;
+    }
+
+    public void setMinFrameBufferCount(int minFrameBufferCount) {
+        this.mMinFrameBufferCount = minFrameBufferCount;
+    }
+
+    public int getMaxAudioBufferSize() {
+        return mMaxAudioBufferSize;
+    }
+
+    public void setMaxAudioBufferSize(int maxAudioBufferSize) {
+        this.mMaxAudioBufferSize = maxAudioBufferSize;
+    }
+
+    public ProcessorChain getProcessorChain() {
+        return mProcessorChain;
+    }
+
+    /**
+     * Stages applied to every frame in place before it is delivered, or null
+     * for none. The chain is copied.
+     */
+    public void setProcessorChain(ProcessorChain processorChain) {
+        this.mProcessorChain = processorChain != null ? new ProcessorChain(processorChain) : null;
+    }
+
+    public int getFeatureType() {
+        return mFeatureType;
+    }
+
+    /**
+     * Computes {@link #FEATURE_SPECTRUM}, {@link #FEATURE_LOG_MEL} or
+     * {@link #FEATURE_MFCC} from the first channel of every delivered frame,
+     * after processing and before voice activity gating, and passes them to
+     * an AudioCallback that also implements {@link FeatureCallback}.
+     */
+    public void setFeatureType(int featureType) {
+        this.mFeatureType = featureType;
+    }
+
+    public int getFeatureFftSize() {
+        return mFeatureFftSize;
+    }
+
+    public void setFeatureFftSize(int featureFftSize) {
+        this.mFeatureFftSize = featureFftSize;
+    }
+
+    public int getFeatureHopSize() {
+        return mFeatureHopSize;
+    }
+
+    public void setFeatureHopSize(int featureHopSize) {
+        this.mFeatureHopSize = featureHopSize;
+    }
+
+    public int getMelBandCount() {
+        return mMelBandCount;
+    }
+
+    public void setMelBandCount(int melBandCount) {
+        this.mMelBandCount = melBandCount;
+    }
+
+    public int getMfccCount() {
+        return mMfccCount;
+    }
+
+    public void setMfccCount(int mfccCount) {
+        this.mMfccCount = mfccCount;
+    }
+
+    public int getChannelMix() {
+        return mChannelMix;
+    }
+
+    /**
+     * {@link #CHANNEL_MIX_DOWNMIX} or {@link #CHANNEL_MIX_SELECT} turn a
+     * multi-channel capture into mono right after the read, so resampling,
+     * processing and all consumers work on one channel.
+     */
+    public void setChannelMix(int channelMix) {
+        this.mChannelMix = channelMix;
+    }
+
+    public int getSelectedChannel() {
+        return mSelectedChannel;
+    }
+
+    public void setSelectedChannel(int selectedChannel) {
+        this.mSelectedChannel = selectedChannel;
+    }
 }
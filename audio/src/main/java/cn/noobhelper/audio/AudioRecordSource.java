@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+import android.media.AudioRecord;
+import android.os.Build;
+
+class AudioRecordSource implements CaptureSource {
+    private final AudioRecord mAudioRecord;
+    private final AudioParams mAudioParams;
+    private long mStartTimeNanos;
+    private int mReadMode = AudioRecord.READ_BLOCKING;
+
+    public AudioRecordSource(AudioParams audioParams) {
+        mAudioParams = new AudioParams(audioParams);
+        mAudioRecord = new AudioRecord(
+                audioParams.getAudioSource(),       // source
+                audioParams.getSampleRate(),        // sample rate, hz
+                audioParams.getChannelConfig(),     // channel config
+                audioParams.getAudioFormat(),       // audio format
+                audioParams.getAudioBufferSize());  // buffer size (bytes)
+    }
+
+    /**
+     * Whether this record was built with the same settings, so that it can
+     * be reused instead of creating a new one.
+     */
+    boolean matches(AudioParams audioParams) {
+        return mAudioParams.getAudioSource() == audioParams.getAudioSource()
+                && mAudioParams.getSampleRate() == audioParams.getSampleRate()
+                && mAudioParams.getChannelConfig() == audioParams.getChannelConfig()
+                && mAudioParams.getAudioFormat() == audioParams.getAudioFormat()
+                && mAudioParams.getAudioBufferSize() == audioParams.getAudioBufferSize()
+                && mAudioRecord.getState() == AudioRecord.STATE_INITIALIZED;
+    }
+
+    @Override
+    public boolean start() {
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            return false;
+        }
+        try {
+            mAudioRecord.startRecording();
+            mStartTimeNanos = System.nanoTime();
+            return mAudioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING;
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * READ_NON_BLOCKING needs API 23.
+     */
+    @Override
+    public boolean setNonBlocking(boolean nonBlocking) {
+        if (nonBlocking && Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            mReadMode = AudioRecord.READ_BLOCKING;
+            return false;
+        }
+        mReadMode = nonBlocking ? AudioRecord.READ_NON_BLOCKING : AudioRecord.READ_BLOCKING;
+        return true;
+    }
+
+    @Override
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        if (mReadMode == AudioRecord.READ_NON_BLOCKING) {
+            return mAudioRecord.read(audioData, offsetInBytes, sizeInBytes, mReadMode);
+        }
+        return mAudioRecord.read(audioData, offsetInBytes, sizeInBytes);
+    }
+
+    @Override
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        if (mReadMode == AudioRecord.READ_NON_BLOCKING) {
+            return mAudioRecord.read(audioBuffer, sizeInBytes, mReadMode);
+        }
+        return mAudioRecord.read(audioBuffer, sizeInBytes);
+    }
+
+    @Override
+    public int read(short[] audioData, int offsetInShorts, int sizeInShorts) {
+        if (mReadMode == AudioRecord.READ_NON_BLOCKING) {
+            return mAudioRecord.read(audioData, offsetInShorts, sizeInShorts, mReadMode);
+        }
+        return mAudioRecord.read(audioData, offsetInShorts, sizeInShorts);
+    }
+
+    @Override
+    public int read(float[] audioData, int offsetInFloats, int sizeInFloats) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return ERROR_INVALID_OPERATION;
+        }
+        return mAudioRecord.read(audioData, offsetInFloats, sizeInFloats, mReadMode);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mAudioRecord.getSampleRate();
+    }
+
+    @Override
+    public long getTimestampBaseNanos() {
+        return mStartTimeNanos;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mAudioRecord.stop();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void release() {
+        mAudioRecord.release();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.Executor;
+
+/**
+ * One capture session of an {@link AudioSessionManager}. Sessions are
+ * independent: each has its own engine, frame pool, subscribers and stats.
+ */
+public final class AudioSession {
+    private final AudioSessionManager mManager;
+    private final int mId;
+    private final AudioEngine mAudioEngine;
+    private final AudioParams mAudioParams;
+    private final long mReservedBufferBytes;
+    private final FrameFanOut mFrameFanOut;
+    private final Runnable mCaptureLoop = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                mAudioEngine.startAudioEngine(mStartStopCount);
+            } finally {
+                mManager.onCaptureLoopFinished();
+                synchronized (AudioSession.this) {
+                    mRunning = false;
+                    AudioSession.this.notifyAll();
+                }
+            }
+        }
+    };
+    private boolean mRunning = false;
+    private boolean mReleased = false;
+    // the engine's stop count when start() was called; a stop or release
+    // before the pooled thread gets to the loop makes it return at once
+    private volatile int mStartStopCount;
+
+    AudioSession(AudioSessionManager manager, int id, AudioEngine audioEngine, AudioParams audioParams,
+                 long reservedBufferBytes) {
+        mManager = manager;
+        mId = id;
+        mAudioEngine = audioEngine;
+        mAudioParams = audioParams;
+        mReservedBufferBytes = reservedBufferBytes;
+        mFrameFanOut = audioEngine.getFrameFanOut();
+    }
+
+    /**
+     * Starts capturing on one of the manager's threads.
+     *
+     * @return false when the session is released, already running, or all
+     * capture threads are taken by other sessions
+     */
+    public synchronized boolean start() {
+        if (mReleased || mRunning) {
+            return false;
+        }
+        mAudioEngine.markStartRequested(System.nanoTime());
+        mStartStopCount = mAudioEngine.getStopCount();
+        mRunning = true;
+        if (!mManager.execute(mCaptureLoop)) {
+            mRunning = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Asks the capture loop to stop; returns without waiting for it.
+     */
+    public void stop() {
+        mAudioEngine.stopAudioEngine();
+    }
+
+    /**
+     * Stops capture, waits for the loop to finish, releases the capture
+     * source and returns the buffer reservation to the manager.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mAudioEngine.stopAudioEngine();
+            boolean interrupted = false;
+            while (mRunning) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mAudioEngine.releaseAudioEngine();
+        mManager.onSessionReleased(this);
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * The settings the session runs with, after setup adjusted the frame
+     * size to the platform minimum. Do not modify.
+     */
+    public AudioParams getAudioParams() {
+        return mAudioParams;
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    long getReservedBufferBytes() {
+        return mReservedBufferBytes;
+    }
+
+    /**
+     * See {@link AudioController#addSubscriber(AudioFrameCallback, Executor, int, int)}.
+     */
+    public FrameSubscription addSubscriber(AudioFrameCallback callback, Executor executor, int deliveryPolicy,
+                                           int queueCapacity) {
+        return mFrameFanOut.add(callback, executor, deliveryPolicy, queueCapacity);
+    }
+
+    public boolean removeSubscriber(FrameSubscription subscription) {
+        return mFrameFanOut.remove(subscription);
+    }
+
+    /**
+     * See {@link AudioController#getFramePublisher()}; completed when the
+     * session is released.
+     */
+    public FramePublisher getFramePublisher() {
+        return mFrameFanOut.getPublisher();
+    }
+
+    public AudioStats getStats() {
+        return mAudioEngine.getStats();
+    }
+
+    public AudioSnapshot snapshot(long durationMs) {
+        return mAudioEngine.snapshot(durationMs);
+    }
+
+    public FramePool getFramePool() {
+        return mAudioEngine.getFramePool();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Runs several capture sessions side by side, e.g. MIC, VOICE_COMMUNICATION
+ * and a file replay, each with its own {@link AudioParams}. All sessions
+ * share one bounded pool of capture threads, so at most
+ * {@code maxRunningSessions} capture at the same time, and one budget for
+ * frame pool and history memory that is reserved when a session is created.
+ * Whether the platform lets several AudioRecords capture concurrently is up
+ * to the device; file and other {@link CaptureSource}s are not limited.
+ *
+ * <p>{@link AudioController} remains the single-session entry point.
+ */
+public final class AudioSessionManager {
+    private static final String TAG = AudioSessionManager.class.getSimpleName();
+    private static final String SESSION_THREAD_NAME = "AudioSessionThread-";
+    public static final int DEFAULT_MAX_RUNNING_SESSIONS = 4;
+    public static final long DEFAULT_BUFFER_BUDGET_BYTES = 8L * 1024 * 1024;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    // one permit per capture thread; taken before a loop is queued so that a
+    // queued loop always finds a thread that is free or about to be
+    private final Semaphore mRunningSlots;
+    private final long mBufferBudgetBytes;
+    private final List<AudioSession> mSessions = new ArrayList<>();
+    private final AtomicInteger mSessionIds = new AtomicInteger();
+    private long mReservedBufferBytes;
+    private boolean mShutdown = false;
+
+    public AudioSessionManager() {
+        this(DEFAULT_MAX_RUNNING_SESSIONS, DEFAULT_BUFFER_BUDGET_BYTES);
+    }
+
+    /**
+     * @param maxRunningSessions capture threads, and so sessions capturing at
+     *                           the same time
+     * @param bufferBudgetBytes  frame and history memory all sessions may
+     *                           reserve together
+     */
+    public AudioSessionManager(int maxRunningSessions, long bufferBudgetBytes) {
+        mBufferBudgetBytes = bufferBudgetBytes;
+        mRunningSlots = new Semaphore(maxRunningSessions);
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(maxRunningSessions, maxRunningSessions,
+                IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, SESSION_THREAD_NAME + threadCount.getAndIncrement());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets up a session; the capture source is opened, capture starts with
+     * {@link AudioSession#start()}.
+     *
+     * @param captureSource null captures from an AudioRecord built from
+     *                      {@code audioParams}
+     * @return the session, or null when the manager is shut down or the
+     * session's buffers do not fit in what is left of the budget
+     */
+    public AudioSession createSession(AudioParams audioParams, CaptureSource captureSource,
+                                      AudioCallback audioCallback) {
+        AudioParams sessionParams = new AudioParams(audioParams);
+        AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(captureSource);
+        audioEngine.setAudioCallback(audioCallback);
+        audioEngine.setupAudioEngine(sessionParams);
+        long bufferBytes = estimateBufferBytes(sessionParams);
+        AudioSession session;
+        synchronized (this) {
+            if (mShutdown || mReservedBufferBytes + bufferBytes > mBufferBudgetBytes) {
+                session = null;
+            } else {
+                mReservedBufferBytes += bufferBytes;
+                session = new AudioSession(this, mSessionIds.getAndIncrement(), audioEngine, sessionParams,
+                        bufferBytes);
+                mSessions.add(session);
+            }
+        }
+        if (session == null) {
+            Log.e(TAG, "createSession error! " + bufferBytes + " buffer bytes do not fit in the budget of "
+                    + mBufferBudgetBytes + ", " + getReservedBufferBytes() + " reserved");
+            audioEngine.releaseAudioEngine();
+        }
+        return session;
+    }
+
+    /**
+     * Frame pool plus history memory a session with these settings may use.
+     */
+    static long estimateBufferBytes(AudioParams audioParams) {
+        long sampleRate = audioParams.getOutputSampleRate();
+        long bytesPerSecond = sampleRate * audioParams.getChannelCount() * audioParams.getBytesPerSample();
+        long frameBytes = audioParams.computeFrameSize();
+        if (audioParams.getSampleType() == AudioParams.SAMPLE_TYPE_SHORT) {
+            frameBytes = frameBytes / audioParams.getBytesPerSample() * 2;
+        } else if (audioParams.getSampleType() == AudioParams.SAMPLE_TYPE_FLOAT) {
+            frameBytes = frameBytes / audioParams.getBytesPerSample() * 4;
+        }
+        if (audioParams.getTargetSampleRate() > audioParams.getSampleRate()) {
+            frameBytes = frameBytes * audioParams.getTargetSampleRate() / audioParams.getSampleRate() + 1;
+        }
+        long frameCount = Math.max(audioParams.getFrameBufferCount(), audioParams.getMaxFrameBufferCount());
+        if (audioParams.getVadMode() == AudioParams.VAD_MODE_GATE) {
+            frameCount += (audioParams.getVadPreRollMs() * bytesPerSecond / 1000 + frameBytes - 1)
+                    / Math.max(1, frameBytes);
+        }
+        long historyBytes = 0;
+        if (audioParams.getHistoryDurationMs() > 0) {
+            // the history keeps a quarter second of slack
+            historyBytes = (audioParams.getHistoryDurationMs() + 250) * bytesPerSecond / 1000;
+        }
+        int batchFrameCount = audioParams.computeBatchFrameCount();
+        long batchBytes = 0;
+        if (batchFrameCount > 1) {
+            long batchCount = Math.max(2, frameCount / batchFrameCount);
+            batchBytes = batchCount * batchFrameCount * frameBytes;
+        }
+        return frameBytes * frameCount + batchBytes + historyBytes;
+    }
+
+    /**
+     * Runs a capture loop on a free capture thread. Fails instead of waiting
+     * when every thread is taken, as a running session may capture forever.
+     */
+    boolean execute(Runnable captureLoop) {
+        synchronized (this) {
+            if (mShutdown) {
+                return false;
+            }
+        }
+        if (!mRunningSlots.tryAcquire()) {
+            Log.e(TAG, "No capture thread left, " + mExecutor.getMaximumPoolSize() + " sessions running");
+            return false;
+        }
+        mExecutor.execute(captureLoop);
+        return true;
+    }
+
+    /**
+     * Called by a capture loop given to {@link #execute(Runnable)} when it
+     * ends.
+     */
+    void onCaptureLoopFinished() {
+        mRunningSlots.release();
+    }
+
+    synchronized void onSessionReleased(AudioSession session) {
+        if (mSessions.remove(session)) {
+            mReservedBufferBytes -= session.getReservedBufferBytes();
+        }
+    }
+
+    public synchronized List<AudioSession> getSessions() {
+        return new ArrayList<>(mSessions);
+    }
+
+    public synchronized long getReservedBufferBytes() {
+        return mReservedBufferBytes;
+    }
+
+    public long getBufferBudgetBytes() {
+        return mBufferBudgetBytes;
+    }
+
+    /**
+     * Releases every session and stops the capture threads.
+     */
+    public void shutdown() {
+        List<AudioSession> sessions;
+        synchronized (this) {
+            mShutdown = true;
+            sessions = new ArrayList<>(mSessions);
+        }
+        for (AudioSession session : sessions) {
+            session.release();
+        }
+        mExecutor.shutdown();
+    }
+}
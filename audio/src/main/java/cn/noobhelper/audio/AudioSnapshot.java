@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The last stretch of captured audio, see {@link AudioController#snapshot(long)}.
+ * Samples are little-endian, interleaved and in the delivered format:
+ * 16-bit for {@link AudioParams#SAMPLE_TYPE_SHORT}, 32-bit float for
+ * {@link AudioParams#SAMPLE_TYPE_FLOAT}, the capture format otherwise.
+ */
+public final class AudioSnapshot {
+    private final ByteBuffer mData;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mBytesPerSample;
+    private final long mStartTimestampNanos;
+    private final long mEndTimestampNanos;
+
+    AudioSnapshot(ByteBuffer data, int sampleRate, int channelCount, int bytesPerSample,
+                  long startTimestampNanos, long endTimestampNanos) {
+        mData = data;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBytesPerSample = bytesPerSample;
+        mStartTimestampNanos = startTimestampNanos;
+        mEndTimestampNanos = endTimestampNanos;
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public int getSampleCount() {
+        return mData.remaining() / mBytesPerSample;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getBytesPerSample() {
+        return mBytesPerSample;
+    }
+
+    /**
+     * Timestamp of the start of the first sample, on the same clock as frame
+     * timestamps.
+     */
+    public long getStartTimestampNanos() {
+        return mStartTimestampNanos;
+    }
+
+    /**
+     * Timestamp of the end of the last sample; equals the timestamp of the
+     * last frame written.
+     */
+    public long getEndTimestampNanos() {
+        return mEndTimestampNanos;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Point-in-time snapshot of the capture pipeline, see
+ * {@link AudioController#getStats()}. All durations are in nanoseconds.
+ */
+public final class AudioStats {
+    private final long mTimestampNanos;
+    private final long mFramesCaptured;
+    private final long mSamplesCaptured;
+    private final long mFramesDelivered;
+    private final long mFramesDropped;
+    private final long mFramesSuppressed;
+    private final long mInvalidOperationCount;
+    private final long mReadErrorCount;
+    private final long mShortReadCount;
+    private final int mFrameSize;
+    private final int mFrameSampleCount;
+    private final int mBatchFrameCount;
+    private final Histogram mReadTime;
+    private final Histogram mCallbackTime;
+    private final Histogram mProcessTime;
+    private final Histogram mFeatureTime;
+    private final Histogram mLatency;
+    private final Histogram mColdStartTime;
+    private final Histogram mWarmStartTime;
+    private final Histogram mStopTime;
+
+    AudioStats(AudioMetrics metrics, FramePool framePool, FrameDispatcher frameDispatcher) {
+        mTimestampNanos = System.nanoTime();
+        mFramesCaptured = metrics.mFramesCaptured.get();
+        mSamplesCaptured = metrics.mSamplesCaptured.get();
+        mFramesDelivered = metrics.mFramesDelivered.get();
+        long dropped = metrics.mFramesDropped.get();
+        if (frameDispatcher != null) {
+            dropped += frameDispatcher.getOverrunCount();
+        }
+        if (framePool != null) {
+            dropped += framePool.getReclaimedCount();
+        }
+        mFramesDropped = dropped;
+        mFramesSuppressed = metrics.mFramesSuppressed.get();
+        mInvalidOperationCount = metrics.mInvalidOperationCount.get();
+        mReadErrorCount = metrics.mReadErrorCount.get();
+        mShortReadCount = metrics.mShortReadCount.get();
+        mFrameSize = metrics.mFrameSize;
+        mFrameSampleCount = metrics.mFrameSampleCount;
+        mBatchFrameCount = metrics.mBatchFrameCount;
+        mReadTime = metrics.mReadTime.snapshot();
+        mCallbackTime = metrics.mCallbackTime.snapshot();
+        mProcessTime = metrics.mProcessTime.snapshot();
+        mFeatureTime = metrics.mFeatureTime.snapshot();
+        mLatency = metrics.mLatency.snapshot();
+        mColdStartTime = metrics.mColdStartTime.snapshot();
+        mWarmStartTime = metrics.mWarmStartTime.snapshot();
+        mStopTime = metrics.mStopTime.snapshot();
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    public long getFramesCaptured() {
+        return mFramesCaptured;
+    }
+
+    public long getSamplesCaptured() {
+        return mSamplesCaptured;
+    }
+
+    /**
+     * Callback invocations; one per batch when frames are batched.
+     */
+    public long getFramesDelivered() {
+        return mFramesDelivered;
+    }
+
+    /**
+     * Frames lost to an exhausted pool, a reclaimed lease or a full dispatch
+     * ring.
+     */
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    /**
+     * Silent frames that voice activity detection kept from the callback.
+     */
+    public long getFramesSuppressed() {
+        return mFramesSuppressed;
+    }
+
+    /**
+     * Reads that returned {@code AudioRecord.ERROR_INVALID_OPERATION}.
+     */
+    public long getInvalidOperationCount() {
+        return mInvalidOperationCount;
+    }
+
+    /**
+     * Reads that returned any other negative error code.
+     */
+    public long getReadErrorCount() {
+        return mReadErrorCount;
+    }
+
+    /**
+     * Reads that returned less than a full frame.
+     */
+    public long getShortReadCount() {
+        return mShortReadCount;
+    }
+
+    /**
+     * Bytes per frame in the capture format, as chosen by the engine for
+     * the current or last session.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Samples per channel in a frame, at the capture sample rate.
+     */
+    public int getFrameSampleCount() {
+        return mFrameSampleCount;
+    }
+
+    /**
+     * Frames per callback, 1 when frames are not batched.
+     */
+    public int getBatchFrameCount() {
+        return mBatchFrameCount;
+    }
+
+    /**
+     * Time spent inside each read call.
+     */
+    public Histogram getReadTime() {
+        return mReadTime;
+    }
+
+    /**
+     * Time spent delivering a frame to the callback and subscribers.
+     */
+    public Histogram getCallbackTime() {
+        return mCallbackTime;
+    }
+
+    /**
+     * Time spent running the {@link ProcessorChain} over each frame.
+     */
+    public Histogram getProcessTime() {
+        return mProcessTime;
+    }
+
+    /**
+     * Time spent collecting each frame into the feature window, including
+     * the FFTs and {@link FeatureCallback} calls of the hops it completed.
+     */
+    public Histogram getFeatureTime() {
+        return mFeatureTime;
+    }
+
+    /**
+     * Estimated age of the first sample of a frame when its callback starts:
+     * one frame duration plus the time since the read returned.
+     */
+    public Histogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Time to first frame of sessions that had to create their capture
+     * source, measured from setupAudio, or startAudio when setup was done
+     * earlier.
+     */
+    public Histogram getColdStartTime() {
+        return mColdStartTime;
+    }
+
+    /**
+     * Time to first frame of sessions that resumed an existing capture
+     * source, measured from startAudio (or setupAudio in warm mode).
+     */
+    public Histogram getWarmStartTime() {
+        return mWarmStartTime;
+    }
+
+    /**
+     * Time from stopAudio to the capture loop letting go of the source. In
+     * blocking read mode this includes the read that was in progress.
+     */
+    public Histogram getStopTime() {
+        return mStopTime;
+    }
+}
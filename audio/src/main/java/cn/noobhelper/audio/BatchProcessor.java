@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs stored WAV or raw PCM clips through the capture pipeline in parallel,
+ * unpaced. Each worker thread owns one {@link AudioEngine} and keeps its
+ * frame pool and scratch buffers from clip to clip; workers pull the next
+ * clip from a shared counter, so a worker that finishes early takes more
+ * clips instead of idling.
+ */
+public final class BatchProcessor {
+    private static final String WORKER_THREAD_NAME = "AudioBatchWorker-";
+
+    /**
+     * Creates the processor for one clip. It sees the usual
+     * {@link AudioCallback} sequence, from onAudioSetup to onAudioRelease, on
+     * the worker thread that processes the clip.
+     */
+    public interface CallbackFactory {
+        AudioCallback create(File input);
+    }
+
+    private final int mParallelism;
+    private final AudioParams mAudioParams;
+
+    /**
+     * @param audioParams frame size, sample type, pool and dispatch settings
+     *                    for every clip; sample rate, channels and encoding
+     *                    come from each file (raw files use them as given)
+     */
+    public BatchProcessor(int parallelism, AudioParams audioParams) {
+        mParallelism = Math.max(1, parallelism);
+        mAudioParams = audioParams;
+    }
+
+    public BatchProcessor(AudioParams audioParams) {
+        this(Runtime.getRuntime().availableProcessors(), audioParams);
+    }
+
+    /**
+     * Processes every input and blocks until all are done.
+     */
+    public BatchResult process(final List<File> inputs, final CallbackFactory callbackFactory) {
+        final AtomicInteger nextInput = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong audioNanos = new AtomicLong();
+        long startNanos = System.nanoTime();
+
+        int workerCount = Math.min(mParallelism, inputs.size());
+        Thread[] workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    AudioEngine audioEngine = new AudioEngine();
+                    int index;
+                    while ((index = nextInput.getAndIncrement()) < inputs.size()) {
+                        File input = inputs.get(index);
+                        // setupAudioEngine writes the resolved frame size back, so each clip starts afresh
+                        AudioParams audioParams = new AudioParams(mAudioParams);
+                        long samplesBefore = audioEngine.getStats().getSamplesCaptured();
+                        if (!processInput(audioEngine, audioParams, input, callbackFactory)) {
+                            failedCount.incrementAndGet();
+                            // the engine may have been left mid-capture, don't reuse it
+                            audioEngine = new AudioEngine();
+                            continue;
+                        }
+                        long clipSamples = audioEngine.getStats().getSamplesCaptured() - samplesBefore;
+                        samples.addAndGet(clipSamples);
+                        audioNanos.addAndGet(clipSamples / audioParams.getChannelCount() * 1000000000L
+                                / audioParams.getSampleRate());
+                    }
+                }
+            }, WORKER_THREAD_NAME + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return new BatchResult(inputs.size(), failedCount.get(), samples.get(), audioNanos.get(),
+                System.nanoTime() - startNanos);
+    }
+
+    private boolean processInput(AudioEngine audioEngine, AudioParams audioParams, File input,
+                                 CallbackFactory callbackFactory) {
+        FileCaptureSource source;
+        try {
+            if (input.getName().toLowerCase().endsWith(".wav")) {
+                source = FileCaptureSource.openWav(input, false);
+            } else {
+                source = FileCaptureSource.openRaw(input, mAudioParams.getSampleRate(),
+                        mAudioParams.getChannelCount(), mAudioParams.getAudioFormat(), false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        AudioCallback audioCallback = null;
+        try {
+            source.applyTo(audioParams);
+            audioCallback = callbackFactory.create(input);
+            audioEngine.setCaptureSource(source);
+            audioEngine.setAudioCallback(audioCallback);
+            audioEngine.setupAudioEngine(audioParams);
+            audioEngine.startAudioEngine();
+            return true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // The engine, and with it the frame pool, stays with the worker; only
+            // the clip's source and callback are let go.
+            source.release();
+            if (audioCallback != null) {
+                audioCallback.onAudioRelease();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Outcome of {@link BatchProcessor#process}. Throughput counts samples across
+ * all channels.
+ */
+public final class BatchResult {
+    private final int mInputCount;
+    private final int mFailedCount;
+    private final long mSampleCount;
+    private final long mAudioNanos;
+    private final long mElapsedNanos;
+
+    BatchResult(int inputCount, int failedCount, long sampleCount, long audioNanos, long elapsedNanos) {
+        mInputCount = inputCount;
+        mFailedCount = failedCount;
+        mSampleCount = sampleCount;
+        mAudioNanos = audioNanos;
+        mElapsedNanos = elapsedNanos;
+    }
+
+    public int getInputCount() {
+        return mInputCount;
+    }
+
+    /**
+     * Inputs that could not be opened or failed while being processed.
+     */
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    public double getSamplesPerSecond() {
+        return mElapsedNanos == 0 ? 0 : mSampleCount * 1e9 / mElapsedNanos;
+    }
+
+    /**
+     * Seconds of audio processed per second of wall time.
+     */
+    public double getRealtimeFactor() {
+        return mElapsedNanos == 0 ? 0 : (double) mAudioNanos / mElapsedNanos;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * One change made by buffer auto-tuning, together with what was observed
+ * over the window that led to it.
+ */
+public final class BufferTuneDecision {
+    // the number of pooled frames, excluding frames held back as VAD pre-roll
+    public static final int TARGET_FRAME_POOL = 0;
+    // the AudioRecord buffer in bytes; the record is rebuilt to apply it
+    public static final int TARGET_RECORD_BUFFER = 1;
+
+    // frames were dropped or reclaimed because the pool ran out
+    public static final int REASON_FRAMES_DROPPED = 0;
+    // consumers held nearly every frame
+    public static final int REASON_LOW_HEADROOM = 1;
+    // consumers held far fewer frames than pooled for a while
+    public static final int REASON_POOL_IDLE = 2;
+    // reads fell behind by most of the record buffer
+    public static final int REASON_READ_JITTER = 3;
+    // reads kept up with a large margin for a while
+    public static final int REASON_JITTER_SETTLED = 4;
+
+    private final int mTarget;
+    private final int mReason;
+    private final int mOldValue;
+    private final int mNewValue;
+    private final long mTimestampNanos;
+    private final int mPeakLeasedFrames;
+    private final long mLostFrames;
+    private final long mShortReads;
+    private final long mMaxBacklogNanos;
+
+    BufferTuneDecision(int target, int reason, int oldValue, int newValue, long timestampNanos,
+                       int peakLeasedFrames, long lostFrames, long shortReads, long maxBacklogNanos) {
+        mTarget = target;
+        mReason = reason;
+        mOldValue = oldValue;
+        mNewValue = newValue;
+        mTimestampNanos = timestampNanos;
+        mPeakLeasedFrames = peakLeasedFrames;
+        mLostFrames = lostFrames;
+        mShortReads = shortReads;
+        mMaxBacklogNanos = maxBacklogNanos;
+    }
+
+    public int getTarget() {
+        return mTarget;
+    }
+
+    public int getReason() {
+        return mReason;
+    }
+
+    /**
+     * Frames for {@link #TARGET_FRAME_POOL}, bytes for
+     * {@link #TARGET_RECORD_BUFFER}.
+     */
+    public int getOldValue() {
+        return mOldValue;
+    }
+
+    public int getNewValue() {
+        return mNewValue;
+    }
+
+    /**
+     * System.nanoTime() of the decision.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * Most frames held by consumers and queues at once in the window.
+     */
+    public int getPeakLeasedFrames() {
+        return mPeakLeasedFrames;
+    }
+
+    /**
+     * Frames dropped, reclaimed or overrun in the window.
+     */
+    public long getLostFrames() {
+        return mLostFrames;
+    }
+
+    public long getShortReads() {
+        return mShortReads;
+    }
+
+    /**
+     * Largest amount of audio, in nanoseconds, estimated to have waited in
+     * the record buffer in the window.
+     */
+    public long getMaxBacklogNanos() {
+        return mMaxBacklogNanos;
+    }
+}
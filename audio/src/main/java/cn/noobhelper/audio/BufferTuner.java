@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Sizes the frame pool and the record buffer from what the capture loop
+ * observes, for {@link AudioParams#AUTO_TUNE_ON}. Once per window it looks at
+ * frames lost to an exhausted pool or a full dispatch queue, the most frames
+ * consumers held at once, short reads, and how far reads fell behind the
+ * audio, estimated from the time between reads. The pool grows quickly on
+ * loss and shrinks slowly when idle, within the configured bounds and never
+ * beyond what fits the target latency. The record buffer is grown when
+ * reads fall behind by most of it and shrunk after a long calm stretch.
+ * Lives as long as the engine's settings, so what it learned survives
+ * restarts; runs on the capture thread only.
+ */
+final class BufferTuner {
+    private static final long WINDOW_NANOS = 1000000000L;
+    // spare frames kept on top of the most consumers held at once
+    private static final int HEADROOM_FRAMES = 2;
+    private static final int POOL_SHRINK_WINDOWS = 5;
+    private static final int RECORD_SHRINK_WINDOWS = 30;
+
+    private final int mMinFrameCount;
+    private final int mMaxFrameCount;
+    private final int mTargetLatencyMs;
+    private final int mMaxRecordBufferSize;
+    private int mFrameCount;
+
+    private FramePool mFramePool;
+    private FrameDispatcher mFrameDispatcher;
+    private BufferTuneCallback mListener;
+    private int mHoldFrameCount;
+    private int mUpperFrameCount;
+    private int mRecordBufferSize;
+    private int mMinRecordBufferSize;
+    private int mBytesPerSampleFrame;
+    private int mSampleRate;
+
+    private long mWindowStartNanos;
+    private long mLastReadNanos;
+    private long mBacklogNanos;
+    private long mMaxBacklogNanos;
+    private long mShortReads;
+    private long mLostBaseline;
+    private int mIdleWindows;
+    // most frames held in any window of the current idle stretch
+    private int mIdlePeak;
+    private int mCalmWindows;
+    private long mCalmMaxBacklogNanos;
+
+    BufferTuner(AudioParams audioParams) {
+        mMinFrameCount = Math.max(HEADROOM_FRAMES + 1, audioParams.getMinFrameBufferCount());
+        mMaxFrameCount = Math.max(mMinFrameCount, audioParams.getMaxFrameBufferCount());
+        mTargetLatencyMs = audioParams.getTargetLatencyMs();
+        mMaxRecordBufferSize = audioParams.getMaxAudioBufferSize();
+        mFrameCount = audioParams.getFrameBufferCount();
+    }
+
+    boolean matches(AudioParams audioParams) {
+        return mMinFrameCount == Math.max(HEADROOM_FRAMES + 1, audioParams.getMinFrameBufferCount())
+                && mMaxFrameCount == Math.max(mMinFrameCount, audioParams.getMaxFrameBufferCount())
+                && mTargetLatencyMs == audioParams.getTargetLatencyMs()
+                && mMaxRecordBufferSize == audioParams.getMaxAudioBufferSize();
+    }
+
+    /**
+     * Frame count to size the pool with, excluding VAD hold frames, for a
+     * session whose frames last {@code framePeriodNanos}.
+     */
+    int getFrameCount(long framePeriodNanos) {
+        long latencyFrames = mTargetLatencyMs * 1000000L / Math.max(1, framePeriodNanos);
+        mUpperFrameCount = (int) Math.max(mMinFrameCount, Math.min(mMaxFrameCount, latencyFrames));
+        mFrameCount = Math.max(mMinFrameCount, Math.min(mUpperFrameCount, mFrameCount));
+        return mFrameCount;
+    }
+
+    int getMaxFrameCount() {
+        return mMaxFrameCount;
+    }
+
+    /**
+     * Starts observing a session. {@code recordBufferSize} is 0 when the
+     * capture source has no record buffer that can be rebuilt.
+     */
+    void begin(FramePool framePool, FrameDispatcher frameDispatcher, int holdFrameCount, int recordBufferSize,
+               int minRecordBufferSize, int sampleRate, int bytesPerSampleFrame, BufferTuneCallback listener) {
+        mFramePool = framePool;
+        mFrameDispatcher = frameDispatcher;
+        mHoldFrameCount = holdFrameCount;
+        mRecordBufferSize = recordBufferSize;
+        mMinRecordBufferSize = minRecordBufferSize;
+        mSampleRate = sampleRate;
+        mBytesPerSampleFrame = bytesPerSampleFrame;
+        mListener = listener;
+        mWindowStartNanos = 0;
+        mLastReadNanos = 0;
+        mBacklogNanos = 0;
+        mMaxBacklogNanos = 0;
+        mShortReads = 0;
+        mLostBaseline = getLostCount();
+        framePool.takeWindowPeak();
+    }
+
+    /**
+     * Call after every read that returned audio.
+     *
+     * @param durationNanos duration of the audio read
+     * @return a record buffer size in bytes to rebuild the record with, or 0
+     */
+    int onRead(long readEndNanos, long durationNanos, boolean shortRead) {
+        if (mLastReadNanos == 0) {
+            mWindowStartNanos = readEndNanos;
+        } else {
+            // audio piles up in the record buffer while the loop is away and
+            // drains by what each read takes out
+            long peakNanos = mBacklogNanos + (readEndNanos - mLastReadNanos);
+            mMaxBacklogNanos = Math.max(mMaxBacklogNanos, peakNanos);
+            mBacklogNanos = Math.max(0, peakNanos - durationNanos);
+        }
+        mLastReadNanos = readEndNanos;
+        if (shortRead) {
+            mShortReads++;
+        }
+        if (readEndNanos - mWindowStartNanos < WINDOW_NANOS) {
+            return 0;
+        }
+        int recordBufferSize = endWindow(readEndNanos);
+        mWindowStartNanos = readEndNanos;
+        mMaxBacklogNanos = 0;
+        mShortReads = 0;
+        return recordBufferSize;
+    }
+
+    private int endWindow(long nowNanos) {
+        int peak = Math.max(0, mFramePool.takeWindowPeak() - mHoldFrameCount);
+        long lostCount = getLostCount();
+        long lost = lostCount - mLostBaseline;
+        mLostBaseline = lostCount;
+
+        int frameCount = mFrameCount;
+        int reason = -1;
+        if (lost > 0 && frameCount < mUpperFrameCount) {
+            frameCount = Math.min(mUpperFrameCount, Math.max(frameCount + HEADROOM_FRAMES, frameCount * 3 / 2));
+            reason = BufferTuneDecision.REASON_FRAMES_DROPPED;
+        } else if (lost == 0 && peak >= frameCount - 1 && frameCount < mUpperFrameCount) {
+            frameCount = Math.min(mUpperFrameCount, frameCount + HEADROOM_FRAMES);
+            reason = BufferTuneDecision.REASON_LOW_HEADROOM;
+        } else if (lost == 0 && peak + HEADROOM_FRAMES < frameCount) {
+            mIdlePeak = Math.max(mIdlePeak, peak);
+            if (++mIdleWindows >= POOL_SHRINK_WINDOWS) {
+                frameCount = Math.max(mMinFrameCount, mIdlePeak + HEADROOM_FRAMES);
+                reason = BufferTuneDecision.REASON_POOL_IDLE;
+            }
+        } else {
+            mIdleWindows = 0;
+            mIdlePeak = 0;
+        }
+        if (reason >= 0 && frameCount != mFrameCount) {
+            mIdleWindows = 0;
+            mIdlePeak = 0;
+            mFramePool.setFrameCount(frameCount + mHoldFrameCount);
+            if (mFrameDispatcher != null) {
+                mFrameDispatcher.setQueueCapacity(frameCount - 2);
+            }
+            report(BufferTuneDecision.TARGET_FRAME_POOL, reason, mFrameCount, frameCount, nowNanos, peak, lost);
+            mFrameCount = frameCount;
+        }
+        return mRecordBufferSize > 0 ? tuneRecordBuffer(nowNanos, peak, lost) : 0;
+    }
+
+    private int tuneRecordBuffer(long nowNanos, int peak, long lost) {
+        long bufferNanos = toNanos(mRecordBufferSize);
+        int recordBufferSize = mRecordBufferSize;
+        int reason = -1;
+        if (mMaxBacklogNanos > bufferNanos * 3 / 4) {
+            mCalmWindows = 0;
+            mCalmMaxBacklogNanos = 0;
+            recordBufferSize = Math.min(mMaxRecordBufferSize, toBytes(mMaxBacklogNanos * 2));
+            if (recordBufferSize > mRecordBufferSize) {
+                reason = BufferTuneDecision.REASON_READ_JITTER;
+            }
+        } else if (mMaxBacklogNanos < bufferNanos / 4 && mShortReads == 0) {
+            mCalmMaxBacklogNanos = Math.max(mCalmMaxBacklogNanos, mMaxBacklogNanos);
+            if (++mCalmWindows >= RECORD_SHRINK_WINDOWS) {
+                mCalmWindows = 0;
+                int shrunk = Math.max(mMinRecordBufferSize, toBytes(mCalmMaxBacklogNanos * 2));
+                mCalmMaxBacklogNanos = 0;
+                // not worth rebuilding the record for less than a quarter
+                if (shrunk < mRecordBufferSize * 3 / 4) {
+                    recordBufferSize = shrunk;
+                    reason = BufferTuneDecision.REASON_JITTER_SETTLED;
+                }
+            }
+        } else {
+            mCalmWindows = 0;
+            mCalmMaxBacklogNanos = 0;
+        }
+        if (reason < 0) {
+            return 0;
+        }
+        report(BufferTuneDecision.TARGET_RECORD_BUFFER, reason, mRecordBufferSize, recordBufferSize, nowNanos,
+                peak, lost);
+        mRecordBufferSize = recordBufferSize;
+        return recordBufferSize;
+    }
+
+    private void report(int target, int reason, int oldValue, int newValue, long nowNanos, int peak, long lost) {
+        if (mListener != null) {
+            mListener.onBufferTuned(new BufferTuneDecision(target, reason, oldValue, newValue, nowNanos, peak,
+                    lost, mShortReads, mMaxBacklogNanos));
+        }
+    }
+
+    private long getLostCount() {
+        long lost = mFramePool.getDroppedCount() + mFramePool.getReclaimedCount();
+        if (mFrameDispatcher != null) {
+            lost += mFrameDispatcher.getOverrunCount();
+        }
+        return lost;
+    }
+
+    private long toNanos(int bytes) {
+        return (long) bytes / mBytesPerSampleFrame * 1000000000L / mSampleRate;
+    }
+
+    private int toBytes(long nanos) {
+        long sampleFrames = (nanos * mSampleRate + 999999999L) / 1000000000L;
+        return (int) Math.min(Integer.MAX_VALUE, sampleFrames * mBytesPerSampleFrame);
+    }
+}
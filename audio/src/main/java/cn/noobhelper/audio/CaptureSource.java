@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where {@link AudioEngine} pulls PCM data from. The read methods follow the
+ * {@link android.media.AudioRecord} contract: they return the amount of data
+ * read or one of the negative error codes below. The source's sample rate,
+ * channel count and encoding must match the {@link AudioParams} it is set up
+ * with.
+ */
+public interface CaptureSource {
+    int ERROR = -1;
+    int ERROR_BAD_VALUE = -2;
+    int ERROR_INVALID_OPERATION = -3;
+    // the source has no more data, the engine stops as if stopAudio was called
+    int END_OF_STREAM = -100;
+
+    boolean start();
+
+    /**
+     * Switches the read calls between blocking until the requested amount is
+     * read and returning at once with whatever is available, possibly 0.
+     *
+     * @return false when the source cannot read without blocking; its reads
+     * then keep blocking
+     */
+    boolean setNonBlocking(boolean nonBlocking);
+
+    int read(byte[] audioData, int offsetInBytes, int sizeInBytes);
+
+    /**
+     * Reads into {@code audioBuffer} starting at index 0, without touching its
+     * position or limit.
+     */
+    int read(ByteBuffer audioBuffer, int sizeInBytes);
+
+    /**
+     * Returns the number of shorts read, for {@code ENCODING_PCM_16BIT}.
+     */
+    int read(short[] audioData, int offsetInShorts, int sizeInShorts);
+
+    /**
+     * Returns the number of floats read, for {@code ENCODING_PCM_FLOAT}.
+     */
+    int read(float[] audioData, int offsetInFloats, int sizeInFloats);
+
+    int getSampleRate();
+
+    /**
+     * Timestamp of the first sample after {@link #start()}. Frame timestamps
+     * are this value plus the duration of the samples read so far.
+     */
+    long getTimestampBaseNanos();
+
+    void stop();
+
+    void release();
+}
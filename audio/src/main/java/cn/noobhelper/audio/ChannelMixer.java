@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reduces interleaved multi-channel frames to mono in place, either by
+ * averaging all channels ({@link AudioParams#CHANNEL_MIX_DOWNMIX}) or by
+ * keeping one of them ({@link AudioParams#CHANNEL_MIX_SELECT}). It runs
+ * right after the read, so resampling, processing and every consumer only
+ * see the one channel. The output of each sample frame lands at or before
+ * its input, which is what makes a single in-place pass possible.
+ */
+public final class ChannelMixer {
+    private final int mMode;
+    private final int mChannelCount;
+    private final int mSelectedChannel;
+    private int[] mSums = new int[0];
+
+    /**
+     * @param selectedChannel channel kept by {@link AudioParams#CHANNEL_MIX_SELECT},
+     *                        clamped to the channels there are
+     */
+    public ChannelMixer(int mode, int channelCount, int selectedChannel) {
+        mMode = mode;
+        mChannelCount = channelCount;
+        mSelectedChannel = Math.max(0, Math.min(channelCount - 1, selectedChannel));
+    }
+
+    public boolean matches(int mode, int channelCount, int selectedChannel) {
+        return mMode == mode && mChannelCount == channelCount
+                && mSelectedChannel == Math.max(0, Math.min(channelCount - 1, selectedChannel));
+    }
+
+    /**
+     * @return the number of mono samples now at the start of the array
+     */
+    public int process(short[] samples, int offset, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (mMode == AudioParams.CHANNEL_MIX_SELECT) {
+            for (int i = 0, p = offset + mSelectedChannel; i < frames; i++, p += channelCount) {
+                samples[offset + i] = samples[p];
+            }
+        } else if (channelCount == 2) {
+            for (int i = 0, p = offset; i < frames; i++, p += 2) {
+                samples[offset + i] = (short) ((samples[p] + samples[p + 1]) >> 1);
+            }
+        } else {
+            // one channel per pass into the sums, the short inner loop of a
+            // frame at a time does not unroll
+            int[] sums = sums(frames);
+            for (int i = 0, p = offset; i < frames; i++, p += channelCount) {
+                sums[i] = samples[p];
+            }
+            for (int c = 1; c < channelCount; c++) {
+                for (int i = 0, p = offset + c; i < frames; i++, p += channelCount) {
+                    sums[i] += samples[p];
+                }
+            }
+            // fixed-point reciprocal, a division per sample costs more than the mix
+            int scale = 65536 / channelCount;
+            for (int i = 0; i < frames; i++) {
+                samples[offset + i] = (short) ((sums[i] * scale) >> 16);
+            }
+        }
+        return frames;
+    }
+
+    public int process(float[] samples, int offset, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (mMode == AudioParams.CHANNEL_MIX_SELECT) {
+            for (int i = 0, p = offset + mSelectedChannel; i < frames; i++, p += channelCount) {
+                samples[offset + i] = samples[p];
+            }
+        } else if (channelCount == 2) {
+            for (int i = 0, p = offset; i < frames; i++, p += 2) {
+                samples[offset + i] = (samples[p] + samples[p + 1]) * 0.5f;
+            }
+        } else {
+            // sums the later channels onto the first in place, each pass
+            // only writes sample frames it has already read
+            for (int c = 1; c < channelCount; c++) {
+                for (int i = 0, p = offset; i < frames; i++, p += channelCount) {
+                    samples[p] += samples[p + c];
+                }
+            }
+            float scale = 1.0f / channelCount;
+            for (int i = 0, p = offset; i < frames; i++, p += channelCount) {
+                samples[offset + i] = samples[p] * scale;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Mixes little-endian PCM from index 0 and sets the limit to the mono
+     * data.
+     */
+    public int process(ByteBuffer buffer, int sampleCount, int bytesPerSample) {
+        int frames = sampleCount / mChannelCount;
+        if (mMode == AudioParams.CHANNEL_MIX_SELECT) {
+            selectPcm(buffer, frames, bytesPerSample);
+        } else if (bytesPerSample == 2 && buffer.hasArray()) {
+            downmixPcm16(buffer.array(), buffer.arrayOffset(), frames);
+        } else if (bytesPerSample == 2 && buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            downmixPcm16(buffer, frames);
+        } else {
+            downmixPcm(buffer, frames, bytesPerSample);
+        }
+        buffer.position(0);
+        buffer.limit(frames * bytesPerSample);
+        return frames;
+    }
+
+    private int[] sums(int frames) {
+        if (mSums.length < frames) {
+            mSums = new int[frames];
+        }
+        return mSums;
+    }
+
+    private void selectPcm(ByteBuffer buffer, int frames, int bytesPerSample) {
+        int stride = mChannelCount * bytesPerSample;
+        for (int i = 0, q = 0, p = mSelectedChannel * bytesPerSample; i < frames; i++, p += stride) {
+            for (int b = 0; b < bytesPerSample; b++) {
+                buffer.put(q++, buffer.get(p + b));
+            }
+        }
+    }
+
+    private void downmixPcm16(byte[] data, int offset, int frames) {
+        int channelCount = mChannelCount;
+        int stride = channelCount * 2;
+        int[] sums = sums(frames);
+        for (int i = 0, p = offset; i < frames; i++, p += stride) {
+            sums[i] = (short) ((data[p] & 0xFF) | data[p + 1] << 8);
+        }
+        for (int c = 1; c < channelCount; c++) {
+            for (int i = 0, p = offset + c * 2; i < frames; i++, p += stride) {
+                sums[i] += (short) ((data[p] & 0xFF) | data[p + 1] << 8);
+            }
+        }
+        int scale = 65536 / channelCount;
+        for (int i = 0, q = offset; i < frames; i++, q += 2) {
+            int sample = (sums[i] * scale) >> 16;
+            data[q] = (byte) sample;
+            data[q + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private void downmixPcm16(ByteBuffer buffer, int frames) {
+        int channelCount = mChannelCount;
+        int stride = channelCount * 2;
+        int[] sums = sums(frames);
+        for (int i = 0, p = 0; i < frames; i++, p += stride) {
+            sums[i] = buffer.getShort(p);
+        }
+        for (int c = 1; c < channelCount; c++) {
+            for (int i = 0, p = c * 2; i < frames; i++, p += stride) {
+                sums[i] += buffer.getShort(p);
+            }
+        }
+        int scale = 65536 / channelCount;
+        for (int i = 0; i < frames; i++) {
+            buffer.putShort(2 * i, (short) ((sums[i] * scale) >> 16));
+        }
+    }
+
+    private void downmixPcm(ByteBuffer buffer, int frames, int bytesPerSample) {
+        int channelCount = mChannelCount;
+        float scale = 1.0f / channelCount;
+        for (int i = 0, p = 0; i < frames; i++) {
+            float sum = 0;
+            for (int c = 0; c < channelCount; c++, p += bytesPerSample) {
+                sum += SampleConverter.getSample(buffer, p, bytesPerSample);
+            }
+            SampleConverter.putSample(buffer, i * bytesPerSample, bytesPerSample, sum * scale);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Deinterleaves delivered frames into pooled {@link PlanarFrame}s, reading
+ * each input sample once. Frames grow to the largest input seen, e.g. a
+ * batch; frames still held at that point are dropped from the pool when
+ * they come back. Up to {@link #POOL_SIZE} released frames are kept.
+ */
+final class ChannelSplitter {
+    static final int POOL_SIZE = 4;
+
+    private final int mChannelCount;
+    private final int mBufferType;
+    private final int mBytesPerSample;
+    private final ArrayDeque<PlanarFrame> mFreeFrames = new ArrayDeque<>(POOL_SIZE);
+    // guarded by this
+    private int mCapacity;
+
+    /**
+     * @param capacity expected samples per channel; larger frames still work
+     */
+    ChannelSplitter(int channelCount, int bufferType, int bytesPerSample, int capacity) {
+        mChannelCount = channelCount;
+        mBufferType = bufferType;
+        mBytesPerSample = bytesPerSample;
+        mCapacity = Math.max(1, capacity);
+    }
+
+    boolean matches(int channelCount, int bufferType, int bytesPerSample) {
+        return mChannelCount == channelCount && mBufferType == bufferType && mBytesPerSample == bytesPerSample;
+    }
+
+    /**
+     * Returns a planar copy of {@code frame} with a reference count of one.
+     */
+    PlanarFrame split(AudioFrame frame) {
+        int channelCount = mChannelCount;
+        int frames = frame.getSampleCount() / channelCount;
+        PlanarFrame planar = lease(frames);
+        int stride = planar.getCapacity();
+        if (frame.getShortSamples() != null) {
+            deinterleave(frame.getShortSamples(), planar.getShortSamples(), frames, stride);
+        } else if (frame.getFloatSamples() != null) {
+            deinterleave(frame.getFloatSamples(), planar.getFloatSamples(), frames, stride);
+        } else {
+            deinterleave(frame.getBuffer(), planar.getBuffer().array(), frames, stride);
+        }
+        planar.set(frames, frame.getTimestampNanos(), frame.getSequence(), frame.isVoiceActive());
+        return planar;
+    }
+
+    private void deinterleave(short[] src, short[] dst, int frames, int stride) {
+        int channelCount = mChannelCount;
+        if (channelCount == 2) {
+            for (int i = 0, p = 0; i < frames; i++, p += 2) {
+                dst[i] = src[p];
+                dst[stride + i] = src[p + 1];
+            }
+            return;
+        }
+        // one channel at a time keeps the writes sequential
+        for (int c = 0, q = 0; c < channelCount; c++, q += stride) {
+            for (int i = 0, p = c; i < frames; i++, p += channelCount) {
+                dst[q + i] = src[p];
+            }
+        }
+    }
+
+    private void deinterleave(float[] src, float[] dst, int frames, int stride) {
+        int channelCount = mChannelCount;
+        if (channelCount == 2) {
+            for (int i = 0, p = 0; i < frames; i++, p += 2) {
+                dst[i] = src[p];
+                dst[stride + i] = src[p + 1];
+            }
+            return;
+        }
+        // one channel at a time keeps the writes sequential
+        for (int c = 0, q = 0; c < channelCount; c++, q += stride) {
+            for (int i = 0, p = c; i < frames; i++, p += channelCount) {
+                dst[q + i] = src[p];
+            }
+        }
+    }
+
+    private void deinterleave(ByteBuffer src, byte[] dst, int frames, int stride) {
+        int channelCount = mChannelCount;
+        int bytesPerSample = mBytesPerSample;
+        int channelBytes = stride * bytesPerSample;
+        if (src.hasArray()) {
+            byte[] data = src.array();
+            int p = src.arrayOffset();
+            for (int i = 0; i < frames; i++) {
+                for (int c = 0, q = i * bytesPerSample; c < channelCount; c++, q += channelBytes) {
+                    for (int b = 0; b < bytesPerSample; b++) {
+                        dst[q + b] = data[p++];
+                    }
+                }
+            }
+            return;
+        }
+        // absolute reads, the buffer may be shared with other subscribers
+        for (int i = 0, p = 0; i < frames; i++) {
+            for (int c = 0, q = i * bytesPerSample; c < channelCount; c++, q += channelBytes) {
+                for (int b = 0; b < bytesPerSample; b++) {
+                    dst[q + b] = src.get(p++);
+                }
+            }
+        }
+    }
+
+    private synchronized PlanarFrame lease(int frames) {
+        if (frames > mCapacity) {
+            mCapacity = frames;
+            mFreeFrames.clear();
+        }
+        PlanarFrame planar = mFreeFrames.pollFirst();
+        if (planar == null) {
+            planar = new PlanarFrame(this, mChannelCount, mCapacity, mBufferType, mBytesPerSample);
+        }
+        planar.mRefCount = 1;
+        return planar;
+    }
+
+    synchronized void retain(PlanarFrame frame) {
+        if (frame.mRefCount <= 0) {
+            throw new IllegalStateException("retain() on a released frame");
+        }
+        frame.mRefCount++;
+    }
+
+    synchronized void release(PlanarFrame frame) {
+        if (frame.mRefCount <= 0) {
+            throw new IllegalStateException("release() on a released frame");
+        }
+        if (--frame.mRefCount == 0 && frame.getCapacity() == mCapacity && mFreeFrames.size() < POOL_SIZE) {
+            mFreeFrames.addLast(frame);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives packets produced by an {@link EncoderStage}.
+ */
+public interface EncodedFrameCallback {
+    /**
+     * @param packet          one encoded packet between position and limit;
+     *                        only valid for the duration of the call
+     * @param sampleCount     interleaved samples the packet decodes to
+     * @param timestampNanos  presentation time of the first sample
+     */
+    void onEncodedFrameAvailable(ByteBuffer packet, int sampleCount, long timestampNanos);
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses the captured stream off the delivering thread. Frames are copied
+ * as 16-bit samples into preallocated slots; an encoder thread turns every
+ * slot into one packet with the given {@link AudioEncoder} and hands it to the
+ * {@link EncodedFrameCallback}. Nothing is allocated per frame.
+ *
+ * <p>Attach it with
+ * {@code audioController.addSubscriber(stage, null, FrameSubscription.DELIVERY_LOSSLESS, 0)}
+ * after {@link #start()}. When all slots are waiting to be encoded, new
+ * samples are dropped and counted rather than blocking capture.
+ */
+public final class EncoderStage implements AudioFrameCallback {
+    private static final String ENCODER_THREAD_NAME = "AudioEncoderThread";
+    private static final int SLOT_COUNT = 8;
+    private static final Slot END_OF_STREAM = new Slot(0);
+
+    private final AudioEncoder mEncoder;
+    private final EncodedFrameCallback mCallback;
+    private final int mBytesPerSample;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mSlotSamples;
+
+    private final ArrayBlockingQueue<Slot> mFreeSlots = new ArrayBlockingQueue<>(SLOT_COUNT);
+    private final ArrayBlockingQueue<Slot> mFullSlots = new ArrayBlockingQueue<>(SLOT_COUNT + 1);
+    private final ByteBuffer mPacket;
+    private final AtomicLong mDroppedSamples = new AtomicLong();
+    private final AtomicLong mInputBytes = new AtomicLong();
+    private final AtomicLong mOutputBytes = new AtomicLong();
+    private final AtomicLong mEncodeNanos = new AtomicLong();
+    private boolean mStarted = false;
+    private boolean mStopped = false;
+    private Thread mEncoderThread;
+
+    /**
+     * @param audioParams format of the frames that will be delivered; 8-bit
+     *                    and float samples are converted to 16-bit
+     */
+    public EncoderStage(AudioEncoder encoder, AudioParams audioParams, EncodedFrameCallback callback) {
+        mEncoder = encoder;
+        mCallback = callback;
+        mBytesPerSample = audioParams.getSampleType() == AudioParams.SAMPLE_TYPE_BYTE
+                ? audioParams.getBytesPerSample() : 0;
+        mSampleRate = audioParams.getOutputSampleRate();
+        mChannelCount = encoder.getChannelCount();
+        int samplesPerFrame = audioParams.computeFrameSize() / audioParams.getBytesPerSample();
+        mSlotSamples = Math.max(mChannelCount, samplesPerFrame - samplesPerFrame % mChannelCount);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            mFreeSlots.add(new Slot(mSlotSamples));
+        }
+        mPacket = ByteBuffer.allocateDirect(encoder.getMaxPacketSize(mSlotSamples))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mEncoderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encodeLoop();
+            }
+        }, ENCODER_THREAD_NAME);
+        mEncoderThread.start();
+    }
+
+    /**
+     * Encodes what is still queued and stops the encoder thread. Frames
+     * delivered afterwards are ignored.
+     */
+    public void stop() {
+        Thread encoderThread;
+        synchronized (this) {
+            if (!mStarted || mStopped) {
+                return;
+            }
+            mStopped = true;
+            mFullSlots.add(END_OF_STREAM);
+            encoderThread = mEncoderThread;
+        }
+        try {
+            encoderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void onAudioFrameAvailable(AudioFrame frame) {
+        if (!mStarted || mStopped) {
+            return;
+        }
+        int sampleCount = frame.getSampleCount();
+        // frame timestamps mark the end of the frame, slots carry their start
+        long startNanos = frame.getTimestampNanos()
+                - (long) (sampleCount / mChannelCount) * 1000000000L / mSampleRate;
+        int copied = 0;
+        while (copied < sampleCount) {
+            Slot slot = mFreeSlots.poll();
+            if (slot == null) {
+                mDroppedSamples.addAndGet(sampleCount - copied);
+                return;
+            }
+            int count = Math.min(mSlotSamples, sampleCount - copied);
+            copy(frame, copied, slot.mSamples, count);
+            slot.mSampleCount = count;
+            slot.mTimestampNanos = startNanos
+                    + (long) (copied / mChannelCount) * 1000000000L / mSampleRate;
+            mFullSlots.add(slot);
+            copied += count;
+        }
+    }
+
+    private void copy(AudioFrame frame, int from, short[] dst, int count) {
+        if (frame.getShortSamples() != null) {
+            System.arraycopy(frame.getShortSamples(), from, dst, 0, count);
+        } else if (frame.getFloatSamples() != null) {
+            SampleConverter.floatToShort(frame.getFloatSamples(), from, dst, 0, count);
+        } else {
+            // absolute reads, the buffer may be shared with other subscribers
+            ByteBuffer buffer = frame.getBuffer();
+            // integer formats read on the 16-bit scale already, float in [-1, 1]
+            float scale = mBytesPerSample == 4 ? 32767.0f : 1.0f;
+            int p = from * mBytesPerSample;
+            for (int i = 0; i < count; i++, p += mBytesPerSample) {
+                int sample = (int) (SampleConverter.getSample(buffer, p, mBytesPerSample) * scale);
+                dst[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            }
+        }
+        mInputBytes.addAndGet(count * 2L);
+    }
+
+    private void encodeLoop() {
+        while (true) {
+            Slot slot;
+            try {
+                slot = mFullSlots.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (slot == END_OF_STREAM) {
+                break;
+            }
+            long startNanos = System.nanoTime();
+            mPacket.clear();
+            mOutputBytes.addAndGet(mEncoder.encode(slot.mSamples, 0, slot.mSampleCount, mPacket));
+            mPacket.flip();
+            mEncodeNanos.addAndGet(System.nanoTime() - startNanos);
+            int sampleCount = slot.mSampleCount;
+            long timestampNanos = slot.mTimestampNanos;
+            mFreeSlots.add(slot);
+            mCallback.onEncodedFrameAvailable(mPacket, sampleCount, timestampNanos);
+        }
+    }
+
+    public long getDroppedSamples() {
+        return mDroppedSamples.get();
+    }
+
+    /**
+     * 16-bit PCM bytes handed to the encoder.
+     */
+    public long getInputBytes() {
+        return mInputBytes.get();
+    }
+
+    public long getOutputBytes() {
+        return mOutputBytes.get();
+    }
+
+    public long getEncodeNanos() {
+        return mEncodeNanos.get();
+    }
+
+    /**
+     * Input size over output size so far, 0 before the first packet.
+     */
+    public float getCompressionRatio() {
+        long output = mOutputBytes.get();
+        return output == 0 ? 0 : (float) mInputBytes.get() / output;
+    }
+
+    private static final class Slot {
+        final short[] mSamples;
+        int mSampleCount;
+        long mTimestampNanos;
+
+        Slot(int capacity) {
+            mSamples = new short[capacity];
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Companion to {@link AudioCallback} for sessions with
+ * {@link AudioParams#setFeatureType(int)} set; called on the thread that
+ * delivers frames, once per hop.
+ */
+public interface FeatureCallback {
+    /**
+     * @param features       power spectrum bins, log-mel energies or MFCCs,
+     *                       depending on the feature type. The array is reused
+     *                       for the next call, copy what you keep.
+     * @param featureCount   number of valid values in {@code features}
+     * @param timestampNanos timestamp of the end of the analysis window
+     */
+    void onFeatures(float[] features, int featureCount, long timestampNanos);
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming short-time spectrum of the first channel. Samples are collected
+ * into a window of {@code fftSize}; every {@code hopSize} samples the window
+ * is Hann-weighted, transformed with {@link RealFft} and reduced to the
+ * configured feature. Frames need not line up with hops: the window slides
+ * across frame boundaries. Window, mel filterbank and DCT tables are built
+ * once and nothing is allocated per frame.
+ */
+public final class FeatureExtractor {
+    private static final float MEL_MIN_HZ = 20.0f;
+    // log(0) guard, about -100 dB on a full scale power of 1
+    private static final float LOG_FLOOR = 1e-10f;
+    private static final float SHORT_TO_FLOAT = 1.0f / 32768.0f;
+
+    private final int mFeatureType;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mFftSize;
+    private final int mHopSize;
+    private final int mMelBandCount;
+    private final int mMfccCount;
+    private final RealFft mFft;
+    private final float[] mWindow;
+    // the last samples of the stream, oldest first
+    private final float[] mInput;
+    private final float[] mWork;
+    private final float[] mPower;
+    // band b covers bins mMelStart[b] .. mMelStart[b] + mMelWeights[b].length
+    private final int[] mMelStart;
+    private final float[][] mMelWeights;
+    private final float[] mMel;
+    // mfcc-major DCT-II basis, orthonormal
+    private final float[] mDct;
+    private final float[] mOutput;
+    private int mFill;
+    // samples still to drop when the hop is longer than the window
+    private int mSkip;
+
+    public FeatureExtractor(int featureType, int sampleRate, int channelCount, int fftSize, int hopSize,
+                            int melBandCount, int mfccCount) {
+        if (hopSize <= 0 || sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad feature config " + sampleRate + " Hz, channels "
+                    + channelCount + ", hop " + hopSize);
+        }
+        mFeatureType = featureType;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFftSize = fftSize;
+        mHopSize = hopSize;
+        mFft = new RealFft(fftSize);
+        mWindow = new float[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            // periodic Hann, so overlapping windows add up evenly
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / fftSize));
+        }
+        mInput = new float[fftSize];
+        mWork = new float[fftSize];
+        int binCount = fftSize / 2 + 1;
+        mPower = new float[binCount];
+        if (featureType == AudioParams.FEATURE_LOG_MEL || featureType == AudioParams.FEATURE_MFCC) {
+            if (melBandCount <= 0) {
+                throw new IllegalArgumentException("Bad mel band count " + melBandCount);
+            }
+            mMelBandCount = melBandCount;
+            mMelStart = new int[melBandCount];
+            mMelWeights = new float[melBandCount][];
+            designMelFilterbank();
+            mMel = new float[melBandCount];
+        } else {
+            mMelBandCount = 0;
+            mMelStart = null;
+            mMelWeights = null;
+            mMel = null;
+        }
+        if (featureType == AudioParams.FEATURE_MFCC) {
+            if (mfccCount <= 0 || mfccCount > melBandCount) {
+                throw new IllegalArgumentException("Bad MFCC count " + mfccCount + " for " + melBandCount
+                        + " mel bands");
+            }
+            mMfccCount = mfccCount;
+            mDct = new float[mfccCount * melBandCount];
+            for (int k = 0; k < mfccCount; k++) {
+                double scale = Math.sqrt((k == 0 ? 1.0 : 2.0) / melBandCount);
+                for (int b = 0; b < melBandCount; b++) {
+                    mDct[k * melBandCount + b] = (float) (scale * Math.cos(Math.PI * k * (b + 0.5) / melBandCount));
+                }
+            }
+        } else {
+            mMfccCount = 0;
+            mDct = null;
+        }
+        mOutput = new float[getFeatureCount()];
+    }
+
+    /**
+     * Triangular filters spaced evenly on the HTK mel scale from 20 Hz to
+     * Nyquist, kept as the non-zero weights only.
+     */
+    private void designMelFilterbank() {
+        int bandCount = mMelBandCount;
+        double melMin = hzToMel(MEL_MIN_HZ);
+        double melMax = hzToMel(mSampleRate / 2.0);
+        double[] edges = new double[bandCount + 2];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = melToHz(melMin + (melMax - melMin) * i / (bandCount + 1));
+        }
+        double binHz = (double) mSampleRate / mFftSize;
+        int lastBin = mFftSize / 2;
+        for (int b = 0; b < bandCount; b++) {
+            double lower = edges[b];
+            double center = edges[b + 1];
+            double upper = edges[b + 2];
+            int start = Math.min(lastBin, (int) Math.ceil(lower / binHz));
+            int end = Math.min(lastBin, (int) Math.floor(upper / binHz));
+            float[] weights = new float[Math.max(0, end - start + 1)];
+            for (int k = start; k <= end; k++) {
+                double hz = k * binHz;
+                double weight = hz <= center ? (hz - lower) / (center - lower) : (upper - hz) / (upper - center);
+                weights[k - start] = (float) Math.max(0, weight);
+            }
+            mMelStart[b] = start;
+            mMelWeights[b] = weights;
+        }
+    }
+
+    private static double hzToMel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    private static double melToHz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+
+    public boolean matches(int featureType, int sampleRate, int channelCount, int fftSize, int hopSize,
+                           int melBandCount, int mfccCount) {
+        return mFeatureType == featureType && mSampleRate == sampleRate && mChannelCount == channelCount
+                && mFftSize == fftSize && mHopSize == hopSize
+                && (mMelStart == null || mMelBandCount == melBandCount)
+                && (mDct == null || mMfccCount == mfccCount);
+    }
+
+    /**
+     * Values per {@link FeatureCallback#onFeatures} call.
+     */
+    public int getFeatureCount() {
+        switch (mFeatureType) {
+            case AudioParams.FEATURE_LOG_MEL:
+                return mMelBandCount;
+            case AudioParams.FEATURE_MFCC:
+                return mMfccCount;
+            default:
+                return mFftSize / 2 + 1;
+        }
+    }
+
+    /**
+     * Forgets the collected samples, e.g. before a new capture session.
+     */
+    public void reset() {
+        mFill = 0;
+        mSkip = 0;
+    }
+
+    /**
+     * Adds the first channel of {@code frame} and reports every window that
+     * completes to {@code callback}.
+     *
+     * @param bytesPerSample format of byte frames, as
+     *                       {@link AudioParams#getBytesPerSample()}
+     */
+    public void process(AudioFrame frame, int bytesPerSample, FeatureCallback callback) {
+        int frames = frame.getSampleCount() / mChannelCount;
+        long endNanos = frame.getTimestampNanos();
+        short[] shortSamples = frame.getShortSamples();
+        float[] floatSamples = frame.getFloatSamples();
+        ByteBuffer buffer = frame.getBuffer();
+        int channelCount = mChannelCount;
+        int i = 0;
+        while (i < frames) {
+            if (mSkip > 0) {
+                int skip = Math.min(mSkip, frames - i);
+                mSkip -= skip;
+                i += skip;
+                continue;
+            }
+            int count = Math.min(mFftSize - mFill, frames - i);
+            float[] input = mInput;
+            int fill = mFill;
+            if (shortSamples != null) {
+                for (int j = 0, p = i * channelCount; j < count; j++, p += channelCount) {
+                    input[fill + j] = shortSamples[p] * SHORT_TO_FLOAT;
+                }
+            } else if (floatSamples != null) {
+                for (int j = 0, p = i * channelCount; j < count; j++, p += channelCount) {
+                    input[fill + j] = floatSamples[p];
+                }
+            } else {
+                float scale = bytesPerSample == 4 ? 1.0f : SHORT_TO_FLOAT;
+                int stride = channelCount * bytesPerSample;
+                for (int j = 0, p = i * stride; j < count; j++, p += stride) {
+                    input[fill + j] = SampleConverter.getSample(buffer, p, bytesPerSample) * scale;
+                }
+            }
+            mFill = fill + count;
+            i += count;
+            if (mFill == mFftSize) {
+                // the window ends at sample i - 1 of this frame
+                long timestampNanos = endNanos - (frames - i) * 1000000000L / mSampleRate;
+                analyze();
+                callback.onFeatures(mOutput, mOutput.length, timestampNanos);
+                slide();
+            }
+        }
+    }
+
+    private void slide() {
+        int keep = mFftSize - mHopSize;
+        if (keep > 0) {
+            System.arraycopy(mInput, mHopSize, mInput, 0, keep);
+            mFill = keep;
+        } else {
+            mFill = 0;
+            mSkip = -keep;
+        }
+    }
+
+    private void analyze() {
+        float[] work = mWork;
+        float[] input = mInput;
+        float[] window = mWindow;
+        for (int i = 0; i < mFftSize; i++) {
+            work[i] = input[i] * window[i];
+        }
+        mFft.forward(work);
+        float[] power = mFeatureType == AudioParams.FEATURE_SPECTRUM ? mOutput : mPower;
+        mFft.power(work, power);
+        if (mFeatureType == AudioParams.FEATURE_SPECTRUM) {
+            return;
+        }
+        float[] mel = mFeatureType == AudioParams.FEATURE_LOG_MEL ? mOutput : mMel;
+        for (int b = 0; b < mMelBandCount; b++) {
+            float[] weights = mMelWeights[b];
+            int start = mMelStart[b];
+            float energy = 0;
+            for (int k = 0; k < weights.length; k++) {
+                energy += weights[k] * power[start + k];
+            }
+            mel[b] = (float) Math.log(Math.max(energy, LOG_FLOOR));
+        }
+        if (mFeatureType == AudioParams.FEATURE_MFCC) {
+            int bandCount = mMelBandCount;
+            for (int k = 0; k < mMfccCount; k++) {
+                float sum = 0;
+                for (int b = 0, d = k * bandCount; b < bandCount; b++, d++) {
+                    sum += mDct[d] * mel[b];
+                }
+                mOutput[k] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import android.media.AudioFormat;
+
+/**
+ * Replays a WAV or raw little-endian PCM file through the engine. The file is
+ * read through memory-mapped windows, so a read is a single copy out of the
+ * page cache. Unpaced sources run as fast as the pipeline consumes them;
+ * paced sources deliver each frame no earlier than it would have been
+ * captured live. Frame timestamps start at 0 and follow the sample position
+ * in the file.
+ */
+public final class FileCaptureSource implements CaptureSource {
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final long MAX_WINDOW_SIZE = 64L * 1024 * 1024;
+    // CHANNEL_IN_LEFT (0x4) up to CHANNEL_IN_VOICE_DNLINK (0x8000)
+    private static final int MAX_CHANNEL_COUNT = 14;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mDataOffset;
+    private final long mDataLength;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mChannelConfig;
+    private final int mAudioFormat;
+    private final int mBytesPerFrame;
+    private final boolean mPaced;
+
+    private MappedByteBuffer mWindow;
+    private ShortBuffer mShortWindow;
+    private FloatBuffer mFloatWindow;
+    private long mWindowOffset;
+    private long mBytesRead;
+    private long mStartTimeNanos;
+    private boolean mNonBlocking = false;
+
+    private FileCaptureSource(File file, long dataOffset, long dataLength, int sampleRate, int channelCount,
+                              int audioFormat, boolean paced) throws IOException {
+        mChannelConfig = toChannelConfig(channelCount);
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mDataOffset = dataOffset;
+        mDataLength = Math.min(dataLength, mChannel.size() - dataOffset);
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mAudioFormat = audioFormat;
+        mBytesPerFrame = channelCount * bytesPerSample(audioFormat);
+        mPaced = paced;
+    }
+
+    /**
+     * Opens raw interleaved little-endian PCM with the given layout.
+     */
+    public static FileCaptureSource openRaw(File file, int sampleRate, int channelCount, int audioFormat,
+                                            boolean paced) throws IOException {
+        return new FileCaptureSource(file, 0, file.length(), sampleRate, channelCount, audioFormat, paced);
+    }
+
+    /**
+     * Opens a 8/16-bit integer or 32-bit float WAV file. A data chunk whose
+     * size was never patched (0 or past the end of the file) is read up to
+     * the end of the file.
+     */
+    public static FileCaptureSource openWav(File file, boolean paced) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != 0x46464952 /* RIFF */ || header.getInt(8) != 0x45564157 /* WAVE */) {
+                throw new IOException("Not a RIFF/WAVE file: " + file);
+            }
+            int formatTag = -1;
+            int channelCount = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            long position = 12;
+            ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + 8 <= channel.size()) {
+                chunk.clear();
+                readFully(channel, chunk, position);
+                int chunkId = chunk.getInt(0);
+                long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+                if (chunkId == 0x20746D66 /* fmt  */) {
+                    ByteBuffer fmt = ByteBuffer.allocate(26).order(ByteOrder.LITTLE_ENDIAN);
+                    fmt.limit((int) Math.min(26, chunkSize));
+                    readFully(channel, fmt, position + 8);
+                    formatTag = fmt.getShort(0) & 0xFFFF;
+                    channelCount = fmt.getShort(2) & 0xFFFF;
+                    sampleRate = fmt.getInt(4);
+                    bitsPerSample = fmt.getShort(14) & 0xFFFF;
+                    if (formatTag == WAVE_FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+                        formatTag = fmt.getShort(24) & 0xFFFF;
+                    }
+                } else if (chunkId == 0x61746164 /* data */) {
+                    if (formatTag < 0) {
+                        throw new IOException("WAV data chunk before fmt chunk: " + file);
+                    }
+                    long dataOffset = position + 8;
+                    long dataLength = chunkSize;
+                    if (dataLength == 0 || dataOffset + dataLength > channel.size()) {
+                        dataLength = channel.size() - dataOffset;
+                    }
+                    return new FileCaptureSource(file, dataOffset, dataLength, sampleRate, channelCount,
+                            toAudioFormat(formatTag, bitsPerSample), paced);
+                }
+                position += 8 + chunkSize + (chunkSize & 1);
+            }
+            throw new IOException("WAV file has no data chunk: " + file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * One and two channels are the usual mono and stereo masks; more take
+     * that many consecutive {@code CHANNEL_IN_*} bits from
+     * {@code CHANNEL_IN_LEFT} on, so that {@link AudioParams#getChannelCount()}
+     * counts them all.
+     */
+    private static int toChannelConfig(int channelCount) throws IOException {
+        if (channelCount < 1 || channelCount > MAX_CHANNEL_COUNT) {
+            throw new IOException("Unsupported channel count: " + channelCount);
+        }
+        if (channelCount == 1) {
+            return AudioFormat.CHANNEL_IN_MONO;
+        }
+        return ((1 << channelCount) - 1) * AudioFormat.CHANNEL_IN_LEFT;
+    }
+
+    private static int toAudioFormat(int formatTag, int bitsPerSample) throws IOException {
+        if (formatTag == WAVE_FORMAT_PCM && bitsPerSample == 16) {
+            return AudioFormat.ENCODING_PCM_16BIT;
+        } else if (formatTag == WAVE_FORMAT_PCM && bitsPerSample == 8) {
+            return AudioFormat.ENCODING_PCM_8BIT;
+        } else if (formatTag == WAVE_FORMAT_IEEE_FLOAT && bitsPerSample == 32) {
+            return AudioFormat.ENCODING_PCM_FLOAT;
+        }
+        throw new IOException("Unsupported WAV format " + formatTag + "/" + bitsPerSample + " bit");
+    }
+
+    private static int bytesPerSample(int audioFormat) {
+        switch (audioFormat) {
+            case AudioFormat.ENCODING_PCM_8BIT:
+                return 1;
+            case AudioFormat.ENCODING_PCM_FLOAT:
+                return 4;
+            case AudioFormat.ENCODING_PCM_16BIT:
+            default:
+                return 2;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Copies this file's sample rate, channel layout and encoding into
+     * {@code audioParams}.
+     */
+    public void applyTo(AudioParams audioParams) {
+        audioParams.setSampleRate(mSampleRate);
+        audioParams.setChannelConfig(mChannelConfig);
+        audioParams.setAudioFormat(mAudioFormat);
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    /**
+     * Duration of the file in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return mDataLength / mBytesPerFrame * 1000000000L / mSampleRate;
+    }
+
+    /**
+     * Only changes anything for paced sources: a non-blocking read returns
+     * just the samples that are due instead of waiting for the rest.
+     */
+    @Override
+    public boolean setNonBlocking(boolean nonBlocking) {
+        mNonBlocking = nonBlocking;
+        return true;
+    }
+
+    @Override
+    public boolean start() {
+        mBytesRead = 0;
+        mWindow = null;
+        mStartTimeNanos = System.nanoTime();
+        return mChannel.isOpen();
+    }
+
+    /**
+     * Makes sure the current window holds the next bytes and returns how many
+     * of the {@code sizeInBytes} requested can be served from it, or
+     * {@link #END_OF_STREAM}. Windows and reads hold whole sample frames
+     * only, so every read starts on the first channel.
+     */
+    private int prepare(int sizeInBytes) {
+        long remaining = mDataLength - mBytesRead;
+        if (remaining < mBytesPerFrame) {
+            return END_OF_STREAM;
+        }
+        if (mWindow == null || mBytesRead - mWindowOffset + mBytesPerFrame > mWindow.capacity()) {
+            try {
+                mWindowOffset = mBytesRead;
+                long windowSize = Math.min(MAX_WINDOW_SIZE - MAX_WINDOW_SIZE % mBytesPerFrame,
+                        remaining - remaining % mBytesPerFrame);
+                mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mDataOffset + mWindowOffset, windowSize);
+                mWindow.order(ByteOrder.LITTLE_ENDIAN);
+                mShortWindow = null;
+                mFloatWindow = null;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return ERROR;
+            }
+        }
+        int available = (int) (mWindow.capacity() - (mBytesRead - mWindowOffset));
+        int size = Math.min(sizeInBytes, available);
+        size -= size % mBytesPerFrame;
+        if (mPaced && mNonBlocking) {
+            long dueFrames = (System.nanoTime() - mStartTimeNanos) * mSampleRate / 1000000000L;
+            long due = Math.max(0, dueFrames * mBytesPerFrame - mBytesRead);
+            size = (int) Math.min(size, due - due % mBytesPerFrame);
+        } else {
+            pace(size);
+        }
+        return size;
+    }
+
+    private void pace(int sizeInBytes) {
+        if (!mPaced) {
+            return;
+        }
+        long frames = (mBytesRead + sizeInBytes) / mBytesPerFrame;
+        long due = mStartTimeNanos + frames / mSampleRate * 1000000000L
+                + frames % mSampleRate * 1000000000L / mSampleRate;
+        long wait;
+        // parkNanos may return early, e.g. when the engine unparks the loop
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    @Override
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        int size = prepare(sizeInBytes);
+        if (size > 0) {
+            mWindow.position((int) (mBytesRead - mWindowOffset));
+            mWindow.get(audioData, offsetInBytes, size);
+            mBytesRead += size;
+        }
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        int size = prepare(Math.min(sizeInBytes, audioBuffer.capacity()));
+        if (size > 0) {
+            int start = (int) (mBytesRead - mWindowOffset);
+            mWindow.limit(start + size);
+            mWindow.position(start);
+            int position = audioBuffer.position();
+            int limit = audioBuffer.limit();
+            audioBuffer.clear();
+            audioBuffer.put(mWindow);
+            audioBuffer.limit(limit);
+            audioBuffer.position(position);
+            mWindow.limit(mWindow.capacity());
+            mBytesRead += size;
+        }
+        return size;
+    }
+
+    @Override
+    public int read(short[] audioData, int offsetInShorts, int sizeInShorts) {
+        if (mAudioFormat != AudioFormat.ENCODING_PCM_16BIT) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int size = prepare(sizeInShorts * 2);
+        if (size > 0) {
+            if (mShortWindow == null) {
+                mWindow.position(0);
+                mShortWindow = mWindow.asShortBuffer();
+            }
+            mShortWindow.position((int) ((mBytesRead - mWindowOffset) / 2));
+            mShortWindow.get(audioData, offsetInShorts, size / 2);
+            mBytesRead += size;
+        }
+        return size > 0 ? size / 2 : size;
+    }
+
+    @Override
+    public int read(float[] audioData, int offsetInFloats, int sizeInFloats) {
+        if (mAudioFormat != AudioFormat.ENCODING_PCM_FLOAT) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int size = prepare(sizeInFloats * 4);
+        if (size > 0) {
+            if (mFloatWindow == null) {
+                mWindow.position(0);
+                mFloatWindow = mWindow.asFloatBuffer();
+            }
+            mFloatWindow.position((int) ((mBytesRead - mWindowOffset) / 4));
+            mFloatWindow.get(audioData, offsetInFloats, size / 4);
+            mBytesRead += size;
+        }
+        return size > 0 ? size / 4 : size;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public long getTimestampBaseNanos() {
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+        mWindow = null;
+        mShortWindow = null;
+        mFloatWindow = null;
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies runs of consecutive frames into one frame from its own pool, so that
+ * consumers get {@link AudioParams#computeBatchFrameCount()} frames of audio
+ * per callback in one contiguous buffer. A batch is passed on early when the
+ * next frame does not follow on, e.g. after a dropped or suppressed frame,
+ * so a batch never spans a gap. Runs on the delivering thread only.
+ */
+final class FrameBatcher implements AudioFrameCallback {
+    private final FramePool mPool;
+    private final int mBatchFrameCount;
+    private final AudioFrameCallback mTarget;
+    private final AtomicLong mDroppedCount;
+    private AudioFrame mBatch;
+    private int mFrameCount;
+    private int mLength;
+    private int mSampleCount;
+    private long mFirstSequence;
+    private long mLastSequence;
+    private long mLastTimestampNanos;
+    private long mCaptureNanos;
+    private boolean mVoiceActive;
+
+    FrameBatcher(int batchFrameCount, int frameBytes, int frameSamples, int bufferType, int batchCount,
+                 int maxBatchCount, int policy, AudioFrameCallback target, AtomicLong droppedCount) {
+        mBatchFrameCount = batchFrameCount;
+        mPool = new FramePool(frameBytes * batchFrameCount, frameSamples * batchFrameCount, bufferType,
+                batchCount, maxBatchCount, policy);
+        mTarget = target;
+        mDroppedCount = droppedCount;
+    }
+
+    FramePool getFramePool() {
+        return mPool;
+    }
+
+    int getBatchFrameCount() {
+        return mBatchFrameCount;
+    }
+
+    boolean matches(int batchFrameCount, int frameBytes, int frameSamples, int bufferType) {
+        return mBatchFrameCount == batchFrameCount
+                && mPool.matches(frameBytes * batchFrameCount, frameSamples * batchFrameCount, bufferType);
+    }
+
+    @Override
+    public void onAudioFrameAvailable(AudioFrame frame) {
+        if (mFrameCount > 0 && frame.getSequence() != mLastSequence + 1) {
+            flush();
+        }
+        if (mFrameCount == 0) {
+            mBatch = mPool.lease();
+            mFirstSequence = frame.getSequence();
+            mCaptureNanos = frame.getCaptureNanos();
+            mVoiceActive = false;
+            if (mBatch != null && mBatch.getBuffer() != null) {
+                mBatch.getBuffer().clear();
+            }
+        }
+        if (mBatch != null) {
+            append(frame);
+        }
+        mVoiceActive |= frame.isVoiceActive();
+        mLastSequence = frame.getSequence();
+        mLastTimestampNanos = frame.getTimestampNanos();
+        if (++mFrameCount == mBatchFrameCount) {
+            finishBatch();
+        }
+    }
+
+    private void append(AudioFrame frame) {
+        int sampleCount = frame.getSampleCount();
+        if (frame.getShortSamples() != null) {
+            System.arraycopy(frame.getShortSamples(), 0, mBatch.getShortSamples(), mSampleCount, sampleCount);
+        } else if (frame.getFloatSamples() != null) {
+            System.arraycopy(frame.getFloatSamples(), 0, mBatch.getFloatSamples(), mSampleCount, sampleCount);
+        } else {
+            ByteBuffer source = frame.getBuffer();
+            int position = source.position();
+            mBatch.getBuffer().put(source);
+            source.position(position);
+        }
+        mLength += frame.getLength();
+        mSampleCount += sampleCount;
+    }
+
+    private void finishBatch() {
+        AudioFrame batch = mBatch;
+        if (batch == null) {
+            mDroppedCount.incrementAndGet();
+        } else {
+            if (batch.getBuffer() != null) {
+                batch.getBuffer().flip();
+            }
+            // stamped like a frame: timestamp of the last, capture time of the first
+            batch.set(mLength, mSampleCount, mLastTimestampNanos, mFirstSequence, mCaptureNanos);
+            batch.setVoiceActive(mVoiceActive);
+            mTarget.onAudioFrameAvailable(batch);
+            batch.release();
+        }
+        mBatch = null;
+        mFrameCount = 0;
+        mLength = 0;
+        mSampleCount = 0;
+    }
+
+    /**
+     * Passes on a partly filled batch.
+     */
+    void flush() {
+        if (mFrameCount > 0) {
+            finishBatch();
+        }
+    }
+}
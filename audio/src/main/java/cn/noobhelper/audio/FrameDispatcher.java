@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves callback execution off the capture thread. The capture thread only
+ * publishes filled frames into a {@link SpscFrameRing}; a dedicated thread
+ * drains the ring and runs the callback. When the ring is full the newest
+ * frame is dropped and counted as an overrun, the capture thread never waits.
+ */
+public final class FrameDispatcher {
+    private static final String DISPATCH_THREAD_NAME = "AudioDispatchThread";
+
+    private final SpscFrameRing mRing;
+    private final AudioFrameCallback mTarget;
+    private final AtomicLong mOverrunCount = new AtomicLong();
+    private final AtomicLong mDispatchedCount = new AtomicLong();
+    private volatile int mMaxQueueDepth = 0;
+    private volatile boolean mRunning = false;
+    private volatile boolean mWaiting = false;
+    private Thread mThread;
+
+    FrameDispatcher(int capacity, AudioFrameCallback target) {
+        this(capacity, capacity, target);
+    }
+
+    /**
+     * @param maxCapacity what {@link #setQueueCapacity(int)} may raise the
+     *                    capacity to
+     */
+    FrameDispatcher(int capacity, int maxCapacity, AudioFrameCallback target) {
+        mRing = new SpscFrameRing(capacity, maxCapacity);
+        mTarget = target;
+    }
+
+    void start() {
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, DISPATCH_THREAD_NAME);
+        mThread.start();
+    }
+
+    /**
+     * Called on the capture thread. Ownership of the caller's reference passes
+     * to the dispatcher, which releases the frame after delivery or on overrun.
+     */
+    void publish(AudioFrame frame) {
+        if (!mRing.offer(frame)) {
+            mOverrunCount.incrementAndGet();
+            frame.release();
+            return;
+        }
+        int depth = mRing.size();
+        if (depth > mMaxQueueDepth) {
+            mMaxQueueDepth = depth;
+        }
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Capture thread only. Drops {@code frame} when it is the oldest queued
+     * frame and the dispatch thread has not picked it up yet, so that the
+     * pool can reuse it under {@link AudioParams#POOL_POLICY_DROP_OLDEST}.
+     */
+    boolean reclaim(AudioFrame frame) {
+        if (!mRing.pollIf(frame)) {
+            return false;
+        }
+        frame.release();
+        return true;
+    }
+
+    /**
+     * Delivers whatever is still queued, then stops the dispatch thread.
+     */
+    void stop() {
+        mRunning = false;
+        if (mThread == null) {
+            return;
+        }
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            AudioFrame frame = mRing.poll();
+            if (frame == null) {
+                if (!mRunning) {
+                    if (mRing.size() == 0) {
+                        break;
+                    }
+                    continue;
+                }
+                mWaiting = true;
+                if (mRing.size() == 0 && mRunning) {
+                    LockSupport.park(this);
+                }
+                mWaiting = false;
+                continue;
+            }
+            mTarget.onAudioFrameAvailable(frame);
+            frame.release();
+            mDispatchedCount.incrementAndGet();
+        }
+    }
+
+    public int getQueueCapacity() {
+        return mRing.capacity();
+    }
+
+    /**
+     * Capture thread only.
+     */
+    void setQueueCapacity(int capacity) {
+        mRing.setCapacity(capacity);
+    }
+
+    public int getQueueDepth() {
+        return mRing.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public long getOverrunCount() {
+        return mOverrunCount.get();
+    }
+
+    public long getDispatchedCount() {
+        return mDispatchedCount.get();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Fans each captured frame out to every {@link FrameSubscription}. The
+ * subscriber list is an immutable snapshot swapped on add/remove, so
+ * publishing takes no lock and allocates nothing.
+ */
+final class FrameFanOut {
+    private static final FrameSubscription[] EMPTY = new FrameSubscription[0];
+
+    private volatile FrameSubscription[] mSubscriptions = EMPTY;
+    private FramePublisher mPublisher;
+
+    synchronized FrameSubscription add(AudioFrameCallback callback, Executor executor, int deliveryPolicy,
+                                       int queueCapacity) {
+        FrameSubscription subscription = new FrameSubscription(callback, executor, deliveryPolicy, queueCapacity);
+        FrameSubscription[] old = mSubscriptions;
+        FrameSubscription[] updated = new FrameSubscription[old.length + 1];
+        System.arraycopy(old, 0, updated, 0, old.length);
+        updated[old.length] = subscription;
+        mSubscriptions = updated;
+        return subscription;
+    }
+
+    synchronized boolean remove(FrameSubscription subscription) {
+        FrameSubscription[] old = mSubscriptions;
+        int index = -1;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == subscription) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+        FrameSubscription[] updated = new FrameSubscription[old.length - 1];
+        System.arraycopy(old, 0, updated, 0, index);
+        System.arraycopy(old, index + 1, updated, index, old.length - index - 1);
+        mSubscriptions = updated;
+        subscription.cancel();
+        return true;
+    }
+
+    void publish(AudioFrame frame) {
+        FrameSubscription[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].offer(frame);
+        }
+    }
+
+    /**
+     * Drops the queued references to {@code frame} of every subscriber that
+     * has not received it yet, see {@link FramePool.Reclaimer}.
+     */
+    boolean reclaim(AudioFrame frame) {
+        FrameSubscription[] subscriptions = mSubscriptions;
+        boolean reclaimed = false;
+        for (int i = 0; i < subscriptions.length; i++) {
+            reclaimed |= subscriptions[i].reclaim(frame);
+        }
+        FramePublisher publisher;
+        synchronized (this) {
+            publisher = mPublisher;
+        }
+        if (publisher != null) {
+            reclaimed |= publisher.reclaim(frame);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * The demand-driven view of the same stream, created on first use.
+     */
+    synchronized FramePublisher getPublisher() {
+        if (mPublisher == null) {
+            mPublisher = new FramePublisher(this);
+        }
+        return mPublisher;
+    }
+
+    /**
+     * Called when capture starts and stops, so that stopping never waits on
+     * a publisher subscriber that has stopped requesting.
+     */
+    void setCapturing(boolean capturing) {
+        FramePublisher publisher;
+        synchronized (this) {
+            publisher = mPublisher;
+        }
+        if (publisher != null) {
+            publisher.setClosed(!capturing);
+        }
+    }
+
+    /**
+     * Completes the publisher's subscribers when the session is released.
+     */
+    void complete() {
+        FramePublisher publisher;
+        synchronized (this) {
+            publisher = mPublisher;
+        }
+        if (publisher != null) {
+            publisher.complete();
+        }
+    }
+
+    int size() {
+        return mSubscriptions.length;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Reactive-streams interfaces with the same shape and rules as
+ * {@code java.util.concurrent.Flow}, which is not available on the Android
+ * versions this library supports. Code written against these maps one to one
+ * onto Flow or org.reactivestreams.
+ */
+public final class FrameFlow {
+    private FrameFlow() {
+    }
+
+    public interface Publisher<T> {
+        /**
+         * Calls {@link Subscriber#onSubscribe(Subscription)} before any other
+         * signal; nothing is delivered until the subscriber requests it.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Never called more often than requested, and never concurrently.
+         */
+        void onNext(T item);
+
+        /**
+         * Terminal; no further signals follow.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Terminal; no further signals follow.
+         */
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Adds {@code n} to the number of items the subscriber is ready for.
+         * {@link Long#MAX_VALUE} means unbounded; a non-positive {@code n}
+         * fails the subscription with an IllegalArgumentException.
+         */
+        void request(long n);
+
+        /**
+         * Stops delivery; signals already in progress may still arrive.
+         */
+        void cancel();
+    }
+}
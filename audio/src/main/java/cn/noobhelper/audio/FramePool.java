@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Reference-counted pool of capture frames. Free frames are reused in FIFO
+ * order, so a frame released by its last holder is the last one to be
+ * overwritten. What happens when every frame is leased is decided by the
+ * {@code POOL_POLICY_*} constants in {@link AudioParams}.
+ */
+public final class FramePool {
+    static final int BUFFER_HEAP = 0;
+    static final int BUFFER_DIRECT = 1;
+    static final int BUFFER_SHORT = 2;
+    static final int BUFFER_FLOAT = 3;
+
+    private final ArrayDeque<AudioFrame> mFreeFrames = new ArrayDeque<>();
+    // leased frames, oldest lease first
+    private final ArrayDeque<AudioFrame> mLeasedFrames = new ArrayDeque<>();
+    private final int mFrameSize;
+    private final int mSamplesPerFrame;
+    private final int mBufferType;
+    private final int mPolicy;
+    private volatile Reclaimer mReclaimer;
+    // leased frames copied out for reclaiming, leasing thread only
+    private AudioFrame[] mReclaimOrder = new AudioFrame[0];
+    private int mMaxFrameCount;
+    private boolean mClosed = false;
+
+    private int mFrameCount;
+    // frames coming back while the count is above this are discarded
+    private int mTrimToCount = Integer.MAX_VALUE;
+    private int mHighWaterMark;
+    private int mWindowPeak;
+    private long mLeaseCount;
+    private long mDroppedCount;
+    private long mReclaimedCount;
+
+    FramePool(int frameSize, int samplesPerFrame, int bufferType, int frameCount, int maxFrameCount, int policy) {
+        mFrameSize = frameSize;
+        mSamplesPerFrame = samplesPerFrame;
+        mBufferType = bufferType;
+        mPolicy = policy;
+        mMaxFrameCount = Math.max(frameCount, maxFrameCount);
+        for (int i = 0; i < frameCount; i++) {
+            mFreeFrames.addLast(newFrame());
+        }
+    }
+
+    private AudioFrame newFrame() {
+        mFrameCount++;
+        // PCM in frames is little-endian for both buffer types, as everywhere else
+        switch (mBufferType) {
+            case BUFFER_DIRECT:
+                return new AudioFrame(this,
+                        ByteBuffer.allocateDirect(mFrameSize).order(ByteOrder.LITTLE_ENDIAN), null, null);
+            case BUFFER_SHORT:
+                return new AudioFrame(this, null, new short[mSamplesPerFrame], null);
+            case BUFFER_FLOAT:
+                return new AudioFrame(this, null, null, new float[mSamplesPerFrame]);
+            case BUFFER_HEAP:
+            default:
+                return new AudioFrame(this,
+                        ByteBuffer.allocate(mFrameSize).order(ByteOrder.LITTLE_ENDIAN), null, null);
+        }
+    }
+
+    boolean matches(int frameSize, int samplesPerFrame, int bufferType) {
+        return mFrameSize == frameSize && mSamplesPerFrame == samplesPerFrame && mBufferType == bufferType;
+    }
+
+    /**
+     * Queues that may drop frames nobody has started to consume, for
+     * {@link AudioParams#POOL_POLICY_DROP_OLDEST}. Without one that policy
+     * drops the newest frame.
+     */
+    void setReclaimer(Reclaimer reclaimer) {
+        mReclaimer = reclaimer;
+    }
+
+    /**
+     * Returns a frame with one reference held by the caller, or null when the
+     * pool is exhausted and the frame has to be dropped. Only one thread may
+     * lease from a pool.
+     */
+    AudioFrame lease() {
+        Reclaimer reclaimer = mReclaimer;
+        if (mPolicy == AudioParams.POOL_POLICY_DROP_OLDEST && reclaimer != null && isExhausted()) {
+            reclaim(reclaimer);
+        }
+        return leaseFree();
+    }
+
+    private synchronized boolean isExhausted() {
+        return mFreeFrames.isEmpty();
+    }
+
+    /**
+     * Drops the queued references to leased frames, oldest lease first,
+     * until one of them comes back to the pool. A frame that a consumer is
+     * still reading is never handed out again. Runs without the pool lock,
+     * the queues call {@link #release(AudioFrame)} under their own.
+     */
+    private void reclaim(Reclaimer reclaimer) {
+        AudioFrame[] frames;
+        int count;
+        synchronized (this) {
+            count = mLeasedFrames.size();
+            if (mReclaimOrder.length <= count) {
+                mReclaimOrder = new AudioFrame[Math.max(count + 1, mMaxFrameCount + 1)];
+            }
+            frames = mLeasedFrames.toArray(mReclaimOrder);
+        }
+        boolean reclaimed = false;
+        for (int i = 0; i < count; i++) {
+            AudioFrame frame = frames[i];
+            frames[i] = null;
+            if (!reclaimed && reclaimer.reclaim(frame)) {
+                synchronized (this) {
+                    if (!mFreeFrames.isEmpty()) {
+                        mReclaimedCount++;
+                        reclaimed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized AudioFrame leaseFree() {
+        AudioFrame frame = mFreeFrames.pollFirst();
+        if (frame == null) {
+            switch (mPolicy) {
+                case AudioParams.POOL_POLICY_GROW:
+                    if (mFrameCount < mMaxFrameCount) {
+                        frame = newFrame();
+                    }
+                    break;
+                case AudioParams.POOL_POLICY_BLOCK:
+                    while (mFreeFrames.isEmpty() && !mClosed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    frame = mFreeFrames.pollFirst();
+                    break;
+                case AudioParams.POOL_POLICY_DROP_NEWEST:
+                case AudioParams.POOL_POLICY_DROP_OLDEST:
+                default:
+                    break;
+            }
+        }
+        if (frame == null) {
+            mDroppedCount++;
+            return null;
+        }
+        frame.mRefCount++;
+        mLeasedFrames.addLast(frame);
+        mLeaseCount++;
+        if (mLeasedFrames.size() > mHighWaterMark) {
+            mHighWaterMark = mLeasedFrames.size();
+        }
+        if (mLeasedFrames.size() > mWindowPeak) {
+            mWindowPeak = mLeasedFrames.size();
+        }
+        return frame;
+    }
+
+    synchronized void retain(AudioFrame frame) {
+        if (frame.mRefCount <= 0) {
+            throw new IllegalStateException("retain() on a released frame");
+        }
+        frame.mRefCount++;
+    }
+
+    synchronized void release(AudioFrame frame) {
+        if (frame.mRefCount <= 0) {
+            throw new IllegalStateException("release() on a released frame");
+        }
+        if (--frame.mRefCount == 0) {
+            mLeasedFrames.remove(frame);
+            if (mFrameCount > mTrimToCount) {
+                mFrameCount--;
+                return;
+            }
+            mTrimToCount = Integer.MAX_VALUE;
+            mFreeFrames.addLast(frame);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Grows or shrinks the pool to {@code frameCount} frames. Leased frames
+     * are never taken away, so a shrink finishes as they come back.
+     */
+    synchronized void setFrameCount(int frameCount) {
+        mMaxFrameCount = Math.max(mMaxFrameCount, frameCount);
+        while (mFrameCount < frameCount) {
+            mFreeFrames.addLast(newFrame());
+        }
+        while (mFrameCount > frameCount && !mFreeFrames.isEmpty()) {
+            mFreeFrames.pollLast();
+            mFrameCount--;
+        }
+        mTrimToCount = mFrameCount > frameCount ? frameCount : Integer.MAX_VALUE;
+        notifyAll();
+    }
+
+    /**
+     * Most frames leased at once since the last call.
+     */
+    synchronized int takeWindowPeak() {
+        int peak = mWindowPeak;
+        mWindowPeak = mLeasedFrames.size();
+        return peak;
+    }
+
+    /**
+     * Lets a lease blocked under {@link AudioParams#POOL_POLICY_BLOCK} return
+     * so that the capture loop can stop.
+     */
+    synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    synchronized void open() {
+        mClosed = false;
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized int getLeasedFrameCount() {
+        return mLeasedFrames.size();
+    }
+
+    public synchronized int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    public synchronized long getLeaseCount() {
+        return mLeaseCount;
+    }
+
+    /**
+     * Frames that could not be captured into the pool at all.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Frames freed under {@link AudioParams#POOL_POLICY_DROP_OLDEST} by
+     * dropping their queued, undelivered references.
+     */
+    public synchronized long getReclaimedCount() {
+        return mReclaimedCount;
+    }
+
+    /**
+     * Something that queues frames before they are delivered.
+     */
+    interface Reclaimer {
+        /**
+         * Drops and releases every queued reference to {@code frame} that no
+         * consumer has received yet. Called on the leasing thread.
+         *
+         * @return true when at least one reference was dropped
+         */
+        boolean reclaim(AudioFrame frame);
+    }
+}
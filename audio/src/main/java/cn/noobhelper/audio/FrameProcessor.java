@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Runs a {@link ProcessorChain} over frames in place, touching each sample
+ * once. The high-pass stages are cascaded biquads whose state is kept per
+ * channel across calls. Gain, AGC and noise gate stages all come down to one
+ * multiplier per frame, so they are folded into a single gain that ramps
+ * linearly over the frame, which also keeps gain changes free of clicks.
+ * AGC and gate decide from the level of the previous frame as it stood at
+ * their place in the chain, so frame N is scaled by what was measured up to
+ * frame N - 1. Control stages placed after a high-pass see the filtered
+ * level; the filters themselves run first, which is the same result for
+ * linear stages.
+ */
+public final class FrameProcessor {
+    private static final float AGC_ATTACK_MS = 10;
+    private static final float AGC_RELEASE_MS = 500;
+    // AGC holds its gain below this level instead of boosting background noise
+    private static final float AGC_NOISE_FLOOR_DBFS = -60;
+    private static final float GATE_HYSTERESIS_DB = 6;
+    private static final float HIGH_PASS_Q = 0.70710678f;
+    // a DC offset the high-pass removes, keeping its state out of denormals on silence
+    private static final float ANTI_DENORMAL = 1e-18f;
+
+    private final ProcessorChain mChain;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mFilterCount;
+    // coefficients of up to two cascaded biquads
+    private final float[] mB0 = new float[ProcessorChain.MAX_HIGH_PASS_COUNT];
+    private final float[] mB1 = new float[ProcessorChain.MAX_HIGH_PASS_COUNT];
+    private final float[] mB2 = new float[ProcessorChain.MAX_HIGH_PASS_COUNT];
+    private final float[] mA1 = new float[ProcessorChain.MAX_HIGH_PASS_COUNT];
+    private final float[] mA2 = new float[ProcessorChain.MAX_HIGH_PASS_COUNT];
+    // per channel state of the first and second biquad
+    private final float[] mZ1;
+    private final float[] mZ2;
+    private final float[] mW1;
+    private final float[] mW2;
+    // per stage: fixed gain, current AGC gain or gate gain, linear
+    private final float[] mStageGain;
+    private final boolean[] mGateOpen;
+    // per stage, linear: AGC target or gate threshold, and AGC gain limit
+    private final float[] mLevel;
+    private final float[] mMaxGain;
+    private final float mNoiseFloor = dbToLinear(AGC_NOISE_FLOOR_DBFS);
+    private final float mHysteresis = dbToLinear(GATE_HYSTERESIS_DB);
+    // gain at the end of the last frame and where the next frame ramps to
+    private float mGain;
+    private float mTargetGain;
+
+    public FrameProcessor(ProcessorChain chain, int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad processor config " + sampleRate + " Hz, channels "
+                    + channelCount);
+        }
+        mChain = new ProcessorChain(chain);
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        int stageCount = mChain.getStageCount();
+        mStageGain = new float[stageCount];
+        mGateOpen = new boolean[stageCount];
+        mLevel = new float[stageCount];
+        mMaxGain = new float[stageCount];
+        int filterCount = 0;
+        for (int i = 0; i < stageCount; i++) {
+            if (mChain.getStageType(i) == ProcessorChain.STAGE_HIGH_PASS) {
+                designHighPass(filterCount++, mChain.getStageParam(i, 0));
+            } else {
+                mLevel[i] = dbToLinear(mChain.getStageParam(i, 0));
+                mMaxGain[i] = dbToLinear(mChain.getStageParam(i, 1));
+            }
+        }
+        mFilterCount = filterCount;
+        mZ1 = new float[channelCount];
+        mZ2 = new float[channelCount];
+        mW1 = new float[channelCount];
+        mW2 = new float[channelCount];
+        reset();
+    }
+
+    /**
+     * RBJ cookbook high-pass, normalized so that a0 is 1.
+     */
+    private void designHighPass(int f, float cutoffHz) {
+        if (cutoffHz >= mSampleRate / 2f) {
+            throw new IllegalArgumentException("High-pass cutoff " + cutoffHz + " Hz above Nyquist of "
+                    + mSampleRate + " Hz");
+        }
+        double w0 = 2 * Math.PI * cutoffHz / mSampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * HIGH_PASS_Q);
+        double a0 = 1 + alpha;
+        mB0[f] = (float) ((1 + cos) / 2 / a0);
+        mB1[f] = (float) (-(1 + cos) / a0);
+        mB2[f] = mB0[f];
+        mA1[f] = (float) (-2 * cos / a0);
+        mA2[f] = (float) ((1 - alpha) / a0);
+    }
+
+    public boolean matches(ProcessorChain chain, int sampleRate, int channelCount) {
+        return mSampleRate == sampleRate && mChannelCount == channelCount && mChain.matches(chain);
+    }
+
+    /**
+     * Clears the filter state and the AGC and gate history, e.g. before a new
+     * capture session. Gates start closed.
+     */
+    public void reset() {
+        for (int c = 0; c < mChannelCount; c++) {
+            mZ1[c] = 0;
+            mZ2[c] = 0;
+            mW1[c] = 0;
+            mW2[c] = 0;
+        }
+        float gain = 1;
+        for (int i = 0; i < mStageGain.length; i++) {
+            switch (mChain.getStageType(i)) {
+                case ProcessorChain.STAGE_GAIN:
+                    mStageGain[i] = mLevel[i];
+                    break;
+                case ProcessorChain.STAGE_NOISE_GATE:
+                    mGateOpen[i] = false;
+                    mStageGain[i] = 0;
+                    break;
+                default:
+                    mStageGain[i] = 1;
+                    break;
+            }
+            gain *= mStageGain[i];
+        }
+        mGain = gain;
+        mTargetGain = gain;
+    }
+
+    public void process(short[] samples, int offset, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (frames == 0) {
+            return;
+        }
+        int filterCount = mFilterCount;
+        float b0 = mB0[0], b1 = mB1[0], b2 = mB2[0], a1 = mA1[0], a2 = mA2[0];
+        float d0 = mB0[1], d1 = mB1[1], d2 = mB2[1], c1 = mA1[1], c2 = mA2[1];
+        float step = (mTargetGain - mGain) / frames;
+        float sumRaw = 0;
+        float sumFiltered = 0;
+        for (int c = 0; c < channelCount; c++) {
+            float z1 = mZ1[c], z2 = mZ2[c], w1 = mW1[c], w2 = mW2[c];
+            float gain = mGain;
+            for (int i = 0, p = offset + c; i < frames; i++, p += channelCount) {
+                gain += step;
+                float x = samples[p];
+                sumRaw += x * x;
+                if (filterCount > 0) {
+                    float y = b0 * (x + ANTI_DENORMAL) + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    x = y;
+                    if (filterCount > 1) {
+                        y = d0 * x + w1;
+                        w1 = d1 * x - c1 * y + w2;
+                        w2 = d2 * x - c2 * y;
+                        x = y;
+                    }
+                }
+                sumFiltered += x * x;
+                float value = x * gain;
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+                rounded = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+                samples[p] = (short) rounded;
+            }
+            mZ1[c] = z1;
+            mZ2[c] = z2;
+            mW1[c] = w1;
+            mW2[c] = w2;
+        }
+        update(sumRaw, sumFiltered, frames, 32768f);
+    }
+
+    public void process(float[] samples, int offset, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (frames == 0) {
+            return;
+        }
+        int filterCount = mFilterCount;
+        float b0 = mB0[0], b1 = mB1[0], b2 = mB2[0], a1 = mA1[0], a2 = mA2[0];
+        float d0 = mB0[1], d1 = mB1[1], d2 = mB2[1], c1 = mA1[1], c2 = mA2[1];
+        float step = (mTargetGain - mGain) / frames;
+        float sumRaw = 0;
+        float sumFiltered = 0;
+        for (int c = 0; c < channelCount; c++) {
+            float z1 = mZ1[c], z2 = mZ2[c], w1 = mW1[c], w2 = mW2[c];
+            float gain = mGain;
+            for (int i = 0, p = offset + c; i < frames; i++, p += channelCount) {
+                gain += step;
+                float x = samples[p];
+                sumRaw += x * x;
+                if (filterCount > 0) {
+                    float y = b0 * (x + ANTI_DENORMAL) + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    x = y;
+                    if (filterCount > 1) {
+                        y = d0 * x + w1;
+                        w1 = d1 * x - c1 * y + w2;
+                        w2 = d2 * x - c2 * y;
+                        x = y;
+                    }
+                }
+                sumFiltered += x * x;
+                samples[p] = x * gain;
+            }
+            mZ1[c] = z1;
+            mZ2[c] = z2;
+            mW1[c] = w1;
+            mW2[c] = w2;
+        }
+        update(sumRaw, sumFiltered, frames, 1f);
+    }
+
+    /**
+     * Processes little-endian PCM in place, from index 0 of {@code buffer};
+     * position and limit are left untouched.
+     *
+     * @param bytesPerSample 1 for unsigned 8-bit, 2 for 16-bit, 4 for float
+     */
+    public void process(ByteBuffer buffer, int sampleCount, int bytesPerSample) {
+        if (bytesPerSample == 2 && buffer.hasArray()) {
+            processPcm16(buffer.array(), buffer.arrayOffset(), sampleCount);
+        } else if (bytesPerSample == 2 && buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            processPcm16(buffer, sampleCount);
+        } else {
+            processPcm(buffer, sampleCount, bytesPerSample);
+        }
+    }
+
+    private void processPcm16(byte[] data, int offset, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (frames == 0) {
+            return;
+        }
+        int stride = 2 * channelCount;
+        int filterCount = mFilterCount;
+        float b0 = mB0[0], b1 = mB1[0], b2 = mB2[0], a1 = mA1[0], a2 = mA2[0];
+        float d0 = mB0[1], d1 = mB1[1], d2 = mB2[1], c1 = mA1[1], c2 = mA2[1];
+        float step = (mTargetGain - mGain) / frames;
+        float sumRaw = 0;
+        float sumFiltered = 0;
+        for (int c = 0; c < channelCount; c++) {
+            float z1 = mZ1[c], z2 = mZ2[c], w1 = mW1[c], w2 = mW2[c];
+            float gain = mGain;
+            for (int i = 0, p = offset + 2 * c; i < frames; i++, p += stride) {
+                gain += step;
+                float x = (short) ((data[p] & 0xFF) | data[p + 1] << 8);
+                sumRaw += x * x;
+                if (filterCount > 0) {
+                    float y = b0 * (x + ANTI_DENORMAL) + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    x = y;
+                    if (filterCount > 1) {
+                        y = d0 * x + w1;
+                        w1 = d1 * x - c1 * y + w2;
+                        w2 = d2 * x - c2 * y;
+                        x = y;
+                    }
+                }
+                sumFiltered += x * x;
+                float value = x * gain;
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+                rounded = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+                data[p] = (byte) rounded;
+                data[p + 1] = (byte) (rounded >> 8);
+            }
+            mZ1[c] = z1;
+            mZ2[c] = z2;
+            mW1[c] = w1;
+            mW2[c] = w2;
+        }
+        update(sumRaw, sumFiltered, frames, 32768f);
+    }
+
+    // direct buffers: whole-short accesses beat assembling bytes
+    private void processPcm16(ByteBuffer buffer, int sampleCount) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (frames == 0) {
+            return;
+        }
+        int stride = 2 * channelCount;
+        int filterCount = mFilterCount;
+        float b0 = mB0[0], b1 = mB1[0], b2 = mB2[0], a1 = mA1[0], a2 = mA2[0];
+        float d0 = mB0[1], d1 = mB1[1], d2 = mB2[1], c1 = mA1[1], c2 = mA2[1];
+        float step = (mTargetGain - mGain) / frames;
+        float sumRaw = 0;
+        float sumFiltered = 0;
+        for (int c = 0; c < channelCount; c++) {
+            float z1 = mZ1[c], z2 = mZ2[c], w1 = mW1[c], w2 = mW2[c];
+            float gain = mGain;
+            for (int i = 0, p = 2 * c; i < frames; i++, p += stride) {
+                gain += step;
+                float x = buffer.getShort(p);
+                sumRaw += x * x;
+                if (filterCount > 0) {
+                    float y = b0 * (x + ANTI_DENORMAL) + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    x = y;
+                    if (filterCount > 1) {
+                        y = d0 * x + w1;
+                        w1 = d1 * x - c1 * y + w2;
+                        w2 = d2 * x - c2 * y;
+                        x = y;
+                    }
+                }
+                sumFiltered += x * x;
+                float value = x * gain;
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+                rounded = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+                buffer.putShort(p, (short) rounded);
+            }
+            mZ1[c] = z1;
+            mZ2[c] = z2;
+            mW1[c] = w1;
+            mW2[c] = w2;
+        }
+        update(sumRaw, sumFiltered, frames, 32768f);
+    }
+
+    private void processPcm(ByteBuffer buffer, int sampleCount, int bytesPerSample) {
+        int channelCount = mChannelCount;
+        int frames = sampleCount / channelCount;
+        if (frames == 0) {
+            return;
+        }
+        int stride = bytesPerSample * channelCount;
+        int filterCount = mFilterCount;
+        float b0 = mB0[0], b1 = mB1[0], b2 = mB2[0], a1 = mA1[0], a2 = mA2[0];
+        float d0 = mB0[1], d1 = mB1[1], d2 = mB2[1], c1 = mA1[1], c2 = mA2[1];
+        float step = (mTargetGain - mGain) / frames;
+        float sumRaw = 0;
+        float sumFiltered = 0;
+        for (int c = 0; c < channelCount; c++) {
+            float z1 = mZ1[c], z2 = mZ2[c], w1 = mW1[c], w2 = mW2[c];
+            float gain = mGain;
+            for (int i = 0, p = bytesPerSample * c; i < frames; i++, p += stride) {
+                gain += step;
+                float x = SampleConverter.getSample(buffer, p, bytesPerSample);
+                sumRaw += x * x;
+                if (filterCount > 0) {
+                    float y = b0 * (x + ANTI_DENORMAL) + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    x = y;
+                    if (filterCount > 1) {
+                        y = d0 * x + w1;
+                        w1 = d1 * x - c1 * y + w2;
+                        w2 = d2 * x - c2 * y;
+                        x = y;
+                    }
+                }
+                sumFiltered += x * x;
+                SampleConverter.putSample(buffer, p, bytesPerSample, x * gain);
+            }
+            mZ1[c] = z1;
+            mZ2[c] = z2;
+            mW1[c] = w1;
+            mW2[c] = w2;
+        }
+        update(sumRaw, sumFiltered, frames, bytesPerSample == 4 ? 1f : 32768f);
+    }
+
+    /**
+     * Walks the chain in order with this frame's levels and sets the gain
+     * the next frame ramps to.
+     */
+    private void update(float sumRaw, float sumFiltered, int frames, float fullScale) {
+        float count = (float) frames * mChannelCount;
+        float rawLevel = (float) Math.sqrt(sumRaw / count) / fullScale;
+        float filteredLevel = (float) Math.sqrt(sumFiltered / count) / fullScale;
+        float frameMs = frames * 1000f / mSampleRate;
+        boolean filtered = false;
+        float gain = 1;
+        for (int i = 0; i < mStageGain.length; i++) {
+            float level = (filtered ? filteredLevel : rawLevel) * gain;
+            switch (mChain.getStageType(i)) {
+                case ProcessorChain.STAGE_HIGH_PASS:
+                    filtered = true;
+                    break;
+                case ProcessorChain.STAGE_NOISE_GATE: {
+                    boolean open = mGateOpen[i] ? level >= mLevel[i] : level >= mLevel[i] * mHysteresis;
+                    mGateOpen[i] = open;
+                    mStageGain[i] = open ? 1 : 0;
+                    break;
+                }
+                case ProcessorChain.STAGE_AGC: {
+                    if (level > mNoiseFloor) {
+                        float desired = Math.min(mMaxGain[i], mLevel[i] / level);
+                        float current = mStageGain[i];
+                        float timeMs = desired < current ? AGC_ATTACK_MS : AGC_RELEASE_MS;
+                        float coefficient = 1 - (float) Math.exp(-frameMs / timeMs);
+                        mStageGain[i] = current + (desired - current) * coefficient;
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+            gain *= mStageGain[i];
+        }
+        mGain = mTargetGain;
+        mTargetGain = gain;
+    }
+
+    private static float dbToLinear(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import android.util.Log;
+
+/**
+ * Publishes captured frames to {@link FrameFlow.Subscriber}s with per
+ * subscriber demand. Each subscriber gets frames only as far as it has
+ * requested them; what arrives in between waits in a bounded queue and
+ * the overflow strategy decides what happens once that is full.
+ * <p>
+ * Every frame passed to {@code onNext} is retained for the subscriber, which
+ * owns it and must call {@link AudioFrame#release()} when done, on any
+ * thread. Frames are never copied, every subscriber reads the same frame and
+ * none may modify it. Queued frames are delivered in runs of up to
+ * {@code maxBatchSize} per executor task, taking the queue lock once per
+ * run. {@code onComplete} follows the release of the capture session, once
+ * queued frames have been delivered.
+ */
+public final class FramePublisher implements FrameFlow.Publisher<AudioFrame> {
+    private static final String TAG = FramePublisher.class.getSimpleName();
+
+    // 队列满时丢弃最旧的帧
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+    // 队列满时丢弃新到的帧
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+    // 队列满时阻塞分发线程直到订阅者请求更多，会拖慢所有订阅者和采集，适合不限速的文件源
+    public static final int OVERFLOW_BLOCK = 2;
+    // 队列满时以IllegalStateException结束订阅
+    public static final int OVERFLOW_ERROR = 3;
+
+    // 默认每个订阅者最多排队的帧数
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+    // 默认每次调度最多连续投递的帧数
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+    private static final Subscription[] EMPTY = new Subscription[0];
+
+    private final FrameFanOut mFrameFanOut;
+    private volatile Subscription[] mSubscriptions = EMPTY;
+    private FrameSubscription mFanOutSubscription;
+    private boolean mClosed = false;
+
+    FramePublisher(FrameFanOut frameFanOut) {
+        mFrameFanOut = frameFanOut;
+    }
+
+    /**
+     * Subscribes with {@link #OVERFLOW_DROP_OLDEST}, delivering on the
+     * capture (or dispatch) thread.
+     */
+    @Override
+    public void subscribe(FrameFlow.Subscriber<? super AudioFrame> subscriber) {
+        subscribe(subscriber, null, OVERFLOW_DROP_OLDEST, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param executor         runs the onNext/onError/onComplete calls; null
+     *                         calls them on the capture (or dispatch) thread, or
+     *                         on the thread calling request
+     * @param overflowStrategy one of the OVERFLOW_ constants
+     * @param bufferSize       frames queued without demand before the overflow
+     *                         strategy applies
+     * @param maxBatchSize     frames delivered per executor task
+     */
+    public void subscribe(FrameFlow.Subscriber<? super AudioFrame> subscriber, Executor executor,
+                          int overflowStrategy, int bufferSize, int maxBatchSize) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber == null");
+        }
+        Subscription subscription = new Subscription(this, subscriber, executor, overflowStrategy,
+                bufferSize, maxBatchSize);
+        subscriber.onSubscribe(subscription);
+        add(subscription);
+    }
+
+    public int getSubscriberCount() {
+        return mSubscriptions.length;
+    }
+
+    private synchronized void add(Subscription subscription) {
+        if (subscription.isCancelled()) {
+            return;
+        }
+        Subscription[] old = mSubscriptions;
+        Subscription[] updated = new Subscription[old.length + 1];
+        System.arraycopy(old, 0, updated, 0, old.length);
+        updated[old.length] = subscription;
+        mSubscriptions = updated;
+        if (mClosed) {
+            subscription.setClosed(true);
+        }
+        if (mFanOutSubscription == null) {
+            mFanOutSubscription = mFrameFanOut.add(new AudioFrameCallback() {
+                @Override
+                public void onAudioFrameAvailable(AudioFrame frame) {
+                    publish(frame);
+                }
+            }, null, FrameSubscription.DELIVERY_LOSSLESS, 1);
+        }
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] old = mSubscriptions;
+        int index = -1;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == subscription) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        Subscription[] updated = new Subscription[old.length - 1];
+        System.arraycopy(old, 0, updated, 0, index);
+        System.arraycopy(old, index + 1, updated, index, old.length - index - 1);
+        mSubscriptions = updated;
+        if (updated.length == 0 && mFanOutSubscription != null) {
+            mFrameFanOut.remove(mFanOutSubscription);
+            mFanOutSubscription = null;
+        }
+    }
+
+    private void publish(AudioFrame frame) {
+        Subscription[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].offer(frame);
+        }
+    }
+
+    /**
+     * Drops queued references to {@code frame}, see {@link FramePool.Reclaimer}.
+     * {@link #OVERFLOW_BLOCK} subscribers keep theirs, they never lose frames.
+     */
+    boolean reclaim(AudioFrame frame) {
+        Subscription[] subscriptions = mSubscriptions;
+        boolean reclaimed = false;
+        for (int i = 0; i < subscriptions.length; i++) {
+            reclaimed |= subscriptions[i].reclaim(frame);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * While closed, {@link #OVERFLOW_BLOCK} subscribers drop new frames
+     * instead of waiting, so that stopping capture never hangs on a
+     * subscriber that has stopped requesting.
+     */
+    synchronized void setClosed(boolean closed) {
+        mClosed = closed;
+        Subscription[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].setClosed(closed);
+        }
+    }
+
+    /**
+     * Signals onComplete to every subscriber after its queued frames, and
+     * forgets them. New subscribers are still accepted.
+     */
+    void complete() {
+        Subscription[] subscriptions;
+        synchronized (this) {
+            subscriptions = mSubscriptions;
+            mSubscriptions = EMPTY;
+            if (mFanOutSubscription != null) {
+                mFrameFanOut.remove(mFanOutSubscription);
+                mFanOutSubscription = null;
+            }
+        }
+        for (int i = 0; i < subscriptions.length; i++) {
+            subscriptions[i].complete();
+        }
+    }
+
+    /**
+     * The demand and queue of one subscriber.
+     */
+    public static final class Subscription implements FrameFlow.Subscription {
+        private final FramePublisher mPublisher;
+        private final FrameFlow.Subscriber<? super AudioFrame> mSubscriber;
+        private final Executor mExecutor;
+        private final int mOverflowStrategy;
+        private final int mBufferSize;
+        private final ArrayDeque<AudioFrame> mQueue;
+        // only touched by the single draining thread
+        private final AudioFrame[] mBatch;
+        private final Runnable mDrainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        private long mDemand;
+        private boolean mDraining = false;
+        private boolean mCancelled = false;
+        private boolean mClosed = false;
+        // terminal signal waiting for the queue to drain (complete) or not (error)
+        private boolean mCompletePending = false;
+        private Throwable mPendingError;
+        private long mDeliveredCount;
+        private long mDroppedCount;
+
+        Subscription(FramePublisher publisher, FrameFlow.Subscriber<? super AudioFrame> subscriber,
+                     Executor executor, int overflowStrategy, int bufferSize, int maxBatchSize) {
+            mPublisher = publisher;
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mOverflowStrategy = overflowStrategy;
+            mBufferSize = Math.max(1, bufferSize);
+            mQueue = new ArrayDeque<>(mBufferSize);
+            mBatch = new AudioFrame[Math.max(1, maxBatchSize)];
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (mCancelled || mPendingError != null) {
+                    return;
+                }
+                if (n <= 0) {
+                    mPendingError = new IllegalArgumentException("request " + n + ", must be positive");
+                    releaseQueue();
+                } else {
+                    mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+                    if (mOverflowStrategy == OVERFLOW_BLOCK) {
+                        notifyAll();
+                    }
+                    if (mQueue.isEmpty() && !mCompletePending) {
+                        return;
+                    }
+                }
+                if (!startDrain()) {
+                    return;
+                }
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                releaseQueue();
+                notifyAll();
+            }
+            mPublisher.remove(this);
+        }
+
+        void offer(AudioFrame frame) {
+            boolean schedule;
+            synchronized (this) {
+                if (mCancelled || mCompletePending || mPendingError != null) {
+                    return;
+                }
+                if (mQueue.size() >= mBufferSize && !makeRoom()) {
+                    schedule = mPendingError != null && startDrain();
+                } else {
+                    frame.retain();
+                    mQueue.addLast(frame);
+                    schedule = mDemand > 0 && startDrain();
+                }
+            }
+            if (schedule) {
+                scheduleDrain();
+            }
+        }
+
+        /**
+         * Applies the overflow strategy to a full queue.
+         *
+         * @return true when the new frame can be queued
+         */
+        private boolean makeRoom() {
+            switch (mOverflowStrategy) {
+                case OVERFLOW_DROP_NEWEST:
+                    mDroppedCount++;
+                    return false;
+                case OVERFLOW_BLOCK:
+                    if (awaitSpace()) {
+                        return true;
+                    }
+                    mDroppedCount++;
+                    return false;
+                case OVERFLOW_ERROR:
+                    mDroppedCount++;
+                    mPendingError = new IllegalStateException("Subscriber fell " + mBufferSize + " frames behind");
+                    releaseQueue();
+                    return false;
+                case OVERFLOW_DROP_OLDEST:
+                default:
+                    mQueue.pollFirst().release();
+                    mDroppedCount++;
+                    return true;
+            }
+        }
+
+        /**
+         * @return false when closed or cancelled while waiting
+         */
+        private boolean awaitSpace() {
+            boolean interrupted = false;
+            try {
+                while (mQueue.size() >= mBufferSize && !mCancelled && !mClosed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return !mCancelled && mQueue.size() < mBufferSize;
+        }
+
+        boolean reclaim(AudioFrame frame) {
+            synchronized (this) {
+                if (mOverflowStrategy == OVERFLOW_BLOCK || !mQueue.remove(frame)) {
+                    return false;
+                }
+                mDroppedCount++;
+            }
+            frame.release();
+            return true;
+        }
+
+        synchronized void setClosed(boolean closed) {
+            mClosed = closed;
+            if (closed) {
+                notifyAll();
+            }
+        }
+
+        void complete() {
+            synchronized (this) {
+                if (mCancelled || mPendingError != null || mCompletePending) {
+                    return;
+                }
+                mCompletePending = true;
+                if (!startDrain()) {
+                    return;
+                }
+            }
+            scheduleDrain();
+        }
+
+        private boolean startDrain() {
+            if (mDraining) {
+                return false;
+            }
+            mDraining = true;
+            return true;
+        }
+
+        private void scheduleDrain() {
+            if (mExecutor != null) {
+                mExecutor.execute(mDrainTask);
+            } else {
+                drain();
+            }
+        }
+
+        private void releaseQueue() {
+            AudioFrame frame;
+            while ((frame = mQueue.pollFirst()) != null) {
+                frame.release();
+            }
+        }
+
+        private void drain() {
+            AudioFrame[] batch = mBatch;
+            while (true) {
+                int count = 0;
+                Throwable error = null;
+                boolean complete = false;
+                synchronized (this) {
+                    if (mCancelled) {
+                        mDraining = false;
+                        return;
+                    }
+                    if (mPendingError != null) {
+                        error = mPendingError;
+                    } else {
+                        while (count < batch.length && mDemand > 0 && !mQueue.isEmpty()) {
+                            batch[count++] = mQueue.pollFirst();
+                            if (mDemand != Long.MAX_VALUE) {
+                                mDemand--;
+                            }
+                        }
+                        mDeliveredCount += count;
+                        if (count > 0 && mOverflowStrategy == OVERFLOW_BLOCK) {
+                            notifyAll();
+                        }
+                        complete = count == 0 && mCompletePending && mQueue.isEmpty();
+                    }
+                    if (error != null || complete) {
+                        mCancelled = true;
+                    }
+                    if (count == 0) {
+                        mDraining = false;
+                        if (error == null && !complete) {
+                            return;
+                        }
+                    }
+                }
+                if (error != null || complete) {
+                    mPublisher.remove(this);
+                }
+                if (error != null) {
+                    mSubscriber.onError(error);
+                    return;
+                }
+                if (complete) {
+                    mSubscriber.onComplete();
+                    return;
+                }
+                deliver(batch, count);
+                if (mExecutor != null) {
+                    // give other tasks on a shared executor a turn
+                    synchronized (this) {
+                        if (mCancelled || !hasWork()) {
+                            mDraining = false;
+                            return;
+                        }
+                    }
+                    mExecutor.execute(mDrainTask);
+                    return;
+                }
+            }
+        }
+
+        private boolean hasWork() {
+            return mPendingError != null || mDemand > 0 && !mQueue.isEmpty()
+                    || mCompletePending && mQueue.isEmpty();
+        }
+
+        private void deliver(AudioFrame[] batch, int count) {
+            int i = 0;
+            try {
+                for (; i < count; i++) {
+                    AudioFrame frame = batch[i];
+                    batch[i] = null;
+                    mSubscriber.onNext(frame);
+                }
+            } catch (RuntimeException e) {
+                // a throwing subscriber breaks the rules; drop it
+                for (i++; i < count; i++) {
+                    batch[i].release();
+                    batch[i] = null;
+                }
+                cancel();
+                Log.e(TAG, "Subscriber threw from onNext, cancelled", e);
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public synchronized long getDemand() {
+            return mDemand;
+        }
+
+        public int getOverflowStrategy() {
+            return mOverflowStrategy;
+        }
+
+        public synchronized int getQueueDepth() {
+            return mQueue.size();
+        }
+
+        public synchronized long getDeliveredCount() {
+            return mDeliveredCount;
+        }
+
+        public synchronized long getDroppedCount() {
+            return mDroppedCount;
+        }
+    }
+}
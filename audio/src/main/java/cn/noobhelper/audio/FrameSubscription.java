@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One subscriber of the captured stream, see
+ * {@link AudioController#addSubscriber(AudioFrameCallback, Executor, int, int)}.
+ * Frames are queued by reference, never copied, and each queued frame holds
+ * its own retain on the pool until the subscriber has consumed it. Every
+ * subscriber sees the same frame, so none may modify it, see {@link AudioFrame}.
+ */
+public final class FrameSubscription {
+    private static final String TAG = FrameSubscription.class.getSimpleName();
+
+    // 队列满时丢弃最旧的帧，慢订阅者不会占住帧缓存
+    public static final int DELIVERY_LOSSY = 0;
+    // 不丢帧，队列无上限，由FramePool的策略决定帧缓存耗尽时的行为
+    public static final int DELIVERY_LOSSLESS = 1;
+
+    private final AudioFrameCallback mCallback;
+    private final Executor mExecutor;
+    private final int mDeliveryPolicy;
+    private final int mQueueCapacity;
+    private final ArrayDeque<AudioFrame> mQueue = new ArrayDeque<>();
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private boolean mDrainScheduled = false;
+    private boolean mCancelled = false;
+    private long mDeliveredCount;
+    private long mDroppedCount;
+
+    FrameSubscription(AudioFrameCallback callback, Executor executor, int deliveryPolicy, int queueCapacity) {
+        mCallback = callback;
+        mExecutor = executor;
+        mDeliveryPolicy = deliveryPolicy;
+        mQueueCapacity = Math.max(1, queueCapacity);
+    }
+
+    void offer(AudioFrame frame) {
+        if (mExecutor == null) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mDeliveredCount++;
+            }
+            mCallback.onAudioFrameAvailable(frame);
+            return;
+        }
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            if (mDeliveryPolicy == DELIVERY_LOSSY && mQueue.size() >= mQueueCapacity) {
+                mQueue.pollFirst().release();
+                mDroppedCount++;
+            }
+            frame.retain();
+            mQueue.addLast(frame);
+            if (mDrainScheduled) {
+                return;
+            }
+            mDrainScheduled = true;
+        }
+        try {
+            mExecutor.execute(mDrainTask);
+        } catch (RejectedExecutionException e) {
+            // e.g. the executor was shut down; nothing will drain the queue
+            synchronized (this) {
+                mDrainScheduled = false;
+                AudioFrame queued;
+                while ((queued = mQueue.pollFirst()) != null) {
+                    queued.release();
+                    mDroppedCount++;
+                }
+            }
+            Log.e(TAG, "Executor rejected the delivery, frames dropped", e);
+        }
+    }
+
+    /**
+     * Drops {@code frame} if it is still queued, see {@link FramePool.Reclaimer}.
+     */
+    boolean reclaim(AudioFrame frame) {
+        synchronized (this) {
+            if (!mQueue.remove(frame)) {
+                return false;
+            }
+            mDroppedCount++;
+        }
+        frame.release();
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            AudioFrame frame;
+            synchronized (this) {
+                frame = mQueue.pollFirst();
+                if (frame == null) {
+                    mDrainScheduled = false;
+                    return;
+                }
+                mDeliveredCount++;
+            }
+            try {
+                mCallback.onAudioFrameAvailable(frame);
+            } catch (RuntimeException e) {
+                // a throwing callback would leave mDrainScheduled set forever; drop it
+                cancel();
+                Log.e(TAG, "Subscriber threw from onAudioFrameAvailable, cancelled", e);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    synchronized void cancel() {
+        mCancelled = true;
+        AudioFrame frame;
+        while ((frame = mQueue.pollFirst()) != null) {
+            frame.release();
+        }
+    }
+
+    public AudioFrameCallback getCallback() {
+        return mCallback;
+    }
+
+    public int getDeliveryPolicy() {
+        return mDeliveryPolicy;
+    }
+
+    public synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes {@link ImaAdpcmEncoder} packets.
+ */
+public final class ImaAdpcmDecoder implements AudioDecoder {
+    private final int mChannelCount;
+    private final int[] mPredictor;
+    private final int[] mIndex;
+
+    public ImaAdpcmDecoder(int channelCount) {
+        mChannelCount = channelCount;
+        mPredictor = new int[channelCount];
+        mIndex = new int[channelCount];
+    }
+
+    @Override
+    public int decode(ByteBuffer packet, short[] samples, int offset) {
+        ByteOrder order = packet.order();
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        int sampleCount = (packet.getShort() & 0xFFFF) * mChannelCount;
+        for (int c = 0; c < mChannelCount; c++) {
+            mPredictor[c] = packet.getShort();
+            mIndex[c] = packet.get() & 0xFF;
+            packet.get();
+        }
+        int packed = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int nibble;
+            if ((i & 1) == 0) {
+                packed = packet.get() & 0xFF;
+                nibble = packed & 0x0F;
+            } else {
+                nibble = packed >> 4;
+            }
+            samples[offset + i] = decodeSample(i % mChannelCount, nibble);
+        }
+        packet.order(order);
+        return sampleCount;
+    }
+
+    private short decodeSample(int channel, int nibble) {
+        int index = mIndex[channel];
+        int step = ImaAdpcmEncoder.STEP_TABLE[index];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        int predictor = mPredictor[channel] + ((nibble & 8) != 0 ? -delta : delta);
+        predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+        mPredictor[channel] = predictor;
+        mIndex[channel] = Math.max(0, Math.min(ImaAdpcmEncoder.STEP_TABLE.length - 1,
+                index + ImaAdpcmEncoder.INDEX_TABLE[nibble]));
+        return (short) predictor;
+    }
+}
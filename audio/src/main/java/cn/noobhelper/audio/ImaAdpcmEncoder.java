@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * IMA-ADPCM, 4 bits per sample. A packet is the sample frame count (u16),
+ * then per channel the predictor (s16) and step index (u8, plus one pad
+ * byte) it starts from, then one nibble per sample, interleaved like the
+ * input, low nibble first.
+ */
+public final class ImaAdpcmEncoder implements AudioEncoder {
+    static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+            253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+            1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+            3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+            12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private final int mChannelCount;
+    private final int[] mPredictor;
+    private final int[] mIndex;
+
+    public ImaAdpcmEncoder(int channelCount) {
+        mChannelCount = channelCount;
+        mPredictor = new int[channelCount];
+        mIndex = new int[channelCount];
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int sampleCount, ByteBuffer packet) {
+        ByteOrder order = packet.order();
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        int start = packet.position();
+        packet.putShort((short) (sampleCount / mChannelCount));
+        for (int c = 0; c < mChannelCount; c++) {
+            packet.putShort((short) mPredictor[c]);
+            packet.put((byte) mIndex[c]);
+            packet.put((byte) 0);
+        }
+        int packed = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int c = i % mChannelCount;
+            int nibble = encodeSample(c, samples[offset + i]);
+            if ((i & 1) == 0) {
+                packed = nibble;
+            } else {
+                packet.put((byte) (packed | (nibble << 4)));
+            }
+        }
+        if ((sampleCount & 1) != 0) {
+            packet.put((byte) packed);
+        }
+        packet.order(order);
+        return packet.position() - start;
+    }
+
+    private int encodeSample(int channel, int sample) {
+        int predictor = mPredictor[channel];
+        int index = mIndex[channel];
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+        predictor += (nibble & 8) != 0 ? -delta : delta;
+        mPredictor[channel] = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+        mIndex[channel] = Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[nibble]));
+        return nibble;
+    }
+
+    @Override
+    public int getMaxPacketSize(int sampleCount) {
+        return 2 + 4 * mChannelCount + (sampleCount + 1) / 2;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void reset() {
+        for (int c = 0; c < mChannelCount; c++) {
+            mPredictor[c] = 0;
+            mIndex[c] = 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes {@link LosslessEncoder} packets.
+ */
+public final class LosslessDecoder implements AudioDecoder {
+    private final int mChannelCount;
+
+    private long mBits;
+    private int mBitCount;
+
+    public LosslessDecoder(int channelCount) {
+        mChannelCount = channelCount;
+    }
+
+    @Override
+    public int decode(ByteBuffer packet, short[] samples, int offset) {
+        ByteOrder order = packet.order();
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        int frames = packet.getShort() & 0xFFFF;
+        int stride = mChannelCount;
+        for (int c = 0; c < mChannelCount; c++) {
+            int predictorOrder = packet.get() & 0xFF;
+            int k = packet.get() & 0xFF;
+            int base = offset + c;
+            if (predictorOrder == LosslessEncoder.ORDER_VERBATIM) {
+                for (int i = 0; i < frames; i++) {
+                    samples[base + i * stride] = packet.getShort();
+                }
+                continue;
+            }
+            for (int i = 0; i < predictorOrder; i++) {
+                samples[base + i * stride] = packet.getShort();
+            }
+            mBits = 0;
+            mBitCount = 0;
+            for (int i = predictorOrder; i < frames; i++) {
+                int q = 0;
+                while (readBit(packet) == 0) {
+                    q++;
+                }
+                int u = (q << k) | readBits(k, packet);
+                int e = (u >>> 1) ^ -(u & 1);
+                int p = base + i * stride;
+                int prediction;
+                switch (predictorOrder) {
+                    case 0:
+                        prediction = 0;
+                        break;
+                    case 1:
+                        prediction = samples[p - stride];
+                        break;
+                    case 2:
+                        prediction = 2 * samples[p - stride] - samples[p - 2 * stride];
+                        break;
+                    case 3:
+                        prediction = 3 * samples[p - stride] - 3 * samples[p - 2 * stride]
+                                + samples[p - 3 * stride];
+                        break;
+                    default:
+                        prediction = 4 * samples[p - stride] - 6 * samples[p - 2 * stride]
+                                + 4 * samples[p - 3 * stride] - samples[p - 4 * stride];
+                        break;
+                }
+                samples[p] = (short) (prediction + e);
+            }
+        }
+        packet.order(order);
+        return frames * mChannelCount;
+    }
+
+    private int readBit(ByteBuffer packet) {
+        if (mBitCount == 0) {
+            mBits = packet.get() & 0xFF;
+            mBitCount = 8;
+        }
+        mBitCount--;
+        return (int) (mBits >>> mBitCount) & 1;
+    }
+
+    private int readBits(int count, ByteBuffer packet) {
+        while (mBitCount < count) {
+            mBits = (mBits << 8) | (packet.get() & 0xFF);
+            mBitCount += 8;
+        }
+        mBitCount -= count;
+        return (int) (mBits >>> mBitCount) & ((1 << count) - 1);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lossless coder in the style of FLAC fixed subframes: per packet and channel
+ * the best polynomial predictor of order 0..4 is picked and its residual is
+ * Rice coded. A packet is the sample frame count (u16), then per channel the
+ * predictor order (u8, {@link #ORDER_VERBATIM} for raw samples), the Rice
+ * parameter (u8), {@code order} warm-up samples (s16) and the residual bits,
+ * padded to a byte.
+ */
+public final class LosslessEncoder implements AudioEncoder {
+    static final int MAX_ORDER = 4;
+    static final int ORDER_VERBATIM = 0xFF;
+    static final int MAX_RICE_PARAMETER = 30;
+
+    private final int mChannelCount;
+    private final int[] mChannel;
+    private final int[] mResidual;
+    private final long[] mOrderCost = new long[MAX_ORDER + 1];
+
+    private long mBits;
+    private int mBitCount;
+
+    public LosslessEncoder(int channelCount, int maxSamplesPerFrame) {
+        mChannelCount = channelCount;
+        int frames = maxSamplesPerFrame / channelCount;
+        mChannel = new int[frames];
+        mResidual = new int[frames];
+    }
+
+    @Override
+    public int encode(short[] samples, int offset, int sampleCount, ByteBuffer packet) {
+        ByteOrder order = packet.order();
+        packet.order(ByteOrder.LITTLE_ENDIAN);
+        int start = packet.position();
+        int frames = sampleCount / mChannelCount;
+        packet.putShort((short) frames);
+        for (int c = 0; c < mChannelCount; c++) {
+            for (int i = 0, j = offset + c; i < frames; i++, j += mChannelCount) {
+                mChannel[i] = samples[j];
+            }
+            encodeChannel(frames, packet);
+        }
+        packet.order(order);
+        return packet.position() - start;
+    }
+
+    private void encodeChannel(int frames, ByteBuffer packet) {
+        int order = frames > MAX_ORDER ? selectOrder(frames) : ORDER_VERBATIM;
+        int k = 0;
+        if (order != ORDER_VERBATIM) {
+            long sum = residual(order, frames);
+            int count = frames - order;
+            while (k < MAX_RICE_PARAMETER && ((long) count << k) < sum) {
+                k++;
+            }
+            long bits = (long) count * (k + 1);
+            for (int i = 0; i < count; i++) {
+                bits += mResidual[i] >>> k;
+            }
+            if (bits > 16L * count) {
+                order = ORDER_VERBATIM;
+            }
+        }
+        packet.put((byte) order);
+        packet.put((byte) k);
+        if (order == ORDER_VERBATIM) {
+            for (int i = 0; i < frames; i++) {
+                packet.putShort((short) mChannel[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < order; i++) {
+            packet.putShort((short) mChannel[i]);
+        }
+        mBits = 0;
+        mBitCount = 0;
+        int count = frames - order;
+        for (int i = 0; i < count; i++) {
+            int u = mResidual[i];
+            int q = u >>> k;
+            while (q >= 32) {
+                writeBits(0, 32, packet);
+                q -= 32;
+            }
+            writeBits(1, q + 1, packet);
+            if (k > 0) {
+                writeBits(u & ((1 << k) - 1), k, packet);
+            }
+        }
+        if (mBitCount > 0) {
+            packet.put((byte) (mBits << (8 - mBitCount)));
+        }
+    }
+
+    /**
+     * Picks the predictor order with the smallest sum of absolute residuals,
+     * evaluating all orders in one pass over the channel.
+     */
+    private int selectOrder(int frames) {
+        long[] cost = mOrderCost;
+        for (int o = 0; o <= MAX_ORDER; o++) {
+            cost[o] = 0;
+        }
+        int[] x = mChannel;
+        for (int i = MAX_ORDER; i < frames; i++) {
+            int e0 = x[i];
+            int e1 = e0 - x[i - 1];
+            int e2 = e1 - (x[i - 1] - x[i - 2]);
+            int e3 = e2 - (x[i - 1] - 2 * x[i - 2] + x[i - 3]);
+            int e4 = e3 - (x[i - 1] - 3 * x[i - 2] + 3 * x[i - 3] - x[i - 4]);
+            cost[0] += Math.abs(e0);
+            cost[1] += Math.abs(e1);
+            cost[2] += Math.abs(e2);
+            cost[3] += Math.abs(e3);
+            cost[4] += Math.abs(e4);
+        }
+        int best = 0;
+        for (int o = 1; o <= MAX_ORDER; o++) {
+            if (cost[o] < cost[best]) {
+                best = o;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fills {@code mResidual} with the zigzag-mapped residual of
+     * {@code order} and returns its sum.
+     */
+    private long residual(int order, int frames) {
+        int[] x = mChannel;
+        long sum = 0;
+        for (int i = order; i < frames; i++) {
+            int e;
+            switch (order) {
+                case 0:
+                    e = x[i];
+                    break;
+                case 1:
+                    e = x[i] - x[i - 1];
+                    break;
+                case 2:
+                    e = x[i] - 2 * x[i - 1] + x[i - 2];
+                    break;
+                case 3:
+                    e = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                    break;
+                default:
+                    e = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                    break;
+            }
+            int u = (e << 1) ^ (e >> 31);
+            mResidual[i - order] = u;
+            sum += u;
+        }
+        return sum;
+    }
+
+    private void writeBits(int value, int count, ByteBuffer packet) {
+        mBits = (mBits << count) | (value & 0xFFFFFFFFL);
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            packet.put((byte) (mBits >>> mBitCount));
+        }
+    }
+
+    @Override
+    public int getMaxPacketSize(int sampleCount) {
+        // Rice output is only kept while it is not larger than the raw samples.
+        return 2 + mChannelCount * (2 + 2 * MAX_ORDER + 1) + 2 * sampleCount;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    @Override
+    public void reset() {
+    }
+}
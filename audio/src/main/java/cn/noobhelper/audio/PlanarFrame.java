@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A pooled frame with one contiguous run of samples per channel: channel
+ * {@code c} starts at {@code c * getChannelStride()} of the sample array.
+ * The per-channel getters return views of that storage, so taking one
+ * channel costs no copy. Like {@link AudioFrame}, a frame is only valid
+ * until the callback returns; {@link #retain()} it to keep it longer and
+ * {@link #release()} it when done.
+ */
+public final class PlanarFrame {
+    private final ChannelSplitter mSplitter;
+    private final int mChannelCount;
+    private final int mCapacity;
+    private final int mBytesPerSample;
+    private final short[] mShortSamples;
+    private final float[] mFloatSamples;
+    private final ByteBuffer mBuffer;
+    private int mSampleCount;
+    private long mTimestampNanos;
+    private long mSequence;
+    private boolean mVoiceActive;
+    // guarded by mSplitter
+    int mRefCount;
+
+    PlanarFrame(ChannelSplitter splitter, int channelCount, int capacity, int bufferType, int bytesPerSample) {
+        mSplitter = splitter;
+        mChannelCount = channelCount;
+        mCapacity = capacity;
+        mBytesPerSample = bytesPerSample;
+        mShortSamples = bufferType == FramePool.BUFFER_SHORT ? new short[capacity * channelCount] : null;
+        mFloatSamples = bufferType == FramePool.BUFFER_FLOAT ? new float[capacity * channelCount] : null;
+        mBuffer = mShortSamples == null && mFloatSamples == null
+                ? ByteBuffer.allocate(capacity * channelCount * bytesPerSample).order(ByteOrder.LITTLE_ENDIAN)
+                : null;
+    }
+
+    void set(int sampleCount, long timestampNanos, long sequence, boolean voiceActive) {
+        mSampleCount = sampleCount;
+        mTimestampNanos = timestampNanos;
+        mSequence = sequence;
+        mVoiceActive = voiceActive;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Samples in each channel.
+     */
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Distance between the starts of two channels, in samples for the arrays
+     * and in samples times bytes per sample for {@link #getBuffer()}.
+     */
+    public int getChannelStride() {
+        return mCapacity;
+    }
+
+    /**
+     * Non-null when the engine delivers {@link AudioParams#SAMPLE_TYPE_SHORT}.
+     */
+    public short[] getShortSamples() {
+        return mShortSamples;
+    }
+
+    /**
+     * Non-null when the engine delivers {@link AudioParams#SAMPLE_TYPE_FLOAT}.
+     */
+    public float[] getFloatSamples() {
+        return mFloatSamples;
+    }
+
+    /**
+     * Little-endian PCM in the capture format, or null for short and float
+     * frames.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * View of one channel of a short frame, null for other sample types.
+     */
+    public ShortBuffer getShortChannel(int channel) {
+        if (mShortSamples == null) {
+            return null;
+        }
+        return ShortBuffer.wrap(mShortSamples, channel * mCapacity, mSampleCount).slice();
+    }
+
+    /**
+     * View of one channel of a float frame, null for other sample types.
+     */
+    public FloatBuffer getFloatChannel(int channel) {
+        if (mFloatSamples == null) {
+            return null;
+        }
+        return FloatBuffer.wrap(mFloatSamples, channel * mCapacity, mSampleCount).slice();
+    }
+
+    /**
+     * Read-only view of one channel of a byte frame, null for short and float
+     * frames.
+     */
+    public ByteBuffer getChannel(int channel) {
+        if (mBuffer == null) {
+            return null;
+        }
+        ByteBuffer view = mBuffer.asReadOnlyBuffer();
+        view.limit((channel * mCapacity + mSampleCount) * mBytesPerSample);
+        view.position(channel * mCapacity * mBytesPerSample);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public boolean isVoiceActive() {
+        return mVoiceActive;
+    }
+
+    public void retain() {
+        mSplitter.retain(this);
+    }
+
+    public void release() {
+        mSplitter.release(this);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Companion to {@link AudioCallback} that takes frames with the channels
+ * split apart. When the callback implements it, the engine deinterleaves
+ * each delivered frame into a pooled {@link PlanarFrame} and calls this
+ * instead of the interleaved callbacks.
+ */
+public interface PlanarFrameCallback {
+    /**
+     * @param frame only valid until the callback returns, unless retained
+     */
+    void onPlanarFrameAvailable(PlanarFrame frame);
+}
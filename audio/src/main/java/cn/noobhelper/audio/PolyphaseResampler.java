@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rational sample rate converter. The rates are reduced to L/M; a Kaiser
+ * windowed sinc low-pass at L times the input rate is split into L phases of
+ * {@code taps} coefficients each, so an output sample costs one dot product
+ * over the input history. The history is kept per channel across calls, so
+ * consecutive frames resample as one continuous stream, and all buffers are
+ * sized up front for {@code maxInputSamples}.
+ *
+ * <p>Input is read completely before output is written, so every
+ * {@code process} variant may be called with the same array for input and
+ * output as long as it holds {@link #getMaxOutputSamples(int)} samples.
+ */
+public final class PolyphaseResampler {
+    // taps per phase when not decimating; scaled up by the decimation factor
+    private static final int BASE_TAPS = 16;
+    private static final double KAISER_BETA = 8.0;
+    // passband edge relative to the lower Nyquist frequency
+    private static final double ROLLOFF = 0.9;
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mChannelCount;
+    private final int mMaxInputFrames;
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    // phase-major, each phase reversed so the dot product walks forward
+    private final float[] mCoefficients;
+    // per channel: mTaps - 1 samples of history followed by the new input
+    private final float[][] mWork;
+    private final long mDelayNanos;
+    private int mNextIndex;
+    private int mPhase;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channelCount, int maxInputSamples) {
+        if (inputRate <= 0 || outputRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad resampler config " + inputRate + " -> " + outputRate
+                    + ", channels " + channelCount);
+        }
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mChannelCount = channelCount;
+        mMaxInputFrames = maxInputSamples / channelCount;
+        int gcd = gcd(inputRate, outputRate);
+        mUp = outputRate / gcd;
+        mDown = inputRate / gcd;
+        mTaps = BASE_TAPS * (int) Math.ceil(Math.max(1.0, (double) mDown / mUp));
+        mCoefficients = design(mUp, mDown, mTaps);
+        mWork = new float[channelCount][mTaps - 1 + mMaxInputFrames];
+        // (N - 1) / 2 samples at the upsampled rate
+        mDelayNanos = (long) ((mUp * (double) mTaps - 1) / 2 * 1000000000L / ((double) mUp * inputRate));
+        reset();
+    }
+
+    private static float[] design(int up, int down, int taps) {
+        int length = up * taps;
+        // cutoff in cycles per sample of the upsampled stream
+        double cutoff = ROLLOFF * 0.5 / Math.max(up, down);
+        double center = (length - 1) / 2.0;
+        double i0Beta = besselI0(KAISER_BETA);
+        float[] coefficients = new float[length];
+        for (int j = 0; j < length; j++) {
+            double t = j - center;
+            double x = 2 * Math.PI * cutoff * t;
+            double sinc = t == 0 ? 1.0 : Math.sin(x) / x;
+            double r = t / center;
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / i0Beta;
+            double h = 2 * cutoff * up * sinc * window;
+            int phase = j % up;
+            int tap = j / up;
+            coefficients[phase * taps + taps - 1 - tap] = (float) h;
+        }
+        return coefficients;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double q = x * x / 4;
+        for (int k = 1; k < 50 && term > sum * 1e-12; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public boolean matches(int inputRate, int outputRate, int channelCount, int maxInputSamples) {
+        return mInputRate == inputRate && mOutputRate == outputRate && mChannelCount == channelCount
+                && mMaxInputFrames == maxInputSamples / channelCount;
+    }
+
+    /**
+     * Clears the history, e.g. before a new capture session.
+     */
+    public void reset() {
+        for (float[] work : mWork) {
+            for (int i = 0; i < mTaps - 1; i++) {
+                work[i] = 0;
+            }
+        }
+        mNextIndex = mTaps - 1;
+        mPhase = 0;
+    }
+
+    /**
+     * Most samples one call can produce from {@code inputSamples}.
+     */
+    public int getMaxOutputSamples(int inputSamples) {
+        long frames = ((long) (inputSamples / mChannelCount) * mUp + mDown - 1) / mDown + 1;
+        return (int) frames * mChannelCount;
+    }
+
+    /**
+     * Filter group delay; output sample n describes the input at
+     * {@code n / outputRate} seconds minus this.
+     */
+    public long getDelayNanos() {
+        return mDelayNanos;
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    public int process(short[] input, int inputOffset, int inputSamples, short[] output, int outputOffset) {
+        int frames = inputSamples / mChannelCount;
+        int base = mTaps - 1;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            for (int i = 0, j = inputOffset + c; i < frames; i++, j += mChannelCount) {
+                work[base + i] = input[j];
+            }
+        }
+        int outputFrames = 0;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            int index = mNextIndex;
+            int phase = mPhase;
+            int end = base + frames;
+            int o = outputOffset + c;
+            outputFrames = 0;
+            while (index < end) {
+                float value = dot(work, index - base, phase * mTaps);
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+                output[o] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+                o += mChannelCount;
+                outputFrames++;
+                phase += mDown;
+                index += phase / mUp;
+                phase %= mUp;
+            }
+        }
+        advance(frames, outputFrames);
+        return outputFrames * mChannelCount;
+    }
+
+    public int process(float[] input, int inputOffset, int inputSamples, float[] output, int outputOffset) {
+        int frames = inputSamples / mChannelCount;
+        int base = mTaps - 1;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            for (int i = 0, j = inputOffset + c; i < frames; i++, j += mChannelCount) {
+                work[base + i] = input[j];
+            }
+        }
+        int outputFrames = 0;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            int index = mNextIndex;
+            int phase = mPhase;
+            int end = base + frames;
+            int o = outputOffset + c;
+            outputFrames = 0;
+            while (index < end) {
+                output[o] = dot(work, index - base, phase * mTaps);
+                o += mChannelCount;
+                outputFrames++;
+                phase += mDown;
+                index += phase / mUp;
+                phase %= mUp;
+            }
+        }
+        advance(frames, outputFrames);
+        return outputFrames * mChannelCount;
+    }
+
+    /**
+     * Resamples little-endian PCM in place, from index 0 of {@code buffer};
+     * position and limit are left untouched, but the limit must leave room for
+     * the output.
+     *
+     * @param bytesPerSample 1 for unsigned 8-bit, 2 for 16-bit, 4 for float
+     */
+    public int process(ByteBuffer buffer, int inputSamples, int bytesPerSample) {
+        int frames = inputSamples / mChannelCount;
+        int base = mTaps - 1;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            for (int i = 0, p = c * bytesPerSample; i < frames; i++, p += mChannelCount * bytesPerSample) {
+                work[base + i] = SampleConverter.getSample(buffer, p, bytesPerSample);
+            }
+        }
+        int outputFrames = 0;
+        for (int c = 0; c < mChannelCount; c++) {
+            float[] work = mWork[c];
+            int index = mNextIndex;
+            int phase = mPhase;
+            int end = base + frames;
+            int p = c * bytesPerSample;
+            outputFrames = 0;
+            while (index < end) {
+                SampleConverter.putSample(buffer, p, bytesPerSample, dot(work, index - base, phase * mTaps));
+                p += mChannelCount * bytesPerSample;
+                outputFrames++;
+                phase += mDown;
+                index += phase / mUp;
+                phase %= mUp;
+            }
+        }
+        advance(frames, outputFrames);
+        return outputFrames * mChannelCount;
+    }
+
+    private float dot(float[] work, int start, int coefficientStart) {
+        float[] coefficients = mCoefficients;
+        float sum = 0;
+        for (int k = 0; k < mTaps; k++) {
+            sum += coefficients[coefficientStart + k] * work[start + k];
+        }
+        return sum;
+    }
+
+    /**
+     * Moves the read position past the consumed input and keeps the last
+     * {@code taps - 1} samples as history.
+     */
+    private void advance(int frames, int outputFrames) {
+        long consumed = (long) mPhase + (long) outputFrames * mDown;
+        mNextIndex += (int) (consumed / mUp);
+        mPhase = (int) (consumed % mUp);
+        int keep = mTaps - 1;
+        for (float[] work : mWork) {
+            System.arraycopy(work, frames, work, 0, keep);
+        }
+        mNextIndex -= frames;
+    }
+}
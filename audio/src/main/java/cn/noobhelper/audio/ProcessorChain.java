@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * An ordered list of processing stages the engine applies to every frame in
+ * place, after resampling and before delivery, see
+ * {@link AudioParams#setProcessorChain(ProcessorChain)}. This only describes
+ * the stages; {@link FrameProcessor} runs them in a single pass.
+ */
+public class ProcessorChain implements Parcelable {
+    // 固定增益，参数为dB
+    public static final int STAGE_GAIN = 1;
+    // 二阶高通滤波，去直流和低频噪声，参数为截止频率(Hz)
+    public static final int STAGE_HIGH_PASS = 2;
+    // 自动增益，参数为目标电平(dBFS)和最大增益(dB)
+    public static final int STAGE_AGC = 3;
+    // 噪声门，电平低于阈值(dBFS)时静音
+    public static final int STAGE_NOISE_GATE = 4;
+
+    // 最多两级高通，即四阶，滤波状态都放在寄存器里
+    public static final int MAX_HIGH_PASS_COUNT = 2;
+
+    static final int PARAMS_PER_STAGE = 2;
+
+    private int[] mTypes;
+    private float[] mParams;
+    private int mStageCount;
+
+    public ProcessorChain() {
+        mTypes = new int[4];
+        mParams = new float[4 * PARAMS_PER_STAGE];
+    }
+
+    public ProcessorChain(ProcessorChain other) {
+        mTypes = other.mTypes.clone();
+        mParams = other.mParams.clone();
+        mStageCount = other.mStageCount;
+    }
+
+    protected ProcessorChain(Parcel in) {
+        mStageCount = in.readInt();
+        mTypes = new int[Math.max(4, mStageCount)];
+        mParams = new float[mTypes.length * PARAMS_PER_STAGE];
+        for (int i = 0; i < mStageCount; i++) {
+            mTypes[i] = in.readInt();
+            mParams[i * PARAMS_PER_STAGE] = in.readFloat();
+            mParams[i * PARAMS_PER_STAGE + 1] = in.readFloat();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mStageCount);
+        for (int i = 0; i < mStageCount; i++) {
+            dest.writeInt(mTypes[i]);
+            dest.writeFloat(mParams[i * PARAMS_PER_STAGE]);
+            dest.writeFloat(mParams[i * PARAMS_PER_STAGE + 1]);
+        }
+    }
+
+    public static final Parcelable.Creator<ProcessorChain> CREATOR = new Parcelable.Creator<ProcessorChain>() {
+        @Override
+        public ProcessorChain createFromParcel(Parcel source) {
+            return new ProcessorChain(source);
+        }
+
+        @Override
+        public ProcessorChain[] newArray(int size) {
+            return new ProcessorChain[size];
+        }
+    };
+
+    public ProcessorChain addGain(float gainDb) {
+        return add(STAGE_GAIN, gainDb, 0);
+    }
+
+    /**
+     * Second order Butterworth high-pass; the filter state carries over from
+     * frame to frame. Two of them make a fourth order filter; more are not
+     * supported.
+     */
+    public ProcessorChain addHighPass(float cutoffHz) {
+        if (!(cutoffHz > 0)) {
+            throw new IllegalArgumentException("Bad high-pass cutoff " + cutoffHz);
+        }
+        int highPassCount = 0;
+        for (int i = 0; i < mStageCount; i++) {
+            if (mTypes[i] == STAGE_HIGH_PASS) {
+                highPassCount++;
+            }
+        }
+        if (highPassCount == MAX_HIGH_PASS_COUNT) {
+            throw new IllegalArgumentException("At most " + MAX_HIGH_PASS_COUNT + " high-pass stages");
+        }
+        return add(STAGE_HIGH_PASS, cutoffHz, 0);
+    }
+
+    /**
+     * Moves the level towards {@code targetDbfs}, boosting by at most
+     * {@code maxGainDb}. The gain follows the level of the previous frame,
+     * falling within about 10 ms and rising over about half a second, and is
+     * held while the input is near silence.
+     */
+    public ProcessorChain addAgc(float targetDbfs, float maxGainDb) {
+        return add(STAGE_AGC, targetDbfs, maxGainDb);
+    }
+
+    /**
+     * Mutes frames whose level is below {@code thresholdDbfs}; it reopens
+     * 6 dB above where it closes so that it does not chatter.
+     */
+    public ProcessorChain addNoiseGate(float thresholdDbfs) {
+        return add(STAGE_NOISE_GATE, thresholdDbfs, 0);
+    }
+
+    private ProcessorChain add(int type, float param0, float param1) {
+        if (mStageCount == mTypes.length) {
+            int[] types = new int[mStageCount * 2];
+            System.arraycopy(mTypes, 0, types, 0, mStageCount);
+            mTypes = types;
+            float[] params = new float[types.length * PARAMS_PER_STAGE];
+            System.arraycopy(mParams, 0, params, 0, mStageCount * PARAMS_PER_STAGE);
+            mParams = params;
+        }
+        mTypes[mStageCount] = type;
+        mParams[mStageCount * PARAMS_PER_STAGE] = param0;
+        mParams[mStageCount * PARAMS_PER_STAGE + 1] = param1;
+        mStageCount++;
+        return this;
+    }
+
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    public int getStageType(int index) {
+        return mTypes[index];
+    }
+
+    public float getStageParam(int index, int param) {
+        return mParams[index * PARAMS_PER_STAGE + param];
+    }
+
+    boolean matches(ProcessorChain other) {
+        if (other == null || other.mStageCount != mStageCount) {
+            return false;
+        }
+        for (int i = 0; i < mStageCount; i++) {
+            if (mTypes[i] != other.mTypes[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < mStageCount * PARAMS_PER_STAGE; i++) {
+            if (Float.floatToIntBits(mParams[i]) != Float.floatToIntBits(other.mParams[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
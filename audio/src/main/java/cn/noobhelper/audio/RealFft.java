@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Radix-2 FFT of real input. The {@code n} real samples are treated as
+ * {@code n / 2} complex ones, transformed in place and split into the
+ * spectrum of the real signal, so a transform costs about half a complex FFT
+ * of the same size. Bit reversal and twiddle factors are computed once in
+ * the constructor; {@link #forward(float[])} allocates nothing.
+ */
+public final class RealFft {
+    private final int mSize;
+    private final int mHalfSize;
+    private final int[] mBitReverse;
+    // e^(-2 pi i k / (n / 2)) for the complex stages, k < n / 4
+    private final float[] mCos;
+    private final float[] mSin;
+    // e^(-2 pi i k / n) for the split step, k <= n / 4
+    private final float[] mSplitCos;
+    private final float[] mSplitSin;
+
+    public RealFft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("FFT size " + size + " is not a power of two >= 4");
+        }
+        mSize = size;
+        mHalfSize = size / 2;
+        int m = mHalfSize;
+        mBitReverse = new int[m];
+        int bits = Integer.numberOfTrailingZeros(m);
+        for (int i = 0; i < m; i++) {
+            mBitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        mCos = new float[Math.max(1, m / 2)];
+        mSin = new float[Math.max(1, m / 2)];
+        for (int k = 0; k < m / 2; k++) {
+            double angle = 2 * Math.PI * k / m;
+            mCos[k] = (float) Math.cos(angle);
+            mSin[k] = (float) -Math.sin(angle);
+        }
+        mSplitCos = new float[m / 2 + 1];
+        mSplitSin = new float[m / 2 + 1];
+        for (int k = 0; k <= m / 2; k++) {
+            double angle = 2 * Math.PI * k / size;
+            mSplitCos[k] = (float) Math.cos(angle);
+            mSplitSin[k] = (float) -Math.sin(angle);
+        }
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Transforms {@code data[0..n)} in place. The result is packed as
+     * {@code data[0] = X[0]}, {@code data[1] = X[n/2]} (both real) and
+     * {@code data[2k], data[2k+1]} the real and imaginary part of
+     * {@code X[k]} for {@code 0 < k < n/2}.
+     */
+    public void forward(float[] data) {
+        int m = mHalfSize;
+        // complex FFT of z[k] = x[2k] + i x[2k+1]
+        int[] bitReverse = mBitReverse;
+        for (int i = 0; i < m; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                float re = data[2 * i];
+                float im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+        float[] cos = mCos;
+        float[] sin = mSin;
+        for (int size = 2; size <= m; size <<= 1) {
+            int half = size >> 1;
+            int step = m / size;
+            for (int j = 0, t = 0; j < half; j++, t += step) {
+                float wr = cos[t];
+                float wi = sin[t];
+                for (int a = j; a < m; a += size) {
+                    int ra = 2 * a;
+                    int rb = 2 * (a + half);
+                    float br = data[rb];
+                    float bi = data[rb + 1];
+                    float tr = wr * br - wi * bi;
+                    float ti = wr * bi + wi * br;
+                    data[rb] = data[ra] - tr;
+                    data[rb + 1] = data[ra + 1] - ti;
+                    data[ra] += tr;
+                    data[ra + 1] += ti;
+                }
+            }
+        }
+        // split: X[k] = E[k] + W^k O[k], X[m-k] = conj(E[k] - W^k O[k])
+        float z0r = data[0];
+        float z0i = data[1];
+        data[0] = z0r + z0i;
+        data[1] = z0r - z0i;
+        float[] splitCos = mSplitCos;
+        float[] splitSin = mSplitSin;
+        for (int k = 1; k <= m / 2; k++) {
+            int rk = 2 * k;
+            int rmk = 2 * (m - k);
+            float zkr = data[rk];
+            float zki = data[rk + 1];
+            float zmr = data[rmk];
+            float zmi = data[rmk + 1];
+            float er = (zkr + zmr) * 0.5f;
+            float ei = (zki - zmi) * 0.5f;
+            // (zk - conj(zm)) / 2i
+            float or = (zki + zmi) * 0.5f;
+            float oi = -(zkr - zmr) * 0.5f;
+            float wr = splitCos[k];
+            float wi = splitSin[k];
+            float tr = wr * or - wi * oi;
+            float ti = wr * oi + wi * or;
+            data[rk] = er + tr;
+            data[rk + 1] = ei + ti;
+            data[rmk] = er - tr;
+            data[rmk + 1] = -(ei - ti);
+        }
+    }
+
+    /**
+     * Turns the packed output of {@link #forward(float[])} into
+     * {@code n / 2 + 1} power values {@code |X[k]|^2}.
+     */
+    public void power(float[] data, float[] power) {
+        int m = mHalfSize;
+        power[0] = data[0] * data[0];
+        power[m] = data[1] * data[1];
+        for (int k = 1; k < m; k++) {
+            float re = data[2 * k];
+            float im = data[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PCM sample format conversion. The loops are branch-free and index a single
+ * counter, which keeps them in the shape JIT/AOT compilers vectorize.
+ */
+public final class SampleConverter {
+    private static final float SHORT_TO_FLOAT = 1.0f / 32768.0f;
+    private static final float FLOAT_TO_SHORT = 32767.0f;
+
+    private SampleConverter() {
+    }
+
+    public static void shortToFloat(short[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = src[srcOffset + i] * SHORT_TO_FLOAT;
+        }
+    }
+
+    public static void floatToShort(float[] src, int srcOffset, short[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            // float to int conversion saturates, so clamping the int is enough
+            int sample = (int) (src[srcOffset + i] * FLOAT_TO_SHORT);
+            dst[dstOffset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+    }
+
+    /**
+     * Reads the little-endian sample at byte {@code p} on a 16-bit scale, or
+     * as is for float.
+     *
+     * @param bytesPerSample 1 for unsigned 8-bit, 2 for 16-bit, 4 for float
+     */
+    static float getSample(ByteBuffer buffer, int p, int bytesPerSample) {
+        switch (bytesPerSample) {
+            case 1:
+                return ((buffer.get(p) & 0xFF) - 128) << 8;
+            case 4:
+                return Float.intBitsToFloat((buffer.get(p) & 0xFF) | (buffer.get(p + 1) & 0xFF) << 8
+                        | (buffer.get(p + 2) & 0xFF) << 16 | buffer.get(p + 3) << 24);
+            default:
+                return (short) ((buffer.get(p) & 0xFF) | buffer.get(p + 1) << 8);
+        }
+    }
+
+    /**
+     * Writes a value on the scale {@link #getSample} reads, rounding and
+     * clamping integer formats.
+     */
+    static void putSample(ByteBuffer buffer, int p, int bytesPerSample, float value) {
+        switch (bytesPerSample) {
+            case 1: {
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f) >> 8;
+                buffer.put(p, (byte) (Math.max(-128, Math.min(127, rounded)) + 128));
+                break;
+            }
+            case 4: {
+                int bits = Float.floatToRawIntBits(value);
+                buffer.put(p, (byte) bits);
+                buffer.put(p + 1, (byte) (bits >> 8));
+                buffer.put(p + 2, (byte) (bits >> 16));
+                buffer.put(p + 3, (byte) (bits >> 24));
+                break;
+            }
+            default: {
+                int rounded = (int) (value >= 0 ? value + 0.5f : value - 0.5f);
+                int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+                buffer.put(p, (byte) sample);
+                buffer.put(p + 1, (byte) (sample >> 8));
+                break;
+            }
+        }
+    }
+}
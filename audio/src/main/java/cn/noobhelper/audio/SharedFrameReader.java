@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads frames from a {@link SharedFrameRing}, usually in another process.
+ * The region is mapped read-only and {@link #getBuffer()} is a view of the
+ * slot itself, so reading copies nothing. Because the writer never waits,
+ * a view is only trustworthy if {@link #isValid()} still returns true after
+ * it was used; a reader that falls a whole ring behind skips ahead and
+ * counts the frames it missed.
+ *
+ * <pre>
+ * while (reader.waitForNext(100)) {
+ *     consume(reader.getBuffer());
+ *     if (!reader.isValid()) {
+ *         discardLastResult();
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>A reader is not thread-safe; every consumer opens its own.
+ */
+public final class SharedFrameReader {
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mRegion;
+    private final ByteBuffer[] mPayloads;
+    private final int mSlotMask;
+    private final int mSlotStride;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mAudioFormat;
+    private final int mSession;
+    private int mNext;
+    private int mStamp;
+    private int mSlotBase;
+    private int mSequence;
+    private int mLength;
+    private long mTimestampNanos;
+    private long mLostCount;
+
+    public static SharedFrameReader open(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return new SharedFrameReader(inputStream.getChannel());
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the ring and starts at its newest frame.
+     *
+     * @param channel readable; the reader takes ownership and closes it in
+     *                {@link #close()}
+     * @throws IOException if the channel does not hold an initialized ring
+     */
+    public SharedFrameReader(FileChannel channel) throws IOException {
+        mChannel = channel;
+        if (channel.size() < SharedFrameRing.HEADER_SIZE) {
+            throw new IOException("not a shared frame ring");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SharedFrameRing.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(SharedFrameRing.OFFSET_MAGIC) != SharedFrameRing.MAGIC
+                || header.getInt(SharedFrameRing.OFFSET_VERSION) != SharedFrameRing.VERSION) {
+            throw new IOException("not a shared frame ring");
+        }
+        SharedFrameRing.fence();
+        int slotCount = header.getInt(SharedFrameRing.OFFSET_SLOT_COUNT);
+        int slotCapacity = header.getInt(SharedFrameRing.OFFSET_SLOT_CAPACITY);
+        mSlotStride = header.getInt(SharedFrameRing.OFFSET_SLOT_STRIDE);
+        mSampleRate = header.getInt(SharedFrameRing.OFFSET_SAMPLE_RATE);
+        mChannelCount = header.getInt(SharedFrameRing.OFFSET_CHANNEL_COUNT);
+        mAudioFormat = header.getInt(SharedFrameRing.OFFSET_AUDIO_FORMAT);
+        mSession = header.getInt(SharedFrameRing.OFFSET_SESSION);
+        mSlotMask = slotCount - 1;
+
+        mRegion = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                SharedFrameRing.HEADER_SIZE + (long) slotCount * mSlotStride);
+        mRegion.order(ByteOrder.LITTLE_ENDIAN);
+        mPayloads = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            int payload = slotOffset(i) + SharedFrameRing.SLOT_HEADER_SIZE;
+            mRegion.limit(payload + slotCapacity);
+            mRegion.position(payload);
+            mPayloads[i] = mRegion.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mRegion.clear();
+        SharedFrameRing.fence();
+        mNext = Math.max(0, mRegion.getInt(SharedFrameRing.OFFSET_CURSOR) - 1);
+    }
+
+    private int slotOffset(int slot) {
+        return SharedFrameRing.HEADER_SIZE + slot * mSlotStride;
+    }
+
+    /**
+     * Moves to the next published frame without blocking.
+     *
+     * @return false if the reader has caught up with the writer, or the
+     * ring was recreated and this reader has to be reopened
+     */
+    public boolean next() {
+        while (true) {
+            if (isStale()) {
+                return false;
+            }
+            SharedFrameRing.fence();
+            int cursor = mRegion.getInt(SharedFrameRing.OFFSET_CURSOR);
+            SharedFrameRing.fence();
+            int available = cursor - mNext;
+            if (available <= 0) {
+                return false;
+            }
+            // the slot of the oldest frame may already be refilled with the
+            // frame at cursor
+            if (available > mSlotMask) {
+                mLostCount += available - mSlotMask;
+                mNext = cursor - mSlotMask;
+            }
+            int sequence = mNext++;
+            int base = slotOffset(sequence & mSlotMask);
+            int stamp = mRegion.getInt(base + SharedFrameRing.SLOT_OFFSET_STAMP);
+            SharedFrameRing.fence();
+            int length = mRegion.getInt(base + SharedFrameRing.SLOT_OFFSET_LENGTH);
+            long timestampNanos = mRegion.getLong(base + SharedFrameRing.SLOT_OFFSET_TIMESTAMP);
+            SharedFrameRing.fence();
+            if (stamp != 2 * sequence + 2
+                    || mRegion.getInt(base + SharedFrameRing.SLOT_OFFSET_STAMP) != stamp) {
+                // refilled since the cursor was read
+                mLostCount++;
+                continue;
+            }
+            mStamp = stamp;
+            mSlotBase = base;
+            mSequence = sequence;
+            mLength = length;
+            mTimestampNanos = timestampNanos;
+            return true;
+        }
+    }
+
+    /**
+     * Calls {@link #next()} until it finds a frame, sleeping a millisecond
+     * between attempts.
+     *
+     * @return false on timeout, or when the writer closed the ring and
+     * everything was read
+     */
+    public boolean waitForNext(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (!next()) {
+            if (isWriterClosed() || isStale() || System.nanoTime() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True while the writer has not started to overwrite the current frame.
+     * Check it after using {@link #getBuffer()}.
+     */
+    public boolean isValid() {
+        SharedFrameRing.fence();
+        return mRegion.getInt(mSlotBase + SharedFrameRing.SLOT_OFFSET_STAMP) == mStamp;
+    }
+
+    /**
+     * Read-only view of the current frame's PCM, little-endian, valid until
+     * the next call to {@link #next()}.
+     */
+    public ByteBuffer getBuffer() {
+        ByteBuffer payload = mPayloads[mSequence & mSlotMask];
+        payload.clear();
+        payload.limit(mLength);
+        return payload;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Timestamp of the first sample in the slot.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * Position of the current frame in the ring's stream, wrapping at 2^32.
+     */
+    public long getSequence() {
+        return mSequence & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Frames the writer overwrote before this reader got to them.
+     */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    public boolean isWriterClosed() {
+        SharedFrameRing.fence();
+        return mRegion.getInt(SharedFrameRing.OFFSET_CLOSED) != 0;
+    }
+
+    /**
+     * True once the file was taken over by a new ring; reopen the reader to
+     * follow it.
+     */
+    public boolean isStale() {
+        return mRegion.getInt(SharedFrameRing.OFFSET_MAGIC) != SharedFrameRing.MAGIC
+                || mRegion.getInt(SharedFrameRing.OFFSET_SESSION) != mSession;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * An {@code AudioFormat.ENCODING_PCM_*} constant.
+     */
+    public int getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import android.media.AudioFormat;
+
+/**
+ * Publishes the captured stream into a memory-mapped ring that other
+ * processes read with {@link SharedFrameReader}. Each frame is written once,
+ * straight into a slot of the mapping; readers get views of the same pages,
+ * so nothing is copied on the way and no Binder transaction is involved.
+ *
+ * <p>The region starts with a 64-byte header describing the format and the
+ * number of frames published, followed by a power-of-two number of slots.
+ * Every slot carries a stamp: odd while the writer fills it, {@code 2n + 2}
+ * once it holds frame {@code n}. Readers check the stamp before and after
+ * using a slot, so a slow reader sees that it was lapped instead of reading
+ * torn data, and the writer never waits for anyone.
+ *
+ * <p>Any file works as the backing store; on Android a file in the app's
+ * private storage can be shared by the processes of one app, or an ashmem
+ * descriptor can be mapped through its {@link FileChannel}. Attach the ring
+ * with {@code audioController.addSubscriber(ring, null, FrameSubscription.DELIVERY_LOSSLESS, 0)}.
+ * Frames larger than a slot are split over several.
+ */
+public final class SharedFrameRing implements AudioFrameCallback {
+    static final int MAGIC = 0x4E485352;                // "NHSR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 16;
+    private static final int SLOT_ALIGN = 64;
+
+    // header fields
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_SLOT_COUNT = 8;
+    static final int OFFSET_SLOT_CAPACITY = 12;
+    static final int OFFSET_SLOT_STRIDE = 16;
+    static final int OFFSET_SAMPLE_RATE = 20;
+    static final int OFFSET_CHANNEL_COUNT = 24;
+    static final int OFFSET_AUDIO_FORMAT = 28;
+    static final int OFFSET_SESSION = 32;
+    static final int OFFSET_CLOSED = 36;
+    static final int OFFSET_CURSOR = 40;
+
+    // slot fields
+    static final int SLOT_OFFSET_STAMP = 0;
+    static final int SLOT_OFFSET_LENGTH = 4;
+    static final int SLOT_OFFSET_TIMESTAMP = 8;
+
+    private static volatile int sFence;
+
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mRegion;
+    private final ByteBuffer[] mPayloads;
+    private final int mSlotMask;
+    private final int mSlotStride;
+    private final int mSlotCapacity;
+    private final int mSampleRate;
+    private final int mBytesPerSample;
+    private final int mBlockAlign;
+    private int mCursor;
+    private boolean mClosed;
+
+    /**
+     * Creates or overwrites {@code file} and maps it.
+     *
+     * @param slotCount rounded up to a power of two; readers that fall
+     *                  further behind lose frames
+     */
+    public static SharedFrameRing create(File file, AudioParams audioParams, int slotCount) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            return new SharedFrameRing(randomAccessFile.getChannel(), audioParams, slotCount);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param channel     readable and writable; the ring takes ownership and
+     *                    closes it in {@link #close()}
+     * @param audioParams format of the frames that will be delivered; short
+     *                    and float sample types are stored as 16-bit and
+     *                    32-bit float PCM
+     */
+    public SharedFrameRing(FileChannel channel, AudioParams audioParams, int slotCount) throws IOException {
+        int audioFormat;
+        switch (audioParams.getSampleType()) {
+            case AudioParams.SAMPLE_TYPE_SHORT:
+                audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+                break;
+            case AudioParams.SAMPLE_TYPE_FLOAT:
+                audioFormat = AudioFormat.ENCODING_PCM_FLOAT;
+                break;
+            default:
+                audioFormat = audioParams.getAudioFormat();
+                break;
+        }
+        int channelCount = audioParams.getOutputChannelCount();
+        mSampleRate = audioParams.getOutputSampleRate();
+        mBytesPerSample = audioFormat == AudioFormat.ENCODING_PCM_FLOAT ? 4
+                : audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 1 : 2;
+        mBlockAlign = mBytesPerSample * channelCount;
+        // one delivered frame plus an eighth for resampler jitter
+        long frameBytes = (long) audioParams.computeFrameSize() / audioParams.getBytesPerSampleFrame()
+                * mSampleRate / audioParams.getSampleRate() * mBlockAlign;
+        frameBytes += frameBytes / 8 + mBlockAlign - 1;
+        mSlotCapacity = (int) Math.max(mBlockAlign, frameBytes - frameBytes % mBlockAlign);
+        mSlotStride = (SLOT_HEADER_SIZE + mSlotCapacity + SLOT_ALIGN - 1) / SLOT_ALIGN * SLOT_ALIGN;
+        int count = Integer.highestOneBit(Math.max(1, slotCount));
+        if (count < slotCount) {
+            count <<= 1;
+        }
+        mSlotMask = count - 1;
+
+        mChannel = channel;
+        long size = HEADER_SIZE + (long) count * mSlotStride;
+        mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mRegion.order(ByteOrder.LITTLE_ENDIAN);
+        mPayloads = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            mRegion.limit(slotOffset(i) + SLOT_HEADER_SIZE + mSlotCapacity);
+            mRegion.position(slotOffset(i) + SLOT_HEADER_SIZE);
+            mPayloads[i] = mRegion.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        mRegion.clear();
+
+        // readers that still map an old ring see the magic vanish first
+        mRegion.putInt(OFFSET_MAGIC, 0);
+        fence();
+        mRegion.putInt(OFFSET_VERSION, VERSION);
+        mRegion.putInt(OFFSET_SLOT_COUNT, count);
+        mRegion.putInt(OFFSET_SLOT_CAPACITY, mSlotCapacity);
+        mRegion.putInt(OFFSET_SLOT_STRIDE, mSlotStride);
+        mRegion.putInt(OFFSET_SAMPLE_RATE, mSampleRate);
+        mRegion.putInt(OFFSET_CHANNEL_COUNT, channelCount);
+        mRegion.putInt(OFFSET_AUDIO_FORMAT, audioFormat);
+        mRegion.putInt(OFFSET_SESSION, new Random().nextInt());
+        mRegion.putInt(OFFSET_CLOSED, 0);
+        mRegion.putInt(OFFSET_CURSOR, 0);
+        for (int i = 0; i < count; i++) {
+            mRegion.putInt(slotOffset(i) + SLOT_OFFSET_STAMP, 0);
+        }
+        fence();
+        mRegion.putInt(OFFSET_MAGIC, MAGIC);
+        fence();
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * mSlotStride;
+    }
+
+    /**
+     * Orders the plain accesses to the mapping before and after it, the full
+     * fence Java 7 does not expose: HotSpot and ART both emit one for a
+     * volatile store.
+     */
+    static void fence() {
+        sFence = 0;
+    }
+
+    @Override
+    public synchronized void onAudioFrameAvailable(AudioFrame frame) {
+        if (mClosed) {
+            return;
+        }
+        ByteBuffer data = null;
+        int length;
+        if (frame.getBuffer() != null) {
+            data = frame.asReadOnlyBuffer();
+            length = frame.getLength();
+        } else {
+            length = frame.getSampleCount() * mBytesPerSample;
+        }
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(mSlotCapacity, length - offset);
+            int sequence = mCursor;
+            int slot = sequence & mSlotMask;
+            int base = slotOffset(slot);
+            mRegion.putInt(base + SLOT_OFFSET_STAMP, 2 * sequence + 1);
+            fence();
+            ByteBuffer payload = mPayloads[slot];
+            payload.clear();
+            if (data != null) {
+                data.limit(offset + count);
+                payload.put(data);
+            } else if (frame.getShortSamples() != null) {
+                short[] samples = frame.getShortSamples();
+                for (int i = offset / 2, end = (offset + count) / 2; i < end; i++) {
+                    payload.putShort(samples[i]);
+                }
+            } else {
+                float[] samples = frame.getFloatSamples();
+                for (int i = offset / 4, end = (offset + count) / 4; i < end; i++) {
+                    payload.putFloat(samples[i]);
+                }
+            }
+            mRegion.putInt(base + SLOT_OFFSET_LENGTH, count);
+            // the frame timestamp marks the end of its last sample
+            mRegion.putLong(base + SLOT_OFFSET_TIMESTAMP, frame.getTimestampNanos()
+                    - (long) ((length - offset) / mBlockAlign) * 1000000000L / mSampleRate);
+            fence();
+            mRegion.putInt(base + SLOT_OFFSET_STAMP, 2 * sequence + 2);
+            fence();
+            mCursor = sequence + 1;
+            mRegion.putInt(OFFSET_CURSOR, mCursor);
+            offset += count;
+        }
+    }
+
+    /**
+     * Marks the ring closed for readers and closes the channel. The mapping
+     * itself stays valid until it is garbage collected.
+     */
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mRegion.putInt(OFFSET_CLOSED, 1);
+        fence();
+        mChannel.close();
+    }
+
+    /**
+     * Slots published so far; a frame split over several slots counts for
+     * each of them.
+     */
+    public synchronized int getPublishedCount() {
+        return mCursor;
+    }
+
+    public int getSlotCount() {
+        return mSlotMask + 1;
+    }
+
+    /**
+     * Payload bytes per slot.
+     */
+    public int getSlotCapacity() {
+        return mSlotCapacity;
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.media.AudioFormat;
+
+/**
+ * Streams the captured PCM to a TCP server without doing any network I/O on
+ * the delivering thread. Frames are coalesced into packets of up to
+ * {@code latencyBudgetMs} of audio; a network thread sends them over a
+ * non-blocking {@link SocketChannel}, several packets per gathering write,
+ * and reconnects with backoff when the connection fails.
+ *
+ * <p>Every connection starts with a 16-byte stream header: magic
+ * {@code "NHAS"}, sample rate, channel count (short), 16 or 32 bits per
+ * sample (short) and bytes per sample frame. Each packet then carries a
+ * 16-byte header, payload length, sequence number and the timestamp of its
+ * first sample, followed by the little-endian PCM. Headers are big-endian.
+ * Packets are sent whole: after a reconnect a packet that was cut off is
+ * sent again from the start, and lost packets show up as sequence gaps.
+ *
+ * <p>Attach it with
+ * {@code audioController.addSubscriber(sink, null, FrameSubscription.DELIVERY_LOSSLESS, 0)}
+ * after {@link #start()}. Packets wait in a bounded spill queue while the
+ * server is slow or unreachable; when it is full the oldest packet is
+ * dropped and counted rather than blocking capture.
+ */
+public final class SocketSink implements AudioFrameCallback {
+    private static final String NETWORK_THREAD_NAME = "AudioSocketThread";
+    static final int STREAM_MAGIC = 0x4E484153;         // "NHAS"
+    static final int STREAM_HEADER_SIZE = 16;
+    static final int PACKET_HEADER_SIZE = 16;
+    private static final int MAX_PACKET_SIZE = 64 * 1024;
+    private static final int MAX_BATCH_PACKETS = 16;
+    private static final long MIN_POLL_MS = 10;
+    private static final long CONNECT_TIMEOUT_NANOS = 3000000000L;
+    private static final long MIN_RECONNECT_DELAY_NANOS = 100000000L;
+    private static final long MAX_RECONNECT_DELAY_NANOS = 5000000000L;
+    private static final long CLOSE_TIMEOUT_NANOS = 1000000000L;
+
+    private final InetSocketAddress mAddress;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mAudioFormat;
+    private final int mBytesPerSample;
+    private final int mBlockAlign;
+    private final long mLatencyBudgetNanos;
+    private final int mBudgetBytes;
+    private final int mPacketCapacity;
+    private final int mSpillPacketCount;
+
+    private final ArrayBlockingQueue<Packet> mFreePackets;
+    private final ArrayBlockingQueue<Packet> mFullPackets;
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mSentPackets = new AtomicLong();
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    private final AtomicLong mDroppedPackets = new AtomicLong();
+    private final AtomicLong mReconnectCount = new AtomicLong();
+    private final Histogram mSendLatency = new Histogram();
+    private Selector mSelector;
+    private boolean mStarted = false;
+    private volatile boolean mStopped = false;
+    private volatile boolean mConnected = false;
+    private volatile boolean mWaitingForData = false;
+    private Thread mNetworkThread;
+
+    // delivering thread side, guarded by this
+    private Packet mCurrentPacket;
+    private int mSequence;
+    private volatile long mCurrentPacketNanos;
+
+    // network thread side
+    private final ByteBuffer mStreamHeader = ByteBuffer.allocateDirect(STREAM_HEADER_SIZE);
+    private final Packet[] mInFlight = new Packet[MAX_BATCH_PACKETS];
+    private final ByteBuffer[] mWriteBuffers = new ByteBuffer[MAX_BATCH_PACKETS * 2 + 1];
+    private int mInFlightCount;
+    private int mWriteOffset;
+    private int mWriteCount;
+    private boolean mStreamHeaderPending;
+    private SocketChannel mChannel;
+    private SelectionKey mKey;
+    private long mConnectStartNanos;
+    private long mNextConnectNanos;
+    private long mReconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+
+    /**
+     * @param address          server to stream to; an unresolved address is
+     *                         resolved on the network thread
+     * @param audioParams      format of the frames that will be delivered;
+     *                         short and float sample types are sent as 16-bit
+     *                         and 32-bit float PCM
+     * @param latencyBudgetMs  audio collected into one packet before it is
+     *                         sent; 0 sends every frame on its own
+     * @param spillPacketCount packets kept while the connection is down or
+     *                         backed up
+     */
+    public SocketSink(InetSocketAddress address, AudioParams audioParams, int latencyBudgetMs,
+                      int spillPacketCount) {
+        mAddress = address;
+        mSampleRate = audioParams.getOutputSampleRate();
+        mChannelCount = audioParams.getOutputChannelCount();
+        switch (audioParams.getSampleType()) {
+            case AudioParams.SAMPLE_TYPE_SHORT:
+                mAudioFormat = AudioFormat.ENCODING_PCM_16BIT;
+                break;
+            case AudioParams.SAMPLE_TYPE_FLOAT:
+                mAudioFormat = AudioFormat.ENCODING_PCM_FLOAT;
+                break;
+            default:
+                mAudioFormat = audioParams.getAudioFormat();
+                break;
+        }
+        mBytesPerSample = mAudioFormat == AudioFormat.ENCODING_PCM_FLOAT ? 4
+                : mAudioFormat == AudioFormat.ENCODING_PCM_8BIT ? 1 : 2;
+        mBlockAlign = mBytesPerSample * mChannelCount;
+        mLatencyBudgetNanos = Math.max(0, latencyBudgetMs) * 1000000L;
+        long budgetBytes = (long) Math.max(0, latencyBudgetMs) * mSampleRate / 1000 * mBlockAlign;
+        int maxBytes = MAX_PACKET_SIZE - MAX_PACKET_SIZE % mBlockAlign;
+        mBudgetBytes = (int) Math.min(maxBytes, budgetBytes);
+        // room for the budget or one delivered frame, whichever is larger;
+        // bigger frames are split across packets
+        long frameBytes = (long) audioParams.computeFrameSize() / audioParams.getBytesPerSampleFrame()
+                * mSampleRate / audioParams.getSampleRate() * mBlockAlign;
+        mPacketCapacity = (int) Math.max(mBlockAlign, Math.min(maxBytes, Math.max(budgetBytes, frameBytes)));
+        mSpillPacketCount = Math.max(1, spillPacketCount);
+        int packetCount = mSpillPacketCount + MAX_BATCH_PACKETS + 1;
+        mFreePackets = new ArrayBlockingQueue<>(packetCount);
+        mFullPackets = new ArrayBlockingQueue<>(mSpillPacketCount);
+        for (int i = 0; i < packetCount; i++) {
+            mFreePackets.add(new Packet(mPacketCapacity));
+        }
+        mStreamHeader.putInt(STREAM_MAGIC);
+        mStreamHeader.putInt(mSampleRate);
+        mStreamHeader.putShort((short) mChannelCount);
+        mStreamHeader.putShort((short) (mBytesPerSample * 8));
+        mStreamHeader.putInt(mBlockAlign);
+        mStreamHeader.flip();
+    }
+
+    /**
+     * Starts the network thread, which connects in the background. Frames
+     * delivered before the connection is up wait in the spill queue.
+     */
+    public synchronized void start() throws IOException {
+        if (mStarted) {
+            return;
+        }
+        mSelector = Selector.open();
+        mStarted = true;
+        mNetworkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                networkLoop();
+            }
+        }, NETWORK_THREAD_NAME);
+        mNetworkThread.start();
+    }
+
+    /**
+     * Sends what is still queued, waiting at most one second for a slow
+     * server, then closes the connection and stops the network thread.
+     * Frames delivered afterwards are ignored.
+     */
+    public void stop() {
+        Thread networkThread;
+        synchronized (this) {
+            if (!mStarted || mStopped) {
+                return;
+            }
+            if (mCurrentPacket != null) {
+                publishPacket();
+            }
+            mStopped = true;
+            networkThread = mNetworkThread;
+        }
+        mSelector.wakeup();
+        try {
+            networkThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void onAudioFrameAvailable(AudioFrame frame) {
+        if (!mStarted || mStopped) {
+            return;
+        }
+        ByteBuffer data = null;
+        int length;
+        if (frame.getBuffer() != null) {
+            data = frame.asReadOnlyBuffer();
+            length = frame.getLength();
+        } else {
+            length = frame.getSampleCount() * mBytesPerSample;
+        }
+        int packetBytes = Math.max(mBlockAlign,
+                Math.min(mPacketCapacity, Math.max(mBudgetBytes, length - length % mBlockAlign)));
+        int offset = 0;
+        while (offset < length) {
+            Packet packet = mCurrentPacket;
+            if (packet == null) {
+                // the frame timestamp marks the end of its last sample
+                packet = openPacket(packetBytes, frame.getTimestampNanos()
+                        - (long) ((length - offset) / mBlockAlign) * 1000000000L / mSampleRate);
+                if (packet == null) {
+                    mDroppedBytes.addAndGet(length - offset);
+                    return;
+                }
+            }
+            ByteBuffer payload = packet.mPayload;
+            int count = Math.min(payload.remaining(), length - offset);
+            if (data != null) {
+                data.limit(offset + count);
+                payload.put(data);
+            } else if (frame.getShortSamples() != null) {
+                short[] samples = frame.getShortSamples();
+                for (int i = offset / 2, end = (offset + count) / 2; i < end; i++) {
+                    payload.putShort(samples[i]);
+                }
+            } else {
+                float[] samples = frame.getFloatSamples();
+                for (int i = offset / 4, end = (offset + count) / 4; i < end; i++) {
+                    payload.putFloat(samples[i]);
+                }
+            }
+            offset += count;
+            if (!payload.hasRemaining()) {
+                publishPacket();
+            }
+        }
+    }
+
+    /**
+     * Takes a free packet, or the oldest queued one when the spill queue is
+     * full. Null only when every packet is being sent.
+     */
+    private Packet openPacket(int capacity, long timestampNanos) {
+        Packet packet = mFreePackets.poll();
+        if (packet == null) {
+            packet = mFullPackets.poll();
+            if (packet == null) {
+                return null;
+            }
+            drop(packet);
+        }
+        packet.mPayload.clear();
+        packet.mPayload.limit(capacity);
+        packet.mTimestampNanos = timestampNanos;
+        mCurrentPacket = packet;
+        mCurrentPacketNanos = System.nanoTime();
+        return packet;
+    }
+
+    private void publishPacket() {
+        Packet packet = mCurrentPacket;
+        mCurrentPacket = null;
+        mCurrentPacketNanos = 0;
+        packet.mPayload.flip();
+        packet.mHeader.clear();
+        packet.mHeader.putInt(packet.mPayload.remaining());
+        packet.mHeader.putInt(mSequence++);
+        packet.mHeader.putLong(packet.mTimestampNanos);
+        packet.mHeader.flip();
+        packet.mQueuedNanos = System.nanoTime();
+        while (!mFullPackets.offer(packet)) {
+            Packet oldest = mFullPackets.poll();
+            if (oldest != null) {
+                drop(oldest);
+                mFreePackets.add(oldest);
+            }
+        }
+        if (mWaitingForData) {
+            mSelector.wakeup();
+        }
+    }
+
+    private void drop(Packet packet) {
+        mDroppedPackets.incrementAndGet();
+        mDroppedBytes.addAndGet(packet.mPayload.limit());
+    }
+
+    private void networkLoop() {
+        long closeDeadline = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (mStopped) {
+                if (closeDeadline == 0) {
+                    closeDeadline = now + CLOSE_TIMEOUT_NANOS;
+                }
+                // give up only once a connection attempt has failed
+                if ((mChannel == null && now < mNextConnectNanos) || now >= closeDeadline
+                        || (mWriteCount == 0 && mFullPackets.isEmpty())) {
+                    break;
+                }
+            } else {
+                flushStalePacket(now);
+            }
+            try {
+                if (mChannel == null && now >= mNextConnectNanos) {
+                    connect(now);
+                } else if (mChannel != null && !mConnected && now - mConnectStartNanos >= CONNECT_TIMEOUT_NANOS) {
+                    throw new IOException("connect timed out");
+                }
+                if (mConnected) {
+                    if (mWriteCount == 0) {
+                        fillBatch();
+                    }
+                    if (mWriteCount > 0 && write()) {
+                        completeBatch();
+                        continue;
+                    }
+                }
+                long timeoutNanos = mChannel == null ? mNextConnectNanos - now
+                        : Math.max(MIN_POLL_MS * 1000000L, mLatencyBudgetNanos);
+                if (closeDeadline != 0) {
+                    timeoutNanos = Math.min(timeoutNanos, closeDeadline - now);
+                }
+                // publishPacket only wakes the selector while this is set
+                mWaitingForData = mConnected && mWriteCount == 0;
+                if (mWaitingForData && !mFullPackets.isEmpty()) {
+                    mWaitingForData = false;
+                    continue;
+                }
+                mSelector.select(Math.max(1, timeoutNanos / 1000000L));
+                mWaitingForData = false;
+                if (!mConnected && mKey != null && mKey.isValid() && mKey.isConnectable()) {
+                    mSelector.selectedKeys().clear();
+                    if (mChannel.finishConnect()) {
+                        onConnected();
+                    }
+                } else {
+                    mSelector.selectedKeys().clear();
+                }
+            } catch (IOException | UnresolvedAddressException e) {
+                disconnect(System.nanoTime());
+            }
+        }
+        closeChannel();
+        for (int i = 0; i < mInFlightCount; i++) {
+            drop(mInFlight[i]);
+            mFreePackets.add(mInFlight[i]);
+            mInFlight[i] = null;
+        }
+        mInFlightCount = 0;
+        Packet packet;
+        while ((packet = mFullPackets.poll()) != null) {
+            drop(packet);
+            mFreePackets.add(packet);
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends a partly filled packet once it has waited for the latency
+     * budget, e.g. after voice activity detection paused delivery.
+     */
+    private void flushStalePacket(long now) {
+        long openedNanos = mCurrentPacketNanos;
+        if (openedNanos == 0 || now - openedNanos < mLatencyBudgetNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (mCurrentPacket != null && mCurrentPacketNanos == openedNanos && !mStopped) {
+                publishPacket();
+            }
+        }
+    }
+
+    private void connect(long now) throws IOException {
+        InetSocketAddress address = mAddress;
+        if (address.isUnresolved()) {
+            address = new InetSocketAddress(address.getHostName(), address.getPort());
+        }
+        mConnectStartNanos = now;
+        mChannel = SocketChannel.open();
+        mChannel.configureBlocking(false);
+        mChannel.socket().setTcpNoDelay(true);
+        if (mChannel.connect(address)) {
+            onConnected();
+        } else {
+            mKey = mChannel.register(mSelector, SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void onConnected() throws IOException {
+        if (mKey == null) {
+            mKey = mChannel.register(mSelector, 0);
+        } else {
+            mKey.interestOps(0);
+        }
+        mConnected = true;
+        mReconnectDelayNanos = MIN_RECONNECT_DELAY_NANOS;
+        mStreamHeaderPending = true;
+        // packets cut off by the previous connection are sent again whole,
+        // after the stream header
+        prepareWrite();
+    }
+
+    private void disconnect(long now) {
+        if (mConnected) {
+            mReconnectCount.incrementAndGet();
+        }
+        closeChannel();
+        mNextConnectNanos = now + mReconnectDelayNanos;
+        mReconnectDelayNanos = Math.min(MAX_RECONNECT_DELAY_NANOS, mReconnectDelayNanos * 2);
+    }
+
+    private void closeChannel() {
+        mConnected = false;
+        mKey = null;
+        mWriteOffset = 0;
+        mWriteCount = 0;
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mChannel = null;
+        }
+    }
+
+    private void fillBatch() {
+        Packet packet;
+        while (mInFlightCount < MAX_BATCH_PACKETS && (packet = mFullPackets.poll()) != null) {
+            mInFlight[mInFlightCount++] = packet;
+        }
+        prepareWrite();
+    }
+
+    private void prepareWrite() {
+        mWriteOffset = 0;
+        mWriteCount = 0;
+        if (mStreamHeaderPending) {
+            mStreamHeader.rewind();
+            mWriteBuffers[mWriteCount++] = mStreamHeader;
+        }
+        for (int i = 0; i < mInFlightCount; i++) {
+            Packet packet = mInFlight[i];
+            packet.mHeader.rewind();
+            packet.mPayload.rewind();
+            mWriteBuffers[mWriteCount++] = packet.mHeader;
+            mWriteBuffers[mWriteCount++] = packet.mPayload;
+        }
+    }
+
+    /**
+     * @return true when everything prepared has been handed to the socket
+     */
+    private boolean write() throws IOException {
+        mChannel.write(mWriteBuffers, mWriteOffset, mWriteCount - mWriteOffset);
+        while (mWriteOffset < mWriteCount && !mWriteBuffers[mWriteOffset].hasRemaining()) {
+            mWriteOffset++;
+        }
+        boolean done = mWriteOffset == mWriteCount;
+        mKey.interestOps(done ? 0 : SelectionKey.OP_WRITE);
+        return done;
+    }
+
+    private void completeBatch() {
+        long now = System.nanoTime();
+        for (int i = 0; i < mInFlightCount; i++) {
+            Packet packet = mInFlight[i];
+            mInFlight[i] = null;
+            mSentPackets.incrementAndGet();
+            mSentBytes.addAndGet(packet.mPayload.limit());
+            mSendLatency.record(now - packet.mQueuedNanos);
+            mFreePackets.add(packet);
+        }
+        mInFlightCount = 0;
+        mStreamHeaderPending = false;
+        for (int i = 0; i < mWriteCount; i++) {
+            mWriteBuffers[i] = null;
+        }
+        mWriteOffset = 0;
+        mWriteCount = 0;
+    }
+
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    /**
+     * PCM bytes handed to the socket, not counting headers.
+     */
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    public long getSentPackets() {
+        return mSentPackets.get();
+    }
+
+    /**
+     * PCM bytes lost to a full spill queue, or still unsent when the sink
+     * was stopped.
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    public long getDroppedPackets() {
+        return mDroppedPackets.get();
+    }
+
+    /**
+     * Connections that were established and later failed.
+     */
+    public long getReconnectCount() {
+        return mReconnectCount.get();
+    }
+
+    public int getQueuedPackets() {
+        return mFullPackets.size();
+    }
+
+    /**
+     * Time from a packet being closed to its last byte being handed to the
+     * socket, including time spent in the spill queue.
+     */
+    public Histogram getSendLatency() {
+        return mSendLatency.snapshot();
+    }
+
+    private static final class Packet {
+        final ByteBuffer mHeader = ByteBuffer.allocateDirect(PACKET_HEADER_SIZE);
+        final ByteBuffer mPayload;
+        long mTimestampNanos;
+        long mQueuedNanos;
+
+        Packet(int capacity) {
+            mPayload = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
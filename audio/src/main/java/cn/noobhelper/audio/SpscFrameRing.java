@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer queue of frames. Only the capture
+ * thread may call {@link #offer(AudioFrame)} and {@link #pollIf(AudioFrame)},
+ * and only the dispatch thread may call {@link #poll()}.
+ */
+final class SpscFrameRing {
+    private final AudioFrame[] mSlots;
+    // next slot to poll, advanced by the consumer, or by the producer taking back the oldest frame
+    private final AtomicLong mHead = new AtomicLong();
+    // next slot to offer, written by the producer only
+    private final AtomicLong mTail = new AtomicLong();
+    // producer-local copy of mHead, refreshed only when the ring looks full
+    private long mHeadCache;
+    // slots the producer may fill, up to mSlots.length; producer-side only
+    private int mLimit;
+
+    SpscFrameRing(int capacity) {
+        this(capacity, capacity);
+    }
+
+    SpscFrameRing(int capacity, int maxCapacity) {
+        mSlots = new AudioFrame[Math.max(1, Math.max(capacity, maxCapacity))];
+        mLimit = Math.max(1, capacity);
+    }
+
+    boolean offer(AudioFrame frame) {
+        long tail = mTail.get();
+        if (tail - mHeadCache >= mLimit) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mLimit) {
+                return false;
+            }
+        }
+        mSlots[(int) (tail % mSlots.length)] = frame;
+        // a full volatile store, so the dispatch thread's wait flag is read after it
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    AudioFrame poll() {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return null;
+            }
+            // The slot is not cleared: once the head moves on the producer may
+            // already be refilling it. It is overwritten by a later offer.
+            AudioFrame frame = mSlots[(int) (head % mSlots.length)];
+            if (mHead.compareAndSet(head, head + 1)) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Producer thread only. Takes the oldest queued frame back if it is
+     * {@code frame} and the consumer has not polled it yet.
+     */
+    boolean pollIf(AudioFrame frame) {
+        long head = mHead.get();
+        if (head >= mTail.get() || mSlots[(int) (head % mSlots.length)] != frame) {
+            return false;
+        }
+        return mHead.compareAndSet(head, head + 1);
+    }
+
+    int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    int capacity() {
+        return mLimit;
+    }
+
+    /**
+     * Producer thread only. Frames already queued beyond a lowered limit stay
+     * queued.
+     */
+    void setCapacity(int capacity) {
+        mLimit = Math.max(1, Math.min(capacity, mSlots.length));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+/**
+ * Companion to {@link AudioCallback} for sessions with voice activity
+ * detection enabled; called on the thread that delivers frames.
+ */
+public interface VoiceActivityCallback {
+    /**
+     * Called before the first frame of an utterance, including any pre-roll
+     * frames, is delivered.
+     *
+     * @param timestampNanos timestamp of the frame that started the utterance
+     */
+    void onSpeechStart(long timestampNanos);
+
+    /**
+     * Called once the hangover has run out after the last speech frame, or
+     * when capture stops during speech.
+     *
+     * @param timestampNanos timestamp of the last frame of the utterance
+     */
+    void onSpeechEnd(long timestampNanos);
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame-level voice activity detection from energy and zero-crossing rate,
+ * both gathered in one pass over the first channel. A frame is active when
+ * its energy is well above a tracked noise floor and its zero-crossing rate
+ * is below that of broadband noise; speech then lasts until no frame has
+ * been active for the hangover time, which bridges short pauses.
+ */
+public final class VoiceActivityDetector {
+    // margin over the noise floor that an active frame needs
+    private static final float ENERGY_MARGIN_DB = 10.0f;
+    // nothing quieter than this counts as speech, however low the floor
+    private static final float MIN_SPEECH_DB = -55.0f;
+    // white noise crosses zero on every other sample
+    private static final float MAX_SPEECH_ZCR = 0.4f;
+    private static final float SILENCE_DB = -100.0f;
+    // per-frame smoothing of the noise floor: fast down, slow up, and very
+    // slow up during speech so a louder background is eventually learned
+    private static final float FLOOR_FALL = 0.2f;
+    private static final float FLOOR_RISE = 0.02f;
+    private static final float FLOOR_RISE_ACTIVE = 0.002f;
+    private static final double SHORT_FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mHangoverNanos;
+
+    private float mNoiseFloorDb = Float.NaN;
+    private float mEnergyDb = SILENCE_DB;
+    private float mZeroCrossingRate;
+    private boolean mFrameActive = false;
+    private boolean mSpeech = false;
+    private long mSilentNanos;
+
+    public VoiceActivityDetector(int sampleRate, int channelCount, long hangoverMs) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mHangoverNanos = hangoverMs * 1000000L;
+    }
+
+    /**
+     * @param bytesPerSample format of byte frames, as
+     *                       {@link AudioParams#getBytesPerSample()}
+     * @return whether the stream is in speech after this frame
+     */
+    public boolean process(AudioFrame frame, int bytesPerSample) {
+        if (frame.getShortSamples() != null) {
+            return process(frame.getShortSamples(), 0, frame.getSampleCount());
+        }
+        if (frame.getFloatSamples() != null) {
+            return process(frame.getFloatSamples(), 0, frame.getSampleCount());
+        }
+        return process(frame.getBuffer(), frame.getSampleCount(), bytesPerSample);
+    }
+
+    public boolean process(short[] samples, int offset, int sampleCount) {
+        long sum = 0;
+        int crossings = 0;
+        int previous = 0;
+        int end = offset + sampleCount;
+        for (int i = offset; i < end; i += mChannelCount) {
+            int sample = samples[i];
+            sum += sample * sample;
+            crossings += (sample ^ previous) >>> 31;
+            previous = sample;
+        }
+        return update(sum / SHORT_FULL_SCALE_SQUARED, crossings, sampleCount / mChannelCount);
+    }
+
+    public boolean process(float[] samples, int offset, int sampleCount) {
+        double sum = 0;
+        int crossings = 0;
+        boolean negative = false;
+        int end = offset + sampleCount;
+        for (int i = offset; i < end; i += mChannelCount) {
+            float sample = samples[i];
+            sum += sample * sample;
+            if ((sample < 0) != negative) {
+                crossings++;
+                negative = !negative;
+            }
+        }
+        return update(sum, crossings, sampleCount / mChannelCount);
+    }
+
+    /**
+     * Little-endian PCM from index 0 of {@code buffer}.
+     */
+    public boolean process(ByteBuffer buffer, int sampleCount, int bytesPerSample) {
+        double sum = 0;
+        int crossings = 0;
+        int previous = 0;
+        int stride = mChannelCount * bytesPerSample;
+        int end = sampleCount * bytesPerSample;
+        // integer formats read on the 16-bit scale already, float in [-1, 1]
+        float scale = bytesPerSample == 4 ? 32768.0f : 1.0f;
+        for (int p = 0; p < end; p += stride) {
+            int sample = (int) (SampleConverter.getSample(buffer, p, bytesPerSample) * scale);
+            sum += (double) sample * sample;
+            crossings += (sample ^ previous) >>> 31;
+            previous = sample;
+        }
+        return update(sum / SHORT_FULL_SCALE_SQUARED, crossings, sampleCount / mChannelCount);
+    }
+
+    private boolean update(double sumSquares, int crossings, int frames) {
+        if (frames <= 0) {
+            return mSpeech;
+        }
+        double meanSquare = sumSquares / frames;
+        mEnergyDb = meanSquare > 0 ? Math.max(SILENCE_DB, (float) (10 * Math.log10(meanSquare))) : SILENCE_DB;
+        mZeroCrossingRate = frames > 1 ? (float) crossings / (frames - 1) : 0;
+        if (Float.isNaN(mNoiseFloorDb)) {
+            mNoiseFloorDb = mEnergyDb;
+        }
+        mFrameActive = mEnergyDb > Math.max(mNoiseFloorDb + ENERGY_MARGIN_DB, MIN_SPEECH_DB)
+                && mZeroCrossingRate < MAX_SPEECH_ZCR;
+        float rate = mEnergyDb < mNoiseFloorDb ? FLOOR_FALL : mFrameActive ? FLOOR_RISE_ACTIVE : FLOOR_RISE;
+        mNoiseFloorDb += (mEnergyDb - mNoiseFloorDb) * rate;
+        if (mFrameActive) {
+            mSpeech = true;
+            mSilentNanos = 0;
+        } else if (mSpeech) {
+            mSilentNanos += frames * 1000000000L / mSampleRate;
+            if (mSilentNanos > mHangoverNanos) {
+                mSpeech = false;
+            }
+        }
+        return mSpeech;
+    }
+
+    public boolean isSpeech() {
+        return mSpeech;
+    }
+
+    /**
+     * Whether the last frame itself was active, before the hangover.
+     */
+    public boolean isFrameActive() {
+        return mFrameActive;
+    }
+
+    public float getEnergyDb() {
+        return mEnergyDb;
+    }
+
+    public float getZeroCrossingRate() {
+        return mZeroCrossingRate;
+    }
+
+    public float getNoiseFloorDb() {
+        return mNoiseFloorDb;
+    }
+
+    public void reset() {
+        mNoiseFloorDb = Float.NaN;
+        mEnergyDb = SILENCE_DB;
+        mZeroCrossingRate = 0;
+        mFrameActive = false;
+        mSpeech = false;
+        mSilentNanos = 0;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a {@link VoiceActivityDetector} in front of frame delivery. In
+ * {@link AudioParams#VAD_MODE_MARK} every frame is passed on and only
+ * flagged; in {@link AudioParams#VAD_MODE_GATE} silent frames are held back
+ * in a small ring of retained frames and only passed on, oldest first, when
+ * speech starts, so the onset is not clipped. Frames that fall out of the
+ * ring are suppressed. Runs on the delivering thread only.
+ */
+final class VoiceActivityGate implements AudioFrameCallback {
+    private final VoiceActivityDetector mDetector;
+    private final int mMode;
+    private final int mBytesPerSample;
+    private final AudioFrameCallback mTarget;
+    private final VoiceActivityCallback mListener;
+    private final AtomicLong mSuppressedCount;
+    private final AudioFrame[] mHeldFrames;
+    private int mHeldStart;
+    private int mHeldCount;
+    private long mLastSpeechTimestampNanos;
+
+    VoiceActivityGate(VoiceActivityDetector detector, int mode, int holdFrameCount, int bytesPerSample,
+                      AudioFrameCallback target, VoiceActivityCallback listener, AtomicLong suppressedCount) {
+        mDetector = detector;
+        mMode = mode;
+        mBytesPerSample = bytesPerSample;
+        mTarget = target;
+        mListener = listener;
+        mSuppressedCount = suppressedCount;
+        mHeldFrames = new AudioFrame[mode == AudioParams.VAD_MODE_GATE ? holdFrameCount : 0];
+    }
+
+    /**
+     * Pool frames the gate may hold on top of what consumers hold.
+     */
+    static int getHoldFrameCount(AudioParams audioParams, int sampleRate, int samplesPerFrame) {
+        if (audioParams.getVadMode() != AudioParams.VAD_MODE_GATE) {
+            return 0;
+        }
+        long framesPerFrame = Math.max(1, samplesPerFrame / audioParams.getChannelCount());
+        long preRollFrames = (long) audioParams.getVadPreRollMs() * sampleRate / 1000;
+        return (int) ((preRollFrames + framesPerFrame - 1) / framesPerFrame);
+    }
+
+    @Override
+    public void onAudioFrameAvailable(AudioFrame frame) {
+        boolean wasSpeech = mDetector.isSpeech();
+        boolean speech = mDetector.process(frame, mBytesPerSample);
+        frame.setVoiceActive(speech);
+        if (speech && !wasSpeech) {
+            if (mListener != null) {
+                mListener.onSpeechStart(frame.getTimestampNanos());
+            }
+            flushHeldFrames();
+        } else if (!speech && wasSpeech && mListener != null) {
+            mListener.onSpeechEnd(mLastSpeechTimestampNanos);
+        }
+        if (speech) {
+            mLastSpeechTimestampNanos = frame.getTimestampNanos();
+            mTarget.onAudioFrameAvailable(frame);
+        } else if (mMode == AudioParams.VAD_MODE_MARK) {
+            mTarget.onAudioFrameAvailable(frame);
+        } else {
+            hold(frame);
+        }
+    }
+
+    private void hold(AudioFrame frame) {
+        if (mHeldFrames.length == 0) {
+            mSuppressedCount.incrementAndGet();
+            return;
+        }
+        if (mHeldCount == mHeldFrames.length) {
+            AudioFrame oldest = mHeldFrames[mHeldStart];
+            mHeldFrames[mHeldStart] = null;
+            mHeldStart = (mHeldStart + 1) % mHeldFrames.length;
+            mHeldCount--;
+            oldest.release();
+            mSuppressedCount.incrementAndGet();
+        }
+        frame.retain();
+        mHeldFrames[(mHeldStart + mHeldCount) % mHeldFrames.length] = frame;
+        mHeldCount++;
+    }
+
+    private void flushHeldFrames() {
+        while (mHeldCount > 0) {
+            AudioFrame frame = mHeldFrames[mHeldStart];
+            mHeldFrames[mHeldStart] = null;
+            mHeldStart = (mHeldStart + 1) % mHeldFrames.length;
+            mHeldCount--;
+            mTarget.onAudioFrameAvailable(frame);
+            frame.release();
+        }
+    }
+
+    /**
+     * Ends an utterance still in progress and drops the held frames. Call
+     * once no more frames will be delivered.
+     */
+    void close() {
+        if (mDetector.isSpeech() && mListener != null) {
+            mListener.onSpeechEnd(mLastSpeechTimestampNanos);
+        }
+        while (mHeldCount > 0) {
+            AudioFrame frame = mHeldFrames[mHeldStart];
+            mHeldFrames[mHeldStart] = null;
+            mHeldStart = (mHeldStart + 1) % mHeldFrames.length;
+            mHeldCount--;
+            frame.release();
+            mSuppressedCount.incrementAndGet();
+        }
+        mDetector.reset();
+    }
+}
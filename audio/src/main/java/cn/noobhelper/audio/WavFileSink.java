@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.media.AudioFormat;
+
+/**
+ * Records the captured stream into WAV segments without doing any I/O on the
+ * delivering thread. Frames are copied into preallocated 64 KB chunks; a
+ * background writer thread writes full chunks with gathering
+ * {@link FileChannel} writes, rotates to a new segment when the duration or
+ * size limit is reached and patches the RIFF sizes when a segment is closed.
+ * A partial chunk is handed over after 250 ms, which bounds what a crash can
+ * lose; {@link #recover(File)} repairs the header of a segment left behind by
+ * one.
+ *
+ * <p>Attach it with
+ * {@code audioController.addSubscriber(sink, null, FrameSubscription.DELIVERY_LOSSLESS, 0)}
+ * after {@link #open()}. When all chunks are in flight, new data is dropped
+ * and counted rather than blocking capture.
+ */
+public final class WavFileSink implements AudioFrameCallback {
+    private static final String WRITER_THREAD_NAME = "AudioWavWriterThread";
+    static final int HEADER_SIZE = 44;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_COUNT = 16;
+    private static final long FLUSH_INTERVAL_NANOS = 250000000L;
+    private static final long MAX_DATA_SIZE = 0xFFFFFFFFL - 36;
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final File mDirectory;
+    private final String mPrefix;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final int mAudioFormat;
+    private final int mBlockAlign;
+    // usable bytes per chunk, whole sample frames only
+    private final int mChunkSize;
+    private final long mMaxSegmentBytes;
+
+    private final ArrayBlockingQueue<ByteBuffer> mFreeChunks = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final ArrayBlockingQueue<ByteBuffer> mFullChunks = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    private final AtomicLong mWrittenBytes = new AtomicLong();
+    private boolean mOpened = false;
+    private boolean mClosed = false;
+    private Thread mWriterThread;
+
+    // delivering thread side, guarded by this
+    private ByteBuffer mCurrentChunk;
+    private long mChunkStartNanos;
+
+    // writer thread side
+    private final ByteBuffer[] mBatch = new ByteBuffer[CHUNK_COUNT];
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private RandomAccessFile mSegmentFile;
+    private FileChannel mSegmentChannel;
+    private long mSegmentDataBytes;
+    private volatile int mSegmentCount;
+
+    /**
+     * @param audioParams     format of the frames that will be delivered; short
+     *                        and float sample types are written as 16-bit and
+     *                        32-bit float WAV
+     * @param maxSegmentMs    start a new segment after this much audio, 0 for
+     *                        no limit
+     * @param maxSegmentBytes start a new segment after this many data bytes, 0
+     *                        for no limit beyond the 4 GB the format allows
+     */
+    public WavFileSink(File directory, String prefix, AudioParams audioParams, long maxSegmentMs,
+                       long maxSegmentBytes) {
+        mDirectory = directory;
+        mPrefix = prefix;
+        mSampleRate = audioParams.getOutputSampleRate();
+        mChannelCount = audioParams.getOutputChannelCount();
+        switch (audioParams.getSampleType()) {
+            case AudioParams.SAMPLE_TYPE_SHORT:
+                mAudioFormat = AudioFormat.ENCODING_PCM_16BIT;
+                break;
+            case AudioParams.SAMPLE_TYPE_FLOAT:
+                mAudioFormat = AudioFormat.ENCODING_PCM_FLOAT;
+                break;
+            default:
+                mAudioFormat = audioParams.getAudioFormat();
+                break;
+        }
+        int bytesPerSample = mAudioFormat == AudioFormat.ENCODING_PCM_FLOAT ? 4
+                : mAudioFormat == AudioFormat.ENCODING_PCM_8BIT ? 1 : 2;
+        mBlockAlign = bytesPerSample * mChannelCount;
+        long limit = MAX_DATA_SIZE;
+        if (maxSegmentMs > 0) {
+            limit = Math.min(limit, maxSegmentMs * mSampleRate / 1000 * mBlockAlign);
+        }
+        if (maxSegmentBytes > 0) {
+            limit = Math.min(limit, maxSegmentBytes);
+        }
+        mMaxSegmentBytes = Math.max(mBlockAlign, limit - limit % mBlockAlign);
+        // chunk ends, drops and segment splits then all fall between sample frames
+        mChunkSize = CHUNK_SIZE - CHUNK_SIZE % mBlockAlign;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            mFreeChunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Opens the first segment and starts the writer thread.
+     */
+    public synchronized void open() throws IOException {
+        if (mOpened) {
+            return;
+        }
+        openSegment();
+        mOpened = true;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, WRITER_THREAD_NAME);
+        mWriterThread.start();
+    }
+
+    /**
+     * Writes what is still buffered, finalizes the current segment and stops
+     * the writer thread. Frames delivered afterwards are ignored.
+     */
+    public void close() {
+        Thread writerThread;
+        synchronized (this) {
+            if (!mOpened || mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mCurrentChunk != null) {
+                publishChunk();
+            }
+            mFullChunks.add(END_OF_STREAM);
+            writerThread = mWriterThread;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void onAudioFrameAvailable(AudioFrame frame) {
+        if (!mOpened || mClosed) {
+            return;
+        }
+        if (frame.getBuffer() != null) {
+            append(frame.asReadOnlyBuffer());
+        } else if (frame.getShortSamples() != null) {
+            short[] samples = frame.getShortSamples();
+            for (int i = 0; i < frame.getSampleCount(); i++) {
+                ByteBuffer chunk = currentChunk(2);
+                if (chunk == null) {
+                    mDroppedBytes.addAndGet((frame.getSampleCount() - i) * 2L);
+                    break;
+                }
+                chunk.putShort(samples[i]);
+            }
+        } else if (frame.getFloatSamples() != null) {
+            float[] samples = frame.getFloatSamples();
+            for (int i = 0; i < frame.getSampleCount(); i++) {
+                ByteBuffer chunk = currentChunk(4);
+                if (chunk == null) {
+                    mDroppedBytes.addAndGet((frame.getSampleCount() - i) * 4L);
+                    break;
+                }
+                chunk.putFloat(samples[i]);
+            }
+        }
+        if (mCurrentChunk != null && System.nanoTime() - mChunkStartNanos >= FLUSH_INTERVAL_NANOS) {
+            publishChunk();
+        }
+    }
+
+    private void append(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            ByteBuffer chunk = currentChunk(1);
+            if (chunk == null) {
+                mDroppedBytes.addAndGet(data.remaining());
+                return;
+            }
+            int count = Math.min(chunk.remaining(), data.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + count);
+            chunk.put(data);
+            data.limit(limit);
+        }
+    }
+
+    /**
+     * Returns a chunk with at least {@code size} bytes free, or null when
+     * every chunk is waiting for the writer.
+     */
+    private ByteBuffer currentChunk(int size) {
+        if (mCurrentChunk != null && mCurrentChunk.remaining() < size) {
+            publishChunk();
+        }
+        if (mCurrentChunk == null) {
+            mCurrentChunk = mFreeChunks.poll();
+            if (mCurrentChunk != null) {
+                mCurrentChunk.limit(mChunkSize);
+            }
+            mChunkStartNanos = System.nanoTime();
+        }
+        return mCurrentChunk;
+    }
+
+    private void publishChunk() {
+        mCurrentChunk.flip();
+        mFullChunks.add(mCurrentChunk);
+        mCurrentChunk = null;
+    }
+
+    private void writeLoop() {
+        boolean failed = false;
+        while (true) {
+            ByteBuffer chunk;
+            try {
+                chunk = mFullChunks.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            int count = 0;
+            boolean endOfStream = false;
+            do {
+                if (chunk == END_OF_STREAM) {
+                    endOfStream = true;
+                    break;
+                }
+                mBatch[count++] = chunk;
+            } while (count < mBatch.length && (chunk = mFullChunks.poll()) != null);
+
+            if (!failed) {
+                try {
+                    writeBatch(count);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (failed) {
+                    mDroppedBytes.addAndGet(mBatch[i].remaining());
+                }
+                mBatch[i].clear();
+                mFreeChunks.add(mBatch[i]);
+                mBatch[i] = null;
+            }
+            if (endOfStream) {
+                break;
+            }
+        }
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeBatch(int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            long room = mMaxSegmentBytes - mSegmentDataBytes;
+            int last = first;
+            long total = 0;
+            while (last < count && total + mBatch[last].remaining() <= room) {
+                total += mBatch[last].remaining();
+                last++;
+            }
+            if (last > first) {
+                writeFully(first, last, total);
+                first = last;
+                continue;
+            }
+            // The next chunk crosses the segment limit: fill the segment up
+            // to a whole sample frame, then continue in a new one.
+            ByteBuffer chunk = mBatch[first];
+            int part = (int) (room - room % mBlockAlign);
+            if (part > 0) {
+                int limit = chunk.limit();
+                chunk.limit(chunk.position() + part);
+                writeFully(first, first + 1, part);
+                chunk.limit(limit);
+            }
+            closeSegment();
+            openSegment();
+        }
+    }
+
+    private void writeFully(int first, int last, long total) throws IOException {
+        long written = 0;
+        while (written < total) {
+            written += mSegmentChannel.write(mBatch, first, last - first);
+        }
+        mSegmentDataBytes += total;
+        mWrittenBytes.addAndGet(total);
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(mDirectory, String.format(Locale.US, "%s-%04d.wav", mPrefix, mSegmentCount));
+        mSegmentFile = new RandomAccessFile(file, "rw");
+        mSegmentFile.setLength(0);
+        mSegmentChannel = mSegmentFile.getChannel();
+        mSegmentDataBytes = 0;
+        writeHeader(mSegmentChannel, mHeader, mSampleRate, mChannelCount, mAudioFormat, mBlockAlign, 0);
+        mSegmentChannel.position(HEADER_SIZE);
+        mSegmentCount++;
+    }
+
+    private void closeSegment() throws IOException {
+        if (mSegmentFile == null) {
+            return;
+        }
+        patchSizes(mSegmentChannel, mSegmentDataBytes);
+        mSegmentFile.close();
+        mSegmentFile = null;
+        mSegmentChannel = null;
+    }
+
+    private static void writeHeader(FileChannel channel, ByteBuffer header, int sampleRate, int channelCount,
+                                    int audioFormat, int blockAlign, long dataBytes) throws IOException {
+        header.clear();
+        header.putInt(0x46464952);                      // "RIFF"
+        header.putInt((int) (36 + dataBytes));
+        header.putInt(0x45564157);                      // "WAVE"
+        header.putInt(0x20746D66);                      // "fmt "
+        header.putInt(16);
+        header.putShort((short) (audioFormat == AudioFormat.ENCODING_PCM_FLOAT ? 3 : 1));
+        header.putShort((short) channelCount);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);         // byte rate
+        header.putShort((short) blockAlign);
+        header.putShort((short) (blockAlign / channelCount * 8));
+        header.putInt(0x61746164);                      // "data"
+        header.putInt((int) dataBytes);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static void patchSizes(FileChannel channel, long dataBytes) throws IOException {
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        size.putInt(0, (int) (36 + dataBytes));
+        channel.write(size, 4);
+        size.clear();
+        size.putInt(0, (int) dataBytes);
+        channel.write(size, 40);
+    }
+
+    /**
+     * Repairs a segment whose writer died before closing it: drops a trailing
+     * partial sample frame and patches the RIFF and data sizes to match the
+     * data actually on disk.
+     *
+     * @return false if the file is not a segment written by this class
+     */
+    public static boolean recover(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    return false;
+                }
+            }
+            if (header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157
+                    || header.getInt(36) != 0x61746164) {
+                return false;
+            }
+            int blockAlign = Math.max(1, header.getShort(32) & 0xFFFF);
+            long dataBytes = Math.min(MAX_DATA_SIZE, channel.size() - HEADER_SIZE);
+            dataBytes -= dataBytes % blockAlign;
+            channel.truncate(HEADER_SIZE + dataBytes);
+            patchSizes(channel, dataBytes);
+            channel.force(true);
+            return true;
+        } finally {
+            file.close();
+        }
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    public long getWrittenBytes() {
+        return mWrittenBytes.get();
+    }
+
+    /**
+     * Bytes lost because the writer fell behind by more than all chunks, or
+     * because a write failed.
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioCodecTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static short[] tone(int sampleCount, int channelCount, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            int channel = i % channelCount;
+            double phase = 2 * Math.PI * (440 + 110 * channel) * (i / channelCount) / SAMPLE_RATE;
+            samples[i] = (short) (8000 * Math.sin(phase) + random.nextGaussian() * 50);
+        }
+        return samples;
+    }
+
+    private static short[] noise(int sampleCount, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            samples[i] = (short) random.nextInt();
+        }
+        return samples;
+    }
+
+    private static short[] extremes(int sampleCount) {
+        short[] samples = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            samples[i] = i % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        return samples;
+    }
+
+    private static void assertLosslessRoundTrip(short[] samples, int channelCount) {
+        LosslessEncoder encoder = new LosslessEncoder(channelCount, samples.length);
+        ByteBuffer packet = ByteBuffer.allocate(encoder.getMaxPacketSize(samples.length));
+        int length = encoder.encode(samples, 0, samples.length, packet);
+        assertEquals(packet.position(), length);
+        packet.flip();
+
+        short[] decoded = new short[samples.length];
+        assertEquals(samples.length, new LosslessDecoder(channelCount).decode(packet, decoded, 0));
+        assertFalse(packet.hasRemaining());
+        assertArrayEquals(samples, decoded);
+    }
+
+    @Test
+    public void losslessRoundTripIsExact() {
+        for (int channelCount = 1; channelCount <= 2; channelCount++) {
+            for (int sampleCount : new int[]{channelCount, 6, 320, 961 * channelCount}) {
+                assertLosslessRoundTrip(tone(sampleCount, channelCount, sampleCount), channelCount);
+                assertLosslessRoundTrip(noise(sampleCount, sampleCount), channelCount);
+                assertLosslessRoundTrip(extremes(sampleCount), channelCount);
+            }
+        }
+    }
+
+    @Test
+    public void losslessCompressesTonalInput() {
+        short[] samples = tone(3200, 1, 1);
+        LosslessEncoder encoder = new LosslessEncoder(1, samples.length);
+        ByteBuffer packet = ByteBuffer.allocate(encoder.getMaxPacketSize(samples.length));
+        assertTrue(encoder.encode(samples, 0, samples.length, packet) < samples.length * 2 * 3 / 4);
+    }
+
+    @Test
+    public void imaAdpcmRoundTripTracksInput() {
+        for (int channelCount = 1; channelCount <= 2; channelCount++) {
+            int frameSamples = 320 * channelCount;
+            short[] samples = tone(frameSamples * 20, channelCount, channelCount);
+            ImaAdpcmEncoder encoder = new ImaAdpcmEncoder(channelCount);
+            ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(channelCount);
+            ByteBuffer packet = ByteBuffer.allocate(encoder.getMaxPacketSize(frameSamples));
+            short[] decoded = new short[samples.length];
+            for (int offset = 0; offset < samples.length; offset += frameSamples) {
+                packet.clear();
+                int length = encoder.encode(samples, offset, frameSamples, packet);
+                // 4 bits per sample plus a small header
+                assertTrue(length <= frameSamples / 2 + 16);
+                packet.flip();
+                assertEquals(frameSamples, decoder.decode(packet, decoded, offset));
+                assertFalse(packet.hasRemaining());
+            }
+
+            double signal = 0;
+            double error = 0;
+            for (int i = 0; i < samples.length; i++) {
+                signal += (double) samples[i] * samples[i];
+                error += (double) (samples[i] - decoded[i]) * (samples[i] - decoded[i]);
+            }
+            double snr = 10 * Math.log10(signal / error);
+            assertTrue("SNR " + snr + " dB with " + channelCount + " channels", snr > 20);
+        }
+    }
+
+    @Test
+    public void imaAdpcmPacketsDecodeIndependently() {
+        short[] samples = tone(320 * 4, 1, 7);
+        ImaAdpcmEncoder encoder = new ImaAdpcmEncoder(1);
+        ByteBuffer[] packets = new ByteBuffer[4];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = ByteBuffer.allocate(encoder.getMaxPacketSize(320));
+            encoder.encode(samples, i * 320, 320, packets[i]);
+            packets[i].flip();
+        }
+
+        short[] inOrder = new short[samples.length];
+        ImaAdpcmDecoder decoder = new ImaAdpcmDecoder(1);
+        for (int i = 0; i < packets.length; i++) {
+            decoder.decode(packets[i].duplicate(), inOrder, i * 320);
+        }
+        short[] alone = new short[320];
+        new ImaAdpcmDecoder(1).decode(packets[2].duplicate(), alone, 0);
+        assertArrayEquals(Arrays.copyOfRange(inOrder, 640, 960), alone);
+    }
+
+    @Test
+    public void encoderStageDeliversLosslessPacketsOfTheFrames() {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(SAMPLE_RATE);
+        audioParams.setFrameSize(640);
+        final short[] expected = tone(320 * 50, 1, 3);
+        final short[] decoded = new short[expected.length];
+        final long[] timestamps = new long[50];
+        final AtomicInteger decodedCount = new AtomicInteger();
+        final LosslessDecoder decoder = new LosslessDecoder(1);
+        EncoderStage stage = new EncoderStage(new LosslessEncoder(1, 320), audioParams, new EncodedFrameCallback() {
+            @Override
+            public void onEncodedFrameAvailable(ByteBuffer packet, int sampleCount, long timestampNanos) {
+                timestamps[decodedCount.get() / 320] = timestampNanos;
+                assertEquals(sampleCount, decoder.decode(packet, decoded, decodedCount.get()));
+                decodedCount.addAndGet(sampleCount);
+            }
+        });
+        stage.start();
+
+        FramePool pool = new FramePool(640, 320, FramePool.BUFFER_HEAP, 1, 1, AudioParams.POOL_POLICY_DROP_NEWEST);
+        AudioFrame frame = pool.lease();
+        ByteBuffer buffer = frame.getBuffer();
+        for (int f = 0; f < 50; f++) {
+            buffer.clear();
+            for (int i = 0; i < 320; i++) {
+                buffer.putShort(expected[f * 320 + i]);
+            }
+            buffer.flip();
+            frame.set(640, 320, (f + 1) * 20000000L, f, 0);
+            stage.onAudioFrameAvailable(frame);
+            // stay within the stage's slots so that nothing is dropped
+            while ((f + 1) * 320 - decodedCount.get() >= 320 * 4) {
+                Thread.yield();
+            }
+        }
+        stage.stop();
+
+        assertEquals(0, stage.getDroppedSamples());
+        assertEquals(expected.length, decodedCount.get());
+        assertArrayEquals(expected, decoded);
+        for (int f = 0; f < timestamps.length; f++) {
+            // packets carry the start of their frame
+            assertEquals(f * 20000000L, timestamps[f]);
+        }
+        assertTrue(stage.getCompressionRatio() > 1);
+    }
+}
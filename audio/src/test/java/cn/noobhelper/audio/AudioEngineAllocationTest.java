@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AudioEngineAllocationTest {
+    private static final int WARM_UP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 20000;
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(sunBean.isThreadAllocatedMemorySupported());
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    /**
+     * Bytes the capture thread allocated between the end of the warm-up and
+     * the end of the measured frames, read from inside the callback so that
+     * setup and teardown are not counted.
+     */
+    private static long measureSteadyStateAllocation(int captureMode) {
+        final com.sun.management.ThreadMXBean bean = threadMXBean();
+        final long[] allocated = new long[2];
+        final int[] frameCount = new int[1];
+        FakeCaptureSource source = new FakeCaptureSource(16000, 1, 640 * 16, false);
+        source.setEndFrames(320L * (WARM_UP_FRAMES + MEASURED_FRAMES + 10));
+        AudioParams audioParams = new AudioParams();
+        audioParams.setCaptureMode(captureMode);
+        audioParams.setFrameSize(640);
+
+        AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(source);
+        audioEngine.setAudioCallback(new AudioCallback() {
+            @Override
+            public void onAudioSetup(boolean result) {
+            }
+
+            @Override
+            public void onAudioStart(boolean result) {
+            }
+
+            @Override
+            public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+                int count = ++frameCount[0];
+                if (count == WARM_UP_FRAMES) {
+                    allocated[0] = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                } else if (count == WARM_UP_FRAMES + MEASURED_FRAMES) {
+                    allocated[1] = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+
+            @Override
+            public void onAudioStop(boolean result) {
+            }
+
+            @Override
+            public void onAudioRelease() {
+            }
+        });
+        audioEngine.setupAudioEngine(audioParams);
+        audioEngine.startAudioEngine();
+        audioEngine.releaseAudioEngine();
+
+        assertTrue(frameCount[0] >= WARM_UP_FRAMES + MEASURED_FRAMES);
+        return allocated[1] - allocated[0];
+    }
+
+    @Test
+    public void directCaptureAllocatesNothingPerFrame() {
+        long bytes = measureSteadyStateAllocation(AudioParams.CAPTURE_MODE_DIRECT);
+        // under a byte per frame: the odd one-off allocation, nothing per frame
+        assertTrue("allocated " + bytes + " bytes over " + MEASURED_FRAMES + " frames", bytes < MEASURED_FRAMES);
+    }
+
+    @Test
+    public void heapCaptureAllocatesNothingPerFrame() {
+        long bytes = measureSteadyStateAllocation(AudioParams.CAPTURE_MODE_HEAP);
+        assertTrue("allocated " + bytes + " bytes over " + MEASURED_FRAMES + " frames", bytes < MEASURED_FRAMES);
+    }
+
+    @Test
+    public void directCaptureDeliversTheSourceSamples() {
+        final FakeCaptureSource source = new FakeCaptureSource(16000, 1, 640 * 16, false);
+        source.setEndFrames(320 * 50);
+        final int[] state = new int[2];
+        AudioParams audioParams = new AudioParams();
+        audioParams.setCaptureMode(AudioParams.CAPTURE_MODE_DIRECT);
+        audioParams.setFrameSize(640);
+
+        AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(source);
+        audioEngine.setAudioCallback(new AudioCallback() {
+            @Override
+            public void onAudioSetup(boolean result) {
+            }
+
+            @Override
+            public void onAudioStart(boolean result) {
+            }
+
+            @Override
+            public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+                assertTrue(inputBuffer.isDirect());
+                for (int i = 0; i < inputLength; i += 2) {
+                    if (inputBuffer.getShort(inputBuffer.position() + i) != (short) state[0]) {
+                        state[1]++;
+                    }
+                    state[0]++;
+                }
+            }
+
+            @Override
+            public void onAudioStop(boolean result) {
+            }
+
+            @Override
+            public void onAudioRelease() {
+            }
+        });
+        audioEngine.setupAudioEngine(audioParams);
+        audioEngine.startAudioEngine();
+        audioEngine.releaseAudioEngine();
+
+        assertEquals(320 * 50, state[0]);
+        assertEquals(0, state[1]);
+    }
+}
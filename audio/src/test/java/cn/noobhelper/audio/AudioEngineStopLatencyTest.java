@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stop, release and reconfigure in {@link AudioParams#READ_MODE_NON_BLOCKING}
+ * with 200 ms frames, while every core is kept busy by spinning threads. A
+ * blocking read would hold each of them for up to a whole frame.
+ */
+public class AudioEngineStopLatencyTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_DURATION_MS = 200;
+    private static final long FRAME_NANOS = FRAME_DURATION_MS * 1000000L;
+
+    private volatile boolean mLoaded;
+    private Thread[] mLoadThreads;
+
+    @Before
+    public void startLoad() {
+        mLoaded = true;
+        mLoadThreads = new Thread[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < mLoadThreads.length; i++) {
+            mLoadThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long x = 0;
+                    while (mLoaded) {
+                        x += System.nanoTime();
+                    }
+                    if (x == 42) {
+                        System.out.println(x);
+                    }
+                }
+            });
+            mLoadThreads[i].setDaemon(true);
+            mLoadThreads[i].start();
+        }
+    }
+
+    @After
+    public void stopLoad() throws InterruptedException {
+        mLoaded = false;
+        for (Thread thread : mLoadThreads) {
+            thread.join();
+        }
+    }
+
+    private static AudioParams params(int frameDurationMs) {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(SAMPLE_RATE);
+        audioParams.setFrameDurationMs(frameDurationMs);
+        audioParams.setAudioBufferSize(SAMPLE_RATE * 2);
+        audioParams.setReadMode(AudioParams.READ_MODE_NON_BLOCKING);
+        return audioParams;
+    }
+
+    /**
+     * @param frameNanos set to the time the first frame of
+     *                   {@code frameLength} bytes is delivered
+     */
+    private static AudioEngine newEngine(final int frameLength, final AtomicLong frameNanos) {
+        AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(new FakeCaptureSource(SAMPLE_RATE, 1, SAMPLE_RATE * 2, true));
+        audioEngine.setAudioCallback(new AudioCallback() {
+            @Override
+            public void onAudioSetup(boolean result) {
+            }
+
+            @Override
+            public void onAudioStart(boolean result) {
+            }
+
+            @Override
+            public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+                if (inputLength == frameLength) {
+                    frameNanos.compareAndSet(0, System.nanoTime());
+                }
+            }
+
+            @Override
+            public void onAudioStop(boolean result) {
+            }
+
+            @Override
+            public void onAudioRelease() {
+            }
+        });
+        audioEngine.setupAudioEngine(params(FRAME_DURATION_MS));
+        return audioEngine;
+    }
+
+    private static Thread startCapture(final AudioEngine audioEngine) {
+        Thread captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                audioEngine.startAudioEngine();
+            }
+        });
+        captureThread.start();
+        return captureThread;
+    }
+
+    @Test
+    public void stopCompletesWithinAFramePeriod() throws InterruptedException {
+        AudioEngine audioEngine = newEngine(0, new AtomicLong());
+        long maxLatencyNanos = 0;
+        for (int i = 0; i < 10; i++) {
+            Thread captureThread = startCapture(audioEngine);
+            // stop at a different point of the frame every time
+            Thread.sleep(FRAME_DURATION_MS + 37 * i);
+            long stopNanos = System.nanoTime();
+            audioEngine.stopAudioEngine();
+            captureThread.join(FRAME_DURATION_MS * 5);
+            maxLatencyNanos = Math.max(maxLatencyNanos, System.nanoTime() - stopNanos);
+            assertFalse(captureThread.isAlive());
+        }
+        audioEngine.releaseAudioEngine();
+
+        assertTrue("stop took " + maxLatencyNanos / 1000000 + " ms", maxLatencyNanos < FRAME_NANOS);
+    }
+
+    @Test
+    public void releaseWhileCapturingCompletesWithinAFramePeriod() throws InterruptedException {
+        AudioEngine audioEngine = newEngine(0, new AtomicLong());
+        Thread captureThread = startCapture(audioEngine);
+        Thread.sleep(FRAME_DURATION_MS * 3 / 2);
+        long releaseNanos = System.nanoTime();
+        audioEngine.releaseAudioEngine();
+        captureThread.join(FRAME_DURATION_MS * 5);
+        long latencyNanos = System.nanoTime() - releaseNanos;
+
+        assertFalse(captureThread.isAlive());
+        assertNull(audioEngine.getFramePool());
+        assertTrue("release took " + latencyNanos / 1000000 + " ms", latencyNanos < FRAME_NANOS);
+    }
+
+    @Test
+    public void reconfigureTakesEffectWithinAFramePeriod() throws InterruptedException {
+        // the new 20 ms frames are 640 bytes, the old ones 6400
+        AtomicLong newFrameNanos = new AtomicLong();
+        AudioEngine audioEngine = newEngine(640, newFrameNanos);
+        Thread captureThread = startCapture(audioEngine);
+        Thread.sleep(FRAME_DURATION_MS * 3 / 2);
+        long reconfigureNanos = System.nanoTime();
+        audioEngine.reconfigureAudioEngine(params(20));
+        while (newFrameNanos.get() == 0 && System.nanoTime() - reconfigureNanos < FRAME_NANOS * 5) {
+            Thread.sleep(1);
+        }
+        long latencyNanos = newFrameNanos.get() - reconfigureNanos;
+        audioEngine.stopAudioEngine();
+        captureThread.join(FRAME_DURATION_MS * 5);
+        audioEngine.releaseAudioEngine();
+
+        assertTrue(newFrameNanos.get() != 0);
+        assertTrue("reconfigure took " + latencyNanos / 1000000 + " ms", latencyNanos < FRAME_NANOS);
+    }
+}
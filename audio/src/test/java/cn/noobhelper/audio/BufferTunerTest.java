@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferTunerTest {
+    private static final long FRAME_NANOS = 10000000L;
+
+    private static class DecisionLog implements BufferTuneCallback {
+        final List<BufferTuneDecision> mDecisions = Collections.synchronizedList(new ArrayList<BufferTuneDecision>());
+
+        @Override
+        public void onBufferTuned(BufferTuneDecision decision) {
+            mDecisions.add(decision);
+        }
+
+        List<BufferTuneDecision> get(int target) {
+            List<BufferTuneDecision> decisions = new ArrayList<>();
+            synchronized (mDecisions) {
+                for (BufferTuneDecision decision : mDecisions) {
+                    if (decision.getTarget() == target) {
+                        decisions.add(decision);
+                    }
+                }
+            }
+            return decisions;
+        }
+    }
+
+    private abstract static class TunedCallback implements AudioCallback, BufferTuneCallback {
+        @Override
+        public void onAudioSetup(boolean result) {
+        }
+
+        @Override
+        public void onAudioStart(boolean result) {
+        }
+
+        @Override
+        public void onAudioStop(boolean result) {
+        }
+
+        @Override
+        public void onAudioRelease() {
+        }
+    }
+
+    /**
+     * A jittery source and a consumer that lags for the first two seconds:
+     * the pool grows within its bounds and capture never falls behind.
+     */
+    @Test
+    public void poolGrowsWhenConsumerLags() throws InterruptedException {
+        final JitterCaptureSource source = new JitterCaptureSource(16000, 1, 16000 * 2, 30000000L, 0.05, 1);
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(16000);
+        audioParams.setFrameDurationMs(10);
+        audioParams.setDispatchMode(AudioParams.DISPATCH_MODE_ASYNC);
+        audioParams.setAutoTuneMode(AudioParams.AUTO_TUNE_ON);
+        audioParams.setFrameBufferCount(6);
+        audioParams.setMaxFrameBufferCount(40);
+        audioParams.setTargetLatencyMs(300);
+
+        final DecisionLog log = new DecisionLog();
+        final long lagUntilNanos = System.nanoTime() + 2000000000L;
+        final int[] frameCount = new int[1];
+        final AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(source);
+        audioEngine.setAudioCallback(new TunedCallback() {
+            @Override
+            public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+                if (System.nanoTime() < lagUntilNanos && ++frameCount[0] % 10 == 0) {
+                    LockSupport.parkNanos(60000000L);
+                }
+            }
+
+            @Override
+            public void onBufferTuned(BufferTuneDecision decision) {
+                log.onBufferTuned(decision);
+            }
+        });
+        audioEngine.setupAudioEngine(audioParams);
+        Thread captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                audioEngine.startAudioEngine();
+            }
+        });
+        captureThread.start();
+        Thread.sleep(3500);
+        audioEngine.stopAudioEngine();
+        captureThread.join(5000);
+        audioEngine.releaseAudioEngine();
+
+        assertEquals(0, source.getOverrunFrames());
+        List<BufferTuneDecision> decisions = log.get(BufferTuneDecision.TARGET_FRAME_POOL);
+        assertTrue(!decisions.isEmpty());
+        BufferTuneDecision first = decisions.get(0);
+        assertTrue(first.getReason() == BufferTuneDecision.REASON_FRAMES_DROPPED
+                || first.getReason() == BufferTuneDecision.REASON_LOW_HEADROOM);
+        assertTrue(first.getNewValue() > first.getOldValue());
+        for (BufferTuneDecision decision : decisions) {
+            // at most maxFrameBufferCount, and no more than 300 ms of 10 ms frames
+            assertTrue(decision.getNewValue() >= audioParams.getMinFrameBufferCount());
+            assertTrue(decision.getNewValue() <= 30);
+        }
+        // a source without a rebuildable record buffer is left alone
+        assertTrue(log.get(BufferTuneDecision.TARGET_RECORD_BUFFER).isEmpty());
+    }
+
+    /**
+     * Drives the tuner with read times directly: 45 ms stalls in the first
+     * three seconds grow the record buffer, a long calm stretch shrinks it
+     * back, and the unused pool shrinks to its minimum.
+     */
+    @Test
+    public void recordBufferFollowsReadJitter() {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setAutoTuneMode(AudioParams.AUTO_TUNE_ON);
+        BufferTuner tuner = new BufferTuner(audioParams);
+        FramePool framePool = new FramePool(320, 160, FramePool.BUFFER_HEAP, tuner.getFrameCount(FRAME_NANOS),
+                tuner.getMaxFrameCount(), AudioParams.POOL_POLICY_DROP_NEWEST);
+        DecisionLog log = new DecisionLog();
+        int recordBufferSize = 1280;
+        tuner.begin(framePool, null, 0, recordBufferSize, 1280, 16000, 2, log);
+
+        long nowNanos = 1;
+        List<Integer> rebuilds = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            long intervalNanos = FRAME_NANOS;
+            if (i < 300 && i % 50 == 49) {
+                intervalNanos = 45000000L;
+            } else if (i > 49 && i < 304 && i % 50 < 4) {
+                // the four reads after a stall catch up
+                intervalNanos = 1000000L;
+            }
+            nowNanos += intervalNanos;
+            int rebuildSize = tuner.onRead(nowNanos, FRAME_NANOS, false);
+            if (rebuildSize > 0) {
+                rebuilds.add(rebuildSize);
+                recordBufferSize = rebuildSize;
+                tuner.begin(framePool, null, 0, recordBufferSize, 1280, 16000, 2, log);
+            }
+        }
+
+        List<BufferTuneDecision> recordDecisions = log.get(BufferTuneDecision.TARGET_RECORD_BUFFER);
+        assertEquals(2, recordDecisions.size());
+        BufferTuneDecision grow = recordDecisions.get(0);
+        assertEquals(BufferTuneDecision.REASON_READ_JITTER, grow.getReason());
+        assertEquals(1280, grow.getOldValue());
+        assertTrue(grow.getNewValue() > 1280);
+        assertTrue(grow.getNewValue() <= audioParams.getMaxAudioBufferSize());
+        // 45 ms of 16-bit mono audio has to fit
+        assertTrue(grow.getNewValue() >= 1440);
+        BufferTuneDecision shrink = recordDecisions.get(1);
+        assertEquals(BufferTuneDecision.REASON_JITTER_SETTLED, shrink.getReason());
+        assertEquals(grow.getNewValue(), shrink.getOldValue());
+        assertEquals(1280, shrink.getNewValue());
+        assertEquals(rebuilds.size(), recordDecisions.size());
+        assertEquals(grow.getNewValue(), (int) rebuilds.get(0));
+        assertEquals(1280, (int) rebuilds.get(1));
+
+        List<BufferTuneDecision> poolDecisions = log.get(BufferTuneDecision.TARGET_FRAME_POOL);
+        assertTrue(!poolDecisions.isEmpty());
+        for (BufferTuneDecision decision : poolDecisions) {
+            assertEquals(BufferTuneDecision.REASON_POOL_IDLE, decision.getReason());
+            assertTrue(decision.getNewValue() < decision.getOldValue());
+            assertTrue(decision.getNewValue() >= audioParams.getMinFrameBufferCount());
+        }
+        assertEquals(framePool.getFrameCount(), poolDecisions.get(poolDecisions.size() - 1).getNewValue());
+    }
+
+    @Test
+    public void steadyReadsChangeNothing() {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setAutoTuneMode(AudioParams.AUTO_TUNE_ON);
+        audioParams.setFrameBufferCount(audioParams.getMinFrameBufferCount());
+        BufferTuner tuner = new BufferTuner(audioParams);
+        FramePool framePool = new FramePool(320, 160, FramePool.BUFFER_HEAP, tuner.getFrameCount(FRAME_NANOS),
+                tuner.getMaxFrameCount(), AudioParams.POOL_POLICY_DROP_NEWEST);
+        DecisionLog log = new DecisionLog();
+        tuner.begin(framePool, null, 0, 1280, 1280, 16000, 2, log);
+        long nowNanos = 1;
+        for (int i = 0; i < 6000; i++) {
+            nowNanos += FRAME_NANOS;
+            assertEquals(0, tuner.onRead(nowNanos, FRAME_NANOS, false));
+        }
+        assertTrue(log.mDecisions.isEmpty());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 16-bit CaptureSource for tests. Sample {@code n} of the stream has the
+ * value {@code (short) n}, so consumers can check that nothing was lost,
+ * repeated or reordered. An unpaced source returns data as fast as it is
+ * read. A paced source produces audio in real time into a record buffer of
+ * the given size, dropping the oldest data when the reader falls behind, as
+ * AudioRecord does; blocking reads wait for the audio they ask for.
+ */
+class FakeCaptureSource implements CaptureSource {
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mBufferFrames;
+    private final boolean mPaced;
+    private long mEndFrames = Long.MAX_VALUE;
+    private boolean mNonBlocking;
+    private long mStartNanos;
+    private long mConsumedFrames;
+    private short mNextSample;
+    private volatile long mOverrunFrames;
+    private volatile long mReadCount;
+
+    FakeCaptureSource(int sampleRate, int channelCount, int bufferSizeInBytes, boolean paced) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBufferFrames = bufferSizeInBytes / (2 * channelCount);
+        mPaced = paced;
+    }
+
+    /**
+     * Ends the stream with {@link #END_OF_STREAM} after this many sample
+     * frames.
+     */
+    void setEndFrames(long endFrames) {
+        mEndFrames = endFrames;
+    }
+
+    /**
+     * Sample frames lost because the reader was too late.
+     */
+    long getOverrunFrames() {
+        return mOverrunFrames;
+    }
+
+    long getReadCount() {
+        return mReadCount;
+    }
+
+    @Override
+    public boolean start() {
+        mStartNanos = System.nanoTime();
+        return true;
+    }
+
+    @Override
+    public boolean setNonBlocking(boolean nonBlocking) {
+        mNonBlocking = nonBlocking;
+        return true;
+    }
+
+    /**
+     * Hook for subclasses, called before every read on the reading thread.
+     */
+    void beforeRead() {
+    }
+
+    private int take(int sizeInSamples) {
+        beforeRead();
+        mReadCount++;
+        if (mConsumedFrames >= mEndFrames) {
+            return END_OF_STREAM;
+        }
+        long wanted = Math.min(sizeInSamples / mChannelCount, mEndFrames - mConsumedFrames);
+        if (!mPaced) {
+            mConsumedFrames += wanted;
+            return (int) wanted * mChannelCount;
+        }
+        while (true) {
+            long dueFrames = (System.nanoTime() - mStartNanos) * mSampleRate / 1000000000L;
+            long available = dueFrames - mConsumedFrames;
+            if (available > mBufferFrames) {
+                mOverrunFrames += available - mBufferFrames;
+                mConsumedFrames += available - mBufferFrames;
+                mNextSample += (available - mBufferFrames) * mChannelCount;
+                available = mBufferFrames;
+            }
+            if (available >= wanted || mNonBlocking) {
+                long frames = Math.min(available, wanted);
+                mConsumedFrames += frames;
+                return (int) frames * mChannelCount;
+            }
+            LockSupport.parkNanos((wanted - available) * 1000000000L / mSampleRate);
+        }
+    }
+
+    @Override
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        int sampleCount = take(sizeInBytes / 2);
+        if (sampleCount < 0) {
+            return sampleCount;
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            short sample = mNextSample++;
+            audioData[offsetInBytes + 2 * i] = (byte) sample;
+            audioData[offsetInBytes + 2 * i + 1] = (byte) (sample >> 8);
+        }
+        return sampleCount * 2;
+    }
+
+    @Override
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        int sampleCount = take(Math.min(sizeInBytes, audioBuffer.capacity()) / 2);
+        if (sampleCount < 0) {
+            return sampleCount;
+        }
+        boolean littleEndian = audioBuffer.order() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0; i < sampleCount; i++) {
+            short sample = mNextSample++;
+            audioBuffer.putShort(2 * i, littleEndian ? sample : Short.reverseBytes(sample));
+        }
+        return sampleCount * 2;
+    }
+
+    @Override
+    public int read(short[] audioData, int offsetInShorts, int sizeInShorts) {
+        int sampleCount = take(sizeInShorts);
+        for (int i = 0; i < sampleCount; i++) {
+            audioData[offsetInShorts + i] = mNextSample++;
+        }
+        return sampleCount;
+    }
+
+    @Override
+    public int read(float[] audioData, int offsetInFloats, int sizeInFloats) {
+        return ERROR_INVALID_OPERATION;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public long getTimestampBaseNanos() {
+        return mStartNanos;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
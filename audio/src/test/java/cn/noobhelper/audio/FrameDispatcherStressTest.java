@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a real-time source against a consumer three times slower than
+ * capture. The source's record buffer holds 80 ms; any time the capture
+ * thread is kept from reading for longer than that shows up as overrun
+ * sample frames.
+ */
+public class FrameDispatcherStressTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SIZE = 320; // 10 ms
+    private static final long CONSUMER_NANOS = 30000000L;
+    private static final long RUN_MILLIS = 2000;
+
+    private static AudioEngine runWithSlowConsumer(FakeCaptureSource source, int dispatchMode)
+            throws InterruptedException {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(SAMPLE_RATE);
+        audioParams.setFrameSize(FRAME_SIZE);
+        audioParams.setDispatchMode(dispatchMode);
+
+        final AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(source);
+        audioEngine.setAudioCallback(new AudioCallback() {
+            @Override
+            public void onAudioSetup(boolean result) {
+            }
+
+            @Override
+            public void onAudioStart(boolean result) {
+            }
+
+            @Override
+            public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+                LockSupport.parkNanos(CONSUMER_NANOS);
+            }
+
+            @Override
+            public void onAudioStop(boolean result) {
+            }
+
+            @Override
+            public void onAudioRelease() {
+            }
+        });
+        audioEngine.setupAudioEngine(audioParams);
+        Thread captureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                audioEngine.startAudioEngine();
+            }
+        });
+        captureThread.start();
+        Thread.sleep(RUN_MILLIS);
+        audioEngine.stopAudioEngine();
+        captureThread.join(5000);
+        assertTrue(!captureThread.isAlive());
+        return audioEngine;
+    }
+
+    @Test
+    public void asyncDispatchNeverStallsCapture() throws InterruptedException {
+        FakeCaptureSource source = new FakeCaptureSource(SAMPLE_RATE, 1, FRAME_SIZE * 8, true);
+        AudioEngine audioEngine = runWithSlowConsumer(source, AudioParams.DISPATCH_MODE_ASYNC);
+        AudioStats stats = audioEngine.getStats();
+        FrameDispatcher dispatcher = audioEngine.getFrameDispatcher();
+        audioEngine.releaseAudioEngine();
+
+        assertEquals(0, source.getOverrunFrames());
+        // the consumer really was too slow: frames were shed instead of blocking capture
+        assertTrue(stats.getFramesCaptured() > RUN_MILLIS / 10 / 2);
+        assertTrue(dispatcher.getOverrunCount() + stats.getFramesDropped() > 0);
+        assertTrue(dispatcher.getDispatchedCount() < stats.getFramesCaptured());
+    }
+
+    @Test
+    public void inlineDispatchStallsCapture() throws InterruptedException {
+        FakeCaptureSource source = new FakeCaptureSource(SAMPLE_RATE, 1, FRAME_SIZE * 8, true);
+        AudioEngine audioEngine = runWithSlowConsumer(source, AudioParams.DISPATCH_MODE_INLINE);
+        audioEngine.releaseAudioEngine();
+
+        assertTrue(source.getOverrunFrames() > 0);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paced {@link FakeCaptureSource} on a busy device: before some reads the
+ * calling thread is stalled for a random time, as if it had been
+ * descheduled.
+ */
+class JitterCaptureSource extends FakeCaptureSource {
+    private final double mStallProbability;
+    private final Random mRandom;
+    private volatile long mMaxStallNanos;
+
+    JitterCaptureSource(int sampleRate, int channelCount, int bufferSizeInBytes, long maxStallNanos,
+                        double stallProbability, long seed) {
+        super(sampleRate, channelCount, bufferSizeInBytes, true);
+        mMaxStallNanos = maxStallNanos;
+        mStallProbability = stallProbability;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Changes the longest stall from now on, e.g. to let the device calm
+     * down.
+     */
+    void setMaxStallNanos(long maxStallNanos) {
+        mMaxStallNanos = maxStallNanos;
+    }
+
+    @Override
+    void beforeRead() {
+        long maxStallNanos = mMaxStallNanos;
+        if (maxStallNanos > 0 && mRandom.nextDouble() < mStallProbability) {
+            LockSupport.parkNanos((long) (mRandom.nextDouble() * maxStallNanos));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.media.AudioFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes frames into a file-backed ring and reads them in child JVMs, the
+ * way a recognizer process would. Frame {@code k} holds the samples
+ * {@code (short) (k * 320 + i)} and starts at {@code k * FRAME_NANOS}, so a
+ * reader can tell a torn or misplaced frame from a good one.
+ */
+public class SharedFrameRingTest {
+    private static final long FRAME_NANOS = 20000000L;
+    private static final int FRAME_SAMPLES = 320;
+    private static final int FRAME_COUNT = 3000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static AudioParams params() {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(16000);
+        audioParams.setChannelConfig(AudioFormat.CHANNEL_IN_MONO);
+        audioParams.setAudioFormat(AudioFormat.ENCODING_PCM_16BIT);
+        audioParams.setFrameDurationMs(20);
+        return audioParams;
+    }
+
+    private static Process startReader(File file, long workMicros) throws IOException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                SharedFrameRingTest.class.getName(), file.getPath(), Long.toString(workMicros))
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    /**
+     * Skips the reader's output up to the first line starting with
+     * {@code prefix} and returns that line.
+     */
+    private static String readLine(BufferedReader output, String prefix) throws IOException {
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        throw new IOException("Reader exited without " + prefix);
+    }
+
+    private static long field(String result, String name) {
+        for (String part : result.split(" ")) {
+            if (part.startsWith(name + "=")) {
+                return Long.parseLong(part.substring(name.length() + 1));
+            }
+        }
+        throw new IllegalArgumentException(name + " not in " + result);
+    }
+
+    @Test
+    public void framesCrossToReaderProcesses() throws Exception {
+        File file = mFolder.newFile("ring.shm");
+        SharedFrameRing ring = SharedFrameRing.create(file, params(), 64);
+        Process fastReader = startReader(file, 0);
+        Process slowReader = startReader(file, 3000);
+        BufferedReader fastOutput = new BufferedReader(new InputStreamReader(fastReader.getInputStream()));
+        BufferedReader slowOutput = new BufferedReader(new InputStreamReader(slowReader.getInputStream()));
+        readLine(fastOutput, "ready");
+        readLine(slowOutput, "ready");
+
+        FramePool framePool = new FramePool(FRAME_SAMPLES * 2, FRAME_SAMPLES, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+        AudioFrame frame = framePool.lease();
+        for (int k = 0; k < FRAME_COUNT; k++) {
+            ByteBuffer buffer = frame.getBuffer();
+            buffer.clear();
+            for (int i = 0; i < FRAME_SAMPLES; i++) {
+                buffer.putShort((short) (k * FRAME_SAMPLES + i));
+            }
+            buffer.flip();
+            frame.set(FRAME_SAMPLES * 2, FRAME_SAMPLES, (k + 1) * FRAME_NANOS, k, 0);
+            ring.onAudioFrameAvailable(frame);
+            // about a frame a millisecond: the fast reader keeps up, the slow one cannot
+            Thread.sleep(1);
+        }
+        ring.close();
+        frame.release();
+        String fast = readLine(fastOutput, "ok=");
+        String slow = readLine(slowOutput, "ok=");
+        assertEquals(0, fastReader.waitFor());
+        assertEquals(0, slowReader.waitFor());
+
+        assertEquals(FRAME_COUNT, ring.getPublishedCount());
+        assertEquals(fast, FRAME_COUNT, field(fast, "ok"));
+        assertEquals(fast, 0, field(fast, "lost"));
+        assertEquals(fast, FRAME_COUNT - 1, field(fast, "last"));
+        // the slow reader skips ahead, but never sees a torn or reordered frame
+        assertTrue(slow, field(slow, "lost") > 0);
+        assertTrue(slow, field(slow, "ok") > 0);
+        assertEquals(slow, FRAME_COUNT - 1, field(slow, "last"));
+        for (String result : new String[]{fast, slow}) {
+            assertEquals(result, 0, field(result, "torn"));
+            assertEquals(result, 0, field(result, "reordered"));
+            assertEquals(result, 1, field(result, "closed"));
+        }
+    }
+
+    @Test
+    public void readerOfARecreatedRingIsStale() throws IOException {
+        File file = mFolder.newFile("ring.shm");
+        SharedFrameRing oldRing = SharedFrameRing.create(file, params(), 4);
+        SharedFrameReader reader = SharedFrameReader.open(file);
+        assertFalse(reader.isStale());
+        SharedFrameRing newRing = SharedFrameRing.create(file, params(), 8);
+
+        assertTrue(reader.isStale());
+        assertFalse(reader.next());
+        reader.close();
+        newRing.close();
+        oldRing.close();
+    }
+
+    /**
+     * Reader process: {@code <ring file> <busy micros per frame>}. Prints
+     * "ready" once the ring is mapped and one result line when the writer
+     * has closed it.
+     */
+    public static void main(String[] args) throws IOException {
+        SharedFrameReader reader = SharedFrameReader.open(new File(args[0]));
+        long workMicros = Long.parseLong(args[1]);
+        System.out.println("ready");
+        System.out.flush();
+        long ok = 0;
+        long torn = 0;
+        long reordered = 0;
+        long last = -1;
+        while (reader.waitForNext(5000)) {
+            ByteBuffer buffer = reader.getBuffer();
+            long k = reader.getTimestampNanos() / FRAME_NANOS;
+            boolean good = buffer.remaining() == FRAME_SAMPLES * 2;
+            for (int i = 0; i < FRAME_SAMPLES && good; i++) {
+                good = buffer.getShort(i * 2) == (short) (k * FRAME_SAMPLES + i);
+            }
+            long busyUntilNanos = System.nanoTime() + workMicros * 1000;
+            while (System.nanoTime() < busyUntilNanos) {
+                // a consumer doing real work on the frame
+            }
+            if (!reader.isValid()) {
+                // overwritten while in use, counted as lost by the next call
+                continue;
+            }
+            if (good) {
+                ok++;
+            } else {
+                torn++;
+            }
+            if (k <= last) {
+                reordered++;
+            }
+            last = k;
+        }
+        System.out.println("ok=" + ok + " torn=" + torn + " reordered=" + reordered + " lost=" + reader.getLostCount()
+                + " last=" + last + " closed=" + (reader.isWriterClosed() ? 1 : 0));
+        reader.close();
+    }
+}
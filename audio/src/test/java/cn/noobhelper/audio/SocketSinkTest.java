@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SocketSinkTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final long SAMPLE_NANOS = 1000000000L / SAMPLE_RATE;
+
+    /**
+     * Accepts connections on a loopback port and checks the stream: a valid
+     * header on every connection, then packets whose samples continue the
+     * {@link FakeCaptureSource} ramp and whose timestamps match their first
+     * sample.
+     */
+    private static final class LoopbackServer implements Runnable {
+        final ServerSocket mServerSocket;
+        final Thread mThread;
+        final List<Integer> mPacketSizes = new ArrayList<>();
+        volatile Socket mSocket;
+        int mConnectionCount;
+        int mBadHeaderCount;
+        int mLastSequence = -1;
+        int mSequenceGaps;
+        long mSampleCount;
+        long mBadSampleCount;
+        long mBadTimestampCount;
+        long mFirstTimestampNanos = -1;
+
+        LoopbackServer(int port) throws IOException {
+            mServerSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+            mThread = new Thread(this);
+            mThread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), mServerSocket.getLocalPort());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServerSocket.accept();
+                    mSocket = socket;
+                    try {
+                        readStream(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                    } catch (IOException e) {
+                        // the sink closed the connection
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                // closed by the test
+            }
+        }
+
+        private void readStream(DataInputStream in) throws IOException {
+            synchronized (this) {
+                mConnectionCount++;
+            }
+            boolean headerOk = in.readInt() == SocketSink.STREAM_MAGIC && in.readInt() == SAMPLE_RATE
+                    && in.readShort() == 1 && in.readShort() == 16 && in.readInt() == 2;
+            synchronized (this) {
+                if (!headerOk) {
+                    mBadHeaderCount++;
+                }
+            }
+            while (true) {
+                int length = in.readInt();
+                int sequence = in.readInt();
+                long timestampNanos = in.readLong();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                synchronized (this) {
+                    onPacket(sequence, timestampNanos, payload);
+                }
+            }
+        }
+
+        private void onPacket(int sequence, long timestampNanos, byte[] payload) {
+            if (sequence <= mLastSequence) {
+                // resent after a reconnect
+                return;
+            }
+            if (sequence != mLastSequence + 1) {
+                mSequenceGaps++;
+            }
+            mLastSequence = sequence;
+            mPacketSizes.add(payload.length);
+            ByteBuffer samples = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+            short first = samples.getShort(0);
+            if (mFirstTimestampNanos < 0) {
+                mFirstTimestampNanos = timestampNanos - (first & 0xFFFF) * SAMPLE_NANOS;
+            }
+            // the ramp wraps every 65536 samples; the tests stay below that
+            if (timestampNanos - mFirstTimestampNanos != (first & 0xFFFF) * SAMPLE_NANOS) {
+                mBadTimestampCount++;
+            }
+            for (int i = 0; i < payload.length; i += 2) {
+                if (samples.getShort(i) != (short) (first + i / 2)) {
+                    mBadSampleCount++;
+                }
+            }
+            if (mSequenceGaps == 0 && first != (short) mSampleCount) {
+                mBadSampleCount++;
+            }
+            mSampleCount += payload.length / 2;
+        }
+
+        /**
+         * Drops the current connection, as a network failure would.
+         */
+        void disconnect() throws IOException {
+            mSocket.close();
+        }
+
+        void close() throws IOException, InterruptedException {
+            mServerSocket.close();
+            mThread.join(5000);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static AudioParams params() {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(SAMPLE_RATE);
+        audioParams.setFrameDurationMs(20);
+        return audioParams;
+    }
+
+    /**
+     * Feeds {@code frameCount} 20 ms ramp frames straight into the sink and
+     * returns the longest call.
+     */
+    private static long feed(SocketSink sink, FramePool framePool, int firstFrame, int frameCount,
+                             long sleepMillis) throws InterruptedException {
+        long maxCallNanos = 0;
+        AudioFrame frame = framePool.lease();
+        for (int f = firstFrame; f < firstFrame + frameCount; f++) {
+            ByteBuffer buffer = frame.getBuffer();
+            buffer.clear();
+            for (int i = 0; i < 320; i++) {
+                buffer.putShort((short) (f * 320 + i));
+            }
+            buffer.flip();
+            frame.set(640, 320, (f + 1) * 320 * SAMPLE_NANOS, f, 0);
+            long startNanos = System.nanoTime();
+            sink.onAudioFrameAvailable(frame);
+            maxCallNanos = Math.max(maxCallNanos, System.nanoTime() - startNanos);
+            if (sleepMillis > 0) {
+                Thread.sleep(sleepMillis);
+            }
+        }
+        frame.release();
+        return maxCallNanos;
+    }
+
+    @Test
+    public void engineStreamsToLoopbackServer() throws Exception {
+        LoopbackServer server = new LoopbackServer(0);
+        AudioParams audioParams = params();
+        SocketSink sink = new SocketSink(server.getAddress(), audioParams, 60, 64);
+        sink.start();
+
+        // one second of audio in real time, then the source ends the stream
+        FakeCaptureSource source = new FakeCaptureSource(SAMPLE_RATE, 1, SAMPLE_RATE * 2, true);
+        source.setEndFrames(SAMPLE_RATE);
+        AudioEngine audioEngine = new AudioEngine();
+        audioEngine.setCaptureSource(source);
+        audioEngine.setupAudioEngine(audioParams);
+        audioEngine.getFrameFanOut().add(sink, null, FrameSubscription.DELIVERY_LOSSLESS, 0);
+        audioEngine.startAudioEngine();
+        audioEngine.releaseAudioEngine();
+        sink.stop();
+        Thread.sleep(200);
+        server.close();
+
+        synchronized (server) {
+            assertEquals(1, server.mConnectionCount);
+            assertEquals(0, server.mBadHeaderCount);
+            assertEquals(0, server.mSequenceGaps);
+            assertEquals(SAMPLE_RATE, server.mSampleCount);
+            assertEquals(0, server.mBadSampleCount);
+            assertEquals(0, server.mBadTimestampCount);
+            // 20 ms frames coalesced into 60 ms packets
+            for (int i = 0; i < server.mPacketSizes.size() - 1; i++) {
+                assertEquals(1920, (int) server.mPacketSizes.get(i));
+            }
+        }
+        assertEquals(SAMPLE_RATE * 2, sink.getSentBytes());
+        assertEquals(0, sink.getDroppedBytes());
+    }
+
+    @Test
+    public void reconnectsWithoutBlockingTheDeliveringThread() throws Exception {
+        int port = freePort();
+        AudioParams audioParams = params();
+        SocketSink sink = new SocketSink(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                audioParams, 40, 256);
+        sink.start();
+        FramePool framePool = new FramePool(640, 320, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+
+        // nobody listens yet: packets wait in the spill queue
+        long maxCallNanos = feed(sink, framePool, 0, 50, 2);
+        LoopbackServer server = new LoopbackServer(port);
+        maxCallNanos = Math.max(maxCallNanos, feed(sink, framePool, 50, 50, 2));
+        Thread.sleep(300);
+        synchronized (server) {
+            assertEquals(1, server.mConnectionCount);
+            assertEquals(0, server.mSequenceGaps);
+            assertEquals(100 * 320, server.mSampleCount);
+        }
+        assertEquals(0, sink.getDroppedBytes());
+
+        server.disconnect();
+        maxCallNanos = Math.max(maxCallNanos, feed(sink, framePool, 100, 50, 2));
+        Thread.sleep(500);
+        sink.stop();
+        Thread.sleep(200);
+        server.close();
+
+        synchronized (server) {
+            assertEquals(2, server.mConnectionCount);
+            assertEquals(0, server.mBadHeaderCount);
+            // packets in flight when the connection broke may be lost, the rest arrive
+            assertTrue(server.mSampleCount > 140 * 320);
+            assertEquals(0, server.mBadSampleCount);
+            assertEquals(0, server.mBadTimestampCount);
+        }
+        assertEquals(1, sink.getReconnectCount());
+        assertTrue("a frame took " + maxCallNanos / 1000000 + " ms", maxCallNanos < 20000000L);
+    }
+
+    @Test
+    public void fullSpillQueueDropsOldestPackets() throws Exception {
+        int port = freePort();
+        // no latency budget: one packet per frame
+        SocketSink sink = new SocketSink(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                params(), 0, 4);
+        sink.start();
+        FramePool framePool = new FramePool(640, 320, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+        long maxCallNanos = feed(sink, framePool, 0, 20, 0);
+
+        assertEquals(4, sink.getQueuedPackets());
+        assertEquals(16, sink.getDroppedPackets());
+        assertEquals(16 * 640, sink.getDroppedBytes());
+        assertTrue("a frame took " + maxCallNanos / 1000000 + " ms", maxCallNanos < 20000000L);
+
+        // the kept packets are the newest ones and go out once a server is up
+        LoopbackServer server = new LoopbackServer(port);
+        Thread.sleep(500);
+        sink.stop();
+        Thread.sleep(200);
+        server.close();
+        synchronized (server) {
+            assertEquals(4 * 320, server.mSampleCount);
+            assertEquals(0, server.mBadSampleCount);
+            assertEquals(0, server.mBadTimestampCount);
+        }
+        assertEquals(4 * 640, sink.getSentBytes());
+    }
+}
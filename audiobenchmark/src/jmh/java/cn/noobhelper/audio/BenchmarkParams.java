@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import android.media.AudioFormat;
+
+final class BenchmarkParams {
+    private BenchmarkParams() {
+    }
+
+    /**
+     * 16-bit PCM params whose frames hold {@code frameMs} of audio.
+     */
+    static AudioParams create(int sampleRate, int channelCount, int frameMs) {
+        AudioParams audioParams = new AudioParams();
+        audioParams.setSampleRate(sampleRate);
+        audioParams.setChannelConfig(channelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO);
+        audioParams.setAudioFormat(AudioFormat.ENCODING_PCM_16BIT);
+        audioParams.setFrameDurationMs(frameMs);
+        return audioParams;
+    }
+
+    static AudioEngine createEngine(AudioParams audioParams, AudioCallback audioCallback, int framesPerRun) {
+        return createEngine(audioParams, audioCallback, framesPerRun, new FrameFanOut());
+    }
+
+    static AudioEngine createEngine(AudioParams audioParams, AudioCallback audioCallback, int framesPerRun,
+                                    FrameFanOut frameFanOut) {
+        SyntheticCaptureSource source = new SyntheticCaptureSource(audioParams.getSampleRate(),
+                audioParams.getChannelConfig() == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1, framesPerRun);
+        AudioEngine audioEngine = new AudioEngine(frameFanOut);
+        source.attach(audioEngine);
+        audioEngine.setCaptureSource(source);
+        audioEngine.setAudioCallback(audioCallback);
+        audioEngine.setupAudioEngine(audioParams);
+        return audioEngine;
+    }
+}
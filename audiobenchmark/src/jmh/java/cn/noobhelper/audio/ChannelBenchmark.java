@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Channel handling over one interleaved 16-bit frame per call. Downmix
+ * compares {@link ChannelMixer} working in place against a mono copy
+ * allocated per frame; split compares {@link ChannelSplitter}'s single
+ * pass into a pooled {@link PlanarFrame} against one strided pass and one
+ * new array per channel, the way consumers did it in their callbacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChannelBenchmark {
+    // samples per channel
+    @Param({"320", "960"})
+    int frameSamples;
+
+    @Param({"2", "4"})
+    int channelCount;
+
+    private short[] mInput;
+    private short[] mFrame;
+    private AudioFrame mAudioFrame;
+    private ChannelMixer mChannelMixer;
+    private ChannelSplitter mChannelSplitter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int sampleCount = frameSamples * channelCount;
+        Random random = new Random(42);
+        mInput = new short[sampleCount];
+        mFrame = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            mInput[i] = (short) (random.nextGaussian() * 3000);
+        }
+        mChannelMixer = new ChannelMixer(AudioParams.CHANNEL_MIX_DOWNMIX, channelCount, 0);
+        mChannelSplitter = new ChannelSplitter(channelCount, FramePool.BUFFER_SHORT, 2, frameSamples);
+        FramePool framePool = new FramePool(sampleCount * 2, sampleCount, FramePool.BUFFER_SHORT, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+        mAudioFrame = framePool.lease();
+        System.arraycopy(mInput, 0, mAudioFrame.getShortSamples(), 0, sampleCount);
+        mAudioFrame.set(sampleCount * 2, sampleCount, 0, 0, 0);
+    }
+
+    @Benchmark
+    public short[] downmixInPlace() {
+        System.arraycopy(mInput, 0, mFrame, 0, mFrame.length);
+        mChannelMixer.process(mFrame, 0, mFrame.length);
+        return mFrame;
+    }
+
+    @Benchmark
+    public short[] downmixCopy() {
+        short[] mono = new short[frameSamples];
+        for (int i = 0; i < frameSamples; i++) {
+            int sum = 0;
+            for (int c = 0; c < channelCount; c++) {
+                sum += mInput[i * channelCount + c];
+            }
+            mono[i] = (short) (sum / channelCount);
+        }
+        return mono;
+    }
+
+    @Benchmark
+    public int splitPooled() {
+        PlanarFrame planarFrame = mChannelSplitter.split(mAudioFrame);
+        int sample = planarFrame.getShortSamples()[frameSamples];
+        planarFrame.release();
+        return sample;
+    }
+
+    @Benchmark
+    public short[][] splitPerChannel() {
+        short[][] channels = new short[channelCount][];
+        for (int c = 0; c < channelCount; c++) {
+            short[] channel = new short[frameSamples];
+            for (int i = 0, p = c; i < frameSamples; i++, p += channelCount) {
+                channel[i] = mInput[p];
+            }
+            channels[c] = channel;
+        }
+        return channels;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encode and decode time of one 20 ms mono frame of a voice-like signal (two
+ * tones plus noise). Dividing 20 ms by the score gives the real-time factor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+    @Param({"320", "960"})
+    int sampleCount;
+
+    private short[] mSamples;
+    private short[] mDecoded;
+    private ByteBuffer mPacket;
+    private ByteBuffer mImaPacket;
+    private ByteBuffer mLosslessPacket;
+    private ImaAdpcmEncoder mImaEncoder;
+    private ImaAdpcmDecoder mImaDecoder;
+    private LosslessEncoder mLosslessEncoder;
+    private LosslessDecoder mLosslessDecoder;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mSamples = new short[sampleCount];
+        mDecoded = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            mSamples[i] = (short) (6000 * Math.sin(i * 0.07) + 2500 * Math.sin(i * 0.31)
+                    + random.nextGaussian() * 200);
+        }
+        mImaEncoder = new ImaAdpcmEncoder(1);
+        mImaDecoder = new ImaAdpcmDecoder(1);
+        mLosslessEncoder = new LosslessEncoder(1, sampleCount);
+        mLosslessDecoder = new LosslessDecoder(1);
+        mPacket = ByteBuffer.allocateDirect(mLosslessEncoder.getMaxPacketSize(sampleCount))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        mImaPacket = encode(mImaEncoder);
+        mLosslessPacket = encode(mLosslessEncoder);
+    }
+
+    private ByteBuffer encode(AudioEncoder encoder) {
+        ByteBuffer packet = ByteBuffer.allocateDirect(encoder.getMaxPacketSize(sampleCount));
+        encoder.encode(mSamples, 0, sampleCount, packet);
+        packet.flip();
+        return packet;
+    }
+
+    @Benchmark
+    public int imaAdpcmEncode() {
+        mPacket.clear();
+        return mImaEncoder.encode(mSamples, 0, sampleCount, mPacket);
+    }
+
+    @Benchmark
+    public short[] imaAdpcmDecode() {
+        mImaPacket.rewind();
+        mImaDecoder.decode(mImaPacket, mDecoded, 0);
+        return mDecoded;
+    }
+
+    @Benchmark
+    public int losslessEncode() {
+        mPacket.clear();
+        return mLosslessEncoder.encode(mSamples, 0, sampleCount, mPacket);
+    }
+
+    @Benchmark
+    public short[] losslessDecode() {
+        mLosslessPacket.rewind();
+        mLosslessDecoder.decode(mLosslessPacket, mDecoded, 0);
+        return mDecoded;
+    }
+}
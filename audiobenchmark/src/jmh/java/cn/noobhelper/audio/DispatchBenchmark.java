@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Capture-thread cost of handing a 48 kHz mono frame to its consumers: inline
+ * callback vs the async dispatch ring, with extra subscribers that run either
+ * inline or on their own executor. Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(DispatchBenchmark.FRAMES_PER_RUN)
+public class DispatchBenchmark {
+    static final int FRAMES_PER_RUN = 500;
+
+    @Param({"INLINE", "ASYNC"})
+    String dispatch;
+
+    @Param({"0", "1", "4"})
+    int subscriberCount;
+
+    @Param({"INLINE", "EXECUTOR"})
+    String subscriberMode;
+
+    private AudioEngine mAudioEngine;
+    private FrameFanOut mFrameFanOut;
+    private final List<ExecutorService> mExecutors = new ArrayList<>();
+    private final FrameLoopBenchmark.ChecksumCallback mCallback = new FrameLoopBenchmark.ChecksumCallback();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AudioParams audioParams = BenchmarkParams.create(48000, 1, 20);
+        if ("ASYNC".equals(dispatch)) {
+            audioParams.setDispatchMode(AudioParams.DISPATCH_MODE_ASYNC);
+        }
+        mFrameFanOut = new FrameFanOut();
+        for (int i = 0; i < subscriberCount; i++) {
+            ExecutorService executor = null;
+            if ("EXECUTOR".equals(subscriberMode)) {
+                executor = Executors.newSingleThreadExecutor();
+                mExecutors.add(executor);
+            }
+            mFrameFanOut.add(new AudioFrameCallback() {
+                @Override
+                public void onAudioFrameAvailable(AudioFrame frame) {
+                    ByteBuffer buffer = frame.getBuffer();
+                    buffer.get(frame.getLength() - 1);
+                }
+            }, executor, FrameSubscription.DELIVERY_LOSSY, 4);
+        }
+        mAudioEngine = BenchmarkParams.createEngine(audioParams, mCallback, FRAMES_PER_RUN, mFrameFanOut);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ExecutorService executor : mExecutors) {
+            executor.shutdownNow();
+        }
+        mAudioEngine.releaseAudioEngine();
+    }
+
+    @Benchmark
+    public long dispatchLoop() {
+        mAudioEngine.startAudioEngine();
+        return mCallback.mChecksum;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Features of one 10 ms, 16 kHz mono 16-bit frame per call with a 512 point
+ * window and a 160 sample hop, so one window per frame: {@link FeatureExtractor}
+ * against what consumers did in their callbacks, converting the ByteBuffer,
+ * allocating the window, a complex FFT with twiddles computed on the fly and
+ * the mel filterbank and DCT rebuilt for every window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeatureExtractorBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_SAMPLES = 160;
+    private static final int FFT_SIZE = 512;
+    private static final int MEL_BANDS = 40;
+    private static final int MFCC_COUNT = 13;
+
+    @Param({"1", "2", "3"})
+    int featureType;
+
+    private FramePool mFramePool;
+    private AudioFrame mFrame;
+    private FeatureExtractor mFeatureExtractor;
+    private NaiveFeatures mNaiveFeatures;
+    private FeatureCallback mFeatureCallback;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        mFeatureCallback = new FeatureCallback() {
+            @Override
+            public void onFeatures(float[] features, int featureCount, long timestampNanos) {
+                blackhole.consume(features);
+            }
+        };
+        mFramePool = new FramePool(FRAME_SAMPLES * 2, FRAME_SAMPLES, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_GROW);
+        mFrame = mFramePool.lease();
+        ByteBuffer buffer = mFrame.getBuffer();
+        Random random = new Random(42);
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            buffer.putShort(i * 2, (short) (random.nextGaussian() * 3000));
+        }
+        mFrame.set(FRAME_SAMPLES * 2, FRAME_SAMPLES, 0, 0, 0);
+        mFeatureExtractor = new FeatureExtractor(featureType, SAMPLE_RATE, 1, FFT_SIZE, FRAME_SAMPLES,
+                MEL_BANDS, MFCC_COUNT);
+        mNaiveFeatures = new NaiveFeatures(featureType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFrame.release();
+    }
+
+    @Benchmark
+    public void extractor() {
+        mFeatureExtractor.process(mFrame, 2, mFeatureCallback);
+    }
+
+    @Benchmark
+    public double[] naive() {
+        return mNaiveFeatures.process(mFrame.getBuffer(), mFrame.getLength());
+    }
+
+    /**
+     * The per-callback implementation the built-in stage replaces.
+     */
+    static final class NaiveFeatures {
+        private final int mFeatureType;
+        private double[] mHistory = new double[0];
+
+        NaiveFeatures(int featureType) {
+            mFeatureType = featureType;
+        }
+
+        double[] process(ByteBuffer buffer, int length) {
+            ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            double[] samples = new double[length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = data.getShort(i * 2) / 32768.0;
+            }
+            double[] history = new double[mHistory.length + samples.length];
+            System.arraycopy(mHistory, 0, history, 0, mHistory.length);
+            System.arraycopy(samples, 0, history, mHistory.length, samples.length);
+            double[] result = null;
+            while (history.length >= FFT_SIZE) {
+                result = analyze(history);
+                double[] rest = new double[history.length - FRAME_SAMPLES];
+                System.arraycopy(history, FRAME_SAMPLES, rest, 0, rest.length);
+                history = rest;
+            }
+            mHistory = history;
+            return result;
+        }
+
+        private double[] analyze(double[] history) {
+            double[] re = new double[FFT_SIZE];
+            double[] im = new double[FFT_SIZE];
+            for (int i = 0; i < FFT_SIZE; i++) {
+                double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE);
+                re[i] = history[i] * window;
+            }
+            fft(re, im);
+            double[] power = new double[FFT_SIZE / 2 + 1];
+            for (int k = 0; k < power.length; k++) {
+                power[k] = re[k] * re[k] + im[k] * im[k];
+            }
+            if (mFeatureType == AudioParams.FEATURE_SPECTRUM) {
+                return power;
+            }
+            double[][] filterbank = melFilterbank();
+            double[] mel = new double[MEL_BANDS];
+            for (int b = 0; b < MEL_BANDS; b++) {
+                double energy = 0;
+                for (int k = 0; k < power.length; k++) {
+                    energy += filterbank[b][k] * power[k];
+                }
+                mel[b] = Math.log(Math.max(energy, 1e-10));
+            }
+            if (mFeatureType == AudioParams.FEATURE_LOG_MEL) {
+                return mel;
+            }
+            double[] mfcc = new double[MFCC_COUNT];
+            for (int k = 0; k < MFCC_COUNT; k++) {
+                double scale = Math.sqrt((k == 0 ? 1.0 : 2.0) / MEL_BANDS);
+                for (int b = 0; b < MEL_BANDS; b++) {
+                    mfcc[k] += scale * Math.cos(Math.PI * k * (b + 0.5) / MEL_BANDS) * mel[b];
+                }
+            }
+            return mfcc;
+        }
+
+        private static void fft(double[] re, double[] im) {
+            int n = re.length;
+            for (int i = 1, j = 0; i < n; i++) {
+                int bit = n >> 1;
+                for (; (j & bit) != 0; bit >>= 1) {
+                    j ^= bit;
+                }
+                j ^= bit;
+                if (i < j) {
+                    double t = re[i];
+                    re[i] = re[j];
+                    re[j] = t;
+                    t = im[i];
+                    im[i] = im[j];
+                    im[j] = t;
+                }
+            }
+            for (int size = 2; size <= n; size <<= 1) {
+                for (int i = 0; i < n; i += size) {
+                    for (int j = 0; j < size / 2; j++) {
+                        double angle = -2 * Math.PI * j / size;
+                        double wr = Math.cos(angle);
+                        double wi = Math.sin(angle);
+                        int a = i + j;
+                        int b = a + size / 2;
+                        double tr = wr * re[b] - wi * im[b];
+                        double ti = wr * im[b] + wi * re[b];
+                        re[b] = re[a] - tr;
+                        im[b] = im[a] - ti;
+                        re[a] += tr;
+                        im[a] += ti;
+                    }
+                }
+            }
+        }
+
+        private static double[][] melFilterbank() {
+            double melMin = 2595 * Math.log10(1 + 20 / 700.0);
+            double melMax = 2595 * Math.log10(1 + SAMPLE_RATE / 2 / 700.0);
+            double[][] filterbank = new double[MEL_BANDS][FFT_SIZE / 2 + 1];
+            for (int b = 0; b < MEL_BANDS; b++) {
+                double lower = 700 * (Math.pow(10, (melMin + (melMax - melMin) * b / (MEL_BANDS + 1)) / 2595) - 1);
+                double center = 700 * (Math.pow(10, (melMin + (melMax - melMin) * (b + 1) / (MEL_BANDS + 1)) / 2595) - 1);
+                double upper = 700 * (Math.pow(10, (melMin + (melMax - melMin) * (b + 2) / (MEL_BANDS + 1)) / 2595) - 1);
+                for (int k = 0; k <= FFT_SIZE / 2; k++) {
+                    double hz = (double) k * SAMPLE_RATE / FFT_SIZE;
+                    double weight = hz <= center ? (hz - lower) / (center - lower) : (upper - hz) / (upper - center);
+                    filterbank[b][k] = Math.max(0, weight);
+                }
+            }
+            return filterbank;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost per 5 ms frame of 48 kHz stereo short[] capture delivered inline one
+ * frame per callback or batched, with a consumer that pays a fixed cost per
+ * callback on top of touching every sample. Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(FrameBatchBenchmark.FRAMES_PER_RUN)
+public class FrameBatchBenchmark {
+    static final int FRAMES_PER_RUN = 960;
+
+    @Param({"1", "4", "16"})
+    int batchFrameCount;
+
+    private AudioEngine mAudioEngine;
+    private final SumCallback mCallback = new SumCallback();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AudioParams audioParams = BenchmarkParams.create(48000, 2, 5);
+        audioParams.setSampleType(AudioParams.SAMPLE_TYPE_SHORT);
+        audioParams.setBatchFrameCount(batchFrameCount);
+        mAudioEngine = BenchmarkParams.createEngine(audioParams, mCallback, FRAMES_PER_RUN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mAudioEngine.releaseAudioEngine();
+    }
+
+    @Benchmark
+    public long captureLoop() {
+        mAudioEngine.startAudioEngine();
+        return mCallback.mSum;
+    }
+
+    static class SumCallback extends FrameLoopBenchmark.ChecksumCallback {
+        long mSum;
+
+        @Override
+        public void onShortFrameAvailable(short[] samples, int sampleCount, long timestampNanos) {
+            // stands in for per-callback work such as a lock, a message or a JNI hop
+            long deadline = System.nanoTime() + 2000;
+            while (System.nanoTime() < deadline) {
+                mSum++;
+            }
+            for (int i = 0; i < sampleCount; i++) {
+                mSum += samples[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of one pass through the engine's read loop per 20 ms frame, for each
+ * way a frame can be captured: heap copy, direct buffer, short[] and float[]
+ * (converted from 16-bit). Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(FrameLoopBenchmark.FRAMES_PER_RUN)
+public class FrameLoopBenchmark {
+    static final int FRAMES_PER_RUN = 500;
+
+    @Param({"16000", "44100", "48000"})
+    int sampleRate;
+
+    @Param({"1", "2"})
+    int channelCount;
+
+    @Param({"HEAP", "DIRECT", "SHORT", "FLOAT"})
+    String pipeline;
+
+    private AudioEngine mAudioEngine;
+    private final ChecksumCallback mCallback = new ChecksumCallback();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        AudioParams audioParams = BenchmarkParams.create(sampleRate, channelCount, 20);
+        if ("DIRECT".equals(pipeline)) {
+            audioParams.setCaptureMode(AudioParams.CAPTURE_MODE_DIRECT);
+        } else if ("SHORT".equals(pipeline)) {
+            audioParams.setSampleType(AudioParams.SAMPLE_TYPE_SHORT);
+        } else if ("FLOAT".equals(pipeline)) {
+            audioParams.setSampleType(AudioParams.SAMPLE_TYPE_FLOAT);
+        }
+        mAudioEngine = BenchmarkParams.createEngine(audioParams, mCallback, FRAMES_PER_RUN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mAudioEngine.releaseAudioEngine();
+    }
+
+    @Benchmark
+    public long captureLoop() {
+        mAudioEngine.startAudioEngine();
+        return mCallback.mChecksum;
+    }
+
+    static class ChecksumCallback implements AudioCallback, ShortFrameCallback, FloatFrameCallback {
+        long mChecksum;
+
+        @Override
+        public void onAudioSetup(boolean result) {
+        }
+
+        @Override
+        public void onAudioStart(boolean result) {
+        }
+
+        @Override
+        public void onAudioFrameAvailable(ByteBuffer inputBuffer, int inputLength, long timestampNanos) {
+            mChecksum += inputBuffer.get(inputLength - 1) + timestampNanos;
+        }
+
+        @Override
+        public void onShortFrameAvailable(short[] samples, int sampleCount, long timestampNanos) {
+            mChecksum += samples[sampleCount - 1] + timestampNanos;
+        }
+
+        @Override
+        public void onFloatFrameAvailable(float[] samples, int sampleCount, long timestampNanos) {
+            mChecksum += (long) samples[sampleCount - 1] + timestampNanos;
+        }
+
+        @Override
+        public void onAudioStop(boolean result) {
+        }
+
+        @Override
+        public void onAudioRelease() {
+        }
+    }
+}
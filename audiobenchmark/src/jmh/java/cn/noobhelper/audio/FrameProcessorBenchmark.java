@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * High-pass, gain, AGC and noise gate over one mono 16-bit frame per call:
+ * {@link FrameProcessor} in a single pass against the same stages run one
+ * after another, each with its own pass over a float copy of the frame, the
+ * way consumers did it in their callbacks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameProcessorBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+
+    @Param({"160", "320", "960"})
+    int frameSamples;
+
+    // whether the chain starts with the high-pass, whose recursion bounds both variants
+    @Param({"true", "false"})
+    boolean highPass;
+
+    private short[] mInput;
+    private short[] mFrame;
+    private FrameProcessor mFrameProcessor;
+    private SequentialChain mSequentialChain;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mInput = new short[frameSamples];
+        mFrame = new short[frameSamples];
+        for (int i = 0; i < frameSamples; i++) {
+            mInput[i] = (short) (1000 + random.nextGaussian() * 3000);
+        }
+        ProcessorChain chain = new ProcessorChain();
+        if (highPass) {
+            chain.addHighPass(100);
+        }
+        chain.addGain(6)
+                .addAgc(-18, 30)
+                .addNoiseGate(-60);
+        mFrameProcessor = new FrameProcessor(chain, SAMPLE_RATE, 1);
+        mSequentialChain = new SequentialChain(frameSamples, highPass);
+    }
+
+    @Benchmark
+    public short[] fused() {
+        System.arraycopy(mInput, 0, mFrame, 0, frameSamples);
+        mFrameProcessor.process(mFrame, 0, frameSamples);
+        return mFrame;
+    }
+
+    @Benchmark
+    public short[] sequential() {
+        System.arraycopy(mInput, 0, mFrame, 0, frameSamples);
+        mSequentialChain.process(mFrame, frameSamples);
+        return mFrame;
+    }
+
+    /**
+     * The same stages as separate passes: convert, filter, gain, measure and
+     * apply AGC, measure and apply the gate, convert back.
+     */
+    static final class SequentialChain {
+        private final float[] mWork;
+        private final boolean mHighPass;
+        private final float mB0;
+        private final float mB1;
+        private final float mB2;
+        private final float mA1;
+        private final float mA2;
+        private final float mGain = (float) Math.pow(10, 6 / 20.0);
+        private final float mAgcTarget = (float) Math.pow(10, -18 / 20.0);
+        private final float mAgcMaxGain = (float) Math.pow(10, 30 / 20.0);
+        private final float mGateThreshold = (float) Math.pow(10, -60 / 20.0);
+        private float mZ1;
+        private float mZ2;
+        private float mAgcGain = 1;
+
+        SequentialChain(int maxSamples, boolean highPass) {
+            mWork = new float[maxSamples];
+            mHighPass = highPass;
+            double w0 = 2 * Math.PI * 100 / SAMPLE_RATE;
+            double cos = Math.cos(w0);
+            double alpha = Math.sin(w0) / (2 * 0.70710678);
+            double a0 = 1 + alpha;
+            mB0 = (float) ((1 + cos) / 2 / a0);
+            mB1 = (float) (-(1 + cos) / a0);
+            mB2 = mB0;
+            mA1 = (float) (-2 * cos / a0);
+            mA2 = (float) ((1 - alpha) / a0);
+        }
+
+        void process(short[] samples, int count) {
+            float[] work = mWork;
+            SampleConverter.shortToFloat(samples, 0, work, 0, count);
+            for (int i = 0; mHighPass && i < count; i++) {
+                float x = work[i];
+                float y = mB0 * x + mZ1;
+                mZ1 = mB1 * x - mA1 * y + mZ2;
+                mZ2 = mB2 * x - mA2 * y;
+                work[i] = y;
+            }
+            for (int i = 0; i < count; i++) {
+                work[i] *= mGain;
+            }
+            float level = rms(work, count);
+            if (level > 0.001f) {
+                float desired = Math.min(mAgcMaxGain, mAgcTarget / level);
+                mAgcGain += (desired - mAgcGain) * 0.1f;
+            }
+            for (int i = 0; i < count; i++) {
+                work[i] *= mAgcGain;
+            }
+            if (rms(work, count) < mGateThreshold) {
+                for (int i = 0; i < count; i++) {
+                    work[i] = 0;
+                }
+            }
+            SampleConverter.floatToShort(work, 0, samples, 0, count);
+        }
+
+        private static float rms(float[] work, int count) {
+            float sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += work[i] * work[i];
+            }
+            return (float) Math.sqrt(sum / count);
+        }
+    }
+}
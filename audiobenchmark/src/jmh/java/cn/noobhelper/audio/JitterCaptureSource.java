@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CaptureSource that behaves like an AudioRecord on a busy device, for
+ * exercising {@link AudioParams#AUTO_TUNE_ON} by hand. 16-bit audio arrives
+ * in real time into a record buffer of the given size, overwriting the oldest
+ * data when the reader falls behind; blocking reads wait for the audio they
+ * ask for. Before some reads the calling thread is stalled for a random
+ * time, as if it had been descheduled.
+ */
+class JitterCaptureSource implements CaptureSource {
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mBufferFrames;
+    private final long mMaxStallNanos;
+    private final double mStallProbability;
+    private final Random mRandom;
+    private volatile long mMaxStallOverrideNanos = -1;
+    private boolean mNonBlocking;
+    private long mStartNanos;
+    private long mConsumedFrames;
+    private long mOverrunFrames;
+    private short mNextSample;
+
+    JitterCaptureSource(int sampleRate, int channelCount, int bufferSizeInBytes, long maxStallNanos,
+                        double stallProbability, long seed) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mBufferFrames = bufferSizeInBytes / (2 * channelCount);
+        mMaxStallNanos = maxStallNanos;
+        mStallProbability = stallProbability;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Changes the longest stall from now on, e.g. to let the device calm
+     * down; negative restores the one given at construction.
+     */
+    void setMaxStallNanos(long maxStallNanos) {
+        mMaxStallOverrideNanos = maxStallNanos;
+    }
+
+    /**
+     * Sample frames lost because the reader was too late.
+     */
+    long getOverrunFrames() {
+        return mOverrunFrames;
+    }
+
+    @Override
+    public boolean start() {
+        mStartNanos = System.nanoTime();
+        mConsumedFrames = 0;
+        return true;
+    }
+
+    @Override
+    public boolean setNonBlocking(boolean nonBlocking) {
+        mNonBlocking = nonBlocking;
+        return true;
+    }
+
+    private int take(int sizeInSamples) {
+        long maxStallNanos = mMaxStallOverrideNanos >= 0 ? mMaxStallOverrideNanos : mMaxStallNanos;
+        if (maxStallNanos > 0 && mRandom.nextDouble() < mStallProbability) {
+            LockSupport.parkNanos((long) (mRandom.nextDouble() * maxStallNanos));
+        }
+        long wanted = sizeInSamples / mChannelCount;
+        while (true) {
+            long dueFrames = (System.nanoTime() - mStartNanos) * mSampleRate / 1000000000L;
+            long available = dueFrames - mConsumedFrames;
+            if (available > mBufferFrames) {
+                mOverrunFrames += available - mBufferFrames;
+                mConsumedFrames += available - mBufferFrames;
+                available = mBufferFrames;
+            }
+            if (available >= wanted || mNonBlocking) {
+                long frames = Math.min(available, wanted);
+                mConsumedFrames += frames;
+                return (int) frames * mChannelCount;
+            }
+            LockSupport.parkNanos((wanted - available) * 1000000000L / mSampleRate);
+        }
+    }
+
+    @Override
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        int sampleCount = take(sizeInBytes / 2);
+        ByteBuffer buffer = ByteBuffer.wrap(audioData, offsetInBytes, sampleCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < sampleCount; i++) {
+            buffer.putShort(mNextSample++);
+        }
+        return sampleCount * 2;
+    }
+
+    @Override
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        int sampleCount = take(Math.min(sizeInBytes, audioBuffer.capacity()) / 2);
+        ByteBuffer buffer = audioBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+        for (int i = 0; i < sampleCount; i++) {
+            buffer.putShort(mNextSample++);
+        }
+        return sampleCount * 2;
+    }
+
+    @Override
+    public int read(short[] audioData, int offsetInShorts, int sizeInShorts) {
+        int sampleCount = take(sizeInShorts);
+        for (int i = 0; i < sampleCount; i++) {
+            audioData[offsetInShorts + i] = mNextSample++;
+        }
+        return sampleCount;
+    }
+
+    @Override
+    public int read(float[] audioData, int offsetInFloats, int sizeInFloats) {
+        return ERROR_INVALID_OPERATION;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public long getTimestampBaseNanos() {
+        return mStartNanos;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}
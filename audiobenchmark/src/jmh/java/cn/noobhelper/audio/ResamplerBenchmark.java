@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link PolyphaseResampler} on one 20 ms mono frame per call, in place as
+ * the engine runs it, for the capture rates devices usually give us.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResamplerBenchmark {
+    @Param({"48000", "44100"})
+    int inputRate;
+
+    @Param({"16000"})
+    int outputRate;
+
+    private short[] mInput;
+    private short[] mFrame;
+    private float[] mFloatInput;
+    private float[] mFloatFrame;
+    private int mSampleCount;
+    private PolyphaseResampler mShortResampler;
+    private PolyphaseResampler mFloatResampler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mSampleCount = inputRate / 50;
+        mShortResampler = new PolyphaseResampler(inputRate, outputRate, 1, mSampleCount);
+        mFloatResampler = new PolyphaseResampler(inputRate, outputRate, 1, mSampleCount);
+        int frameSamples = Math.max(mSampleCount, mShortResampler.getMaxOutputSamples(mSampleCount));
+        mInput = new short[mSampleCount];
+        mFloatInput = new float[mSampleCount];
+        mFrame = new short[frameSamples];
+        mFloatFrame = new float[frameSamples];
+        for (int i = 0; i < mSampleCount; i++) {
+            mInput[i] = (short) random.nextInt();
+            mFloatInput[i] = mInput[i] / 32768.0f;
+        }
+    }
+
+    @Benchmark
+    public short[] resampleShorts() {
+        System.arraycopy(mInput, 0, mFrame, 0, mSampleCount);
+        mShortResampler.process(mFrame, 0, mSampleCount, mFrame, 0);
+        return mFrame;
+    }
+
+    @Benchmark
+    public float[] resampleFloats() {
+        System.arraycopy(mFloatInput, 0, mFloatFrame, 0, mSampleCount);
+        mFloatResampler.process(mFloatFrame, 0, mSampleCount, mFloatFrame, 0);
+        return mFloatFrame;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link SampleConverter} against what consumers did before typed delivery:
+ * a fresh float[] per frame filled through ByteBuffer.getShort(). Frame sizes
+ * are 20 ms at 16/44.1/48 kHz, mono and stereo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleConverterBenchmark {
+    @Param({"320", "640", "882", "1764", "960", "1920"})
+    int sampleCount;
+
+    private short[] mShorts;
+    private float[] mFloats;
+    private ByteBuffer mBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        mShorts = new short[sampleCount];
+        mFloats = new float[sampleCount];
+        mBytes = ByteBuffer.allocate(sampleCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < sampleCount; i++) {
+            mShorts[i] = (short) random.nextInt();
+            mFloats[i] = random.nextFloat() * 2 - 1;
+            mBytes.putShort(mShorts[i]);
+        }
+        mBytes.flip();
+    }
+
+    @Benchmark
+    public float[] shortToFloat() {
+        SampleConverter.shortToFloat(mShorts, 0, mFloats, 0, sampleCount);
+        return mFloats;
+    }
+
+    @Benchmark
+    public short[] floatToShort() {
+        SampleConverter.floatToShort(mFloats, 0, mShorts, 0, sampleCount);
+        return mShorts;
+    }
+
+    @Benchmark
+    public float[] naiveByteBufferToFloat() {
+        float[] samples = new float[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            samples[i] = mBytes.getShort(i * 2) / 32768.0f;
+        }
+        return samples;
+    }
+}
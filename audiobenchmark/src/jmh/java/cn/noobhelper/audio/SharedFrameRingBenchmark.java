@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Handing one 20 ms frame to a consumer: publishing it into a
+ * {@link SharedFrameRing} and reading it back through a
+ * {@link SharedFrameReader}, against the copies a Binder transaction makes,
+ * marshalling into a byte[] and unmarshalling into a fresh buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SharedFrameRingBenchmark {
+    @Param({"16000", "48000"})
+    int sampleRate;
+
+    @Param({"1", "2"})
+    int channelCount;
+
+    private AudioFrame mFrame;
+    private File mFile;
+    private SharedFrameRing mRing;
+    private SharedFrameReader mReader;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        AudioParams audioParams = BenchmarkParams.create(sampleRate, channelCount, 20);
+        int frameSize = audioParams.computeFrameSize();
+        FramePool framePool = new FramePool(frameSize, frameSize / 2, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+        mFrame = framePool.lease();
+        ByteBuffer buffer = mFrame.getBuffer();
+        for (int i = 0; i < frameSize; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        mFrame.set(frameSize, frameSize / 2, 0, 0, 0);
+        mFile = File.createTempFile("ring", ".shm");
+        mRing = SharedFrameRing.create(mFile, audioParams, 16);
+        mReader = SharedFrameReader.open(mFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mReader.close();
+        mRing.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long binderCopies() {
+        ByteBuffer buffer = mFrame.getBuffer();
+        byte[] parcel = new byte[mFrame.getLength()];
+        buffer.get(parcel);
+        buffer.rewind();
+        ByteBuffer received = ByteBuffer.allocate(parcel.length);
+        received.put(parcel);
+        received.flip();
+        return received.getLong(received.limit() - 8);
+    }
+
+    @Benchmark
+    public long sharedRing() {
+        mRing.onAudioFrameAvailable(mFrame);
+        if (!mReader.next()) {
+            throw new IllegalStateException();
+        }
+        ByteBuffer received = mReader.getBuffer();
+        long value = received.getLong(received.limit() - 8);
+        return mReader.isValid() ? value : 0;
+    }
+}
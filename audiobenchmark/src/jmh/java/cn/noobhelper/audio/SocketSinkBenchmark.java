@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Streaming 20 ms frames to a loopback server: {@link SocketSink} against
+ * a blocking socket write of a byte[] copy per frame.
+ *
+ * <p>The throughput benchmarks stream {@link #FRAMES_PER_RUN} frames,
+ * including connecting and waiting until the server has read everything;
+ * scores are per frame. The latency benchmarks deliver one frame on an open
+ * connection and wait for the server to read it, the sink sending every
+ * frame on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SocketSinkBenchmark {
+    static final int FRAMES_PER_RUN = 500;
+
+    @Param({"16000", "48000"})
+    int sampleRate;
+
+    @Param({"20", "100"})
+    int latencyBudgetMs;
+
+    private AudioParams mAudioParams;
+    private AudioFrame mFrame;
+    private LoopbackServer mServer;
+    private SocketSink mLatencySink;
+    private Socket mLatencySocket;
+    private OutputStream mLatencyStream;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mAudioParams = BenchmarkParams.create(sampleRate, 1, 20);
+        int frameSize = mAudioParams.computeFrameSize();
+        FramePool framePool = new FramePool(frameSize, frameSize / 2, FramePool.BUFFER_HEAP, 1, 1,
+                AudioParams.POOL_POLICY_DROP_NEWEST);
+        mFrame = framePool.lease();
+        ByteBuffer buffer = mFrame.getBuffer();
+        for (int i = 0; i < frameSize; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        mFrame.set(frameSize, frameSize / 2, 0, 0, 0);
+        mServer = new LoopbackServer();
+
+        mLatencySink = new SocketSink(mServer.getAddress(), mAudioParams, 0, 16);
+        mLatencySink.start();
+        mServer.await(SocketSink.STREAM_HEADER_SIZE);
+        mLatencySocket = new Socket();
+        mLatencySocket.setTcpNoDelay(true);
+        mLatencySocket.connect(mServer.getAddress());
+        mLatencyStream = mLatencySocket.getOutputStream();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mLatencySink.stop();
+        mLatencySocket.close();
+        mServer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_RUN)
+    public long blockingStreamThroughput() throws IOException {
+        long expected = mServer.getReceivedBytes() + (long) FRAMES_PER_RUN * mFrame.getLength();
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(mServer.getAddress());
+        OutputStream outputStream = socket.getOutputStream();
+        for (int i = 0; i < FRAMES_PER_RUN; i++) {
+            outputStream.write(copyFrame());
+        }
+        socket.close();
+        mServer.await(expected);
+        return expected;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_RUN)
+    public long socketSinkThroughput() throws IOException {
+        long start = mServer.getReceivedBytes();
+        SocketSink sink = new SocketSink(mServer.getAddress(), mAudioParams, latencyBudgetMs, FRAMES_PER_RUN);
+        sink.start();
+        for (int i = 0; i < FRAMES_PER_RUN; i++) {
+            sink.onAudioFrameAvailable(mFrame);
+        }
+        sink.stop();
+        if (sink.getDroppedBytes() != 0) {
+            throw new IllegalStateException("dropped " + sink.getDroppedBytes() + " bytes");
+        }
+        long expected = start + SocketSink.STREAM_HEADER_SIZE + sink.getSentBytes()
+                + sink.getSentPackets() * SocketSink.PACKET_HEADER_SIZE;
+        mServer.await(expected);
+        return expected;
+    }
+
+    @Benchmark
+    public long blockingStreamLatency() throws IOException {
+        long expected = mServer.getReceivedBytes() + mFrame.getLength();
+        mLatencyStream.write(copyFrame());
+        mServer.await(expected);
+        return expected;
+    }
+
+    @Benchmark
+    public long socketSinkLatency() {
+        long expected = mServer.getReceivedBytes() + mFrame.getLength() + SocketSink.PACKET_HEADER_SIZE;
+        mLatencySink.onAudioFrameAvailable(mFrame);
+        mServer.await(expected);
+        return expected;
+    }
+
+    private byte[] copyFrame() {
+        ByteBuffer buffer = mFrame.getBuffer();
+        byte[] data = new byte[mFrame.getLength()];
+        buffer.get(data);
+        buffer.rewind();
+        return data;
+    }
+
+    /**
+     * Accepts any number of connections and counts the bytes read from all
+     * of them.
+     */
+    private static final class LoopbackServer implements Runnable {
+        private final ServerSocket mServerSocket;
+        private final AtomicLong mReceivedBytes = new AtomicLong();
+
+        LoopbackServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "LoopbackServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress getAddress() {
+            return new InetSocketAddress(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+        }
+
+        long getReceivedBytes() {
+            return mReceivedBytes.get();
+        }
+
+        void await(long receivedBytes) {
+            while (mReceivedBytes.get() < receivedBytes) {
+                Thread.yield();
+            }
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        byte[] data = new byte[64 * 1024];
+                        try {
+                            InputStream inputStream = socket.getInputStream();
+                            int count;
+                            while ((count = inputStream.read(data)) > 0) {
+                                mReceivedBytes.addAndGet(count);
+                            }
+                            socket.close();
+                        } catch (IOException e) {
+                            // connection closed by the benchmark
+                        }
+                    }
+                }, "LoopbackReader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 NoobHerlper (http://noobhelper.cn)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.noobhelper.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CaptureSource that replays one second of a pre-rendered sine tone, so the
+ * engine loop can run on a plain JVM. Each read costs one copy, like
+ * AudioRecord copying out of its shared buffer. After {@code framesPerRun}
+ * reads the engine is stopped, so one {@link AudioEngine#startAudioEngine()}
+ * call captures exactly that many frames.
+ */
+class SyntheticCaptureSource implements CaptureSource {
+    private final int mSampleRate;
+    private final byte[] mPcmBytes;
+    private final short[] mPcmShorts;
+    private final float[] mPcmFloats;
+    private final int mFramesPerRun;
+    private AudioEngine mAudioEngine;
+    private int mFramesLeft;
+    private int mPosition;
+
+    SyntheticCaptureSource(int sampleRate, int channelCount, int framesPerRun) {
+        mSampleRate = sampleRate;
+        mFramesPerRun = framesPerRun;
+        int sampleCount = sampleRate * channelCount;
+        mPcmShorts = new short[sampleCount];
+        mPcmFloats = new float[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            double phase = 2 * Math.PI * 440 * (i / channelCount) / sampleRate;
+            mPcmFloats[i] = (float) (0.5 * Math.sin(phase));
+            mPcmShorts[i] = (short) (mPcmFloats[i] * 32767);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(sampleCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(mPcmShorts);
+        mPcmBytes = bytes.array();
+    }
+
+    void attach(AudioEngine audioEngine) {
+        mAudioEngine = audioEngine;
+    }
+
+    @Override
+    public boolean start() {
+        mFramesLeft = mFramesPerRun;
+        return true;
+    }
+
+    /**
+     * Reads never block, the data is always there.
+     */
+    @Override
+    public boolean setNonBlocking(boolean nonBlocking) {
+        return true;
+    }
+
+    private int next(int size, int length) {
+        if (--mFramesLeft <= 0) {
+            mAudioEngine.stopAudioEngine();
+        }
+        int offset = mPosition;
+        if (offset + size > length) {
+            offset = 0;
+        }
+        mPosition = offset + size;
+        return offset;
+    }
+
+    @Override
+    public int read(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        int offset = next(sizeInBytes, mPcmBytes.length);
+        System.arraycopy(mPcmBytes, offset, audioData, offsetInBytes, sizeInBytes);
+        return sizeInBytes;
+    }
+
+    @Override
+    public int read(ByteBuffer audioBuffer, int sizeInBytes) {
+        int offset = next(sizeInBytes, mPcmBytes.length);
+        int position = audioBuffer.position();
+        audioBuffer.put(mPcmBytes, offset, sizeInBytes);
+        audioBuffer.position(position);
+        return sizeInBytes;
+    }
+
+    @Override
+    public int read(short[] audioData, int offsetInShorts, int sizeInShorts) {
+        int offset = next(sizeInShorts, mPcmShorts.length);
+        System.arraycopy(mPcmShorts, offset, audioData, offsetInShorts, sizeInShorts);
+        return sizeInShorts;
+    }
+
+    @Override
+    public int read(float[] audioData, int offsetInFloats, int sizeInFloats) {
+        int offset = next(sizeInFloats, mPcmFloats.length);
+        System.arraycopy(mPcmFloats, offset, audioData, offsetInFloats, sizeInFloats);
+        return sizeInFloats;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public long getTimestampBaseNanos() {
+        return 0;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void release() {
+    }
+}